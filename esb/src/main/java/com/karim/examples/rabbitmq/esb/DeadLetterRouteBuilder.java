@@ -0,0 +1,52 @@
+package com.karim.examples.rabbitmq.esb;
+
+import org.apache.camel.LoggingLevel;
+import org.apache.camel.builder.RouteBuilder;
+
+import com.karim.examples.rabbitmq.common.enums.MessageHeaderEnum;
+
+/**
+ * Camel route logging the dead-letter messages, so the origin system administrator can be
+ * notified about the messages exceeded the requeue limit.
+ * 
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public class DeadLetterRouteBuilder extends RouteBuilder {
+	// Queue of the messages exceeded the requeue limit
+	public static final String DEAD_LETTER_QUEUE = "companyName.global.qu.dead-letter";
+	
+	private final String host;
+	private final int port;
+	private final String username;
+	private final String password;
+	private final String vHost;
+	
+	public DeadLetterRouteBuilder(String host, int port, String username, String password, String vHost) {
+		this.host = host;
+		this.port = port;
+		this.username = username;
+		this.password = password;
+		this.vHost = vHost;
+	}
+	
+	@Override
+	public void configure() throws Exception {
+		// The installer declares the queues, so the route doesn't declare them
+		from("rabbitmq:" + host + ":" + port + "/" + RequeueProcessor.DEAD_LETTER_EXCHANGE
+				+ "?queue=" + DEAD_LETTER_QUEUE
+				+ "&vhost=" + vHost
+				+ "&username=" + username
+				+ "&password=RAW(" + password + ")"
+				+ "&declare=false"
+				+ "&autoAck=false")
+			.routeId("dead-letter-log")
+			.log(LoggingLevel.ERROR, DeadLetterRouteBuilder.class.getName(),
+					"Dead-letter message: ${header.rabbitmq.MESSAGE_ID}"
+					+ ", origin exchange: ${header." + MessageHeaderEnum.EJ_ORIGIN_ECHANGE_NAME.name() + "}"
+					+ ", origin routing key: ${header." + MessageHeaderEnum.EJ_ORIGIN_ROUTING_KEY.name() + "}"
+					+ ", requeue count: ${header." + MessageHeaderEnum.EJ_REQUEUE_COUNT.name() + "}"
+					+ ", exception: ${header." + MessageHeaderEnum.EJ_REQUEUE_EXCEPTION.name() + "}"
+					+ ", body: ${body}");
+	}
+}
@@ -0,0 +1,64 @@
+package com.karim.examples.rabbitmq.esb;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.impl.DefaultCamelContext;
+
+import com.rabbitmq.client.ConnectionFactory;
+
+
+public class Main {
+	// Default no of parallel requeue workers
+	private static final int DEFAULT_NO_OF_WORKERS = 4;
+	// Default no of requeues before the message considered dead-letter
+	private static final int DEFAULT_MAX_REQUEUE_COUNT = 5;
+	// Messages waiting for a republish confirm per worker
+	private static final int PREFETCH_COUNT = 500;
+
+	public static void main(String[] args) throws Exception {
+		if(args.length < 5) {
+			System.err.println("Input invalid.");
+			System.err.println("Paramters: host port username password vHost (noOfWorkers) (maxRequeueCount)");
+			System.exit(0);
+		}
+		
+		String host = args[0];
+		int port = Integer.parseInt(args[1]);
+		
+		String username = args[2];
+		String password = args[3];
+		
+		String vHost = args[4];
+		
+		int noOfWorkers = args.length > 5? Integer.parseInt(args[5]) : DEFAULT_NO_OF_WORKERS;
+		int maxRequeueCount = args.length > 6? Integer.parseInt(args[6]) : DEFAULT_MAX_REQUEUE_COUNT;
+		
+		ConnectionFactory connectionFactory = new ConnectionFactory();
+		connectionFactory.setHost(host);
+		connectionFactory.setPort(port);
+		connectionFactory.setUsername(username);
+		connectionFactory.setPassword(password);
+		connectionFactory.setVirtualHost(vHost);
+		
+		RequeueProcessor requeueProcessor = new RequeueProcessor(connectionFactory, noOfWorkers, PREFETCH_COUNT, maxRequeueCount);
+		CamelContext camelContext = new DefaultCamelContext();
+		camelContext.addRoutes(new DeadLetterRouteBuilder(host, port, username, password, vHost));
+		
+		CountDownLatch stopped = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			requeueProcessor.stop();
+			try {
+				camelContext.stop();
+			} catch (Exception e) {
+				System.err.println("Error during stopping the dead-letter route: " + e.getMessage());
+			}
+			stopped.countDown();
+		}));
+		
+		requeueProcessor.start();
+		camelContext.start();
+		
+		stopped.await();
+	}
+}
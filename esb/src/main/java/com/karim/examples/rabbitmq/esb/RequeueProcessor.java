@@ -0,0 +1,310 @@
+package com.karim.examples.rabbitmq.esb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.karim.examples.rabbitmq.common.enums.MessageHeaderEnum;
+import com.karim.examples.rabbitmq.connector.util.Log4j;
+import com.karim.examples.rabbitmq.connector.util.NamedThreadFactory;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ReturnListener;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * Consume the delayed failed messages from the requeue queue, increment their requeue count
+ * and republish them to their origin exchange and routing key, or to the dead-letter queue
+ * once the requeue count exceeds the limit.
+ *
+ * Each worker has its own channel in confirm mode. The republished messages are confirmed
+ * asynchronously and the requeue deliveries are acknowledged once their confirms arrive, in
+ * batches (multiple acknowledge) when the confirms arrive in order. The prefetch count bounds
+ * the no of messages waiting for a confirm per worker.
+ *
+ * The broker acks the unroutable messages after returning them, so a message returned by its
+ * origin, e.g. a removed app pair, is republished to the dead-letter exchange and its requeue
+ * delivery acknowledged once that republish is confirmed. A message returned by the
+ * dead-letter exchange is rejected, and delayed again through the requeue queue dead-letter
+ * exchange. The returns are matched to their publish by the EJ_REQUEUE_PUBLISH_SEQ header.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class RequeueProcessor {
+	// Queue of the messages to be requeued
+	public static final String REQUEUE_QUEUE = "companyName.global.qu.requeue";
+	// Exchange of the dead-letter queue
+	public static final String DEAD_LETTER_EXCHANGE = "companyName.global.ex.dead-letter";
+	// Routing key of the dead-letter queue
+	public static final String DEAD_LETTER_ROUTING_KEY = "dead-letter";
+
+	// Connection factory of the broker
+	private final ConnectionFactory _connectionFactory;
+	// No of parallel workers, each worker has its own channel
+	private final int _noOfWorkers;
+	// Messages waiting for a confirm per worker
+	private final int _prefetchCount;
+	// No of requeues before the message is considered dead-letter
+	private final int _maxRequeueCount;
+
+	// Workers deliveries dispatch threads
+	private ExecutorService _executorService;
+	private Connection _connection;
+	private final List<Worker> _workers = new ArrayList<>();
+
+	/**
+	 * @param connectionFactory	the broker connection factory
+	 * @param noOfWorkers		no of parallel workers
+	 * @param prefetchCount		no of unacknowledged messages per worker
+	 * @param maxRequeueCount	no of requeues before the message is considered dead-letter
+	 */
+	public RequeueProcessor(ConnectionFactory connectionFactory, int noOfWorkers, int prefetchCount, int maxRequeueCount) {
+		this._connectionFactory = connectionFactory;
+		this._noOfWorkers = noOfWorkers;
+		this._prefetchCount = prefetchCount;
+		this._maxRequeueCount = maxRequeueCount;
+	}
+
+	/**
+	 * Open the connection and start the workers
+	 *
+	 * @throws IOException if the connection or a worker channel can't be opened
+	 * @throws TimeoutException if the connection timed out
+	 */
+	public synchronized void start() throws IOException, TimeoutException {
+		_executorService = Executors.newFixedThreadPool(_noOfWorkers, new NamedThreadFactory("esb-requeue"));
+		_connection = _connectionFactory.newConnection(_executorService, "esb-requeue");
+
+		for(int i = 0; i < _noOfWorkers; i++) {
+			Channel channel = _connection.createChannel();
+			channel.basicQos(_prefetchCount);
+			channel.confirmSelect();
+
+			Worker worker = new Worker(channel);
+			channel.addConfirmListener(worker);
+			channel.addReturnListener(worker);
+			channel.basicConsume(REQUEUE_QUEUE, false, worker);
+			_workers.add(worker);
+		}
+
+		Log4j.traceInfo(RequeueProcessor.class, "Requeue processor started with {} workers", _noOfWorkers);
+	}
+
+	/**
+	 * Close the connection, the unacknowledged messages are delivered again to the next
+	 * started processor.
+	 */
+	public synchronized void stop() {
+		try {
+			if(_connection != null && _connection.isOpen())
+				_connection.close();
+		} catch (IOException e) {
+			Log4j.traceErrorException(RequeueProcessor.class, e, "Error during closing the requeue connection");
+		} finally {
+			_connection = null;
+			_workers.clear();
+		}
+
+		if(_executorService != null) {
+			_executorService.shutdownNow();
+			try {
+				if(!_executorService.awaitTermination(2, TimeUnit.SECONDS))
+					Log4j.traceError(RequeueProcessor.class, "Not all thread closed properly in the executor thread.");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			_executorService = null;
+		}
+	}
+
+	/**
+	 * @param value the header value
+	 * @return the header as integer, zero if it's not a valid number
+	 */
+	private static int toInt(Object value) {
+		if(value instanceof Number)
+			return ((Number) value).intValue();
+
+		if(value != null) {
+			try {
+				return Integer.parseInt(value.toString());
+			} catch(NumberFormatException e) {
+				// Consider it as not requeued before
+			}
+		}
+		return 0;
+	}
+
+	////////////////////////////////////////
+	/**
+	 * Consume the requeue queue on a channel and acknowledge the deliveries once their
+	 * republish confirmed.
+	 */
+	private final class Worker extends DefaultConsumer implements ConfirmListener, ReturnListener {
+		// Requeue delivery tags waiting for the republish confirm by publish sequence number
+		private final ConcurrentNavigableMap<Long, Long> _outstandingConfirms = new ConcurrentSkipListMap<>();
+		// Requeue delivery tags not acknowledged nor rejected yet, a multiple acknowledge must not cover them
+		private final ConcurrentSkipListSet<Long> _pendingDeliveries = new ConcurrentSkipListSet<>();
+
+		Worker(Channel channel) {
+			super(channel);
+		}
+
+		@Override
+		public void handleDelivery(String consumerTag,
+				Envelope envelope,
+				AMQP.BasicProperties properties,
+				byte[] body) throws IOException {
+			Map<String, Object> headers = properties.getHeaders() == null?
+					new HashMap<String, Object>()
+					: new HashMap<String, Object>(properties.getHeaders());
+
+			int requeueCount = toInt(headers.get(MessageHeaderEnum.EJ_REQUEUE_COUNT.name())) + 1;
+			headers.put(MessageHeaderEnum.EJ_REQUEUE_COUNT.name(), requeueCount);
+
+			Object originExchange = headers.get(MessageHeaderEnum.EJ_ORIGIN_ECHANGE_NAME.name());
+			Object originRoutingKey = headers.get(MessageHeaderEnum.EJ_ORIGIN_ROUTING_KEY.name());
+
+			String exchange = DEAD_LETTER_EXCHANGE;
+			String routingKey = DEAD_LETTER_ROUTING_KEY;
+			if(requeueCount <= _maxRequeueCount && originExchange != null && originRoutingKey != null) {
+				exchange = originExchange.toString();
+				routingKey = originRoutingKey.toString();
+			}
+
+			_pendingDeliveries.add(envelope.getDeliveryTag());
+			try {
+				publish(envelope.getDeliveryTag(), exchange, routingKey, properties, headers, body);
+			} catch(IOException e) {
+				Log4j.traceErrorException(RequeueProcessor.class, e,
+						"Problem during requeue the message: {}", properties.getMessageId());
+
+				// Delay it again through the requeue queue dead-letter exchange
+				_outstandingConfirms.values().remove(envelope.getDeliveryTag());
+				reject(envelope.getDeliveryTag());
+			}
+		}
+
+		/**
+		 * Publish a requeued message, the sequence number and the publish are atomic as the
+		 * returned messages are republished by the connection thread.
+		 */
+		private synchronized void publish(long deliveryTag,
+				String exchange,
+				String routingKey,
+				AMQP.BasicProperties properties,
+				Map<String, Object> headers,
+				byte[] body) throws IOException {
+			long seqNo = getChannel().getNextPublishSeqNo();
+			headers.put(MessageHeaderEnum.EJ_REQUEUE_PUBLISH_SEQ.name(), seqNo);
+			_outstandingConfirms.put(seqNo, deliveryTag);
+			getChannel().basicPublish(exchange, routingKey, true,
+					properties.builder().headers(headers).build(),
+					body);
+		}
+
+		@Override
+		public void handleReturn(int replyCode,
+				String replyText,
+				String exchange,
+				String routingKey,
+				AMQP.BasicProperties properties,
+				byte[] body) throws IOException {
+			Map<String, Object> headers = properties.getHeaders() == null?
+					new HashMap<String, Object>()
+					: new HashMap<String, Object>(properties.getHeaders());
+			Object seqNo = headers.get(MessageHeaderEnum.EJ_REQUEUE_PUBLISH_SEQ.name());
+			// The return is received before the confirm, the delivery isn't acknowledged yet
+			Long deliveryTag = seqNo instanceof Number? _outstandingConfirms.remove(((Number) seqNo).longValue()) : null;
+			if(deliveryTag == null)
+				return;
+
+			if(DEAD_LETTER_EXCHANGE.equals(exchange)) {
+				Log4j.traceError(RequeueProcessor.class,
+						"Dead-letter message {} returned, no routing key '{}' in exchange '{}', delayed again",
+						properties.getMessageId(), routingKey, exchange);
+				reject(deliveryTag);
+				return;
+			}
+
+			Log4j.traceError(RequeueProcessor.class,
+					"Requeued message {} returned, no routing key '{}' in exchange '{}', sent to the dead-letter",
+					properties.getMessageId(), routingKey, exchange);
+			try {
+				publish(deliveryTag, DEAD_LETTER_EXCHANGE, DEAD_LETTER_ROUTING_KEY, properties, headers, body);
+			} catch(IOException e) {
+				Log4j.traceErrorException(RequeueProcessor.class, e,
+						"Problem during dead-letter the message: {}", properties.getMessageId());
+				reject(deliveryTag);
+			}
+		}
+
+		@Override
+		public void handleAck(long seqNo, boolean multiple) throws IOException {
+			ConcurrentNavigableMap<Long, Long> confirmed = multiple?
+					_outstandingConfirms.headMap(seqNo, true)
+					: _outstandingConfirms.subMap(seqNo, true, seqNo, true);
+			if(confirmed.isEmpty())
+				return;
+
+			List<Long> deliveryTags = new ArrayList<>(confirmed.values());
+			confirmed.clear();
+			_pendingDeliveries.removeAll(deliveryTags);
+			long lastDeliveryTag = 0;
+			for(Long deliveryTag : deliveryTags)
+				lastDeliveryTag = Math.max(lastDeliveryTag, deliveryTag);
+
+			// No delivery before the last confirmed one is pending, e.g. sent to the dead-letter, ack them at once
+			Long firstPending = _pendingDeliveries.isEmpty()? null : _pendingDeliveries.first();
+			if(firstPending == null || firstPending > lastDeliveryTag) {
+				getChannel().basicAck(lastDeliveryTag, true);
+			} else {
+				for(Long deliveryTag : deliveryTags)
+					getChannel().basicAck(deliveryTag, false);
+			}
+		}
+
+		@Override
+		public void handleNack(long seqNo, boolean multiple) throws IOException {
+			ConcurrentNavigableMap<Long, Long> nacked = multiple?
+					_outstandingConfirms.headMap(seqNo, true)
+					: _outstandingConfirms.subMap(seqNo, true, seqNo, true);
+
+			// Delay them again through the requeue queue dead-letter exchange
+			for(Long deliveryTag : nacked.values()) {
+				reject(deliveryTag);
+			}
+			nacked.clear();
+		}
+
+		private void reject(long deliveryTag) throws IOException {
+			_pendingDeliveries.remove(deliveryTag);
+			if(getChannel().isOpen())
+				getChannel().basicReject(deliveryTag, false);
+		}
+
+		@Override
+		public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+			// The unacknowledged deliveries will be redelivered and the sequence numbers reset
+			_outstandingConfirms.clear();
+			_pendingDeliveries.clear();
+			if(!sig.isInitiatedByApplication())
+				Log4j.traceErrorException(RequeueProcessor.class, sig, "Requeue channel shut down: {}", sig.getMessage());
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.karim.examples.rabbitmq.mock.perf;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.karim.examples.rabbitmq.connector.metrics.HistogramSnapshot;
+import com.karim.examples.rabbitmq.connector.metrics.LatencyHistogram;
+
+/**
+ * Latencies of the current report interval and of the whole test. The interval histogram is
+ * replaced by a new one at each report, and the report waits for the values being recorded
+ * into the replaced histogram before taking its snapshot, so every value is counted in
+ * exactly one interval.
+ *
+ * The recorders announce themselves on the histogram they record into and check it is still
+ * the current one, as the writer side of a writer/reader phaser, so the recording doesn't
+ * take a lock.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class IntervalHistogram {
+	private final AtomicReference<Interval> _interval = new AtomicReference<>(new Interval());
+	private final LatencyHistogram _total = new LatencyHistogram();
+
+	/**
+	 * @param nanos the latency in nanoseconds
+	 */
+	void record(long nanos) {
+		while(true) {
+			Interval interval = _interval.get();
+			interval.writers.incrementAndGet();
+			try {
+				// Replaced before announced, the report may have already taken its snapshot
+				if(interval != _interval.get())
+					continue;
+
+				interval.histogram.record(nanos);
+				break;
+			} finally {
+				interval.writers.decrementAndGet();
+			}
+		}
+		_total.record(nanos);
+	}
+
+	/**
+	 * @return the latencies recorded since the previous call, starting a new interval
+	 */
+	HistogramSnapshot nextInterval() {
+		Interval interval = _interval.getAndSet(new Interval());
+		// Wait for the values being recorded into the replaced histogram
+		while(interval.writers.get() != 0)
+			Thread.yield();
+		return interval.histogram.snapshot();
+	}
+
+	/**
+	 * @return the latencies recorded since the start of the test
+	 */
+	HistogramSnapshot total() {
+		return _total.snapshot();
+	}
+
+	////////////////////////////////////////
+	private static final class Interval {
+		private final LatencyHistogram histogram = new LatencyHistogram();
+		// Recorders in progress on the histogram
+		private final AtomicInteger writers = new AtomicInteger();
+	}
+}
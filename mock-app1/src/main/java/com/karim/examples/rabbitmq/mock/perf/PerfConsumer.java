@@ -0,0 +1,38 @@
+package com.karim.examples.rabbitmq.mock.perf;
+
+import java.util.Map;
+
+import com.karim.examples.rabbitmq.connector.MessageHandler;
+import com.karim.examples.rabbitmq.connector.util.EpochClock;
+
+/**
+ * Handles the consumed messages of the load test, recording their latency from the intended
+ * send time, and replies by the message itself in rpc mode. The producers and consumers on
+ * different hosts need synchronized clocks for the latency to be meaningful.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class PerfConsumer<E> implements MessageHandler<E, E> {
+	private final PerfStats _stats;
+	private final boolean _rpc;
+
+	/**
+	 * @param stats	the load test stats
+	 * @param rpc	true to reply by the message
+	 */
+	PerfConsumer(PerfStats stats, boolean rpc) {
+		this._stats = stats;
+		this._rpc = rpc;
+	}
+
+	@Override
+	public E handleDelivery(E message, Map<String, Object> headers) {
+		Object sendTime = headers.get(PerfStats.SEND_TIME_HEADER);
+		if(sendTime instanceof Number)
+			_stats.consumerLatency.record((EpochClock.currentTimeMicros() - ((Number) sendTime).longValue()) * 1000);
+		_stats.received.increment();
+
+		return _rpc? message : null;
+	}
+}
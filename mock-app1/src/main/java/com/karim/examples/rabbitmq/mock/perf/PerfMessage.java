@@ -0,0 +1,57 @@
+package com.karim.examples.rabbitmq.mock.perf;
+
+import java.util.Arrays;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Message object of the load test, marshaled to JSON or XML.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+@XmlRootElement(name = "perfMessage")
+public class PerfMessage {
+	private int producer;
+	private long sequence;
+	private String content;
+
+	public PerfMessage() {
+	}
+
+	/**
+	 * @param producer		the producer no
+	 * @param contentSize	the no of characters of the content
+	 */
+	PerfMessage(int producer, int contentSize) {
+		char[] content = new char[contentSize];
+		Arrays.fill(content, 'x');
+
+		this.producer = producer;
+		this.content = new String(content);
+	}
+
+	public int getProducer() {
+		return producer;
+	}
+
+	public void setProducer(int producer) {
+		this.producer = producer;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	public String getContent() {
+		return content;
+	}
+
+	public void setContent(String content) {
+		this.content = content;
+	}
+}
@@ -0,0 +1,154 @@
+package com.karim.examples.rabbitmq.mock.perf;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.karim.examples.rabbitmq.common.enums.ConfirmModeEnum;
+import com.karim.examples.rabbitmq.common.enums.ContentTypeEnum;
+
+/**
+ * Options of the load test, the connection parameters followed by optional
+ * <code>name=value</code> options.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class PerfOptions {
+	static final String USAGE =
+			"Paramters: host port username password vHost (name=value options)\n"
+			+ "Options:\n"
+			+ "\tproducers\t\tno of producer threads, default " + PerfOptions.DEFAULT_PRODUCERS + "\n"
+			+ "\tconsumers\t\tno of consumers, default " + PerfOptions.DEFAULT_CONSUMERS + "\n"
+			+ "\trate\t\t\ttarget messages per second of all the producers, 0 for max rate, default 0\n"
+			+ "\tsize\t\t\tmessage content size in characters, default " + PerfOptions.DEFAULT_SIZE + "\n"
+			+ "\tcontentType\t\tTEXT_JSON, TEXT_XML or TEXT_PLAIN, default TEXT_JSON\n"
+			+ "\tconfirmMode\t\tSYNC or NONE, default SYNC\n"
+			+ "\trpc\t\t\ttrue to wait for the consumer reply of each message, default false\n"
+			+ "\tprefetch\t\tconsumer prefetch count, default " + PerfOptions.DEFAULT_PREFETCH + "\n"
+			+ "\tqueue\t\t\tthe consumed queue, default " + PerfOptions.DEFAULT_QUEUE + "\n"
+			+ "\texchange\t\tthe exchange to publish to, default the default exchange\n"
+			+ "\troutingKey\t\tthe routing key, default the queue name\n"
+			+ "\tdeclare\t\t\ttrue to declare the queue and bind it to the exchange, default true\n"
+			+ "\tduration\t\ttest duration in seconds, default " + PerfOptions.DEFAULT_DURATION + "\n"
+			+ "\tinterval\t\treport interval in seconds, default " + PerfOptions.DEFAULT_INTERVAL + "\n"
+			+ "\toutput\t\t\tresults files path without extension, .csv and .json are written";
+
+	// Defaults
+	static final int DEFAULT_PRODUCERS = 1;
+	static final int DEFAULT_CONSUMERS = 1;
+	static final int DEFAULT_SIZE = 1024;
+	static final int DEFAULT_PREFETCH = 100;
+	static final String DEFAULT_QUEUE = "perf-test";
+	static final int DEFAULT_DURATION = 60;
+	static final int DEFAULT_INTERVAL = 1;
+
+	// Connection parameters
+	final String host;
+	final int port;
+	final String username;
+	final String password;
+	final String vHost;
+
+	int producers = DEFAULT_PRODUCERS;
+	int consumers = DEFAULT_CONSUMERS;
+	// Target rate of all the producers, 0 for max rate
+	int rate;
+	int size = DEFAULT_SIZE;
+	ContentTypeEnum contentType = ContentTypeEnum.TEXT_JSON;
+	ConfirmModeEnum confirmMode = ConfirmModeEnum.SYNC;
+	boolean rpc;
+	int prefetch = DEFAULT_PREFETCH;
+	String queue = DEFAULT_QUEUE;
+	String exchange = "";
+	String routingKey;
+	boolean declare = true;
+	int duration = DEFAULT_DURATION;
+	int interval = DEFAULT_INTERVAL;
+	String output;
+
+	private PerfOptions(String[] args) {
+		this.host = args[0];
+		this.port = Integer.parseInt(args[1]);
+		this.username = args[2];
+		this.password = args[3];
+		this.vHost = args[4];
+	}
+
+	/**
+	 * @param args the command line arguments
+	 * @return the parsed options
+	 * @throws IllegalArgumentException if the arguments are invalid
+	 */
+	static PerfOptions parse(String[] args) {
+		if(args.length < 5)
+			throw new IllegalArgumentException("Input invalid.");
+
+		PerfOptions options;
+		try {
+			options = new PerfOptions(args);
+			for(int i = 5; i < args.length; i++) {
+				int separator = args[i].indexOf('=');
+				if(separator < 1)
+					throw new IllegalArgumentException("Invalid option: " + args[i]);
+				options.set(args[i].substring(0, separator), args[i].substring(separator + 1));
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number: " + e.getMessage(), e);
+		}
+
+		if(options.routingKey == null)
+			options.routingKey = options.exchange.isEmpty()? options.queue : "";
+		if(options.producers < 0 || options.consumers < 0 || options.rate < 0 || options.size < 0
+				|| options.prefetch < 0 || options.duration < 1 || options.interval < 1)
+			throw new IllegalArgumentException("The numbers must be positive.");
+		if(options.rpc && options.consumers == 0)
+			throw new IllegalArgumentException("The rpc mode needs consumers to reply.");
+		return options;
+	}
+
+	private void set(String name, String value) {
+		switch (name) {
+		case "producers":	producers = Integer.parseInt(value); break;
+		case "consumers":	consumers = Integer.parseInt(value); break;
+		case "rate":		rate = Integer.parseInt(value); break;
+		case "size":		size = Integer.parseInt(value); break;
+		case "contentType":	contentType = ContentTypeEnum.valueOf(value); break;
+		case "confirmMode":	confirmMode = ConfirmModeEnum.valueOf(value); break;
+		case "rpc":			rpc = Boolean.parseBoolean(value); break;
+		case "prefetch":	prefetch = Integer.parseInt(value); break;
+		case "queue":		queue = value; break;
+		case "exchange":	exchange = value; break;
+		case "routingKey":	routingKey = value; break;
+		case "declare":		declare = Boolean.parseBoolean(value); break;
+		case "duration":	duration = Integer.parseInt(value); break;
+		case "interval":	interval = Integer.parseInt(value); break;
+		case "output":		output = value; break;
+		default:
+			throw new IllegalArgumentException("Unknown option: " + name);
+		}
+	}
+
+	/**
+	 * @return the options exported with the results, without the credentials
+	 */
+	Map<String, Object> toMap() {
+		Map<String, Object> options = new LinkedHashMap<>();
+		options.put("host", host);
+		options.put("port", port);
+		options.put("vHost", vHost);
+		options.put("producers", producers);
+		options.put("consumers", consumers);
+		options.put("rate", rate);
+		options.put("size", size);
+		options.put("contentType", contentType);
+		options.put("confirmMode", confirmMode);
+		options.put("rpc", rpc);
+		options.put("prefetch", prefetch);
+		options.put("queue", queue);
+		options.put("exchange", exchange);
+		options.put("routingKey", routingKey);
+		options.put("duration", duration);
+		options.put("interval", interval);
+		return options;
+	}
+}
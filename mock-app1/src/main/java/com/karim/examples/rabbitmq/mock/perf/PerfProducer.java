@@ -0,0 +1,129 @@
+package com.karim.examples.rabbitmq.mock.perf;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.karim.examples.rabbitmq.common.enums.ContentTypeEnum;
+import com.karim.examples.rabbitmq.connector.AMQPService;
+import com.karim.examples.rabbitmq.connector.configures.ProducerConfigurer;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.karim.examples.rabbitmq.connector.exceptions.JAXBCustomException;
+import com.karim.examples.rabbitmq.connector.exceptions.JSONCustomException;
+
+/**
+ * Publishes the messages of a producer thread, at its share of the target rate or as fast
+ * as possible. With a target rate, each message has an intended send time on a fixed
+ * schedule, and a late message is sent immediately without shifting the schedule, so its
+ * latency includes the delay.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class PerfProducer implements Runnable {
+	// Max wait for a reply in rpc mode
+	private static final long WAIT_FOR_REPLY_TIMEOUT = 30;
+
+	private final AMQPService _service;
+	private final ProducerConfigurer _producerConfigurer;
+	private final boolean _rpc;
+	private final PerfStats _stats;
+	private final Object _message;
+
+	// Clock anchor shared by the producers to convert the intended send time to the epoch
+	private final long _startNanos;
+	private final long _startEpochMicros;
+	// Intended send time of the first message and the time between the messages, 0 for max rate
+	private final long _firstSendNanos;
+	private final long _intervalNanos;
+
+	private volatile boolean _stopped;
+
+	/**
+	 * @param service				the service to publish by
+	 * @param producerConfigurer	the producer configuration
+	 * @param options				the load test options
+	 * @param producerNo			the producer no, from 0
+	 * @param stats					the load test stats
+	 * @param startNanos			the test start time from {@link System#nanoTime()}
+	 * @param startEpochMicros		the test start time in microseconds since the epoch
+	 */
+	PerfProducer(AMQPService service, ProducerConfigurer producerConfigurer, PerfOptions options,
+			int producerNo, PerfStats stats, long startNanos, long startEpochMicros) {
+		this._service = service;
+		this._producerConfigurer = producerConfigurer;
+		this._rpc = options.rpc;
+		this._stats = stats;
+
+		PerfMessage message = new PerfMessage(producerNo, options.size);
+		this._message = options.contentType == ContentTypeEnum.TEXT_PLAIN?
+				message.getContent()
+				: message;
+
+		this._startNanos = startNanos;
+		this._startEpochMicros = startEpochMicros;
+
+		// Spread the producers schedules over the interval
+		this._intervalNanos = options.rate == 0? 0 : TimeUnit.SECONDS.toNanos(options.producers) / options.rate;
+		this._firstSendNanos = startNanos + _intervalNanos * producerNo / options.producers;
+	}
+
+	@Override
+	public void run() {
+		Map<String, Object> headers = new HashMap<>();
+		for(long sequence = 0; !_stopped; sequence++) {
+			long intendedNanos;
+			if(_intervalNanos == 0) {
+				intendedNanos = System.nanoTime();
+			} else {
+				intendedNanos = _firstSendNanos + sequence * _intervalNanos;
+				if(!waitUntil(intendedNanos))
+					return;
+			}
+
+			// The service adds its headers to the map, so it's cleared for each message
+			headers.clear();
+			headers.put(PerfStats.SEND_TIME_HEADER, _startEpochMicros + (intendedNanos - _startNanos) / 1000);
+			if(_message instanceof PerfMessage)
+				((PerfMessage) _message).setSequence(sequence);
+
+			try {
+				if(_rpc) {
+					_service.pushAndReceiveAsync(_producerConfigurer, headers, _message, _message.getClass(),
+							WAIT_FOR_REPLY_TIMEOUT).get();
+				} else {
+					_service.push(_producerConfigurer, headers, _message);
+				}
+				_stats.producerLatency.record(System.nanoTime() - intendedNanos);
+				_stats.sent.increment();
+			} catch (AMQPCustomException | JAXBCustomException | JSONCustomException | ExecutionException e) {
+				_stats.failed.increment();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Stop publishing after the current message
+	 */
+	void stop() {
+		_stopped = true;
+	}
+
+	/**
+	 * @return false if stopped or interrupted while waiting
+	 */
+	private boolean waitUntil(long nanos) {
+		long remaining;
+		while((remaining = nanos - System.nanoTime()) > 0) {
+			if(_stopped || Thread.currentThread().isInterrupted())
+				return false;
+			LockSupport.parkNanos(remaining);
+		}
+		return !_stopped;
+	}
+}
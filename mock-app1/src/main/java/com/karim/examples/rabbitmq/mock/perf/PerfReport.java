@@ -0,0 +1,145 @@
+package com.karim.examples.rabbitmq.mock.perf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.karim.examples.rabbitmq.connector.exceptions.JSONCustomException;
+import com.karim.examples.rabbitmq.connector.parser.JSONFormatter;
+
+/**
+ * Samples the load test stats every report interval, prints them and exports them as CSV
+ * and JSON.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class PerfReport {
+	private final PerfStats _stats;
+	private final long _startNanos;
+	private final List<PerfSample> _intervals = new ArrayList<>();
+
+	// Counters at the previous sample
+	private long _lastNanos;
+	private long _lastSent;
+	private long _lastReceived;
+	private long _lastFailed;
+
+	/**
+	 * @param stats			the load test stats
+	 * @param startNanos	the test start time from {@link System#nanoTime()}
+	 */
+	PerfReport(PerfStats stats, long startNanos) {
+		this._stats = stats;
+		this._startNanos = startNanos;
+		this._lastNanos = startNanos;
+	}
+
+	/**
+	 * Sample the interval since the previous sample and print it
+	 *
+	 * @return the interval sample
+	 */
+	synchronized PerfSample sample() {
+		long now = System.nanoTime();
+		long sent = _stats.sent.sum();
+		long received = _stats.received.sum();
+		long failed = _stats.failed.sum();
+
+		PerfSample sample = new PerfSample(seconds(now - _startNanos),
+				seconds(now - _lastNanos),
+				sent - _lastSent,
+				received - _lastReceived,
+				failed - _lastFailed,
+				_stats.producerLatency.nextInterval(),
+				_stats.consumerLatency.nextInterval());
+		_intervals.add(sample);
+		System.out.println(sample);
+
+		_lastNanos = now;
+		_lastSent = sent;
+		_lastReceived = received;
+		_lastFailed = failed;
+		return sample;
+	}
+
+	/**
+	 * @return the whole test sample
+	 */
+	synchronized PerfSample total() {
+		double elapsed = seconds(_lastNanos - _startNanos);
+		return new PerfSample(elapsed,
+				elapsed,
+				_stats.sent.sum(),
+				_stats.received.sum(),
+				_stats.failed.sum(),
+				_stats.producerLatency.total(),
+				_stats.consumerLatency.total());
+	}
+
+	/**
+	 * Write the intervals followed by the total as CSV
+	 *
+	 * @param file the CSV file
+	 * @throws IOException if the file can't be written
+	 */
+	synchronized void writeCsv(File file) throws IOException {
+		try(PrintWriter writer = new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8))) {
+			writer.println("interval," + PerfSample.CSV_HEADER);
+			for(int i = 0; i < _intervals.size(); i++)
+				writer.println((i + 1) + "," + _intervals.get(i).toCsv());
+			writer.println("total," + total().toCsv());
+		}
+	}
+
+	/**
+	 * Write the options, the intervals and the total as JSON
+	 *
+	 * @param file		the JSON file
+	 * @param options	the load test options
+	 * @throws IOException if the file can't be written
+	 * @throws JSONCustomException if the results can't be marshaled
+	 */
+	synchronized void writeJson(File file, PerfOptions options) throws IOException, JSONCustomException {
+		String json = JSONFormatter.marshalObjectToJSON(new PerfResult(options.toMap(), _intervals, total()));
+		Files.write(file.toPath(), json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static double seconds(long nanos) {
+		return nanos / 1e9;
+	}
+
+	////////////////////////////////////////
+	/**
+	 * The exported results
+	 */
+	public static class PerfResult {
+		private final Map<String, Object> options;
+		private final List<PerfSample> intervals;
+		private final PerfSample total;
+
+		PerfResult(Map<String, Object> options, List<PerfSample> intervals, PerfSample total) {
+			this.options = options;
+			this.intervals = Collections.unmodifiableList(new ArrayList<>(intervals));
+			this.total = total;
+		}
+
+		public Map<String, Object> getOptions() {
+			return options;
+		}
+
+		public List<PerfSample> getIntervals() {
+			return intervals;
+		}
+
+		public PerfSample getTotal() {
+			return total;
+		}
+	}
+}
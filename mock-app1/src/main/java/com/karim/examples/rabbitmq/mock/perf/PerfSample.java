@@ -0,0 +1,142 @@
+package com.karim.examples.rabbitmq.mock.perf;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import com.karim.examples.rabbitmq.connector.metrics.HistogramSnapshot;
+
+/**
+ * Throughput and latency percentiles of a report interval or of the whole test, the
+ * latencies are in microseconds.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public class PerfSample {
+	static final String CSV_HEADER = "elapsed_s,sent_per_s,received_per_s,failed,"
+			+ Latency.csvHeader("producer") + "," + Latency.csvHeader("consumer");
+
+	private final double elapsedSeconds;
+	private final double sentRate;
+	private final double receivedRate;
+	private final long failed;
+	private final Latency producerLatency;
+	private final Latency consumerLatency;
+
+	PerfSample(double elapsedSeconds, double seconds, long sent, long received, long failed,
+			HistogramSnapshot producerLatency, HistogramSnapshot consumerLatency) {
+		this.elapsedSeconds = elapsedSeconds;
+		this.sentRate = seconds <= 0? 0 : sent / seconds;
+		this.receivedRate = seconds <= 0? 0 : received / seconds;
+		this.failed = failed;
+		this.producerLatency = new Latency(producerLatency);
+		this.consumerLatency = new Latency(consumerLatency);
+	}
+
+	public double getElapsedSeconds() {
+		return elapsedSeconds;
+	}
+
+	public double getSentRate() {
+		return sentRate;
+	}
+
+	public double getReceivedRate() {
+		return receivedRate;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	public Latency getProducerLatency() {
+		return producerLatency;
+	}
+
+	public Latency getConsumerLatency() {
+		return consumerLatency;
+	}
+
+	String toCsv() {
+		return String.format(Locale.ROOT, "%.3f,%.1f,%.1f,%d,%s,%s", elapsedSeconds, sentRate, receivedRate,
+				failed, producerLatency.toCsv(), consumerLatency.toCsv());
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "time: %.1fs, sent: %.0f msg/s, received: %.0f msg/s, failed: %d, "
+				+ "producer latency: %s, consumer latency: %s", elapsedSeconds, sentRate, receivedRate, failed,
+				producerLatency, consumerLatency);
+	}
+
+	////////////////////////////////////////
+	/**
+	 * Latency percentiles in microseconds
+	 */
+	public static class Latency {
+		private final long count;
+		private final long p50;
+		private final long p90;
+		private final long p99;
+		private final long p999;
+		private final long p9999;
+		private final long max;
+
+		Latency(HistogramSnapshot snapshot) {
+			this.count = snapshot.getCount();
+			this.p50 = micros(snapshot.getValueAtPercentile(50));
+			this.p90 = micros(snapshot.getValueAtPercentile(90));
+			this.p99 = micros(snapshot.getValueAtPercentile(99));
+			this.p999 = micros(snapshot.getValueAtPercentile(99.9));
+			this.p9999 = micros(snapshot.getValueAtPercentile(99.99));
+			this.max = micros(snapshot.getMax());
+		}
+
+		static String csvHeader(String prefix) {
+			return prefix + "_count," + prefix + "_p50_us," + prefix + "_p90_us," + prefix + "_p99_us,"
+					+ prefix + "_p99.9_us," + prefix + "_p99.99_us," + prefix + "_max_us";
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP90() {
+			return p90;
+		}
+
+		public long getP99() {
+			return p99;
+		}
+
+		public long getP999() {
+			return p999;
+		}
+
+		public long getP9999() {
+			return p9999;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		String toCsv() {
+			return count + "," + p50 + "," + p90 + "," + p99 + "," + p999 + "," + p9999 + "," + max;
+		}
+
+		@Override
+		public String toString() {
+			return "p50=" + p50 + "us, p99=" + p99 + "us, p99.9=" + p999 + "us, p99.99=" + p9999
+					+ "us, max=" + max + "us";
+		}
+
+		private static long micros(long nanos) {
+			return TimeUnit.NANOSECONDS.toMicros(nanos);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package com.karim.examples.rabbitmq.mock.perf;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latencies shared by the producers and the consumers of the load test. The
+ * latencies are measured from the time each message was intended to be sent by the target
+ * rate, not the time it was actually sent, so a stall delaying the next messages counts in
+ * their latency instead of being hidden (coordinated omission).
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class PerfStats {
+	// Header of the intended send time in microseconds since the epoch
+	static final String SEND_TIME_HEADER = "PERF_SEND_TIME";
+
+	// Messages published, confirmed if confirms enabled or replied in rpc mode
+	final LongAdder sent = new LongAdder();
+	// Messages consumed
+	final LongAdder received = new LongAdder();
+	// Messages failed to be published or replied
+	final LongAdder failed = new LongAdder();
+
+	// Time from the intended send to the publish completed, or to the reply in rpc mode
+	final IntervalHistogram producerLatency = new IntervalHistogram();
+	// Time from the intended send to the message consumed
+	final IntervalHistogram consumerLatency = new IntervalHistogram();
+}
@@ -0,0 +1,173 @@
+package com.karim.examples.rabbitmq.mock.perf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.karim.examples.rabbitmq.common.enums.ContentTypeEnum;
+import com.karim.examples.rabbitmq.connector.AMQPService;
+import com.karim.examples.rabbitmq.connector.configures.ConnectionConfigurer;
+import com.karim.examples.rabbitmq.connector.configures.ConsumerConfigurer;
+import com.karim.examples.rabbitmq.connector.configures.ProducerConfigurer;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.karim.examples.rabbitmq.connector.util.EpochClock;
+import com.karim.examples.rabbitmq.connector.util.NamedThreadFactory;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+/**
+ * Load test tool publishing and consuming by the connector, at a target or max rate, and
+ * reporting the throughput and the latency percentiles every interval.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public class PerfTest {
+	private static final String APPLICATION_NAME = "perf-test";
+	// Max wait for the producers to finish their current message in seconds
+	private static final long STOP_TIMEOUT = 35;
+	// Max wait for the consumers to receive the messages in flight in milliseconds
+	private static final long DRAIN_TIMEOUT = 5000;
+	// Max wait of the shutdown hook for the results to be written in seconds
+	private static final long SHUTDOWN_TIMEOUT = 60;
+
+	public static void main(String[] args) throws Exception {
+		PerfOptions options = null;
+		try {
+			options = PerfOptions.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(PerfOptions.USAGE);
+			System.exit(0);
+		}
+
+		if(options.declare)
+			declareQueue(options);
+
+		// Stopped by the duration or by the shutdown hook, which waits for the results
+		CountDownLatch stopped = new CountDownLatch(1);
+		CountDownLatch finished = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			stopped.countDown();
+			try {
+				finished.await(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+
+		PerfStats stats = new PerfStats();
+		AMQPService consumerService = null;
+		AMQPService producerService = null;
+		ExecutorService producerThreads = null;
+		ScheduledExecutorService reportThread = null;
+		List<PerfProducer> producers = new ArrayList<>();
+		try {
+			if(options.consumers > 0) {
+				consumerService = new AMQPService(connectionConfigurer(options, APPLICATION_NAME + "-consumer"));
+				if(options.contentType == ContentTypeEnum.TEXT_PLAIN)
+					startConsumers(consumerService, options, stats, String.class);
+				else
+					startConsumers(consumerService, options, stats, PerfMessage.class);
+			}
+
+			long startNanos = System.nanoTime();
+			long startEpochMicros = EpochClock.currentTimeMicros();
+			PerfReport report = new PerfReport(stats, startNanos);
+			reportThread = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(APPLICATION_NAME + "-report", true));
+			reportThread.scheduleAtFixedRate(report::sample, options.interval, options.interval, TimeUnit.SECONDS);
+
+			if(options.producers > 0) {
+				producerService = new AMQPService(connectionConfigurer(options, APPLICATION_NAME + "-producer"));
+				ProducerConfigurer producerConfigurer = new ProducerConfigurer.Builder(options.exchange, options.routingKey)
+						.withMessageContentType(options.contentType)
+						.withConfirmMode(options.confirmMode)
+						.build();
+
+				producerThreads = Executors.newFixedThreadPool(options.producers, new NamedThreadFactory(APPLICATION_NAME + "-producer"));
+				for(int i = 0; i < options.producers; i++) {
+					PerfProducer producer = new PerfProducer(producerService, producerConfigurer, options, i, stats,
+							startNanos, startEpochMicros);
+					producers.add(producer);
+					producerThreads.execute(producer);
+				}
+			}
+
+			stopped.await(options.duration, TimeUnit.SECONDS);
+
+			producers.forEach(PerfProducer::stop);
+			if(producerThreads != null) {
+				producerThreads.shutdown();
+				producerThreads.awaitTermination(STOP_TIMEOUT, TimeUnit.SECONDS);
+			}
+
+			// Let the consumers receive the messages in flight before the final sample
+			long drainDeadline = System.currentTimeMillis() + DRAIN_TIMEOUT;
+			while(options.consumers > 0 && stats.received.sum() < stats.sent.sum()
+					&& System.currentTimeMillis() < drainDeadline)
+				Thread.sleep(100);
+
+			reportThread.shutdown();
+			reportThread.awaitTermination(STOP_TIMEOUT, TimeUnit.SECONDS);
+			report.sample();
+			System.out.println("total: " + report.total());
+
+			if(options.output != null) {
+				report.writeCsv(new File(options.output + ".csv"));
+				report.writeJson(new File(options.output + ".json"), options);
+			}
+		} finally {
+			if(reportThread != null)
+				reportThread.shutdownNow();
+			if(producerThreads != null)
+				producerThreads.shutdownNow();
+			if(producerService != null)
+				producerService.close();
+			if(consumerService != null)
+				consumerService.close();
+			finished.countDown();
+		}
+	}
+
+	private static ConnectionConfigurer connectionConfigurer(PerfOptions options, String applicationName) {
+		return new ConnectionConfigurer.Builder(applicationName, options.host, options.vHost,
+				options.username, options.password)
+				.withPort(options.port)
+				.build();
+	}
+
+	private static <E> void startConsumers(AMQPService service, PerfOptions options, PerfStats stats,
+			Class<E> messageClass) throws AMQPCustomException {
+		ConsumerConfigurer consumerConfigurer = new ConsumerConfigurer.Builder(options.queue)
+				.withNoOfConumers(options.consumers)
+				.withPrefetchCount(options.prefetch)
+				.withContentType(options.contentType)
+				.build();
+		service.setReceiveMessageListener(consumerConfigurer, new PerfConsumer<E>(stats, options.rpc), messageClass);
+	}
+
+	/**
+	 * Declare a non-durable queue for the test, bound to the exchange if any
+	 */
+	private static void declareQueue(PerfOptions options) throws Exception {
+		ConnectionFactory connectionFactory = new ConnectionFactory();
+		connectionFactory.setHost(options.host);
+		connectionFactory.setPort(options.port);
+		connectionFactory.setUsername(options.username);
+		connectionFactory.setPassword(options.password);
+		connectionFactory.setVirtualHost(options.vHost);
+
+		try(Connection connection = connectionFactory.newConnection(APPLICATION_NAME);
+				Channel channel = connection.createChannel()) {
+			channel.queueDeclare(options.queue, false, false, false, null);
+			if(!options.exchange.isEmpty())
+				channel.queueBind(options.queue, options.exchange, options.routingKey);
+		}
+	}
+}
@@ -9,6 +9,7 @@ import java.util.concurrent.TimeUnit;
 
 import com.karim.examples.rabbitmq.common.enums.ContentTypeEnum;
 import com.karim.examples.rabbitmq.connector.AMQPService;
+import com.karim.examples.rabbitmq.connector.AMQPServiceRegistry;
 import com.karim.examples.rabbitmq.connector.configures.ConnectionConfigurer;
 import com.karim.examples.rabbitmq.connector.configures.ProducerConfigurer;
 import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
@@ -35,8 +36,8 @@ public class Publisher {
 									"app1",
 									"app1").build();
 					
-					// Start the connection
-					amqpService = new AMQPService(connectionConfigurer);
+					// Get the shared connection, opened by the first message only
+					amqpService = AMQPServiceRegistry.getSharedRegistry().acquire(connectionConfigurer);
 					
 					// Publisher Configuration
 					ProducerConfigurer producerConfigurer = 
@@ -54,7 +55,7 @@ public class Publisher {
 					// Parsing Exception
 					e.printStackTrace();
 				} finally {
-					// Close the connection
+					// Release the shared connection
 					if(amqpService != null)
 						amqpService.close();
 				}
@@ -75,6 +76,9 @@ public class Publisher {
 			    }
 			    System.out.println("Exiting normally...");
 			}
+			
+			// Close the shared connections
+			AMQPServiceRegistry.getSharedRegistry().close();
 		}
 	}
 
@@ -0,0 +1,63 @@
+package com.karim.examples.rabbitmq.benchmarks;
+
+import com.karim.examples.rabbitmq.benchmarks.fake.InMemoryBroker;
+import com.karim.examples.rabbitmq.broker.EmbeddedBroker;
+import com.karim.examples.rabbitmq.benchmarks.fake.InMemoryConnectionFactory;
+import com.karim.examples.rabbitmq.common.enums.ConnectionProfileEnum;
+import com.karim.examples.rabbitmq.connector.AMQPService;
+import com.karim.examples.rabbitmq.connector.configures.ConnectionConfigurer;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+
+/**
+ * Opens the services of the benchmarks on an in-memory or an embedded broker.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class BenchmarkServices {
+	static final String APPLICATION_NAME = "benchmarks";
+
+	private BenchmarkServices() {
+	}
+
+	/**
+	 * @param broker the in-memory broker to connect to
+	 * @return a new service connected to the broker
+	 * @throws AMQPCustomException if the service failed to start
+	 */
+	static AMQPService open(InMemoryBroker broker) throws AMQPCustomException {
+		ConnectionConfigurer connectionConfigurer = new ConnectionConfigurer.
+				Builder(APPLICATION_NAME, "localhost", "/", "guest", "guest").
+				withConnectionFactory(new InMemoryConnectionFactory(broker)).
+				withNoOfConnections(1).build();
+		return new AMQPService(connectionConfigurer);
+	}
+
+	/**
+	 * @param broker the started embedded broker to connect to over TCP
+	 * @return a new service connected to the broker
+	 * @throws AMQPCustomException if the service failed to start
+	 */
+	static AMQPService open(EmbeddedBroker broker) throws AMQPCustomException {
+		return open(broker, null, false);
+	}
+
+	/**
+	 * @param broker	the started embedded broker to connect to over TCP
+	 * @param profile	the connection profile, null for the default options
+	 * @param useNio	true to connect by the NIO event loops
+	 * @return a new service connected to the broker
+	 * @throws AMQPCustomException if the service failed to start
+	 */
+	static AMQPService open(EmbeddedBroker broker, ConnectionProfileEnum profile, boolean useNio) throws AMQPCustomException {
+		ConnectionConfigurer.Builder builder = new ConnectionConfigurer.
+				Builder(APPLICATION_NAME, "localhost", EmbeddedBroker.DEFAULT_VIRTUAL_HOST, "guest", "guest");
+		// The profile overrides the options set before it
+		if(profile != null)
+			builder.withProfile(profile);
+		return new AMQPService(builder.
+				withPort(broker.getPort()).
+				withUseNio(useNio).
+				withNoOfConnections(1).build());
+	}
+}
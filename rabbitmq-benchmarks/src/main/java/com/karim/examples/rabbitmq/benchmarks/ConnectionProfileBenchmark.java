@@ -0,0 +1,104 @@
+package com.karim.examples.rabbitmq.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.karim.examples.rabbitmq.broker.EmbeddedBroker;
+import com.karim.examples.rabbitmq.common.enums.ConnectionProfileEnum;
+import com.karim.examples.rabbitmq.connector.AMQPService;
+import com.karim.examples.rabbitmq.connector.configures.ConnectionConfigurer;
+import com.karim.examples.rabbitmq.connector.configures.ConsumerConfigurer;
+import com.karim.examples.rabbitmq.connector.configures.ProducerConfigurer;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.karim.examples.rabbitmq.connector.exceptions.JAXBCustomException;
+import com.karim.examples.rabbitmq.connector.exceptions.JSONCustomException;
+
+/**
+ * The {@link ConnectionConfigurer.Builder#withProfile} presets against the default options,
+ * by {@link AMQPService#push} and {@link AMQPService#pushAndReceiveAsync} end-to-end through
+ * an embedded broker over TCP, by payload size and with the blocking or the NIO sockets, as
+ * the NIO buffers of the profiles apply to the NIO sockets only.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionProfileBenchmark {
+	private static final String QUEUE_NAME = "benchmark.qu.profile";
+	private static final long WAIT_FOR_REPLY_TIMEOUT = 30;
+	// The profile param of the default options
+	private static final String DEFAULT_PROFILE = "DEFAULT";
+
+	// DEFAULT or a ConnectionProfileEnum name
+	@Param({DEFAULT_PROFILE, "LOW_LATENCY", "HIGH_THROUGHPUT", "LARGE_MESSAGE"})
+	public String profile;
+
+	// No of characters of the payload content
+	@Param({"64", "65536", "1048576"})
+	public int payloadSize;
+
+	@Param({"false", "true"})
+	public boolean useNio;
+
+	private EmbeddedBroker broker;
+	private AMQPService service;
+	private ProducerConfigurer producerConfigurer;
+	private SamplePayload message;
+
+	@Setup
+	public void setup() throws IOException, AMQPCustomException {
+		broker = new EmbeddedBroker(0, -1).start();
+		broker.declareQueue(EmbeddedBroker.DEFAULT_VIRTUAL_HOST, QUEUE_NAME);
+		service = BenchmarkServices.open(broker,
+				DEFAULT_PROFILE.equals(profile)? null : ConnectionProfileEnum.valueOf(profile),
+				useNio);
+
+		// The responder replies by the request
+		ConsumerConfigurer consumerConfigurer = new ConsumerConfigurer.Builder(QUEUE_NAME).
+				withNoOfConumers(1).build();
+		service.setReceiveMessageListener(consumerConfigurer, (request, headers) -> request,
+				SamplePayload.class);
+
+		producerConfigurer = new ProducerConfigurer.Builder("", QUEUE_NAME).build();
+		message = SamplePayload.ofSize(payloadSize);
+	}
+
+	@TearDown
+	public void tearDown() {
+		service.close();
+		broker.stop();
+	}
+
+	@Benchmark
+	public String push() throws AMQPCustomException, JAXBCustomException, JSONCustomException {
+		return service.push(producerConfigurer, null, message);
+	}
+
+	@Benchmark
+	public SamplePayload pushAndReceiveAsync() throws InterruptedException, ExecutionException {
+		return service.pushAndReceiveAsync(producerConfigurer,
+				null,
+				message,
+				SamplePayload.class,
+				WAIT_FOR_REPLY_TIMEOUT).get();
+	}
+}
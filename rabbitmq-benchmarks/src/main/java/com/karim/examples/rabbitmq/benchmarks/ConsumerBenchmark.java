@@ -0,0 +1,118 @@
+package com.karim.examples.rabbitmq.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.karim.examples.rabbitmq.benchmarks.fake.InMemoryBroker;
+import com.karim.examples.rabbitmq.common.enums.ContentTypeEnum;
+import com.karim.examples.rabbitmq.common.enums.DeliveryModeEnum;
+import com.karim.examples.rabbitmq.common.enums.MessageHeaderEnum;
+import com.karim.examples.rabbitmq.connector.AMQPService;
+import com.karim.examples.rabbitmq.connector.configures.ConsumerConfigurer;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.karim.examples.rabbitmq.connector.exceptions.JAXBCustomException;
+import com.karim.examples.rabbitmq.connector.exceptions.JSONCustomException;
+import com.karim.examples.rabbitmq.connector.parser.JSONFormatter;
+import com.karim.examples.rabbitmq.connector.parser.XmlFormatter;
+import com.karim.examples.rabbitmq.connector.util.EpochClock;
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Consuming a message by the consumer registered by {@link AMQPService#setReceiveMessageListener}:
+ * reading the headers, un-marshaling the message, calling the handler, recording the stages
+ * metrics and acknowledging. The in-memory broker delivers the message to the consumer
+ * on the benchmark thread.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsumerBenchmark {
+	private static final String QUEUE_NAME = "benchmark.qu.consume";
+
+	@Param({"TEXT_JSON", "TEXT_XML"})
+	public ContentTypeEnum contentType;
+
+	// No of characters of the payload content
+	@Param({"64", "1024", "16384"})
+	public int payloadSize;
+
+	private InMemoryBroker broker;
+	private AMQPService service;
+	private BasicProperties properties;
+	private byte[] body;
+
+	// The last handled message, kept to not be eliminated
+	private SamplePayload lastMessage;
+
+	@Setup
+	public void setup() throws AMQPCustomException, JAXBCustomException, JSONCustomException {
+		broker = new InMemoryBroker();
+		broker.declareQueue(QUEUE_NAME);
+		service = BenchmarkServices.open(broker);
+
+		ConsumerConfigurer consumerConfigurer = new ConsumerConfigurer.Builder(QUEUE_NAME).
+				withNoOfConumers(1).build();
+		service.setReceiveMessageListener(consumerConfigurer, (message, headers) -> {
+			lastMessage = message;
+			return null;
+		}, SamplePayload.class);
+
+		// The message as published by AMQPService.push
+		SamplePayload payload = SamplePayload.ofSize(payloadSize);
+		String message = contentType == ContentTypeEnum.TEXT_XML?
+				XmlFormatter.marshalObjectToXML(payload)
+				: JSONFormatter.marshalObjectToJSON(payload);
+		body = message.getBytes(StandardCharsets.UTF_8);
+
+		Map<String, Object> headers = new HashMap<>();
+		headers.put(MessageHeaderEnum.EJ_ORIGIN_ECHANGE_NAME.name(), "");
+		headers.put(MessageHeaderEnum.EJ_ORIGIN_ROUTING_KEY.name(), QUEUE_NAME);
+		headers.put(MessageHeaderEnum.EJ_PUBLISH_TIMESTAMP.name(), EpochClock.currentTimeMicros());
+
+		properties = new BasicProperties.Builder()
+				.contentType(contentType.value())
+				.contentEncoding(StandardCharsets.UTF_8.name())
+				.headers(headers)
+				.deliveryMode(DeliveryModeEnum.PERSISTENT.value())
+				.messageId(UUID.randomUUID().toString())
+				.timestamp(new Date())
+				.type(SamplePayload.class.getTypeName())
+				.userId("guest")
+				.appId(BenchmarkServices.APPLICATION_NAME)
+				.build();
+	}
+
+	@TearDown
+	public void tearDown() {
+		service.close();
+	}
+
+	@Benchmark
+	public boolean handleDelivery() throws IOException {
+		return broker.publish("", QUEUE_NAME, properties, body);
+	}
+}
@@ -0,0 +1,91 @@
+package com.karim.examples.rabbitmq.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.karim.examples.rabbitmq.broker.EmbeddedBroker;
+import com.karim.examples.rabbitmq.connector.AMQPService;
+import com.karim.examples.rabbitmq.connector.configures.ConsumerConfigurer;
+import com.karim.examples.rabbitmq.connector.configures.ProducerConfigurer;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.karim.examples.rabbitmq.connector.exceptions.JAXBCustomException;
+import com.karim.examples.rabbitmq.connector.exceptions.JSONCustomException;
+
+/**
+ * {@link AMQPService#push} and {@link AMQPService#pushAndReceiveAsync} end-to-end through an
+ * embedded broker over TCP, including the framing, the broker routing, the publish confirm
+ * round trip and the consumer dispatch threads that the in-memory broker benchmarks skip.
+ * The pushed messages are consumed by an echo responder, so the queue stays empty.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmbeddedBrokerBenchmark {
+	private static final String QUEUE_NAME = "benchmark.qu.embedded";
+	private static final long WAIT_FOR_REPLY_TIMEOUT = 30;
+
+	// No of characters of the payload content
+	@Param({"64", "1024", "16384"})
+	public int payloadSize;
+
+	private EmbeddedBroker broker;
+	private AMQPService service;
+	private ProducerConfigurer producerConfigurer;
+	private SamplePayload message;
+
+	@Setup
+	public void setup() throws IOException, AMQPCustomException {
+		broker = new EmbeddedBroker(0, -1).start();
+		broker.declareQueue(EmbeddedBroker.DEFAULT_VIRTUAL_HOST, QUEUE_NAME);
+		service = BenchmarkServices.open(broker);
+
+		// The responder replies by the request
+		ConsumerConfigurer consumerConfigurer = new ConsumerConfigurer.Builder(QUEUE_NAME).
+				withNoOfConumers(1).build();
+		service.setReceiveMessageListener(consumerConfigurer, (request, headers) -> request,
+				SamplePayload.class);
+
+		producerConfigurer = new ProducerConfigurer.Builder("", QUEUE_NAME).build();
+		message = SamplePayload.ofSize(payloadSize);
+	}
+
+	@TearDown
+	public void tearDown() {
+		service.close();
+		broker.stop();
+	}
+
+	@Benchmark
+	public String push() throws AMQPCustomException, JAXBCustomException, JSONCustomException {
+		return service.push(producerConfigurer, null, message);
+	}
+
+	@Benchmark
+	public SamplePayload pushAndReceiveAsync() throws InterruptedException, ExecutionException {
+		return service.pushAndReceiveAsync(producerConfigurer,
+				null,
+				message,
+				SamplePayload.class,
+				WAIT_FOR_REPLY_TIMEOUT).get();
+	}
+}
@@ -0,0 +1,70 @@
+package com.karim.examples.rabbitmq.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.karim.examples.rabbitmq.connector.exceptions.JAXBCustomException;
+import com.karim.examples.rabbitmq.connector.exceptions.JSONCustomException;
+import com.karim.examples.rabbitmq.connector.parser.JSONFormatter;
+import com.karim.examples.rabbitmq.connector.parser.XmlFormatter;
+
+/**
+ * Marshal and un-marshal of a message by {@link JSONFormatter} and {@link XmlFormatter}
+ * across payload sizes.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatterBenchmark {
+	// No of characters of the payload content
+	@Param({"64", "1024", "16384"})
+	public int payloadSize;
+
+	private SamplePayload payload;
+	private String json;
+	private String xml;
+
+	@Setup
+	public void setup() throws JSONCustomException, JAXBCustomException {
+		payload = SamplePayload.ofSize(payloadSize);
+		json = JSONFormatter.marshalObjectToJSON(payload);
+		xml = XmlFormatter.marshalObjectToXML(payload);
+	}
+
+	@Benchmark
+	public String marshalJson() throws JSONCustomException {
+		return JSONFormatter.marshalObjectToJSON(payload);
+	}
+
+	@Benchmark
+	public SamplePayload unmarshalJson() throws JSONCustomException {
+		return JSONFormatter.unmarshalJSONToObject(json, SamplePayload.class);
+	}
+
+	@Benchmark
+	public String marshalXml() throws JAXBCustomException {
+		return XmlFormatter.marshalObjectToXML(payload);
+	}
+
+	@Benchmark
+	public SamplePayload unmarshalXml() throws JAXBCustomException {
+		return XmlFormatter.unmarshalXMLToObject(xml, SamplePayload.class);
+	}
+}
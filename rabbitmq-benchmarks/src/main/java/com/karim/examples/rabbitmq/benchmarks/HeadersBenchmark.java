@@ -0,0 +1,98 @@
+package com.karim.examples.rabbitmq.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.karim.examples.rabbitmq.benchmarks.fake.InMemoryBroker;
+import com.karim.examples.rabbitmq.common.enums.ContentTypeEnum;
+import com.karim.examples.rabbitmq.connector.AMQPService;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Reading the properties and headers of a consumed message by the consumer
+ * <code>AMQPService.buildHeadersFromMessageProperties</code>, by the no of message headers.
+ * The method is private, it's called through a method handle.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeadersBenchmark {
+	// AMQPService.buildHeadersFromMessageProperties(BasicProperties)
+	private static final MethodHandle BUILD_HEADERS;
+	static {
+		try {
+			Method method = AMQPService.class.getDeclaredMethod("buildHeadersFromMessageProperties",
+					BasicProperties.class);
+			method.setAccessible(true);
+			BUILD_HEADERS = MethodHandles.lookup().unreflect(method);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	// No of custom headers of the message
+	@Param({"0", "8", "32"})
+	public int noOfHeaders;
+
+	private AMQPService service;
+	private BasicProperties properties;
+
+	@Setup
+	public void setup() throws AMQPCustomException {
+		service = BenchmarkServices.open(new InMemoryBroker());
+
+		Map<String, Object> headers = new HashMap<>();
+		for(int i = 0; i < noOfHeaders; i++)
+			headers.put("header-" + i, "value-" + i);
+
+		properties = new BasicProperties.Builder()
+				.contentType(ContentTypeEnum.TEXT_JSON.value())
+				.contentEncoding("UTF-8")
+				.headers(headers)
+				.messageId(UUID.randomUUID().toString())
+				.correlationId(UUID.randomUUID().toString())
+				.replyTo("benchmark.qu.reply")
+				.timestamp(new Date())
+				.type(SamplePayload.class.getTypeName())
+				.userId("guest")
+				.appId(BenchmarkServices.APPLICATION_NAME)
+				.build();
+	}
+
+	@TearDown
+	public void tearDown() {
+		service.close();
+	}
+
+	@Benchmark
+	@SuppressWarnings("unchecked")
+	public Map<String, Object> buildHeadersFromMessageProperties() throws Throwable {
+		return (Map<String, Object>) BUILD_HEADERS.invoke(service, properties);
+	}
+}
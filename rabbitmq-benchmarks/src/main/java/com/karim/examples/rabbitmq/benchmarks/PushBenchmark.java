@@ -0,0 +1,96 @@
+package com.karim.examples.rabbitmq.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.karim.examples.rabbitmq.benchmarks.fake.InMemoryBroker;
+import com.karim.examples.rabbitmq.common.enums.ContentTypeEnum;
+import com.karim.examples.rabbitmq.connector.AMQPService;
+import com.karim.examples.rabbitmq.connector.configures.ProducerConfigurer;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.karim.examples.rabbitmq.connector.exceptions.JAXBCustomException;
+import com.karim.examples.rabbitmq.connector.exceptions.JSONCustomException;
+
+/**
+ * Publishing a message by {@link AMQPService#push}: opening the channel, building the
+ * properties and headers, marshaling the message, publishing and waiting for its confirm.
+ * The in-memory broker confirms while publishing and drops the message, so the broker
+ * round trip is not included.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PushBenchmark {
+	private static final String QUEUE_NAME = "benchmark.qu.push";
+
+	@Param({"TEXT_JSON", "TEXT_XML", "TEXT_PLAIN"})
+	public ContentTypeEnum contentType;
+
+	// No of characters of the payload content
+	@Param({"64", "1024", "16384"})
+	public int payloadSize;
+
+	private AMQPService service;
+	private ProducerConfigurer producerConfigurer;
+	private Object message;
+
+	@Setup
+	public void setup() throws AMQPCustomException {
+		InMemoryBroker broker = new InMemoryBroker();
+		broker.declareQueue(QUEUE_NAME);
+		service = BenchmarkServices.open(broker);
+
+		producerConfigurer = new ProducerConfigurer.Builder("", QUEUE_NAME).
+				withMessageContentType(contentType).build();
+
+		// The plain text messages are published as is
+		SamplePayload payload = SamplePayload.ofSize(payloadSize);
+		message = contentType == ContentTypeEnum.TEXT_PLAIN? payload.getContent() : payload;
+	}
+
+	@TearDown
+	public void tearDown() {
+		service.close();
+	}
+
+	@Benchmark
+	public String push(ThreadHeaders threadHeaders) 
+			throws AMQPCustomException, JAXBCustomException, JSONCustomException {
+		return service.push(producerConfigurer, threadHeaders.headers, message);
+	}
+
+	////////////////////////////////////////
+	/**
+	 * The caller headers, per thread as the publish headers are added to them
+	 */
+	@State(Scope.Thread)
+	public static class ThreadHeaders {
+		private final Map<String, Object> headers = new HashMap<>();
+
+		@Setup
+		public void setup() {
+			headers.put("tenant", "benchmarks");
+			headers.put("priority", 1);
+		}
+	}
+}
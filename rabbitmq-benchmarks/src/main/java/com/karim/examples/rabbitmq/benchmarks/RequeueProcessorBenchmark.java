@@ -0,0 +1,123 @@
+package com.karim.examples.rabbitmq.benchmarks;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.karim.examples.rabbitmq.broker.EmbeddedBroker;
+import com.karim.examples.rabbitmq.common.enums.MessageHeaderEnum;
+import com.karim.examples.rabbitmq.esb.RequeueProcessor;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+
+/**
+ * {@link RequeueProcessor} throughput through an embedded broker over TCP, with the esb
+ * defaults (4 workers, prefetch count 500). Each invocation publishes a batch of failed
+ * messages to the requeue queue and waits until the processor republished all of them to
+ * their origin queue, so the score is the requeued messages per second.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequeueProcessorBenchmark {
+	private static final String ORIGIN_EXCHANGE = "benchmark.ex.origin";
+	private static final String ORIGIN_ROUTING_KEY = "origin";
+	private static final String ORIGIN_QUEUE = "benchmark.qu.origin";
+	private static final String DEAD_LETTER_QUEUE = "benchmark.qu.dead-letter";
+
+	// No of messages requeued per invocation
+	private static final int BATCH_SIZE = 20000;
+	private static final int NO_OF_WORKERS = 4;
+	private static final int PREFETCH_COUNT = 500;
+	private static final int MAX_REQUEUE_COUNT = 5;
+
+	private EmbeddedBroker broker;
+	private Connection connection;
+	private Channel channel;
+	private RequeueProcessor processor;
+	private AMQP.BasicProperties properties;
+	private final byte[] body = SamplePayload.ofSize(1024).getContent().getBytes();
+
+	// Released by the origin queue consumer on each requeued message
+	private final Semaphore requeued = new Semaphore(0);
+
+	@Setup
+	public void setup() throws IOException, TimeoutException {
+		broker = new EmbeddedBroker(0, -1).start();
+
+		ConnectionFactory connectionFactory = new ConnectionFactory();
+		connectionFactory.setHost("localhost");
+		connectionFactory.setPort(broker.getPort());
+		connectionFactory.setVirtualHost(EmbeddedBroker.DEFAULT_VIRTUAL_HOST);
+
+		connection = connectionFactory.newConnection();
+		channel = connection.createChannel();
+		channel.queueDeclare(RequeueProcessor.REQUEUE_QUEUE, true, false, false, null);
+		channel.exchangeDeclare(ORIGIN_EXCHANGE, "direct", true);
+		channel.queueDeclare(ORIGIN_QUEUE, true, false, false, null);
+		channel.queueBind(ORIGIN_QUEUE, ORIGIN_EXCHANGE, ORIGIN_ROUTING_KEY);
+		channel.exchangeDeclare(RequeueProcessor.DEAD_LETTER_EXCHANGE, "direct", true);
+		channel.queueDeclare(DEAD_LETTER_QUEUE, true, false, false, null);
+		channel.queueBind(DEAD_LETTER_QUEUE, RequeueProcessor.DEAD_LETTER_EXCHANGE, RequeueProcessor.DEAD_LETTER_ROUTING_KEY);
+
+		Channel consumerChannel = connection.createChannel();
+		consumerChannel.basicConsume(ORIGIN_QUEUE, true, new DefaultConsumer(consumerChannel) {
+			@Override
+			public void handleDelivery(String consumerTag,
+					Envelope envelope,
+					AMQP.BasicProperties properties,
+					byte[] body) {
+				requeued.release();
+			}
+		});
+
+		Map<String, Object> headers = new HashMap<String, Object>();
+		headers.put(MessageHeaderEnum.EJ_ORIGIN_ECHANGE_NAME.name(), ORIGIN_EXCHANGE);
+		headers.put(MessageHeaderEnum.EJ_ORIGIN_ROUTING_KEY.name(), ORIGIN_ROUTING_KEY);
+		properties = new AMQP.BasicProperties.Builder().headers(headers).build();
+
+		processor = new RequeueProcessor(connectionFactory, NO_OF_WORKERS, PREFETCH_COUNT, MAX_REQUEUE_COUNT);
+		processor.start();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		processor.stop();
+		connection.close();
+		broker.stop();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void requeue() throws IOException, InterruptedException {
+		for(int i = 0; i < BATCH_SIZE; i++)
+			channel.basicPublish("", RequeueProcessor.REQUEUE_QUEUE, properties, body);
+		requeued.acquire(BATCH_SIZE);
+	}
+}
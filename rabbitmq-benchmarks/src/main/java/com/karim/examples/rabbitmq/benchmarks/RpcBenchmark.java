@@ -0,0 +1,82 @@
+package com.karim.examples.rabbitmq.benchmarks;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.karim.examples.rabbitmq.benchmarks.fake.InMemoryBroker;
+import com.karim.examples.rabbitmq.connector.AMQPService;
+import com.karim.examples.rabbitmq.connector.configures.ConsumerConfigurer;
+import com.karim.examples.rabbitmq.connector.configures.ProducerConfigurer;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+
+/**
+ * Request and reply by {@link AMQPService#pushAndReceiveAsync}: registering the request on
+ * the shared reply consumer, publishing it, consuming it by a responder echoing the request,
+ * publishing the reply and correlating it to complete the request future. The in-memory
+ * broker delivers the request and the reply on the benchmark thread, so the future is
+ * completed once the request is pushed.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RpcBenchmark {
+	private static final String QUEUE_NAME = "benchmark.qu.rpc";
+	private static final long WAIT_FOR_REPLY_TIMEOUT = 30;
+
+	// No of characters of the payload content
+	@Param({"64", "1024", "16384"})
+	public int payloadSize;
+
+	private AMQPService service;
+	private ProducerConfigurer producerConfigurer;
+	private SamplePayload request;
+
+	@Setup
+	public void setup() throws AMQPCustomException {
+		InMemoryBroker broker = new InMemoryBroker();
+		broker.declareQueue(QUEUE_NAME);
+		service = BenchmarkServices.open(broker);
+
+		// The responder replies by the request
+		ConsumerConfigurer consumerConfigurer = new ConsumerConfigurer.Builder(QUEUE_NAME).
+				withNoOfConumers(1).build();
+		service.setReceiveMessageListener(consumerConfigurer, (message, headers) -> message, 
+				SamplePayload.class);
+
+		producerConfigurer = new ProducerConfigurer.Builder("", QUEUE_NAME).build();
+		request = SamplePayload.ofSize(payloadSize);
+	}
+
+	@TearDown
+	public void tearDown() {
+		service.close();
+	}
+
+	@Benchmark
+	public SamplePayload pushAndReceiveAsync() throws InterruptedException, ExecutionException {
+		return service.pushAndReceiveAsync(producerConfigurer,
+				null,
+				request,
+				SamplePayload.class,
+				WAIT_FOR_REPLY_TIMEOUT).get();
+	}
+}
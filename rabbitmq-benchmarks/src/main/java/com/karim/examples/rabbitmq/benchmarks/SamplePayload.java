@@ -0,0 +1,71 @@
+package com.karim.examples.rabbitmq.benchmarks;
+
+import java.util.Arrays;
+
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Message object of the benchmarks, marshaled to JSON and XML. Its content is sized to
+ * benchmark the payload sizes.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+@XmlRootElement(name = "samplePayload")
+public class SamplePayload {
+	private long id;
+	private String source;
+	private long createdAt;
+	private String content;
+
+	public SamplePayload() {
+	}
+
+	/**
+	 * @param contentSize the no of characters of the content
+	 * @return a new payload with a content of the size
+	 */
+	public static SamplePayload ofSize(int contentSize) {
+		char[] content = new char[contentSize];
+		Arrays.fill(content, 'x');
+
+		SamplePayload payload = new SamplePayload();
+		payload.setId(1);
+		payload.setSource("benchmarks");
+		payload.setCreatedAt(System.currentTimeMillis());
+		payload.setContent(new String(content));
+		return payload;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	public void setSource(String source) {
+		this.source = source;
+	}
+
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(long createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	public String getContent() {
+		return content;
+	}
+
+	public void setContent(String content) {
+		this.content = content;
+	}
+}
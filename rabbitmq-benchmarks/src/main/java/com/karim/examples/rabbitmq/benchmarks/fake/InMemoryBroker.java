@@ -0,0 +1,167 @@
+package com.karim.examples.rabbitmq.benchmarks.fake;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Consumer;
+
+/**
+ * Minimal in-memory stand-in of the broker routing, used to run the connector offline in the
+ * benchmarks. The default exchange routes a message to the queue named by its routing key,
+ * and the queue delivers it to one of its consumers, round robin, on the publishing thread.
+ * The messages routed to a queue without consumers are dropped, and every other exchange is
+ * a sink that accepts all the messages.
+ *
+ * It has no network, framing or dispatch threads, so the benchmarks measure the connector
+ * own work only.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class InMemoryBroker {
+	// Declared queues by name
+	private final ConcurrentMap<String, BrokerQueue> _queues = new ConcurrentHashMap<>();
+	// Sequence of the server-named queues
+	private final AtomicLong _queueNo = new AtomicLong();
+
+	/**
+	 * Declare a queue if not exist
+	 *
+	 * @param queueName the queue name, empty for a server-named queue
+	 * @return the queue name
+	 */
+	public String declareQueue(String queueName) {
+		String name = queueName == null || queueName.isEmpty()?
+				"amq.gen-" + _queueNo.incrementAndGet()
+				: queueName;
+		_queues.computeIfAbsent(name, key -> new BrokerQueue());
+		return name;
+	}
+
+	/**
+	 * @param queueName the queue name
+	 * @return true if the queue declared
+	 */
+	public boolean hasQueue(String queueName) {
+		return _queues.containsKey(queueName);
+	}
+
+	/**
+	 * Delete a queue, its consumers are cancelled
+	 *
+	 * @param queueName the queue name
+	 */
+	public void deleteQueue(String queueName) {
+		BrokerQueue queue = _queues.remove(queueName);
+		if(queue == null)
+			return;
+
+		for(Subscription subscription : queue._subscriptions) {
+			try {
+				subscription._consumer.handleCancel(subscription._consumerTag);
+			} catch (IOException ignoreEx) {
+				// The consumer is removed anyway
+			}
+		}
+	}
+
+	/**
+	 * Route a message
+	 *
+	 * @param exchange		the exchange name
+	 * @param routingKey	the routing key
+	 * @param props			the message properties
+	 * @param body			the message body
+	 * @return true if routed, false if the default exchange has no queue of the routing key
+	 * @throws IOException if the consumer failed to handle the delivery
+	 */
+	public boolean publish(String exchange, String routingKey, BasicProperties props, byte[] body)
+			throws IOException {
+		// Other exchanges are sinks
+		if(exchange != null && !exchange.isEmpty())
+			return true;
+
+		BrokerQueue queue = _queues.get(routingKey);
+		if(queue == null)
+			return false;
+
+		queue.deliver(routingKey, props, body);
+		return true;
+	}
+
+	/**
+	 * @param queueName the queue name
+	 * @return the consumers of the queue, zero if not exist
+	 */
+	public int getConsumerCount(String queueName) {
+		BrokerQueue queue = _queues.get(queueName);
+		return queue == null? 0 : queue._subscriptions.size();
+	}
+
+	/**
+	 * Register a consumer on a queue
+	 *
+	 * @throws IOException if the queue not exist
+	 */
+	void addConsumer(String queueName, InMemoryChannel channel, String consumerTag, Consumer consumer)
+			throws IOException {
+		BrokerQueue queue = _queues.get(queueName);
+		if(queue == null)
+			throw new IOException("NOT_FOUND - no queue '" + queueName + "'");
+
+		queue._subscriptions.add(new Subscription(channel, consumerTag, consumer));
+	}
+
+	/**
+	 * Remove a consumer from its queue
+	 *
+	 * @return the removed consumer, null if not exist
+	 */
+	Consumer removeConsumer(String consumerTag) {
+		for(BrokerQueue queue : _queues.values()) {
+			for(Subscription subscription : queue._subscriptions) {
+				if(subscription._consumerTag.equals(consumerTag)) {
+					queue._subscriptions.remove(subscription);
+					return subscription._consumer;
+				}
+			}
+		}
+		return null;
+	}
+
+	////////////////////////////////////////
+	private static final class BrokerQueue {
+		private final List<Subscription> _subscriptions = new CopyOnWriteArrayList<>();
+		private final AtomicInteger _next = new AtomicInteger();
+
+		void deliver(String queueName, BasicProperties props, byte[] body) throws IOException {
+			int noOfSubscriptions = _subscriptions.size();
+			if(noOfSubscriptions == 0)
+				return;
+
+			Subscription subscription = _subscriptions.get(
+					Math.floorMod(_next.getAndIncrement(), noOfSubscriptions));
+			subscription._channel.deliver(subscription._consumerTag, subscription._consumer,
+					"", queueName, props, body);
+		}
+	}
+
+	////////////////////////////////////////
+	private static final class Subscription {
+		private final InMemoryChannel _channel;
+		private final String _consumerTag;
+		private final Consumer _consumer;
+
+		Subscription(InMemoryChannel channel, String consumerTag, Consumer consumer) {
+			this._channel = channel;
+			this._consumerTag = consumerTag;
+			this._consumer = consumer;
+		}
+	}
+}
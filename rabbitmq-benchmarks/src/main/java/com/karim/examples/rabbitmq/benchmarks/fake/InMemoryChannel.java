@@ -0,0 +1,760 @@
+package com.karim.examples.rabbitmq.benchmarks.fake;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.AlreadyClosedException;
+import com.rabbitmq.client.BuiltinExchangeType;
+import com.rabbitmq.client.CancelCallback;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Command;
+import com.rabbitmq.client.ConfirmCallback;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.ConsumerShutdownSignalCallback;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.DeliverCallback;
+import com.rabbitmq.client.Delivery;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.GetResponse;
+import com.rabbitmq.client.Method;
+import com.rabbitmq.client.Return;
+import com.rabbitmq.client.ReturnCallback;
+import com.rabbitmq.client.ReturnListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.impl.AMQImpl;
+
+/**
+ * In-memory {@link Channel} on an {@link InMemoryBroker}. A published message is routed and
+ * delivered to the queue consumer on the publishing thread, then returned to the return
+ * listeners if mandatory and not routed, and confirmed to the confirm listeners if the
+ * channel is in confirm mode, so {@link #waitForConfirmsOrDie()} returns immediately.
+ *
+ * The acknowledgments, qos and transactions are accepted and ignored, the exchanges and
+ * bindings are not kept as the broker routes by the default exchange only.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class InMemoryChannel implements Channel {
+	private static final int REPLY_SUCCESS = 200;
+	private static final int NO_ROUTE = 312;
+
+	private final InMemoryConnection _connection;
+	private final InMemoryBroker _broker;
+	private final int _channelNumber;
+
+	private final List<ReturnListener> _returnListeners = new CopyOnWriteArrayList<>();
+	private final List<ConfirmListener> _confirmListeners = new CopyOnWriteArrayList<>();
+	private final List<ShutdownListener> _shutdownListeners = new CopyOnWriteArrayList<>();
+	// Consumers of this channel by consumer tag
+	private final ConcurrentMap<String, Consumer> _consumers = new ConcurrentHashMap<>();
+
+	// Sequence of the published messages in confirm mode, zero if not in confirm mode
+	private final AtomicLong _nextPublishSeqNo = new AtomicLong();
+	// Sequence of the delivered messages
+	private final AtomicLong _deliveryTag = new AtomicLong();
+	// Sequence of the generated consumer tags
+	private final AtomicLong _consumerTagNo = new AtomicLong();
+
+	private volatile Consumer _defaultConsumer;
+	private volatile ShutdownSignalException _closeReason;
+
+	InMemoryChannel(InMemoryConnection connection, InMemoryBroker broker, int channelNumber) {
+		this._connection = connection;
+		this._broker = broker;
+		this._channelNumber = channelNumber;
+	}
+
+	/**
+	 * Deliver a message to a consumer of this channel
+	 */
+	void deliver(String consumerTag, Consumer consumer, String exchange, String routingKey,
+			BasicProperties props, byte[] body) throws IOException {
+		Envelope envelope = new Envelope(_deliveryTag.incrementAndGet(), false, exchange, routingKey);
+		consumer.handleDelivery(consumerTag, envelope, props, body);
+	}
+
+	/////////////////////////////////////////// Lifecycle  ////////////////////////////////////////
+	@Override
+	public int getChannelNumber() {
+		return _channelNumber;
+	}
+
+	@Override
+	public Connection getConnection() {
+		return _connection;
+	}
+
+	@Override
+	public void close() {
+		close(REPLY_SUCCESS, "OK");
+	}
+
+	@Override
+	public void close(int closeCode, String closeMessage) {
+		shutdown(new ShutdownSignalException(false, true, null, this));
+	}
+
+	@Override
+	public void abort() {
+		close();
+	}
+
+	@Override
+	public void abort(int closeCode, String closeMessage) {
+		close(closeCode, closeMessage);
+	}
+
+	/**
+	 * Close the channel, cancel its consumers and notify the shutdown listeners
+	 */
+	void shutdown(ShutdownSignalException cause) {
+		synchronized (this) {
+			if(_closeReason != null)
+				return;
+			_closeReason = cause;
+		}
+
+		for(Map.Entry<String, Consumer> consumer : _consumers.entrySet()) {
+			_broker.removeConsumer(consumer.getKey());
+			consumer.getValue().handleShutdownSignal(consumer.getKey(), cause);
+		}
+		_consumers.clear();
+		_connection.removeChannel(this);
+		notifyListeners();
+	}
+
+	@Override
+	public void addShutdownListener(ShutdownListener listener) {
+		_shutdownListeners.add(listener);
+	}
+
+	@Override
+	public void removeShutdownListener(ShutdownListener listener) {
+		_shutdownListeners.remove(listener);
+	}
+
+	@Override
+	public ShutdownSignalException getCloseReason() {
+		return _closeReason;
+	}
+
+	@Override
+	public void notifyListeners() {
+		for(ShutdownListener listener : _shutdownListeners)
+			listener.shutdownCompleted(_closeReason);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return _closeReason == null;
+	}
+
+	/////////////////////////////////////////// Listeners  ////////////////////////////////////////
+	@Override
+	public void addReturnListener(ReturnListener listener) {
+		_returnListeners.add(listener);
+	}
+
+	@Override
+	public ReturnListener addReturnListener(ReturnCallback returnCallback) {
+		ReturnListener listener = (replyCode, replyText, exchange, routingKey, properties, body) ->
+				returnCallback.handle(new Return(replyCode, replyText, exchange, routingKey, properties, body));
+		addReturnListener(listener);
+		return listener;
+	}
+
+	@Override
+	public boolean removeReturnListener(ReturnListener listener) {
+		return _returnListeners.remove(listener);
+	}
+
+	@Override
+	public void clearReturnListeners() {
+		_returnListeners.clear();
+	}
+
+	@Override
+	public void addConfirmListener(ConfirmListener listener) {
+		_confirmListeners.add(listener);
+	}
+
+	@Override
+	public ConfirmListener addConfirmListener(ConfirmCallback ackCallback, ConfirmCallback nackCallback) {
+		ConfirmListener listener = new ConfirmListener() {
+			@Override
+			public void handleAck(long deliveryTag, boolean multiple) throws IOException {
+				ackCallback.handle(deliveryTag, multiple);
+			}
+
+			@Override
+			public void handleNack(long deliveryTag, boolean multiple) throws IOException {
+				nackCallback.handle(deliveryTag, multiple);
+			}
+		};
+		addConfirmListener(listener);
+		return listener;
+	}
+
+	@Override
+	public boolean removeConfirmListener(ConfirmListener listener) {
+		return _confirmListeners.remove(listener);
+	}
+
+	@Override
+	public void clearConfirmListeners() {
+		_confirmListeners.clear();
+	}
+
+	@Override
+	public Consumer getDefaultConsumer() {
+		return _defaultConsumer;
+	}
+
+	@Override
+	public void setDefaultConsumer(Consumer consumer) {
+		this._defaultConsumer = consumer;
+	}
+
+	/////////////////////////////////////////// Publish  //////////////////////////////////////////
+	@Override
+	public void basicPublish(String exchange, String routingKey, BasicProperties props, byte[] body)
+			throws IOException {
+		basicPublish(exchange, routingKey, false, false, props, body);
+	}
+
+	@Override
+	public void basicPublish(String exchange, String routingKey, boolean mandatory,
+			BasicProperties props, byte[] body) throws IOException {
+		basicPublish(exchange, routingKey, mandatory, false, props, body);
+	}
+
+	@Override
+	public void basicPublish(String exchange, String routingKey, boolean mandatory, boolean immediate,
+			BasicProperties props, byte[] body) throws IOException {
+		ensureOpen();
+
+		boolean routed = _broker.publish(exchange, routingKey, props, body);
+		if(!routed && mandatory) {
+			for(ReturnListener listener : _returnListeners)
+				listener.handleReturn(NO_ROUTE, "NO_ROUTE", exchange, routingKey, props, body);
+		}
+
+		// Confirm after the return as the broker does
+		if(_nextPublishSeqNo.get() > 0) {
+			long seqNo = _nextPublishSeqNo.getAndIncrement();
+			for(ConfirmListener listener : _confirmListeners)
+				listener.handleAck(seqNo, false);
+		}
+	}
+
+	@Override
+	public AMQP.Confirm.SelectOk confirmSelect() {
+		_nextPublishSeqNo.compareAndSet(0, 1);
+		return new AMQImpl.Confirm.SelectOk();
+	}
+
+	@Override
+	public long getNextPublishSeqNo() {
+		return _nextPublishSeqNo.get();
+	}
+
+	@Override
+	public boolean waitForConfirms() {
+		return true;
+	}
+
+	@Override
+	public boolean waitForConfirms(long timeout) {
+		return true;
+	}
+
+	@Override
+	public void waitForConfirmsOrDie() {
+		// The messages are confirmed while publishing
+	}
+
+	@Override
+	public void waitForConfirmsOrDie(long timeout) {
+		// The messages are confirmed while publishing
+	}
+
+	@Override
+	public AMQP.Tx.SelectOk txSelect() {
+		return new AMQImpl.Tx.SelectOk();
+	}
+
+	@Override
+	public AMQP.Tx.CommitOk txCommit() {
+		return new AMQImpl.Tx.CommitOk();
+	}
+
+	@Override
+	public AMQP.Tx.RollbackOk txRollback() {
+		return new AMQImpl.Tx.RollbackOk();
+	}
+
+	/////////////////////////////////////////// Consume  //////////////////////////////////////////
+	@Override
+	public void basicQos(int prefetchSize, int prefetchCount, boolean global) {
+		// The messages are delivered on the publishing thread, no prefetch
+	}
+
+	@Override
+	public void basicQos(int prefetchCount, boolean global) {
+		// The messages are delivered on the publishing thread, no prefetch
+	}
+
+	@Override
+	public void basicQos(int prefetchCount) {
+		// The messages are delivered on the publishing thread, no prefetch
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, String consumerTag, boolean noLocal,
+			boolean exclusive, Map<String, Object> arguments, Consumer callback) throws IOException {
+		ensureOpen();
+
+		String tag = consumerTag == null || consumerTag.isEmpty()?
+				"amq.ctag-" + _channelNumber + "-" + _consumerTagNo.incrementAndGet()
+				: consumerTag;
+		_broker.addConsumer(queue, this, tag, callback);
+		_consumers.put(tag, callback);
+		callback.handleConsumeOk(tag);
+		return tag;
+	}
+
+	@Override
+	public String basicConsume(String queue, Consumer callback) throws IOException {
+		return basicConsume(queue, false, "", false, false, null, callback);
+	}
+
+	@Override
+	public String basicConsume(String queue, DeliverCallback deliverCallback, CancelCallback cancelCallback)
+			throws IOException {
+		return basicConsume(queue, false, "", false, false, null,
+				callbackConsumer(deliverCallback, cancelCallback, null));
+	}
+
+	@Override
+	public String basicConsume(String queue, DeliverCallback deliverCallback,
+			ConsumerShutdownSignalCallback shutdownSignalCallback) throws IOException {
+		return basicConsume(queue, false, "", false, false, null,
+				callbackConsumer(deliverCallback, null, shutdownSignalCallback));
+	}
+
+	@Override
+	public String basicConsume(String queue, DeliverCallback deliverCallback, CancelCallback cancelCallback,
+			ConsumerShutdownSignalCallback shutdownSignalCallback) throws IOException {
+		return basicConsume(queue, false, "", false, false, null,
+				callbackConsumer(deliverCallback, cancelCallback, shutdownSignalCallback));
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, Consumer callback) throws IOException {
+		return basicConsume(queue, autoAck, "", false, false, null, callback);
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, DeliverCallback deliverCallback,
+			CancelCallback cancelCallback) throws IOException {
+		return basicConsume(queue, autoAck, "", false, false, null,
+				callbackConsumer(deliverCallback, cancelCallback, null));
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, DeliverCallback deliverCallback,
+			ConsumerShutdownSignalCallback shutdownSignalCallback) throws IOException {
+		return basicConsume(queue, autoAck, "", false, false, null,
+				callbackConsumer(deliverCallback, null, shutdownSignalCallback));
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, DeliverCallback deliverCallback,
+			CancelCallback cancelCallback, ConsumerShutdownSignalCallback shutdownSignalCallback)
+			throws IOException {
+		return basicConsume(queue, autoAck, "", false, false, null,
+				callbackConsumer(deliverCallback, cancelCallback, shutdownSignalCallback));
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, Map<String, Object> arguments,
+			Consumer callback) throws IOException {
+		return basicConsume(queue, autoAck, "", false, false, arguments, callback);
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, Map<String, Object> arguments,
+			DeliverCallback deliverCallback, CancelCallback cancelCallback) throws IOException {
+		return basicConsume(queue, autoAck, "", false, false, arguments,
+				callbackConsumer(deliverCallback, cancelCallback, null));
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, Map<String, Object> arguments,
+			DeliverCallback deliverCallback, ConsumerShutdownSignalCallback shutdownSignalCallback)
+			throws IOException {
+		return basicConsume(queue, autoAck, "", false, false, arguments,
+				callbackConsumer(deliverCallback, null, shutdownSignalCallback));
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, Map<String, Object> arguments,
+			DeliverCallback deliverCallback, CancelCallback cancelCallback,
+			ConsumerShutdownSignalCallback shutdownSignalCallback) throws IOException {
+		return basicConsume(queue, autoAck, "", false, false, arguments,
+				callbackConsumer(deliverCallback, cancelCallback, shutdownSignalCallback));
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, String consumerTag, Consumer callback)
+			throws IOException {
+		return basicConsume(queue, autoAck, consumerTag, false, false, null, callback);
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, String consumerTag,
+			DeliverCallback deliverCallback, CancelCallback cancelCallback) throws IOException {
+		return basicConsume(queue, autoAck, consumerTag, false, false, null,
+				callbackConsumer(deliverCallback, cancelCallback, null));
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, String consumerTag,
+			DeliverCallback deliverCallback, ConsumerShutdownSignalCallback shutdownSignalCallback)
+			throws IOException {
+		return basicConsume(queue, autoAck, consumerTag, false, false, null,
+				callbackConsumer(deliverCallback, null, shutdownSignalCallback));
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, String consumerTag,
+			DeliverCallback deliverCallback, CancelCallback cancelCallback,
+			ConsumerShutdownSignalCallback shutdownSignalCallback) throws IOException {
+		return basicConsume(queue, autoAck, consumerTag, false, false, null,
+				callbackConsumer(deliverCallback, cancelCallback, shutdownSignalCallback));
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, String consumerTag, boolean noLocal,
+			boolean exclusive, Map<String, Object> arguments, DeliverCallback deliverCallback,
+			CancelCallback cancelCallback) throws IOException {
+		return basicConsume(queue, autoAck, consumerTag, noLocal, exclusive, arguments,
+				callbackConsumer(deliverCallback, cancelCallback, null));
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, String consumerTag, boolean noLocal,
+			boolean exclusive, Map<String, Object> arguments, DeliverCallback deliverCallback,
+			ConsumerShutdownSignalCallback shutdownSignalCallback) throws IOException {
+		return basicConsume(queue, autoAck, consumerTag, noLocal, exclusive, arguments,
+				callbackConsumer(deliverCallback, null, shutdownSignalCallback));
+	}
+
+	@Override
+	public String basicConsume(String queue, boolean autoAck, String consumerTag, boolean noLocal,
+			boolean exclusive, Map<String, Object> arguments, DeliverCallback deliverCallback,
+			CancelCallback cancelCallback, ConsumerShutdownSignalCallback shutdownSignalCallback)
+			throws IOException {
+		return basicConsume(queue, autoAck, consumerTag, noLocal, exclusive, arguments,
+				callbackConsumer(deliverCallback, cancelCallback, shutdownSignalCallback));
+	}
+
+	/**
+	 * Adapt the functional callbacks to a {@link Consumer}
+	 */
+	private Consumer callbackConsumer(final DeliverCallback deliverCallback,
+			final CancelCallback cancelCallback,
+			final ConsumerShutdownSignalCallback shutdownSignalCallback) {
+		return new DefaultConsumer(this) {
+			@Override
+			public void handleDelivery(String consumerTag, Envelope envelope,
+					BasicProperties properties, byte[] body) throws IOException {
+				deliverCallback.handle(consumerTag, new Delivery(envelope, properties, body));
+			}
+
+			@Override
+			public void handleCancel(String consumerTag) throws IOException {
+				if(cancelCallback != null)
+					cancelCallback.handle(consumerTag);
+			}
+
+			@Override
+			public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+				if(shutdownSignalCallback != null)
+					shutdownSignalCallback.handleShutdownSignal(consumerTag, sig);
+			}
+		};
+	}
+
+	@Override
+	public void basicCancel(String consumerTag) throws IOException {
+		Consumer consumer = _consumers.remove(consumerTag);
+		if(consumer == null)
+			throw new IOException("Unknown consumerTag: " + consumerTag);
+
+		_broker.removeConsumer(consumerTag);
+		consumer.handleCancelOk(consumerTag);
+	}
+
+	@Override
+	public GetResponse basicGet(String queue, boolean autoAck) {
+		// The messages are delivered to the consumers or dropped, never kept
+		return null;
+	}
+
+	@Override
+	public void basicAck(long deliveryTag, boolean multiple) {
+		// The delivered messages are not kept
+	}
+
+	@Override
+	public void basicNack(long deliveryTag, boolean multiple, boolean requeue) {
+		// The delivered messages are not kept
+	}
+
+	@Override
+	public void basicReject(long deliveryTag, boolean requeue) {
+		// The delivered messages are not kept
+	}
+
+	@Override
+	public AMQP.Basic.RecoverOk basicRecover() {
+		return new AMQImpl.Basic.RecoverOk();
+	}
+
+	@Override
+	public AMQP.Basic.RecoverOk basicRecover(boolean requeue) {
+		return new AMQImpl.Basic.RecoverOk();
+	}
+
+	/////////////////////////////////////////// Queues  ///////////////////////////////////////////
+	@Override
+	public AMQP.Queue.DeclareOk queueDeclare() {
+		return new AMQImpl.Queue.DeclareOk(_broker.declareQueue(""), 0, 0);
+	}
+
+	@Override
+	public AMQP.Queue.DeclareOk queueDeclare(String queue, boolean durable, boolean exclusive,
+			boolean autoDelete, Map<String, Object> arguments) {
+		String queueName = _broker.declareQueue(queue);
+		return new AMQImpl.Queue.DeclareOk(queueName, 0, _broker.getConsumerCount(queueName));
+	}
+
+	@Override
+	public void queueDeclareNoWait(String queue, boolean durable, boolean exclusive, boolean autoDelete,
+			Map<String, Object> arguments) {
+		_broker.declareQueue(queue);
+	}
+
+	@Override
+	public AMQP.Queue.DeclareOk queueDeclarePassive(String queue) throws IOException {
+		if(!_broker.hasQueue(queue))
+			throw new IOException("NOT_FOUND - no queue '" + queue + "'");
+		return new AMQImpl.Queue.DeclareOk(queue, 0, _broker.getConsumerCount(queue));
+	}
+
+	@Override
+	public AMQP.Queue.DeleteOk queueDelete(String queue) {
+		_broker.deleteQueue(queue);
+		return new AMQImpl.Queue.DeleteOk(0);
+	}
+
+	@Override
+	public AMQP.Queue.DeleteOk queueDelete(String queue, boolean ifUnused, boolean ifEmpty) {
+		return queueDelete(queue);
+	}
+
+	@Override
+	public void queueDeleteNoWait(String queue, boolean ifUnused, boolean ifEmpty) {
+		_broker.deleteQueue(queue);
+	}
+
+	@Override
+	public AMQP.Queue.BindOk queueBind(String queue, String exchange, String routingKey) {
+		return new AMQImpl.Queue.BindOk();
+	}
+
+	@Override
+	public AMQP.Queue.BindOk queueBind(String queue, String exchange, String routingKey,
+			Map<String, Object> arguments) {
+		return new AMQImpl.Queue.BindOk();
+	}
+
+	@Override
+	public void queueBindNoWait(String queue, String exchange, String routingKey,
+			Map<String, Object> arguments) {
+		// The bindings are not kept
+	}
+
+	@Override
+	public AMQP.Queue.UnbindOk queueUnbind(String queue, String exchange, String routingKey) {
+		return new AMQImpl.Queue.UnbindOk();
+	}
+
+	@Override
+	public AMQP.Queue.UnbindOk queueUnbind(String queue, String exchange, String routingKey,
+			Map<String, Object> arguments) {
+		return new AMQImpl.Queue.UnbindOk();
+	}
+
+	@Override
+	public AMQP.Queue.PurgeOk queuePurge(String queue) {
+		return new AMQImpl.Queue.PurgeOk(0);
+	}
+
+	@Override
+	public long messageCount(String queue) {
+		return 0;
+	}
+
+	@Override
+	public long consumerCount(String queue) {
+		return _broker.getConsumerCount(queue);
+	}
+
+	/////////////////////////////////////////// Exchanges  ////////////////////////////////////////
+	@Override
+	public AMQP.Exchange.DeclareOk exchangeDeclare(String exchange, String type) {
+		return new AMQImpl.Exchange.DeclareOk();
+	}
+
+	@Override
+	public AMQP.Exchange.DeclareOk exchangeDeclare(String exchange, BuiltinExchangeType type) {
+		return new AMQImpl.Exchange.DeclareOk();
+	}
+
+	@Override
+	public AMQP.Exchange.DeclareOk exchangeDeclare(String exchange, String type, boolean durable) {
+		return new AMQImpl.Exchange.DeclareOk();
+	}
+
+	@Override
+	public AMQP.Exchange.DeclareOk exchangeDeclare(String exchange, BuiltinExchangeType type,
+			boolean durable) {
+		return new AMQImpl.Exchange.DeclareOk();
+	}
+
+	@Override
+	public AMQP.Exchange.DeclareOk exchangeDeclare(String exchange, String type, boolean durable,
+			boolean autoDelete, Map<String, Object> arguments) {
+		return new AMQImpl.Exchange.DeclareOk();
+	}
+
+	@Override
+	public AMQP.Exchange.DeclareOk exchangeDeclare(String exchange, BuiltinExchangeType type,
+			boolean durable, boolean autoDelete, Map<String, Object> arguments) {
+		return new AMQImpl.Exchange.DeclareOk();
+	}
+
+	@Override
+	public AMQP.Exchange.DeclareOk exchangeDeclare(String exchange, String type, boolean durable,
+			boolean autoDelete, boolean internal, Map<String, Object> arguments) {
+		return new AMQImpl.Exchange.DeclareOk();
+	}
+
+	@Override
+	public AMQP.Exchange.DeclareOk exchangeDeclare(String exchange, BuiltinExchangeType type,
+			boolean durable, boolean autoDelete, boolean internal, Map<String, Object> arguments) {
+		return new AMQImpl.Exchange.DeclareOk();
+	}
+
+	@Override
+	public void exchangeDeclareNoWait(String exchange, String type, boolean durable, boolean autoDelete,
+			boolean internal, Map<String, Object> arguments) {
+		// The exchanges are not kept
+	}
+
+	@Override
+	public void exchangeDeclareNoWait(String exchange, BuiltinExchangeType type, boolean durable,
+			boolean autoDelete, boolean internal, Map<String, Object> arguments) {
+		// The exchanges are not kept
+	}
+
+	@Override
+	public AMQP.Exchange.DeclareOk exchangeDeclarePassive(String name) {
+		return new AMQImpl.Exchange.DeclareOk();
+	}
+
+	@Override
+	public AMQP.Exchange.DeleteOk exchangeDelete(String exchange, boolean ifUnused) {
+		return new AMQImpl.Exchange.DeleteOk();
+	}
+
+	@Override
+	public void exchangeDeleteNoWait(String exchange, boolean ifUnused) {
+		// The exchanges are not kept
+	}
+
+	@Override
+	public AMQP.Exchange.DeleteOk exchangeDelete(String exchange) {
+		return new AMQImpl.Exchange.DeleteOk();
+	}
+
+	@Override
+	public AMQP.Exchange.BindOk exchangeBind(String destination, String source, String routingKey) {
+		return new AMQImpl.Exchange.BindOk();
+	}
+
+	@Override
+	public AMQP.Exchange.BindOk exchangeBind(String destination, String source, String routingKey,
+			Map<String, Object> arguments) {
+		return new AMQImpl.Exchange.BindOk();
+	}
+
+	@Override
+	public void exchangeBindNoWait(String destination, String source, String routingKey,
+			Map<String, Object> arguments) {
+		// The bindings are not kept
+	}
+
+	@Override
+	public AMQP.Exchange.UnbindOk exchangeUnbind(String destination, String source, String routingKey) {
+		return new AMQImpl.Exchange.UnbindOk();
+	}
+
+	@Override
+	public AMQP.Exchange.UnbindOk exchangeUnbind(String destination, String source, String routingKey,
+			Map<String, Object> arguments) {
+		return new AMQImpl.Exchange.UnbindOk();
+	}
+
+	@Override
+	public void exchangeUnbindNoWait(String destination, String source, String routingKey,
+			Map<String, Object> arguments) {
+		// The bindings are not kept
+	}
+
+	/////////////////////////////////////////// RPC  //////////////////////////////////////////////
+	@Override
+	public void asyncRpc(Method method) {
+		throw new UnsupportedOperationException("Raw methods are not supported by the in-memory channel");
+	}
+
+	@Override
+	public Command rpc(Method method) {
+		throw new UnsupportedOperationException("Raw methods are not supported by the in-memory channel");
+	}
+
+	@Override
+	public CompletableFuture<Command> asyncCompletableRpc(Method method) {
+		throw new UnsupportedOperationException("Raw methods are not supported by the in-memory channel");
+	}
+
+	private void ensureOpen() {
+		ShutdownSignalException closeReason = _closeReason;
+		if(closeReason != null)
+			throw new AlreadyClosedException(closeReason);
+	}
+}
@@ -0,0 +1,237 @@
+package com.karim.examples.rabbitmq.benchmarks.fake;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.rabbitmq.client.BlockedCallback;
+import com.rabbitmq.client.BlockedListener;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.ExceptionHandler;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.UnblockedCallback;
+import com.rabbitmq.client.impl.DefaultExceptionHandler;
+
+/**
+ * In-memory {@link Connection} opening {@link InMemoryChannel}s on an {@link InMemoryBroker}.
+ * The connection is never blocked, its blocked listeners are kept but never called.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class InMemoryConnection implements Connection {
+	private static final int REPLY_SUCCESS = 200;
+
+	private final InMemoryBroker _broker;
+	private final String _clientProvidedName;
+	private final ExceptionHandler _exceptionHandler = new DefaultExceptionHandler();
+
+	// Opened channels by channel number
+	private final ConcurrentMap<Integer, InMemoryChannel> _channels = new ConcurrentHashMap<>();
+	private final AtomicInteger _channelNo = new AtomicInteger();
+
+	private final List<ShutdownListener> _shutdownListeners = new CopyOnWriteArrayList<>();
+	private final List<BlockedListener> _blockedListeners = new CopyOnWriteArrayList<>();
+
+	private volatile String _id;
+	private volatile ShutdownSignalException _closeReason;
+
+	InMemoryConnection(InMemoryBroker broker, String clientProvidedName) {
+		this._broker = broker;
+		this._clientProvidedName = clientProvidedName;
+	}
+
+	/**
+	 * Remove a closed channel
+	 */
+	void removeChannel(InMemoryChannel channel) {
+		_channels.remove(channel.getChannelNumber(), channel);
+	}
+
+	@Override
+	public InetAddress getAddress() {
+		return InetAddress.getLoopbackAddress();
+	}
+
+	@Override
+	public int getPort() {
+		return ConnectionFactory.DEFAULT_AMQP_PORT;
+	}
+
+	@Override
+	public int getChannelMax() {
+		return ConnectionFactory.DEFAULT_CHANNEL_MAX;
+	}
+
+	@Override
+	public int getFrameMax() {
+		return ConnectionFactory.DEFAULT_FRAME_MAX;
+	}
+
+	@Override
+	public int getHeartbeat() {
+		return 0;
+	}
+
+	@Override
+	public Map<String, Object> getClientProperties() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public String getClientProvidedName() {
+		return _clientProvidedName;
+	}
+
+	@Override
+	public Map<String, Object> getServerProperties() {
+		return Collections.emptyMap();
+	}
+
+	@Override
+	public Channel createChannel() throws IOException {
+		return createChannel(_channelNo.incrementAndGet());
+	}
+
+	@Override
+	public Channel createChannel(int channelNumber) throws IOException {
+		if(_closeReason != null)
+			throw new IOException("The connection is closed", _closeReason);
+
+		InMemoryChannel channel = new InMemoryChannel(this, _broker, channelNumber);
+		if(_channels.putIfAbsent(channelNumber, channel) != null)
+			return null;
+		return channel;
+	}
+
+	@Override
+	public void close() {
+		close(REPLY_SUCCESS, "OK");
+	}
+
+	@Override
+	public void close(int closeCode, String closeMessage) {
+		synchronized (this) {
+			if(_closeReason != null)
+				return;
+			_closeReason = new ShutdownSignalException(true, true, null, this);
+		}
+
+		for(InMemoryChannel channel : _channels.values())
+			channel.shutdown(_closeReason);
+		notifyListeners();
+	}
+
+	@Override
+	public void close(int timeout) {
+		close();
+	}
+
+	@Override
+	public void close(int closeCode, String closeMessage, int timeout) {
+		close(closeCode, closeMessage);
+	}
+
+	@Override
+	public void abort() {
+		close();
+	}
+
+	@Override
+	public void abort(int closeCode, String closeMessage) {
+		close(closeCode, closeMessage);
+	}
+
+	@Override
+	public void abort(int timeout) {
+		close();
+	}
+
+	@Override
+	public void abort(int closeCode, String closeMessage, int timeout) {
+		close(closeCode, closeMessage);
+	}
+
+	@Override
+	public void addBlockedListener(BlockedListener listener) {
+		_blockedListeners.add(listener);
+	}
+
+	@Override
+	public BlockedListener addBlockedListener(BlockedCallback blockedCallback,
+			UnblockedCallback unblockedCallback) {
+		BlockedListener listener = new BlockedListener() {
+			@Override
+			public void handleBlocked(String reason) throws IOException {
+				blockedCallback.handle(reason);
+			}
+
+			@Override
+			public void handleUnblocked() throws IOException {
+				unblockedCallback.handle();
+			}
+		};
+		addBlockedListener(listener);
+		return listener;
+	}
+
+	@Override
+	public boolean removeBlockedListener(BlockedListener listener) {
+		return _blockedListeners.remove(listener);
+	}
+
+	@Override
+	public void clearBlockedListeners() {
+		_blockedListeners.clear();
+	}
+
+	@Override
+	public ExceptionHandler getExceptionHandler() {
+		return _exceptionHandler;
+	}
+
+	@Override
+	public String getId() {
+		return _id;
+	}
+
+	@Override
+	public void setId(String id) {
+		this._id = id;
+	}
+
+	@Override
+	public void addShutdownListener(ShutdownListener listener) {
+		_shutdownListeners.add(listener);
+	}
+
+	@Override
+	public void removeShutdownListener(ShutdownListener listener) {
+		_shutdownListeners.remove(listener);
+	}
+
+	@Override
+	public ShutdownSignalException getCloseReason() {
+		return _closeReason;
+	}
+
+	@Override
+	public void notifyListeners() {
+		for(ShutdownListener listener : _shutdownListeners)
+			listener.shutdownCompleted(_closeReason);
+	}
+
+	@Override
+	public boolean isOpen() {
+		return _closeReason == null;
+	}
+}
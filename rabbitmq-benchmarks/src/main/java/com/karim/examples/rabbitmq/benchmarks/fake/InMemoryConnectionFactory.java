@@ -0,0 +1,37 @@
+package com.karim.examples.rabbitmq.benchmarks.fake;
+
+import java.util.concurrent.ExecutorService;
+
+import com.rabbitmq.client.AddressResolver;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+/**
+ * {@link ConnectionFactory} opening {@link InMemoryConnection}s on a shared
+ * {@link InMemoryBroker} instead of connecting to a broker, to be provided by
+ * {@link com.karim.examples.rabbitmq.connector.configures.ConnectionConfigurer.Builder#withConnectionFactory}.
+ * The connection settings are accepted and ignored.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class InMemoryConnectionFactory extends ConnectionFactory {
+	private final InMemoryBroker _broker;
+
+	public InMemoryConnectionFactory(InMemoryBroker broker) {
+		this._broker = broker;
+	}
+
+	public InMemoryBroker getBroker() {
+		return _broker;
+	}
+
+	/**
+	 * All the newConnection methods end here
+	 */
+	@Override
+	public Connection newConnection(ExecutorService executor, AddressResolver addressResolver,
+			String clientProvidedName) {
+		return new InMemoryConnection(_broker, clientProvidedName);
+	}
+}
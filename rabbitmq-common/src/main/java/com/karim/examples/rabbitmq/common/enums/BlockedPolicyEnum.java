@@ -0,0 +1,12 @@
+package com.karim.examples.rabbitmq.common.enums;
+
+public enum BlockedPolicyEnum {
+	// Publish anyway, the publish waits until the broker unblocks the connection
+	BLOCK
+	// Fail the publish at once while the connection is blocked
+	, FAIL_FAST
+	// Wait for the broker to unblock the connection up to a timeout, then fail the publish
+	, TIMEOUT
+	// Append the message to the local outbox to be published once unblocked, fail if no outbox
+	, SPOOL;
+}
@@ -0,0 +1,10 @@
+package com.karim.examples.rabbitmq.common.enums;
+
+public enum ConfirmModeEnum {
+	// Publish without publisher confirms
+	NONE
+	// Enable publisher confirms and handle them in the background
+	, ASYNC
+	// Enable publisher confirms and wait for each confirm
+	, SYNC;
+}
@@ -0,0 +1,11 @@
+package com.karim.examples.rabbitmq.common.enums;
+
+public enum ConnectionPolicyEnum {
+	// Assign the channels to the connections in turn
+	ROUND_ROBIN
+	// Assign the channel to the connection with the fewest open channels, whatever its role,
+	// so the publishers and consumers may share a connection
+	, LEAST_LOADED
+	// Separate the publishers and consumers connections, in turn inside each role
+	, ROLE_BASED;
+}
@@ -0,0 +1,10 @@
+package com.karim.examples.rabbitmq.common.enums;
+
+public enum ConnectionProfileEnum {
+	// Small messages RPC, Nagle disabled and small socket buffers
+	LOW_LATENCY
+	// Many small/medium messages, large socket and NIO buffers
+	, HIGH_THROUGHPUT
+	// Messages of several megabytes, largest frames the broker accepts and very large buffers
+	, LARGE_MESSAGE;
+}
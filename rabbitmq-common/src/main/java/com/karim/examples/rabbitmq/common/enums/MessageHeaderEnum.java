@@ -14,6 +14,10 @@ public enum MessageHeaderEnum {
 	, EJ_ORIGIN_ROUTING_KEY
 	, EJ_ORIGIN_IP
 	, EJ_REQUEUE_COUNT
-	, EJ_REQUEUE_EXCEPTION;
+	, EJ_REQUEUE_EXCEPTION
+	, EJ_RETRY_COUNT
+	, EJ_REQUEUE_PUBLISH_SEQ
+	, EJ_DUPLICATE_REQUEST
+	, EJ_PUBLISH_TIMESTAMP;
 
 }
@@ -0,0 +1,25 @@
+package com.karim.examples.rabbitmq.common.enums;
+
+public enum StreamOffsetEnum {
+	// Consume from the first message kept in the stream
+	FIRST("first")
+	// Consume from the last written chunk of messages
+	, LAST("last")
+	// Consume only the messages written after the consumer started
+	, NEXT("next")
+	// Consume from an absolute offset
+	, OFFSET(null)
+	// Consume from the messages written at a point in time
+	, TIMESTAMP(null);
+	
+	// x-stream-offset argument value, null if given by the consumer
+	private String value;
+	
+	private StreamOffsetEnum(String value) {
+		this.value = value;
+	}
+	
+	public String value() {
+		return this.value;
+	}
+}
@@ -1,41 +1,65 @@
 package com.karim.examples.rabbitmq.connector;
 
 import java.io.IOException;
+import java.net.Socket;
 import java.nio.charset.Charset;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
+import com.karim.examples.rabbitmq.common.enums.ConfirmModeEnum;
 import com.karim.examples.rabbitmq.common.enums.ContentTypeEnum;
 import com.karim.examples.rabbitmq.common.enums.DeliveryModeEnum;
 import com.karim.examples.rabbitmq.common.enums.MessageHeaderEnum;
+import com.karim.examples.rabbitmq.connector.ConnectionGroup.ChannelRole;
 import com.karim.examples.rabbitmq.connector.configures.ConnectionConfigurer;
 import com.karim.examples.rabbitmq.connector.configures.ConsumerConfigurer;
 import com.karim.examples.rabbitmq.connector.configures.ProducerConfigurer;
+import com.karim.examples.rabbitmq.connector.dedupe.MessageDeduplicator;
 import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
 import com.karim.examples.rabbitmq.connector.exceptions.JAXBCustomException;
 import com.karim.examples.rabbitmq.connector.exceptions.JSONCustomException;
 import com.karim.examples.rabbitmq.connector.exceptions.RuntimeCustomException;
 import com.karim.examples.rabbitmq.connector.exceptions.TimeoutCustomException;
+import com.karim.examples.rabbitmq.connector.metrics.AMQPMetrics;
+import com.karim.examples.rabbitmq.connector.metrics.AMQPMetricsCollector;
+import com.karim.examples.rabbitmq.connector.metrics.LatencyHistogram;
+import com.karim.examples.rabbitmq.connector.metrics.RetryMetrics;
+import com.karim.examples.rabbitmq.connector.ratecontrol.PublishRateController;
 import com.karim.examples.rabbitmq.connector.parser.JSONFormatter;
 import com.karim.examples.rabbitmq.connector.parser.XmlFormatter;
 import com.karim.examples.rabbitmq.connector.util.AMQPResourceBundle;
+import com.karim.examples.rabbitmq.connector.util.EpochClock;
+import com.karim.examples.rabbitmq.connector.util.HashedWheelTimer;
 import com.karim.examples.rabbitmq.connector.util.Log4j;
+import com.karim.examples.rabbitmq.connector.util.NamedThreadFactory;
 import com.karim.examples.rabbitmq.connector.util.NetworkUtil;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.BlockedListener;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.ConfirmListener;
 import com.rabbitmq.client.Connection;
@@ -43,7 +67,11 @@ import com.rabbitmq.client.ConnectionFactory;
 import com.rabbitmq.client.Consumer;
 import com.rabbitmq.client.DefaultConsumer;
 import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
 import com.rabbitmq.client.ReturnListener;
+import com.rabbitmq.client.impl.nio.NioParams;
+import com.rabbitmq.client.impl.recovery.AutorecoveringConnection;
 
 /**
  * This class contains a set of methods that operates on sending and receiving messages from 
@@ -62,18 +90,46 @@ public final class AMQPService {
     //Create an executor thread pool
     private final ExecutorService executorService;
     
-	//Represent a connection to the queues in connection factory module
-	private final Connection connection;
+    //Executor used to retry the consumers registration
+    private final ExecutorService recoveryExecutorService;
+    
+    //Executors created by the service and shut down when it's closed
+    private final List<ExecutorService> ownedExecutorServices = new ArrayList<>();
+    
+	//Represent the connections to the queues in connection factory module
+	private final ConnectionGroup connectionGroup;
+	
+	//Shared timer used for the reply timeouts and the consumer retry delays
+	private final HashedWheelTimer timer = HashedWheelTimer.getSharedTimer();
+	
+	//Asynchronous reply consumers by reply queue name, empty name for the server-named queue
+	private final ConcurrentMap<String, RpcReplyConsumer> replyConsumers = new ConcurrentHashMap<>();
+	
+	//Messages spooled while the broker is unavailable, null if not enabled
+	private final Outbox outbox;
+	
+	//Offsets of the consumed streams, checkpointed on shutdown
+	private final Set<StreamOffsetTracker> streamOffsets = ConcurrentHashMap.newKeySet();
+	
+	//Registry sharing the service, null if the service owned by the caller
+	private volatile AMQPServiceRegistry registry;
+	
+	//Service metrics, the hot path metrics are kept to not look up the registry per message
+	private final AMQPMetrics metrics;
+	private final LatencyHistogram publishLatency;
+	private final LatencyHistogram confirmLatency;
+	private final LongAdder outstandingConfirms;
+	private final LongAdder publishReturns;
+	private final LongAdder publishNacks;
+	private final LatencyHistogram rpcRoundTrip;
+	private final LongAdder rpcTimeouts;
+	private final LongAdder publishBlockedFailures;
+	private final LatencyHistogram publishThrottleWait;
+	private final LongAdder publishThrottleFailures;
 	
 	//Default messages encoding
 	private static final Charset UTF_8 = Charset.forName("UTF-8");
     
-    //Available processors size
-	private static final int AVAILABLE_PROCESSORS = Runtime.getRuntime().availableProcessors();
-	
-    //Max consumer executor pool size
-	private static final int MAX_POOL_SIZE = 10;
-	
 	// Default waiting for a reply in seconds using pushAndWaitForReply.
 	private static final long DEFAULT_WAIT_FOR_REPLY = TimeUnit.MINUTES.toSeconds(2);
 
@@ -92,9 +148,30 @@ public final class AMQPService {
 		
 		// Preserve the connection configuration parameters
 		this.connectionConfigurer = argsConfigurer;
+		
+		// Record into the shared metrics registry if provided
+		this.metrics = argsConfigurer.getMetrics() != null? 
+				argsConfigurer.getMetrics() 
+				: new AMQPMetrics();
+		this.publishLatency = metrics.histogram(AMQPMetrics.PUBLISH_LATENCY);
+		this.confirmLatency = metrics.histogram(AMQPMetrics.PUBLISH_CONFIRM_LATENCY);
+		this.outstandingConfirms = metrics.counter(AMQPMetrics.PUBLISH_OUTSTANDING_CONFIRMS);
+		this.publishReturns = metrics.counter(AMQPMetrics.PUBLISH_RETURNS);
+		this.publishNacks = metrics.counter(AMQPMetrics.PUBLISH_NACKS);
+		this.rpcRoundTrip = metrics.histogram(AMQPMetrics.RPC_ROUND_TRIP);
+		this.rpcTimeouts = metrics.counter(AMQPMetrics.RPC_TIMEOUTS);
+		this.publishBlockedFailures = metrics.counter(AMQPMetrics.PUBLISH_BLOCKED_FAILURES);
+		this.publishThrottleWait = metrics.histogram(AMQPMetrics.PUBLISH_THROTTLE_WAIT);
+		this.publishThrottleFailures = metrics.counter(AMQPMetrics.PUBLISH_THROTTLE_FAILURES);
 				
-		// Start initializing the connection factory
-		ConnectionFactory connectionFactory = new ConnectionFactory();
+		// Start initializing the connection factory, the provided one or on the shared event loops if exist
+		ConnectionFactory connectionFactory;
+		if(argsConfigurer.getConnectionFactory() != null)
+			connectionFactory = argsConfigurer.getConnectionFactory();
+		else if(argsConfigurer.getNioEventLoopGroup() != null)
+			connectionFactory = argsConfigurer.getNioEventLoopGroup().newConnectionFactory();
+		else
+			connectionFactory = new ConnectionFactory();
 
 		try {
 			// Setting the AMQP virtual host
@@ -126,40 +203,356 @@ public final class AMQPService {
 			
 			//Set connection heartbeat timeout
 			connectionFactory.setRequestedHeartbeat(argsConfigurer.getRequestedHeartbeatTimeout());
+			
+			//Set the frame, channel and work pool shutdown limits
+			connectionFactory.setRequestedFrameMax(argsConfigurer.getRequestedFrameMax());
+			connectionFactory.setRequestedChannelMax(argsConfigurer.getRequestedChannelMax());
+			connectionFactory.setShutdownTimeout(argsConfigurer.getShutdownTimeout());
+			
+			//Set the socket options
+			connectionFactory.setSocketConfigurator(socket -> configureSocket(socket, argsConfigurer));
+			
+			//Count the connections, channels and messages
+			connectionFactory.setMetricsCollector(new AMQPMetricsCollector(metrics));
 
+			//Name the connections threads
+			ThreadFactory threadFactory = argsConfigurer.getThreadFactory();
+			connectionFactory.setThreadFactory(threadFactory != null? 
+					threadFactory 
+					: new NamedThreadFactory(argsConfigurer.getApplicationName() + "-amqp-connection"));
+			
+			if(argsConfigurer.getShutdownExecutor() != null)
+				connectionFactory.setShutdownExecutor(argsConfigurer.getShutdownExecutor());
+			
+			//Use NIO event loops instead of a reader thread per connection
+			if(argsConfigurer.isUseNio() && argsConfigurer.getNioEventLoopGroup() == null) {
+				NioParams nioParams = new NioParams()
+						.setNbIoThreads(argsConfigurer.getNioThreads())
+						.setReadByteBufferSize(argsConfigurer.getNioReadBufferSize())
+						.setWriteByteBufferSize(argsConfigurer.getNioWriteBufferSize());
+				if(argsConfigurer.getNioExecutor() != null)
+					nioParams.setNioExecutor(argsConfigurer.getNioExecutor());
+				
+				connectionFactory.useNio();
+				connectionFactory.setNioParams(nioParams);
+			}
+			
+			if(argsConfigurer.isUseNio()) {
+				connectionFactory.getNioParams().setSocketChannelConfigurator(
+						socketChannel -> configureSocket(socketChannel.socket(), argsConfigurer));
+			}
+			
 			//Create the thread pool to be used be connection consumers
-			int poolSize = AVAILABLE_PROCESSORS > MAX_POOL_SIZE ? 
-					MAX_POOL_SIZE 
-					: AVAILABLE_PROCESSORS;
-			executorService = Executors.newFixedThreadPool(poolSize);
+			executorService = createDispatchExecutor(argsConfigurer);
+			
+			//Separate the consumers retry from the dispatch threads
+			if(argsConfigurer.getRecoveryExecutor() != null) {
+				recoveryExecutorService = argsConfigurer.getRecoveryExecutor();
+			} else {
+				recoveryExecutorService = Executors.newSingleThreadExecutor(
+						new NamedThreadFactory(argsConfigurer.getApplicationName() + "-amqp-recovery", true));
+				ownedExecutorServices.add(recoveryExecutorService);
+			}
 			
-			// Establish the connection
+			// Establish the connections
 			if(argsConfigurer.getHost() != null) {
 				connectionFactory.setHost(argsConfigurer.getHost());
 				connectionFactory.setPort(argsConfigurer.getPort());
-				this.connection = connectionFactory.newConnection(executorService);
-			} else {
-				this.connection = connectionFactory.newConnection(executorService, 
-						argsConfigurer.getAddresses());
+			}
+			this.connectionGroup = ConnectionGroup.open(connectionFactory, 
+					executorService, 
+					argsConfigurer, 
+					metrics.counter(AMQPMetrics.PUBLISH_BLOCKED));
+			
+			// Open the outbox and replay the messages left from a previous run
+			this.outbox = argsConfigurer.getOutboxDirectory() == null? 
+					null 
+					: new Outbox(argsConfigurer.getOutboxDirectory(), 
+							argsConfigurer.getOutboxSegmentSize(), 
+							connectionGroup, 
+							recoveryExecutorService, 
+							timer, 
+							metrics.counter(AMQPMetrics.OUTBOX_RETURNS));
+			
+			// Keep the asynchronous reply consumers pointing to the recovered server-named queues
+			for(Connection connection : connectionGroup.getConnections()) {
+				// Publish the spooled messages once the broker unblocked the connection
+				connection.addBlockedListener(reason -> {}, () -> {
+					if(outbox != null)
+						outbox.replayNow();
+				});
+				
+				if(connection instanceof AutorecoveringConnection) {
+					((AutorecoveringConnection) connection).addQueueRecoveryListener((oldName, newName) -> {
+						for(RpcReplyConsumer replyConsumer : replyConsumers.values()) {
+							if(oldName.equals(replyConsumer.getReplyQueueName()))
+								replyConsumer.setReplyQueueName(newName);
+						}
+					});
+					
+					// Count the recoveries and publish the spooled messages once the connection recovered
+					final LongAdder recoveriesStarted = metrics.counter(AMQPMetrics.RECOVERIES_STARTED);
+					final LongAdder recoveriesCompleted = metrics.counter(AMQPMetrics.RECOVERIES_COMPLETED);
+					((AutorecoveringConnection) connection).addRecoveryListener(new RecoveryListener() {
+						@Override
+						public void handleRecovery(Recoverable recoverable) {
+							recoveriesCompleted.increment();
+							if(outbox != null)
+								outbox.replayNow();
+						}
+						
+						@Override
+						public void handleRecoveryStarted(Recoverable recoverable) {
+							recoveriesStarted.increment();
+						}
+					});
+				}
 			}
 		} catch (KeyManagementException | NoSuchAlgorithmException e) { //Problem with SSL protocol
-			close();
+			shutdown();
 			
-			Log4j.traceErrorException(AMQPService.class, e, e.getMessage());
+			Log4j.traceErrorException(AMQPService.class, e, "Problem with the SSL protocol: {}", e.getMessage());
 			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP005"), e);
 		} catch (IOException | TimeoutException e) { //Problem during establish the connection
-			close();
+			shutdown();
 
-			Log4j.traceErrorException(AMQPService.class, e, e.getMessage());
+			Log4j.traceErrorException(AMQPService.class, e, "Problem during establishing the connection: {}", e.getMessage());
 			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP006"), e);
 		} catch (Exception e) { // Unknown problem
-			close();
+			shutdown();
 
-			Log4j.traceErrorException(AMQPService.class, e, e.getMessage());
+			Log4j.traceErrorException(AMQPService.class, e, "Problem during starting the service: {}", e.getMessage());
 			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP000"), e);
 		}
 	}
 	
+	/**
+	 * Invoke the handler and retry it on the consumer thread for the retryable exceptions, 
+	 * so the transient failures don't take a round trip through the delay queues. The 
+	 * retry no is set to {@link MessageHeaderEnum#EJ_RETRY_COUNT} header before each retry.
+	 * 
+	 * The backoff sleeps on the consumer thread, the channel doesn't dispatch the next 
+	 * deliveries meanwhile, so the retries of a message stop once their total backoff would 
+	 * exceed {@link ConsumerConfigurer#getMaxTotalRetryBackoff()}.
+	 * 
+	 * @category Consumer
+	 * @param argsConfigurer	the consumer configuration
+	 * @param handler			handling business code
+	 * @param message			the un-marshaled message
+	 * @param headers			the message headers
+	 * @param retryMetrics		the queue retries counters
+	 * @return the handler result
+	 * @throws Exception the last handler exception if not retryable or the retries exhausted
+	 */
+	private <E, R> R handleWithRetry(ConsumerConfigurer argsConfigurer,
+			MessageHandler<E, R> handler,
+			E message,
+			Map<String, Object> headers,
+			RetryMetrics retryMetrics) throws Exception {
+		int attempt = 0;
+		long totalBackoff = 0;
+		while(true) {
+			try {
+				R returnObj = handler.handleDelivery(message, headers);
+				if(attempt > 0)
+					retryMetrics.recordRecovered();
+				return returnObj;
+			} catch(Exception e) {
+				long backoff = argsConfigurer.getRetryBackoff(attempt + 1);
+				if(attempt >= argsConfigurer.getMaxRetryAttempts() 
+						|| !argsConfigurer.isRetryable(e)
+						|| totalBackoff + backoff > argsConfigurer.getMaxTotalRetryBackoff()) {
+					if(attempt > 0)
+						retryMetrics.recordExhausted();
+					throw e;
+				}
+				
+				attempt++;
+				totalBackoff += backoff;
+				Log4j.traceDebug(AMQPService.class, "Retry {} of the message: {} after {} ms", 
+						attempt, headers.get(MessageHeaderEnum.MESSAGE_ID.name()), backoff);
+				
+				try {
+					Thread.sleep(backoff);
+				} catch(InterruptedException ie) {
+					// The service is closing, reject the message
+					Thread.currentThread().interrupt();
+					retryMetrics.recordExhausted();
+					throw e;
+				}
+				
+				headers.put(MessageHeaderEnum.EJ_RETRY_COUNT.name(), attempt);
+				retryMetrics.recordAttempt();
+			}
+		}
+	}
+	
+	/**
+	 * Get the in-process retries counters of a consumed queue, registered in 
+	 * {@link #getMetrics()}
+	 * 
+	 * @category Consumer
+	 * @param queueName the consumed queue name
+	 * @return the queue retries counters
+	 */
+	public RetryMetrics getRetryMetrics(String queueName) {
+		return new RetryMetrics(metrics, queueName);
+	}
+	
+	/**
+	 * @category Common
+	 * @return the service metrics registry
+	 */
+	public AMQPMetrics getMetrics() {
+		return this.metrics;
+	}
+	
+	/**
+	 * The broker blocks the publishing connections while a memory or disk alarm is set, and
+	 * the publishes are handled by {@link ProducerConfigurer#getBlockedPolicy()} meanwhile.
+	 * 
+	 * @category Producer
+	 * @return true if one of the publishing connections is blocked by the broker
+	 */
+	public boolean isPublishBlocked() {
+		return connectionGroup.isBlocked(ChannelRole.PUBLISHER);
+	}
+	
+	/**
+	 * Add a listener notified when the broker blocks or unblocks any of the service 
+	 * connections, so the application can shed or slow down its load.
+	 * 
+	 * @category Common
+	 * @param listener the blocked listener
+	 */
+	public void addBlockedListener(BlockedListener listener) {
+		for(Connection connection : connectionGroup.getConnections())
+			connection.addBlockedListener(listener);
+	}
+	
+	/**
+	 * @category Common
+	 * @param listener the blocked listener added by {@link #addBlockedListener(BlockedListener)}
+	 */
+	public void removeBlockedListener(BlockedListener listener) {
+		for(Connection connection : connectionGroup.getConnections())
+			connection.removeBlockedListener(listener);
+	}
+	
+	/**
+	 * Publish a failed message to the delay tier of its requeue count, so the first 
+	 * failures are retried quickly and the repeated ones are delayed longer.
+	 * 
+	 * @category Consumer
+	 * @param replyPublisher	the consumer publishing channel
+	 * @param argsConfigurer	the consumer configuration
+	 * @param properties		the failed message properties
+	 * @param body				the failed message body
+	 * @param cause				the handling exception
+	 * @param retryCount		the no of in-process retries done, null if not retried
+	 * @return true if the message is published to the delay tier, false if no redelivery 
+	 * 			exchange configured, the publish failed or the message returned as no tier 
+	 * 			bound to its routing key, and the message should be rejected
+	 */
+	private boolean requeueToDelayTier(ReplyPublisher replyPublisher,
+			ConsumerConfigurer argsConfigurer,
+			BasicProperties properties,
+			byte[] body,
+			Throwable cause,
+			Object retryCount) {
+		if(argsConfigurer.getRedeliveryExchange() == null)
+			return false;
+		
+		Map<String, Object> headers = properties.getHeaders() == null? 
+				new HashMap<String, Object>() 
+				: new HashMap<String, Object>(properties.getHeaders());
+		
+		int requeueCount = 0;
+		Object requeueCountHeader = headers.get(MessageHeaderEnum.EJ_REQUEUE_COUNT.name());
+		if(requeueCountHeader instanceof Number) {
+			requeueCount = ((Number) requeueCountHeader).intValue();
+		} else if(requeueCountHeader != null) {
+			try {
+				requeueCount = Integer.parseInt(requeueCountHeader.toString());
+			} catch(NumberFormatException e) {
+				// Start from the first tier
+			}
+		}
+		headers.put(MessageHeaderEnum.EJ_REQUEUE_EXCEPTION.name(), String.valueOf(cause.getMessage()));
+		if(retryCount != null)
+			headers.put(MessageHeaderEnum.EJ_RETRY_COUNT.name(), retryCount);
+		
+		try {
+			replyPublisher.republish(argsConfigurer.getRedeliveryExchange(), 
+					argsConfigurer.getRedeliveryRoutingKey(requeueCount), 
+					properties.builder().headers(headers).build(), 
+					body);
+			return true;
+		} catch(AMQPCustomException e) {
+			Log4j.traceErrorException(AMQPService.class, e, "Problem during requeue the message to the delay tier: {}", e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Apply the socket options of the connection configuration, then the provided 
+	 * socket configurator if exist.
+	 * 
+	 * @category Common
+	 * @param socket			the connection socket before connecting
+	 * @param argsConfigurer	the connection configuration
+	 * @throws IOException if an option can't be set
+	 */
+	private static void configureSocket(Socket socket, ConnectionConfigurer argsConfigurer) throws IOException {
+		socket.setTcpNoDelay(argsConfigurer.isTcpNoDelay());
+		socket.setKeepAlive(argsConfigurer.isKeepAlive());
+		
+		// Set the buffers before connecting to be used in the TCP window negotiation
+		if(argsConfigurer.getSendBufferSize() > 0)
+			socket.setSendBufferSize(argsConfigurer.getSendBufferSize());
+		if(argsConfigurer.getReceiveBufferSize() > 0)
+			socket.setReceiveBufferSize(argsConfigurer.getReceiveBufferSize());
+		
+		if(argsConfigurer.getSocketConfigurator() != null)
+			argsConfigurer.getSocketConfigurator().configure(socket);
+	}
+	
+	/**
+	 * Create the executor that dispatches the consumers deliveries according to
+	 * the connection configuration.
+	 * 
+	 * @category Common
+	 * @param argsConfigurer the connection configuration
+	 * @return the provided executor or a new one owned by the service
+	 */
+	private ExecutorService createDispatchExecutor(ConnectionConfigurer argsConfigurer) {
+		// Provided executor owned by the caller
+		if(argsConfigurer.getDispatchExecutor() != null)
+			return argsConfigurer.getDispatchExecutor();
+		
+		NamedThreadFactory namedThreadFactory = 
+				new NamedThreadFactory(argsConfigurer.getApplicationName() + "-amqp-dispatch");
+		ThreadFactory threadFactory = argsConfigurer.getThreadFactory() != null? 
+				argsConfigurer.getThreadFactory() 
+				: namedThreadFactory;
+		
+		ExecutorService dispatchExecutor;
+		if(argsConfigurer.getDispatchExecutorFactory() != null) {
+			dispatchExecutor = argsConfigurer.getDispatchExecutorFactory().apply(threadFactory);
+		} else if(argsConfigurer.isUseWorkStealingPool()) {
+			// FIFO mode as the deliveries are event style tasks that never joined
+			dispatchExecutor = new ForkJoinPool(argsConfigurer.getDispatchPoolSize(), 
+					namedThreadFactory, 
+					null, 
+					true);
+		} else {
+			dispatchExecutor = Executors.newFixedThreadPool(argsConfigurer.getDispatchPoolSize(), threadFactory);
+		}
+		
+		ownedExecutorServices.add(dispatchExecutor);
+		return dispatchExecutor;
+	}
+	
 	/////////////////////////////////////////// Publish Basic Properties   ////////////////////////
     /**
 	 * Enrich headers {@link Map} with some default headers
@@ -183,6 +576,9 @@ public final class AMQPService {
 		//Sender IP Address
 		headers.put(MessageHeaderEnum.EJ_ORIGIN_IP.name(), NetworkUtil.getCurrentEnvironmentNetworkIP());
 		
+		//Publish time in microseconds, the timestamp property has a second resolution
+		headers.put(MessageHeaderEnum.EJ_PUBLISH_TIMESTAMP.name(), EpochClock.currentTimeMicros());
+		
 		return headers;
     }
     
@@ -211,6 +607,21 @@ public final class AMQPService {
 		return headers;
 	}
 	
+	/**
+	 * Read the {@link MessageHeaderEnum#EJ_PUBLISH_TIMESTAMP} header
+	 * 
+	 * @category Consumer
+	 * @param properties {@link BasicProperties} of the received message
+	 * @return the publish time in microseconds since the epoch, zero if not exist
+	 */
+	private static long getPublishTimestamp(BasicProperties properties) {
+		if(properties.getHeaders() == null)
+			return 0;
+		
+		Object publishTime = properties.getHeaders().get(MessageHeaderEnum.EJ_PUBLISH_TIMESTAMP.name());
+		return publishTime instanceof Number? ((Number) publishTime).longValue() : 0;
+	}
+	
     /////////////////////////////////////////// Publish/Consume  //////////////////////////////////	
 	/**
      * <p>Sends a message to an exchange.</p>
@@ -249,18 +660,39 @@ public final class AMQPService {
 			throw new AMQPCustomException(errorMsg);
 		}
 		
+		// Don't block in the publish while the broker blocks the connection
+		if(checkPublishBlocked(argsConfigurer, true))
+			return spool(argsConfigurer, headers, msgObj);
+		
+		// Keep the order of the messages while the outbox has pending messages
+		if(outbox != null 
+				&& (outbox.hasPending() || !connectionGroup.isOpen(ChannelRole.PUBLISHER)))
+			return spool(argsConfigurer, headers, msgObj);
+		
+		// Wait for the rate controller permit
+		acquirePublishPermit(argsConfigurer);
+		
 		Channel channel = null;
 		try {
 			// Create channel
-			channel = createChannel();
+			channel = createChannel(ChannelRole.PUBLISHER);
 			
 			// Push message
 			return push(channel, argsConfigurer, headers, msgObj);
-		} catch(AMQPCustomException | JAXBCustomException | JSONCustomException ex) {
-			Log4j.traceErrorException(AMQPService.class, ex, ex.getMessage());
+		} catch(AMQPCustomException ex) {
+			// The broker became unavailable, the message is not returned or nack'd
+			if(outbox != null && (channel == null || !channel.isOpen())) {
+				Log4j.traceDebug(AMQPService.class, "Broker unavailable, spool the message: {}", ex.getMessage());
+				return spool(argsConfigurer, headers, msgObj);
+			}
+			
+			Log4j.traceErrorException(AMQPService.class, ex, "Exception during pushing the message: {}", ex.getMessage());
+			throw ex;
+		} catch(JAXBCustomException | JSONCustomException ex) {
+			Log4j.traceErrorException(AMQPService.class, ex, "Exception during pushing the message: {}", ex.getMessage());
 			throw ex;
 		} catch(Throwable ex) {
-			Log4j.traceErrorException(AMQPService.class, ex, ex.getMessage());
+			Log4j.traceErrorException(AMQPService.class, ex, "Exception during pushing the message: {}", ex.getMessage());
 			throw new AMQPCustomException(ex.getMessage(), ex);
 		} finally {
 			closeChannel(channel);
@@ -295,6 +727,8 @@ public final class AMQPService {
 	 * 
 	 * @throws AMQPCustomException	there are a problem occurred during the sending of the message
 	 * 									or receiving and parsing the reply
+	 * 									or the consumer deduplicator dropped the request as already 
+	 * 									processed, e.g. retried after a timeout, as its result isn't kept
 	 * @throws JAXBCustomException	there are a problem during marshal msgObj to XML if
 	 * 									msgContentType is {@link ContentTypeEnum#TEXT_XML}
 	 * @throws JSONCustomException	there are a problem during marshal msgObj to JSON if 
@@ -345,6 +779,8 @@ public final class AMQPService {
 	 * 
 	 * @throws AMQPCustomException	there are a problem occurred during the sending of the message
 	 * 									or receiving and parsing the reply
+	 * 									or the consumer deduplicator dropped the request as already 
+	 * 									processed, e.g. retried after a timeout, as its result isn't kept
 	 * @throws JAXBCustomException	there are a problem during marshal msgObj to XML if 
 	 * 									msgContentType is {@link ContentTypeEnum#TEXT_XML}
 	 * @throws JSONCustomException	there are a problem during marshal msgObj to JSON if 
@@ -376,9 +812,13 @@ public final class AMQPService {
 			throw new AMQPCustomException(errorMsg);
 		}
 		
+		// Don't block in the publish while the broker blocks the connection
+		checkPublishBlocked(argsConfigurer, false);
+		acquirePublishPermit(argsConfigurer);
+		
 		Channel channel = null;
 		try {
-			channel = createChannel();
+			channel = createChannel(ChannelRole.PUBLISHER);
 			
 			// Set the replyToQueue
 			String replyQueueName = argsConfigurer.getReplyToQueue();
@@ -386,7 +826,7 @@ public final class AMQPService {
 				try {
 					replyQueueName = channel.queueDeclare().getQueue();
 				} catch (Throwable e) {
-					Log4j.traceErrorException(AMQPService.class, e, e.getMessage());
+					Log4j.traceErrorException(AMQPService.class, e, "Exception during declaring the reply queue: {}", e.getMessage());
 					throw new RuntimeCustomException(AMQPResourceBundle.getMessage("error_AMQP018"), e);
 				}
 			}
@@ -396,8 +836,8 @@ public final class AMQPService {
 			if(correlationId == null)
 				correlationId = UUID.randomUUID().toString();
 
-			/* Replace argsConfigurer with a new one with replyQueueName and correlationId 
-			 * if one of them not exist before
+			/* Replace argsConfigurer with a copy with replyQueueName and correlationId 
+			 * if one of them not exist before, the caller configuration may be shared between requests
 			 */
 			if(argsConfigurer.getReplyToQueue() == null || argsConfigurer.getCorrelationId() == null) {
 				argsConfigurer = new ProducerConfigurer.
@@ -407,28 +847,173 @@ public final class AMQPService {
 			}
 			
 			// push the message
+			long requestStart = System.nanoTime();
 			push(channel, argsConfigurer, headers, msgObj);
 			
 			// Register a consumer listener to wait for the response
-			return waitingForReply(channel, 
+			R reply = waitingForReply(channel, 
 					replyQueueName, 
 					correlationId, 
 					returnClass, 
 					waitForReplyTimeout);
+			rpcRoundTrip.recordSince(requestStart);
+			return reply;
+		} catch(TimeoutCustomException ex) {
+			rpcTimeouts.increment();
+			Log4j.traceErrorException(AMQPService.class, ex, "Timeout waiting for the reply: {}", ex.getMessage());
+			throw ex;
 		} catch(AMQPCustomException | 
 				JAXBCustomException | 
-				JSONCustomException |
-				TimeoutCustomException ex) {
-			Log4j.traceErrorException(AMQPService.class, ex, ex.getMessage());
+				JSONCustomException ex) {
+			Log4j.traceErrorException(AMQPService.class, ex, "Exception during pushing the request: {}", ex.getMessage());
 			throw ex;
 		} catch(Throwable ex) {
-			Log4j.traceErrorException(AMQPService.class, ex, ex.getMessage());
+			Log4j.traceErrorException(AMQPService.class, ex, "Exception during pushing the request: {}", ex.getMessage());
 			throw new AMQPCustomException(ex.getMessage(), ex);
 		} finally {
 			closeChannel(channel);
 		}
 	}
 
+	/**
+	 * <p>Sends a message to an exchange and returns immediately with a future of the reply. 
+	 * The reply message must be in a JSON format.</p>
+	 * 
+	 * Note: 
+	 * it'll use {@link ProducerConfigurer#getReplyToQueue()} 
+	 * and {@link ProducerConfigurer#getCorrelationId()}  if exist to wait for the reply and
+	 * if one of there properties not exist, it'll generate one for you.
+	 * 
+	 * All requests sharing the same reply queue are served by a single consumer on that queue
+	 * and they are correlated by the correlationId, so a provided correlationId must be unique
+	 * between the in-flight requests. Generated {@link ProducerConfigurer#getReplyToQueue()} 
+	 * will be a server-named exclusive, auto-delete, non-durable queue declared once per service.
+	 * 
+	 * The future completes from the reply consumer thread and the timeout is tracked by a
+	 * shared timer, so no thread is blocked while waiting for the reply. A timed out future
+	 * completes on the service executor, not on the timer thread. Only the publishing 
+	 * of the message is done in the caller thread.
+	 * 
+	 * current user on the connection must have read/write privilege 
+	 * on the {@link ProducerConfigurer#getReplyToQueue()}
+	 * 
+	 * @category Producer
+	 * @param argsConfigurer		the producer configuration
+	 * @param headers				the headers to be send
+	 * @param msgObj				the message object to be send
+	 * @param returnClass			the expected return class
+	 * @param waitForReplyTimeout	the timeout for waiting for the reply in seconds. 
+	 * 				waitForReplyTimeout <= 0, it will wait {@value #DEFAULT_WAIT_FOR_REPLY} seconds.
+	 * 
+	 * @return a future completed with null if reply empty, otherwise with the object from 
+	 * 			parameter returnClass type. It completes exceptionally with
+	 * 			{@link AMQPCustomException} if a problem occurred during the sending of the message
+	 * 			or receiving and parsing the reply, or the consumer deduplicator dropped the request 
+	 * 			as already processed, e.g. retried after a timeout, as its result isn't kept, 
+	 * 			{@link JAXBCustomException} or 
+	 * 			{@link JSONCustomException} if a problem occurred during marshal msgObj and
+	 * 			{@link TimeoutCustomException} when timeout elapsed
+	 * @see #pushAndWaitForReply(ProducerConfigurer, Map, Object, Class, long)
+	 */
+	public <E, R> CompletableFuture<R> pushAndReceiveAsync(ProducerConfigurer argsConfigurer,
+			Map<String, Object> headers, 
+			E msgObj, 
+			Class<R> returnClass, 
+			long waitForReplyTimeout) {
+		
+		//  returnClass mandatory
+		if(returnClass == null) {
+			String errorMsg = AMQPResourceBundle.getMessage("error_AMQP031");
+			Log4j.traceError(AMQPService.class, errorMsg);
+			return failedFuture(new AMQPCustomException(errorMsg));
+		}
+
+		//  msgObj is mandatory
+		if(msgObj == null) {
+			String errorMsg = AMQPResourceBundle.getMessage("error_AMQP033");
+			Log4j.traceError(AMQPService.class, errorMsg);
+			return failedFuture(new AMQPCustomException(errorMsg));
+		}
+		
+		// Set waitForReplyTimeout to DEFAULT_WAIT_FOR_REPLY seconds if invalid value provided.
+		if(waitForReplyTimeout <= 0) {  
+			waitForReplyTimeout = DEFAULT_WAIT_FOR_REPLY;
+		}
+		
+		// Don't block in the publish while the broker blocks the connection
+		try {
+			checkPublishBlocked(argsConfigurer, false);
+			acquirePublishPermit(argsConfigurer);
+		} catch(AMQPCustomException ex) {
+			return failedFuture(ex);
+		}
+		
+		RpcReplyConsumer replyConsumer = null;
+		CompletableFuture<R> reply = null;
+		String correlationId = argsConfigurer.getCorrelationId();
+		if(correlationId == null)
+			correlationId = UUID.randomUUID().toString();
+		
+		Channel channel = null;
+		try {
+			// Get the consumer of the reply queue
+			replyConsumer = getReplyConsumer(argsConfigurer.getReplyToQueue());
+			
+			// Register the request before publishing to not miss a fast reply
+			reply = replyConsumer.register(correlationId, returnClass);
+			if(reply == null) {
+				String errorMsg = AMQPResourceBundle.getMessage("error_AMQP037");
+				Log4j.traceError(AMQPService.class, errorMsg);
+				return failedFuture(new AMQPCustomException(errorMsg));
+			}
+			
+			// Expire the request on the shared timer, completed on the service executor
+			final RpcReplyConsumer timeoutConsumer = replyConsumer;
+			final String timeoutCorrelationId = correlationId;
+			final HashedWheelTimer.Timeout timeoutTask = timer.newTimeout(
+					() -> timeoutConsumer.expire(timeoutCorrelationId, executorService), 
+					waitForReplyTimeout, 
+					TimeUnit.SECONDS);
+			final long requestStart = System.nanoTime();
+			reply.whenComplete((replyObj, ex) -> {
+				timeoutTask.cancel();
+				if(ex == null)
+					rpcRoundTrip.recordSince(requestStart);
+				else if(ex instanceof TimeoutCustomException)
+					rpcTimeouts.increment();
+			});
+			
+			// Don't change the caller configuration as it may be shared between requests
+			ProducerConfigurer requestConfigurer = new ProducerConfigurer.
+					Builder(argsConfigurer).
+					withReplyToQueue(replyConsumer.getReplyQueueName()).
+					withCorrelationId(correlationId).build();
+			
+			// push the message
+			channel = createChannel(ChannelRole.PUBLISHER);
+			push(channel, requestConfigurer, headers, msgObj);
+			
+			return reply;
+		} catch(Throwable ex) {
+			Log4j.traceErrorException(AMQPService.class, ex, "Exception during pushing the request: {}", ex.getMessage());
+			
+			Throwable failure = (ex instanceof AMQPCustomException
+					|| ex instanceof JAXBCustomException 
+					|| ex instanceof JSONCustomException)? 
+							ex 
+							: new AMQPCustomException(ex.getMessage(), ex);
+			
+			if(reply == null)
+				return failedFuture(failure);
+			
+			// Complete the registered request with the failure
+			replyConsumer.fail(correlationId, failure);
+			return reply;
+		} finally {
+			closeChannel(channel);
+		}
+	}
+	
 	/**
 	 * <p>Sends a message to an exchange.</p>
 	 * 
@@ -452,14 +1037,166 @@ public final class AMQPService {
 			Map<String, Object> headers, 
 			E msgObj) throws AMQPCustomException, JAXBCustomException, JSONCustomException {
 		
+		// Message Properties
+		String messageId = UUID.randomUUID().toString();
+		BasicProperties messageProperties = buildMessageProperties(argsConfigurer, headers, msgObj, messageId);
+		
+		// Publish the message
+		basicPublish(channel, 
+				argsConfigurer.getExhange(), 
+				argsConfigurer.getRoutingKey(), 
+				messageProperties, marshalMessage(argsConfigurer, msgObj),
+				argsConfigurer.getConfirmMode(),
+				argsConfigurer.getRateController());
+		sampleQueueDepth(argsConfigurer.getRateController());
+		
+		return messageId;
+	}
+	
+	/**
+	 * Apply {@link ProducerConfigurer#getBlockedPolicy()} while the broker blocks the 
+	 * publishing connections, as a publish on a blocked connection waits until unblocked.
+	 * 
+	 * @category Producer
+	 * @param argsConfigurer	the producer channel configurations
+	 * @param spoolable			true if the message can be spooled to the outbox
+	 * @return true if the message has to be spooled, false to publish it
+	 * @throws AMQPCustomException	if the publish failed by the policy
+	 */
+	private boolean checkPublishBlocked(ProducerConfigurer argsConfigurer, 
+			boolean spoolable) throws AMQPCustomException {
+		String blockedReason = connectionGroup.getBlockedReason(ChannelRole.PUBLISHER);
+		if(blockedReason == null)
+			return false;
+		
+		String errorMsg;
+		switch(argsConfigurer.getBlockedPolicy()) {
+			case BLOCK:
+				return false;
+			case SPOOL:
+				if(spoolable && outbox != null)
+					return true;
+				errorMsg = AMQPResourceBundle.getParameterizedMessage("error_AMQP041", blockedReason);
+				break;
+			case TIMEOUT:
+				try {
+					if(connectionGroup.awaitUnblocked(ChannelRole.PUBLISHER, argsConfigurer.getBlockedTimeout()))
+						return false;
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				errorMsg = AMQPResourceBundle.getParameterizedMessage("error_AMQP042", 
+						argsConfigurer.getBlockedTimeout(), 
+						blockedReason);
+				break;
+			default:
+				errorMsg = AMQPResourceBundle.getParameterizedMessage("error_AMQP041", blockedReason);
+		}
+		
+		publishBlockedFailures.increment();
+		Log4j.traceError(AMQPService.class, errorMsg);
+		throw new AMQPCustomException(errorMsg);
+	}
+	
+	/**
+	 * Wait for a permit of {@link ProducerConfigurer#getRateController()} if set.
+	 * 
+	 * @category Producer
+	 * @param argsConfigurer	the producer channel configurations
+	 * @throws AMQPCustomException	if no permit within the controller max wait
+	 */
+	private void acquirePublishPermit(ProducerConfigurer argsConfigurer) throws AMQPCustomException {
+		PublishRateController rateController = argsConfigurer.getRateController();
+		if(rateController == null)
+			return;
+		
+		long wait;
+		try {
+			wait = rateController.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			wait = -1;
+		}
+		if(wait > 0)
+			publishThrottleWait.record(wait);
+		if(wait >= 0)
+			return;
+		
+		publishThrottleFailures.increment();
+		String errorMsg = AMQPResourceBundle.getParameterizedMessage("error_AMQP043", 
+				rateController.getRate(), 
+				rateController.getMaxWait());
+		Log4j.traceError(AMQPService.class, errorMsg);
+		throw new AMQPCustomException(errorMsg);
+	}
+	
+	/**
+	 * Feed the rate controller with the depth of its queue once per its adjust interval, on 
+	 * a separate channel as a missing queue closes the channel.
+	 * 
+	 * @category Producer
+	 * @param rateController the producer rate controller, or null
+	 */
+	private void sampleQueueDepth(PublishRateController rateController) {
+		if(rateController == null || !rateController.claimQueueDepthSample())
+			return;
+		
+		Channel channel = null;
+		try {
+			channel = createChannel(ChannelRole.PUBLISHER);
+			rateController.recordQueueDepth(channel.messageCount(rateController.getQueueName()));
+		} catch(Throwable ex) {
+			Log4j.traceDebug(AMQPService.class, "Unable to sample the depth of queue {}: {}", 
+					rateController.getQueueName(), ex.getMessage());
+		} finally {
+			closeChannel(channel);
+		}
+	}
+	
+	/**
+	 * Append the message to the outbox to be published when the broker is available.
+	 * 
+	 * @category Producer
+	 * @param argsConfigurer		the producer channel configurations
+	 * @param headers				the headers to be send
+	 * @param msgObj				the message object to be send
+     * @return the messageId which is a unique identifier for the message
+	 * @throws AMQPCustomException	if the message can't be written to the outbox
+	 * @throws JAXBCustomException	there are a problem during marshal msgObj to XML
+	 * @throws JSONCustomException	there are a problem during marshal msgObj to JSON
+	 */
+	private <E> String spool(ProducerConfigurer argsConfigurer,
+			Map<String, Object> headers, 
+			E msgObj) throws AMQPCustomException, JAXBCustomException, JSONCustomException {
+		String messageId = UUID.randomUUID().toString();
+		outbox.spool(argsConfigurer.getExhange(), 
+				argsConfigurer.getRoutingKey(), 
+				buildMessageProperties(argsConfigurer, headers, msgObj, messageId), 
+				marshalMessage(argsConfigurer, msgObj));
+		
+		return messageId;
+	}
+	
+	/**
+	 * Build the pushed message properties
+	 * 
+	 * @category Producer
+	 * @param argsConfigurer		the producer channel configurations
+	 * @param headers				the headers to be send
+	 * @param msgObj				the message object to be send
+	 * @param messageId				the message unique identifier
+	 * @return the message properties
+	 */
+	private <E> BasicProperties buildMessageProperties(ProducerConfigurer argsConfigurer,
+			Map<String, Object> headers, 
+			E msgObj,
+			String messageId) {
 		// Message Headers
 		headers = enrichPublishHeaders(headers,
 				argsConfigurer.getExhange(),
 				argsConfigurer.getRoutingKey());
 		
-		// Message Properties
-		String messageId = UUID.randomUUID().toString();
-		BasicProperties messageProperties = new BasicProperties.Builder()
+		return new BasicProperties.Builder()
 				.contentType(argsConfigurer.getMessageContentType().value())
 				.contentEncoding(UTF_8.name())
 				.headers(headers)
@@ -472,8 +1209,20 @@ public final class AMQPService {
 				.replyTo(argsConfigurer.getReplyToQueue())
 				.correlationId(argsConfigurer.getCorrelationId())
 				.build();
-		
-		// Message Body
+	}
+	
+	/**
+	 * Marshal the message object according to the producer content type
+	 * 
+	 * @category Producer
+	 * @param argsConfigurer		the producer channel configurations
+	 * @param msgObj				the message object to be send
+	 * @return the message body
+	 * @throws JAXBCustomException	there are a problem during marshal msgObj to XML
+	 * @throws JSONCustomException	there are a problem during marshal msgObj to JSON
+	 */
+	private <E> byte[] marshalMessage(ProducerConfigurer argsConfigurer, 
+			E msgObj) throws JAXBCustomException, JSONCustomException {
 		String message = null;
 		if(argsConfigurer.getMessageContentType().equals(ContentTypeEnum.TEXT_XML)) {
 			message = XmlFormatter.marshalObjectToXML(msgObj);
@@ -483,14 +1232,7 @@ public final class AMQPService {
 			message = (String) msgObj;
 		}
 		
-		// Publish the message
-		basicPublish(channel, 
-				argsConfigurer.getExhange(), 
-				argsConfigurer.getRoutingKey(), 
-				messageProperties, message.getBytes(UTF_8));
-		
-		
-		return messageId;
+		return message.getBytes(UTF_8);
 	}
 	
 	/**
@@ -562,7 +1304,9 @@ public final class AMQPService {
 						 *  with be the message as is. Any other problem will offer an exception
 						 *  with error details 
 						 */
-						if(body == null || body.length == 0) {
+						if(RpcReplyConsumer.isDuplicateReply(properties)) {
+							responseObj = new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP049"));
+						} else if(body == null || body.length == 0) {
 							responseObj = "null";
 						} else {
 							// Get the message
@@ -590,7 +1334,7 @@ public final class AMQPService {
 						  */
 						 Channel newChannel = null;
 						 try {
-							 newChannel = createChannel();
+							 newChannel = createChannel(ChannelRole.PUBLISHER);
 							
 							 // publish the message again
 							 basicPublish(newChannel, "", replyQueueName, properties, body);
@@ -598,7 +1342,7 @@ public final class AMQPService {
 							 // send an acknowledge to current queue to remove the message
 							 this.getChannel().basicAck(envelope.getDeliveryTag(), false);
 						 } catch(Exception e) {
-							 Log4j.traceErrorException(AMQPService.class, e, e.getMessage());
+							 Log4j.traceErrorException(AMQPService.class, e, "Exception during pushing back the reply: {}", e.getMessage());
 							 
 							 /*
 							  * if problem occurs, keep the message in the queue and stop
@@ -698,21 +1442,84 @@ public final class AMQPService {
 			throw new AMQPCustomException(errorMsg);
 		}
 		
+		// Offset of a stream, moved by the processed messages and kept for the recoveries
+		final StreamOffsetTracker streamOffset = argsConfigurer.isStream()? 
+				new StreamOffsetTracker(argsConfigurer) 
+				: null;
+		if(streamOffset != null)
+			streamOffsets.add(streamOffset);
+		
 		for(int i = 0; i < argsConfigurer.getNoOfConumers(); i++) {
 			try {
-				final Channel channel = createChannel();
+				final Channel channel = createChannel(ChannelRole.CONSUMER);
 				
 				basicQos(channel, argsConfigurer.getPrefetchCount());
 				
 				basicConsumeWithRetryRecovery(channel, 
 						argsConfigurer, 
-						new RabbitConsumer(channel, this, argsConfigurer) {
+						new RabbitConsumer(channel, this, argsConfigurer, streamOffset) {
+					
+					// Reused reply channel of this consumer
+					private final ReplyPublisher replyPublisher = 
+							new ReplyPublisher(connectionGroup, argsConfigurer.getReplyConfirmMode());
+					
+					// Processing stages timing of the queue
+					private final LatencyHistogram decodeLatency = 
+							metrics.histogram(AMQPMetrics.CONSUMER_DECODE, argsConfigurer.getQueueName());
+					private final LatencyHistogram handlerLatency = 
+							metrics.histogram(AMQPMetrics.CONSUMER_HANDLER, argsConfigurer.getQueueName());
+					private final LatencyHistogram replyLatency = 
+							metrics.histogram(AMQPMetrics.CONSUMER_REPLY, argsConfigurer.getQueueName());
+					private final LatencyHistogram ackLatency = 
+							metrics.histogram(AMQPMetrics.CONSUMER_ACK, argsConfigurer.getQueueName());
+					private final LatencyHistogram brokerResidence = 
+							metrics.histogram(AMQPMetrics.CONSUMER_BROKER_RESIDENCE, argsConfigurer.getQueueName());
+					private final LatencyHistogram endToEndLatency = 
+							metrics.histogram(AMQPMetrics.CONSUMER_END_TO_END, argsConfigurer.getQueueName());
+					private final RetryMetrics retryMetrics = getRetryMetrics(argsConfigurer.getQueueName());
+					
+					// Publish time of the message being processed by this consumer
+					private final AtomicLong processingPublishTime = 
+							metrics.oldestMessageAge(argsConfigurer.getQueueName()).newSlot();
 					
 					@Override
 					public void handleDelivery(String consumerTag, 
 							Envelope envelope, 
 							AMQP.BasicProperties properties, 
 							byte[] body) throws IOException {
+						// Offset of the message if consumed from a stream
+						long offset = streamOffset == null? -1 : StreamOffsetTracker.getOffset(properties);
+						
+						// Drop the already processed message before decoding it
+						MessageDeduplicator deduplicator = argsConfigurer.getDeduplicator();
+						String dedupeMessageId = deduplicator == null? null : properties.getMessageId();
+						if(dedupeMessageId != null && deduplicator.isDuplicate(dedupeMessageId)) {
+							// The result isn't kept, send a duplicate reply so the caller doesn't wait for the timeout
+							if(properties.getReplyTo() != null && !properties.getReplyTo().isEmpty()) {
+								pushReply(replyPublisher,
+										this.getConsumerConfigurer().getQueueName(),
+										properties.getReplyTo(),
+										properties.getCorrelationId(),
+										null,
+										true);
+							}
+							if(!this.getConsumerConfigurer().isAutoAck()) {
+								this.getChannel().basicAck(envelope.getDeliveryTag(), false);
+							}
+							if(streamOffset != null)
+								streamOffset.processed(offset);
+							Log4j.traceDebug(AMQPService.class, "Duplicate message dropped: {}", dedupeMessageId);
+							return;
+						}
+						
+						// Time spent in the broker, from the publisher clock
+						long publishTime = getPublishTimestamp(properties);
+						if(publishTime > 0) {
+							brokerResidence.record((EpochClock.currentTimeMicros() - publishTime) * 1000);
+							processingPublishTime.set(publishTime);
+						}
+						
+						long decodeStart = System.nanoTime();
 						Map<String, Object> headers = buildHeadersFromMessageProperties(properties);
 						String msgText = new String(body, UTF_8);
 
@@ -747,24 +1554,38 @@ public final class AMQPService {
 								messageUnmarshal = msgObjClass.cast(msgText);
 							}
 							
-							R returnObj = handler.handleDelivery(messageUnmarshal, headers);
+							long handlerStart = System.nanoTime();
+							decodeLatency.record(handlerStart - decodeStart);
+							R returnObj = handleWithRetry(argsConfigurer, handler, messageUnmarshal, headers, retryMetrics);
+							handlerLatency.recordSince(handlerStart);
+							
+							// Processed, the redeliveries of the message will be dropped
+							if(dedupeMessageId != null)
+								deduplicator.markProcessed(dedupeMessageId);
 							
 							// If reply-to property exist, send the reply
-							if(replyToQueue != null && !((String) replyToQueue).isEmpty())
-								pushReply(this.getConsumerConfigurer().getQueueName(),
+							if(replyToQueue != null && !((String) replyToQueue).isEmpty()) {
+								long replyStart = System.nanoTime();
+								pushReply(replyPublisher,
+										this.getConsumerConfigurer().getQueueName(),
 										((String) replyToQueue),
 										((String) correlationId) ,
 										returnObj);
+								replyLatency.recordSince(replyStart);
+							}
 
 							// Acknowledge success to remove message from the queue
 							if(!this.getConsumerConfigurer().isAutoAck()) {
+								long ackStart = System.nanoTime();
 								this.getChannel().basicAck(envelope.getDeliveryTag(), false);
+								ackLatency.recordSince(ackStart);
 							}
 						} catch(Throwable e) {
 							// If reply-to property exist, send empty reply
 							if(replyToQueue != null && !((String) replyToQueue).isEmpty()) {
 								// Try to stop producer from waiting for a response
-								pushReply(this.getConsumerConfigurer().getQueueName(), 
+								pushReply(replyPublisher,
+										this.getConsumerConfigurer().getQueueName(), 
 										((String) replyToQueue), 
 										((String) correlationId) ,
 										null);
@@ -776,25 +1597,40 @@ public final class AMQPService {
 							} else {
 								// Acknowledge failure to keep message in the queue or move to dead-letter
 								if(!this.getConsumerConfigurer().isAutoAck()) {
-									this.getChannel().basicReject(envelope.getDeliveryTag(), false);
+									if(!requeueToDelayTier(replyPublisher, argsConfigurer, properties, body, e, 
+											headers.get(MessageHeaderEnum.EJ_RETRY_COUNT.name()))) {
+										this.getChannel().basicReject(envelope.getDeliveryTag(), false);
+									} else {
+										this.getChannel().basicAck(envelope.getDeliveryTag(), false);
+									}
 								}
 							}
 
 							Object messageId = headers.get(MessageHeaderEnum.MESSAGE_ID.name());
 							if(messageId != null)
 								Log4j.traceErrorException(AMQPService.class, e,
-										"Exception during handling the message: " + messageId);
+										"Exception during handling the message: {}", messageId);
 							else
-								Log4j.traceErrorException(AMQPService.class, e, e.getMessage());
+								Log4j.traceErrorException(AMQPService.class, e, "Exception during handling the message: {}", e.getMessage());
 							
+						} finally {
+							// Free the slot even if the ack or reject failed, not to report the idle consumer as lagging
+							if(publishTime > 0) {
+								endToEndLatency.record((EpochClock.currentTimeMicros() - publishTime) * 1000);
+								processingPublishTime.set(0);
+							}
 						}
+						
+						// Resume after the message on a recovery or a restart
+						if(streamOffset != null)
+							streamOffset.processed(offset);
 					}
 				});
 			} catch(AMQPCustomException ex) {
-				Log4j.traceErrorException(AMQPService.class, ex, ex.getMessage());
+				Log4j.traceErrorException(AMQPService.class, ex, "Exception during registering the consumer: {}", ex.getMessage());
 				throw ex;
 			} catch(Throwable ex) {
-				Log4j.traceErrorException(AMQPService.class, ex, ex.getMessage());
+				Log4j.traceErrorException(AMQPService.class, ex, "Exception during registering the consumer: {}", ex.getMessage());
 				throw new AMQPCustomException(ex.getMessage(), ex);
 			} finally {
 				/* 
@@ -805,9 +1641,67 @@ public final class AMQPService {
 		}
 	}
 	
+	/**
+	 * Get the consumer of the reply queue, register a new one if not exist or stopped.
+	 * 
+	 * @category Producer
+	 * @param replyToQueue	the reply queue name or null for a server-named queue
+	 * @return the registered reply consumer
+	 * @throws AMQPCustomException if problem occurred during declaring the queue or 
+	 * 								registering the consumer
+	 * @see #pushAndReceiveAsync(ProducerConfigurer, Map, Object, Class, long)
+	 */
+	private RpcReplyConsumer getReplyConsumer(String replyToQueue) throws AMQPCustomException {
+		String key = replyToQueue == null? "" : replyToQueue;
+		
+		RpcReplyConsumer replyConsumer = replyConsumers.get(key);
+		if(replyConsumer != null && !replyConsumer.isClosed())
+			return replyConsumer;
+		
+		synchronized (replyConsumers) {
+			replyConsumer = replyConsumers.get(key);
+			if(replyConsumer != null && !replyConsumer.isClosed())
+				return replyConsumer;
+			
+			// Release the stopped consumer channel
+			if(replyConsumer != null)
+				closeChannel(replyConsumer.getChannel());
+			
+			Channel channel = createChannel(ChannelRole.CONSUMER);
+			try {
+				String replyQueueName = replyToQueue;
+				if(replyQueueName == null)
+					replyQueueName = channel.queueDeclare().getQueue();
+				
+				replyConsumer = new RpcReplyConsumer(channel, replyQueueName);
+				basicConsume(channel, replyQueueName, true, replyConsumer);
+			} catch (IOException e) {
+				closeChannel(channel);
+				throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP018"), e);
+			} catch (AMQPCustomException e) {
+				closeChannel(channel);
+				throw e;
+			}
+			
+			replyConsumers.put(key, replyConsumer);
+			return replyConsumer;
+		}
+	}
+	
+	/**
+	 * @param ex the failure cause
+	 * @return a future completed exceptionally with the cause
+	 */
+	private static <R> CompletableFuture<R> failedFuture(Throwable ex) {
+		CompletableFuture<R> future = new CompletableFuture<R>();
+		future.completeExceptionally(ex);
+		return future;
+	}
+	
 	/**
 	 * Handle the reply-to the publisher queue.
 	 * 
+	 * @param replyPublisher	the consumer reply publisher which reuses its channel
 	 * @param responeFromQueue	the source queue 
 	 * @param replyToQueue		the queue to send the reply.
 	 * @param correlationId		message identifier
@@ -816,16 +1710,36 @@ public final class AMQPService {
 	 * @see this function used by {@link #setReceiveMessageListener(ConsumerConfigurer, MessageHandler, Class...)}
 	 * 		to respond on a message with replyTo header
 	 */
-	private <R> void pushReply(String responeFromQueue, 
+	private <R> void pushReply(ReplyPublisher replyPublisher,
+			String responeFromQueue, 
 			String replyToQueue, 
 			String correlationId, 
 			R returnObj) {
+		pushReply(replyPublisher, responeFromQueue, replyToQueue, correlationId, returnObj, false);
+	}
+	
+	/**
+	 * Handle the reply-to the publisher queue.
+	 * 
+	 * @param replyPublisher	the consumer reply publisher which reuses its channel
+	 * @param responeFromQueue	the source queue 
+	 * @param replyToQueue		the queue to send the reply.
+	 * @param correlationId		message identifier
+	 * @param returnObj			
+	 * @param duplicate			true if the request was dropped by the deduplicator, the empty 
+	 * 							reply is marked by {@link MessageHeaderEnum#EJ_DUPLICATE_REQUEST}
+	 */
+	private <R> void pushReply(ReplyPublisher replyPublisher,
+			String responeFromQueue, 
+			String replyToQueue, 
+			String correlationId, 
+			R returnObj,
+			boolean duplicate) {
 		
-		Channel replyChannel = null;
 		try {
-			replyChannel = createChannel();
-
 			Map<String, Object> responseHeaders = enrichPublishHeaders(null, "", responeFromQueue);
+			if(duplicate)
+				responseHeaders.put(MessageHeaderEnum.EJ_DUPLICATE_REQUEST.name(), true);
 			
 			byte[] messageBody = new byte[] {};
 			if(returnObj != null)
@@ -848,12 +1762,13 @@ public final class AMQPService {
 					.correlationId(correlationId)
 					.build();
 			
-			basicPublish(replyChannel, "", ((String) replyToQueue), messageProperties, messageBody);
+			replyPublisher.publish(replyToQueue, messageProperties, messageBody);
 			
 		} catch (Throwable ignoreEx) {
-			Log4j.traceErrorException(AMQPService.class, ignoreEx, ignoreEx.getMessage());
-		} finally {
-			closeChannel(replyChannel);
+			Log4j.traceErrorException(AMQPService.class, ignoreEx, "Exception during sending the reply: {}", ignoreEx.getMessage());
+			
+			// Open a new reply channel on the next reply
+			replyPublisher.close();
 		}
 	}
 	
@@ -874,6 +1789,42 @@ public final class AMQPService {
 			String routingKey, 
 			BasicProperties props, 
 			byte[] message) throws AMQPCustomException {
+		basicPublish(channel, exchange, routingKey, props, message, ConfirmModeEnum.SYNC, null);
+	}
+	
+	/**
+	 * publish message to the broker through a channel. Without confirms, the message is
+	 * neither confirmed nor checked for being routed.
+	 * 
+	 * @category Producer
+	 * @param channel		channel to publish the message to
+	 * @param exchange 		exchange to publish the message to
+	 * @param routingKey	the routing key
+	 * @param props			other properties for the message - routing headers etc
+	 * @param message		the message body
+	 * @param confirmMode	{@link ConfirmModeEnum#NONE} to publish without confirms
+	 * @param rateController the rate controller fed with the confirm latency and the nacks, or null
+	 * @throws AMQPCustomException if an error is encountered
+	 */
+	private void basicPublish(Channel channel,
+			String exchange, 
+			String routingKey, 
+			BasicProperties props, 
+			byte[] message,
+			ConfirmModeEnum confirmMode,
+			PublishRateController rateController) throws AMQPCustomException {
+		// Fire and forget, the returns would arrive after the channel closed
+		if(confirmMode == ConfirmModeEnum.NONE) {
+			try {
+				long publishStart = System.nanoTime();
+				channel.basicPublish(exchange, routingKey, false, props, message);
+				publishLatency.recordSince(publishStart);
+				return;
+			} catch (IOException e) {
+				throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP014"), e);
+			}
+		}
+		
 		try {
 			
 			final AtomicReference<IOException> publishingEx = new AtomicReference<>();
@@ -892,6 +1843,7 @@ public final class AMQPService {
 						String routingKey,
 						AMQP.BasicProperties properties,
 						byte[] body) throws IOException {
+					publishReturns.increment();
 					publishingEx.set(new IOException(
 							AMQPResourceBundle.getParameterizedMessage("error_AMQP035", 
 									replyCode,
@@ -909,6 +1861,9 @@ public final class AMQPService {
 				
 				@Override
 				public void handleNack(long deliveryTag, boolean multiple) throws IOException {
+					publishNacks.increment();
+					if(rateController != null)
+						rateController.recordNack();
 					publishingEx.set(
 							new IOException(AMQPResourceBundle.getMessage("error_AMQP036"),
 									publishingEx.get()));
@@ -923,9 +1878,22 @@ public final class AMQPService {
 			// Add confirm select to channel.
 			confirmSelect(channel);
 			// Publish the message
-			channel.basicPublish(exchange, routingKey, true, props, message);
-			// It'll throw IOException if the message was nack'd
-			waitForConfirmsOrDie(channel);
+			outstandingConfirms.increment();
+			long confirmStart = 0;
+			try {
+				long publishStart = System.nanoTime();
+				channel.basicPublish(exchange, routingKey, true, props, message);
+				confirmStart = System.nanoTime();
+				publishLatency.record(confirmStart - publishStart);
+				// It'll throw IOException if the message was nack'd
+				waitForConfirmsOrDie(channel);
+				confirmLatency.recordSince(confirmStart);
+			} finally {
+				outstandingConfirms.decrement();
+				// The timed out confirms are fed back too
+				if(rateController != null && confirmStart != 0)
+					rateController.recordConfirm(System.nanoTime() - confirmStart);
+			}
 
 			
 			/**
@@ -1014,7 +1982,11 @@ public final class AMQPService {
 			RabbitConsumer consumer) {
 		
 		try {
-			basicConsume(channel, consumerConfigure.getQueueName(), consumerConfigure.isAutoAck(), consumer);
+			basicConsume(channel, 
+					consumerConfigure.getQueueName(), 
+					consumerConfigure.isAutoAck(), 
+					consumer.getConsumeArguments(), 
+					consumer);
 		} catch (AMQPCustomException e) {
 			Log4j.traceErrorException(AMQPService.class, e, AMQPResourceBundle.getMessage("error_AMQP016"));
 		
@@ -1022,7 +1994,7 @@ public final class AMQPService {
 				= new StartConsumerCallable(this.connectionConfigurer.getNetworkRecoveryInterval(), 
 						consumerConfigure,
 						consumer);
-	        executorService.submit(startConsumerCallable);
+			startConsumerCallable.scheduleRetry();
 		}
 	}
 
@@ -1041,8 +2013,28 @@ public final class AMQPService {
 			String queueName, 
 			boolean autoAck, 
 			Consumer consumer) throws AMQPCustomException {
+		basicConsume(channel, queueName, autoAck, null, consumer);
+	}
+	
+	/**
+	 * Start a basic consumer with arguments, as the x-stream-offset of a stream
+	 * 
+	 * @category Consumer
+	 * @param channel	the channel to register the consumer to.
+	 * @param queueName	the name of the queue
+	 * @param autoAck	true if the server should consider messages acknowledged once delivered
+	 * 					false if the server should expect explicit acknowledgments
+	 * @param arguments	the consume arguments, or null
+	 * @param consumer  the consumed message handle
+	 * @throws Exception  if an error is encountered
+	 */
+	private void basicConsume(Channel channel, 
+			String queueName, 
+			boolean autoAck, 
+			Map<String, Object> arguments,
+			Consumer consumer) throws AMQPCustomException {
 		try {
-			channel.basicConsume(queueName, autoAck, consumer);
+			channel.basicConsume(queueName, autoAck, arguments, consumer);
 			
 		} catch (Exception e) {
 			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP028"), e);
@@ -1061,7 +2053,7 @@ public final class AMQPService {
 			if(channel != null && channel.isOpen())
 				channel.close();
 		} catch (IOException | TimeoutException e) {
-			Log4j.traceErrorException(AMQPService.class, e, e.getMessage());
+			Log4j.traceErrorException(AMQPService.class, e, "Exception during closing the channel: {}", e.getMessage());
 			
 		} finally {
 			channel = null;
@@ -1070,7 +2062,7 @@ public final class AMQPService {
 	
 	///////////////////////////////////////// Encapsulate Connection Functions ////////////////////
 	/**
-	 * create a channel from the defined connection
+	 * create a channel from the defined connections
 	 * 
 	 * @category Common
 	 * 
@@ -1078,37 +2070,68 @@ public final class AMQPService {
      * If automatic connection recovery is enabled, 
      * the channel returned by this method will be recoverable.
      *
+	 * The connection is selected by {@link ConnectionConfigurer#getConnectionPolicy()}.
+	 *
+	 * @param role	the channel usage, publishing or consuming
 	 * @return	a new channel descriptor, or null if none is available
 	 * @throws AMQPCustomException if an I/O problem is encountered
 	 */
-	private Channel createChannel() throws AMQPCustomException {
+	private Channel createChannel(ChannelRole role) throws AMQPCustomException {
 		try {
-			return connection.createChannel();
+			return connectionGroup.createChannel(role);
 		} catch (IOException e) {
 			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP008"), e);
 		}
 	}
 
+	/**
+	 * Close the connection to the broker and the executer services (threads). A service 
+	 * acquired from {@link AMQPServiceRegistry} is only released, and closed by the registry
+	 * when it's no longer used.
+	 * 
+	 * @category Common
+	 */
+	public void close() {
+		AMQPServiceRegistry owner = registry;
+		if(owner != null) {
+			owner.release(this);
+			return;
+		}
+		
+		shutdown();
+	}
+	
+	/**
+	 * Mark the service as shared by the registry, so close releases a reference instead of
+	 * closing the connections.
+	 * 
+	 * @param registry the registry owning the service
+	 */
+	void setRegistry(AMQPServiceRegistry registry) {
+		this.registry = registry;
+	}
+	
 	/**
 	 * Close the connection to the broker and the executer services (threads)
 	 * 
 	 * @category Common
 	 */
-	public void close() {	
-		//Close the connection and therefore the opened channels will be receive a shutdown signal
-		try {
-			if(connection != null && connection.isOpen())
-				connection.close(connectionConfigurer.getConnectionTimeout());
-		} catch (IOException e) {
-			// Do nothing
-			Log4j.traceErrorException(AMQPService.class, e, e.getMessage());
+	void shutdown() {	
+		//Stop the requests waiting for a reply
+		for(RpcReplyConsumer replyConsumer : replyConsumers.values()) {
+			replyConsumer.failAll(new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP024")));
 		}
+		replyConsumers.clear();
+		
+		//Close the connections and therefore the opened channels will be receive a shutdown signal
+		if(connectionGroup != null)
+			connectionGroup.close(connectionConfigurer.getConnectionTimeout());
 
-		//Close the executer services to interrupt the current active threads.
-		if (executorService != null) {
-			executorService.shutdownNow();
+		//Close the owned executer services to interrupt the current active threads.
+		for(ExecutorService ownedExecutorService : ownedExecutorServices) {
+			ownedExecutorService.shutdownNow();
 			 try {
-				 if(!executorService.awaitTermination(2, TimeUnit.SECONDS)) {
+				 if(!ownedExecutorService.awaitTermination(2, TimeUnit.SECONDS)) {
 					 Log4j.traceError(AMQPService.class, "Not all thread closed properly in the executor thread.");
 				 }
 			} catch (InterruptedException e) {
@@ -1116,6 +2139,15 @@ public final class AMQPService {
 				Thread.currentThread().interrupt();
 			}
         }
+		
+		//Close the outbox journal, the pending messages will be replayed by the next service
+		if(outbox != null)
+			outbox.close();
+		
+		//Checkpoint the streams processed offsets, the next service resumes after them
+		for(StreamOffsetTracker streamOffset : streamOffsets) {
+			streamOffset.checkpoint();
+		}
 	}
 	
 	////////////////////////////////////////
@@ -1123,6 +2155,8 @@ public final class AMQPService {
      * Task in charge of opening connection and adding listener when consumer is
      * started and queue is not available or queue deleted during listening to it.
      * 
+     * Each retry is delayed on the shared {@link HashedWheelTimer} and executed on the 
+     * executor, so no executor thread is sleeping between the retries.
      * 
 	 * @category Consumer
      */
@@ -1148,44 +2182,44 @@ public final class AMQPService {
             this._consumerConfigure = consumerConfigure;
             this._consumer = consumer;
         }
+        
+        /**
+         * Schedule the next retry after the retry interval
+         */
+        void scheduleRetry() {
+        	timer.newTimeout(() -> {
+        		try {
+        			recoveryExecutorService.submit(this);
+        		} catch (RejectedExecutionException e) {
+        			Log4j.traceErrorException(StartConsumerCallable.class, e, 
+        					"Connection retry for queue {} stopped as the service is closed.", 
+							this._consumerConfigure.getQueueName());
+        		}
+        	}, _connectionRetryInterval, TimeUnit.MILLISECONDS);
+        }
 
         @Override
         public Void call() {
-            boolean connectionFailed = true;
+        	if(recoveryExecutorService.isShutdown() || Thread.currentThread().isInterrupted())
+        		return null;
+        	
             try {
-				// first sleep before start retrying
-            	Thread.sleep(_connectionRetryInterval);
-				
-	            // Reconnection loop
-	            while (connectionFailed && !Thread.currentThread().isInterrupted()) {
-	                try {
-	                	//open a new channel instead of last channel because its closed explicitly due to the thrown exception
-	                	Channel openedChannel = createChannel();
-	            		basicQos(openedChannel, _consumerConfigure.getPrefetchCount());
-	            		_consumer.setChannel(openedChannel);
-	            		
-	                    //reconnect
-	        			basicConsume(openedChannel, 
-	        					_consumerConfigure.getQueueName(), 
-	        					_consumerConfigure.isAutoAck(), 
-	        					_consumer);
-	        			
-	        			// stop retry if reconnect success
-	                    connectionFailed = false;
-	                } catch (Exception e) { //retry failed
-	                	Log4j.traceErrorException(StartConsumerCallable.class, e, 
-	                			"Connection failed, will retry in " + _connectionRetryInterval + "ms");
-	                    Thread.sleep(_connectionRetryInterval);
-	                }
-	            }
-			} catch (InterruptedException ex) {
-				Log4j.traceErrorException(StartConsumerCallable.class, ex, "Connection retry for queue " 
-								+ this._consumerConfigure.getQueueName() 
-								+" failed due to thread interrupted.");
-				
-            	// re-interrupt the thread again because catching InterruptedException will clear interrupted flag
-            	Thread.currentThread().interrupt();
-			}
+            	//open a new channel instead of last channel because its closed explicitly due to the thrown exception
+            	Channel openedChannel = createChannel(ChannelRole.CONSUMER);
+        		basicQos(openedChannel, _consumerConfigure.getPrefetchCount());
+        		_consumer.setChannel(openedChannel);
+        		
+                //reconnect
+    			basicConsume(openedChannel, 
+    					_consumerConfigure.getQueueName(), 
+    					_consumerConfigure.isAutoAck(), 
+    					_consumer.getConsumeArguments(), 
+    					_consumer);
+            } catch (Exception e) { //retry failed
+            	Log4j.traceErrorException(StartConsumerCallable.class, e, 
+            			"Connection failed, will retry in {}ms", _connectionRetryInterval);
+            	scheduleRetry();
+            }
             return null;
         }
     }
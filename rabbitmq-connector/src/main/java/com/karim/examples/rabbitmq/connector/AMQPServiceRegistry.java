@@ -0,0 +1,316 @@
+package com.karim.examples.rabbitmq.connector;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.karim.examples.rabbitmq.connector.configures.ConnectionConfigurer;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.karim.examples.rabbitmq.connector.util.AMQPResourceBundle;
+import com.karim.examples.rabbitmq.connector.util.HashedWheelTimer;
+import com.karim.examples.rabbitmq.connector.util.Log4j;
+import com.karim.examples.rabbitmq.connector.util.NamedThreadFactory;
+
+/**
+ * Process wide cache of {@link AMQPService} instances, so the connections and their
+ * executors are opened once and shared instead of opened per operation.
+ *
+ * The services are identified by the host/addresses, virtual host, credentials and application
+ * name of the connection configuration; the other options are taken from the configuration
+ * of the first caller. A caller with a wrong password doesn't get the service opened by
+ * the right one. Each {@link #acquire(ConnectionConfigurer)} must be paired with a
+ * {@link AMQPService#close()} (or {@link #release(AMQPService)}) which releases the reference,
+ * when no reference left the service is closed after the idle timeout unless acquired again.
+ *
+ * <pre>
+ * AMQPService amqpService = AMQPServiceRegistry.getSharedRegistry().acquire(connectionConfigurer);
+ * try {
+ *     amqpService.push(producerConfigurer, null, message);
+ * } finally {
+ *     amqpService.close();
+ * }
+ * </pre>
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class AMQPServiceRegistry {
+	// Default time an unused service kept opened
+	private static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(1);
+
+	// Lazily created registry shared by the process
+	private static volatile AMQPServiceRegistry sharedRegistry;
+
+	// Shared services by connection identity
+	private final ConcurrentMap<ConnectionKey, Entry> entries = new ConcurrentHashMap<>();
+
+	// Time in milliseconds an unused service kept opened
+	private final long idleTimeout;
+
+	// Timer used to expire the idle services
+	private final HashedWheelTimer timer = HashedWheelTimer.getSharedTimer();
+
+	// Close the idle services out of the timer thread
+	private final ExecutorService closeExecutor =
+			Executors.newSingleThreadExecutor(new NamedThreadFactory("amqp-registry", true));
+
+	private volatile boolean closed = false;
+
+	/**
+	 * @param idleTimeout	time an unused service kept opened, zero to close it once released
+	 * @param unit			the idleTimeout unit
+	 */
+	public AMQPServiceRegistry(long idleTimeout, TimeUnit unit) {
+		if(idleTimeout < 0)
+			throw new IllegalArgumentException("idleTimeout must be greater than or equal to 0: " + idleTimeout);
+
+		this.idleTimeout = unit.toMillis(idleTimeout);
+	}
+
+	/**
+	 * @return the registry shared by the process with one minute idle timeout
+	 */
+	public static AMQPServiceRegistry getSharedRegistry() {
+		AMQPServiceRegistry registry = sharedRegistry;
+		if(registry == null) {
+			synchronized(AMQPServiceRegistry.class) {
+				registry = sharedRegistry;
+				if(registry == null) {
+					registry = new AMQPServiceRegistry(DEFAULT_IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+					sharedRegistry = registry;
+				}
+			}
+		}
+		return registry;
+	}
+
+	/**
+	 * Get the opened service of the connection configuration or open a new one. The caller
+	 * must close the returned service once it's not needed.
+	 *
+	 * @param argsConfigurer the connection configuration
+	 * @return the shared service
+	 * @throws AMQPCustomException if the registry is closed or the connection can't be opened
+	 */
+	public AMQPService acquire(ConnectionConfigurer argsConfigurer) throws AMQPCustomException {
+		ConnectionKey key = new ConnectionKey(argsConfigurer);
+
+		while(true) {
+			if(closed)
+				throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP038"));
+
+			Entry entry = entries.computeIfAbsent(key, Entry::new);
+
+			// Only the callers of the same connection wait for the connection opening
+			synchronized(entry) {
+				if(entry.removed)
+					continue;
+
+				if(entry.service == null) {
+					try {
+						entry.service = new AMQPService(argsConfigurer);
+					} catch(AMQPCustomException e) {
+						entry.removed = true;
+						entries.remove(key, entry);
+						throw e;
+					}
+					entry.service.setRegistry(this);
+				}
+
+				if(entry.idleTimeout != null) {
+					entry.idleTimeout.cancel();
+					entry.idleTimeout = null;
+				}
+				entry.refCount++;
+				return entry.service;
+			}
+		}
+	}
+
+	/**
+	 * Release a reference of the service, the service is closed after the idle timeout
+	 * if no reference left. Same as {@link AMQPService#close()}.
+	 *
+	 * @param service the service returned by {@link #acquire(ConnectionConfigurer)}
+	 */
+	public void release(AMQPService service) {
+		Entry entry = findEntry(service);
+		if(entry == null) {
+			Log4j.traceError(AMQPServiceRegistry.class, "Release a service not owned by the registry.");
+			return;
+		}
+
+		synchronized(entry) {
+			if(entry.removed || entry.refCount == 0) {
+				Log4j.traceError(AMQPServiceRegistry.class, "Release a service more than it's acquired.");
+				return;
+			}
+
+			if(--entry.refCount > 0)
+				return;
+
+			if(idleTimeout == 0 || closed) {
+				entry.removed = true;
+				entries.remove(entry.key, entry);
+			} else {
+				entry.idleTimeout = timer.newTimeout(() -> closeExecutor.execute(() -> closeIdle(entry)),
+						idleTimeout, TimeUnit.MILLISECONDS);
+				return;
+			}
+		}
+
+		entry.service.shutdown();
+	}
+
+	/**
+	 * @return the no of opened services
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Close all the services, including the used ones, and stop accepting new requests. The
+	 * next {@link #getSharedRegistry()} creates a new registry once the shared one is closed.
+	 */
+	public void close() {
+		closed = true;
+
+		synchronized(AMQPServiceRegistry.class) {
+			if(sharedRegistry == this)
+				sharedRegistry = null;
+		}
+
+		List<AMQPService> services = new ArrayList<>();
+		for(Entry entry : entries.values()) {
+			synchronized(entry) {
+				if(entry.removed)
+					continue;
+
+				entry.removed = true;
+				entries.remove(entry.key, entry);
+				if(entry.idleTimeout != null)
+					entry.idleTimeout.cancel();
+				if(entry.service != null)
+					services.add(entry.service);
+			}
+		}
+
+		for(AMQPService service : services)
+			service.shutdown();
+
+		closeExecutor.shutdown();
+	}
+
+	/**
+	 * Close the service if it's still unused.
+	 *
+	 * @param entry the expired entry
+	 */
+	private void closeIdle(Entry entry) {
+		synchronized(entry) {
+			if(entry.removed || entry.refCount > 0)
+				return;
+
+			entry.removed = true;
+			entries.remove(entry.key, entry);
+		}
+
+		entry.service.shutdown();
+	}
+
+	private Entry findEntry(AMQPService service) {
+		for(Entry entry : entries.values()) {
+			if(entry.service == service)
+				return entry;
+		}
+		return null;
+	}
+
+	////////////////////////////////////////
+	/**
+	 * A shared service and its references
+	 */
+	private static final class Entry {
+		private final ConnectionKey key;
+		// Guarded by the entry monitor
+		private AMQPService service;
+		private int refCount;
+		private HashedWheelTimer.Timeout idleTimeout;
+		// Set when the service is closed, a new entry must be created
+		private boolean removed;
+
+		Entry(ConnectionKey key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * The connection identity
+	 */
+	private static final class ConnectionKey {
+		private final String host;
+		private final int port;
+		private final List<?> addresses;
+		private final String virtualHost;
+		private final String username;
+		// SHA-256 of the password, the password isn't kept by the registry
+		private final byte[] passwordHash;
+		private final String applicationName;
+
+		ConnectionKey(ConnectionConfigurer argsConfigurer) {
+			this.host = argsConfigurer.getHost();
+			this.port = argsConfigurer.getPort();
+			this.addresses = argsConfigurer.getAddresses() == null?
+					null
+					: Arrays.asList(argsConfigurer.getAddresses());
+			this.virtualHost = argsConfigurer.getVirtualHost();
+			this.username = argsConfigurer.getUsername();
+			this.passwordHash = hash(argsConfigurer.getPassword());
+			this.applicationName = argsConfigurer.getApplicationName();
+		}
+
+		private static byte[] hash(String password) {
+			if(password == null)
+				return null;
+
+			try {
+				return MessageDigest.getInstance("SHA-256").digest(password.getBytes(StandardCharsets.UTF_8));
+			} catch(NoSuchAlgorithmException e) {
+				// Every Java platform supports SHA-256
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(this == obj)
+				return true;
+			if(!(obj instanceof ConnectionKey))
+				return false;
+
+			ConnectionKey other = (ConnectionKey) obj;
+			return port == other.port
+					&& Objects.equals(host, other.host)
+					&& Objects.equals(addresses, other.addresses)
+					&& Objects.equals(virtualHost, other.virtualHost)
+					&& Objects.equals(username, other.username)
+					&& Arrays.equals(passwordHash, other.passwordHash)
+					&& Objects.equals(applicationName, other.applicationName);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(host, port, addresses, virtualHost, username, Arrays.hashCode(passwordHash), applicationName);
+		}
+	}
+}
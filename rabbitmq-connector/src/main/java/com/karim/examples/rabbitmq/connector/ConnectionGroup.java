@@ -0,0 +1,318 @@
+package com.karim.examples.rabbitmq.connector;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.karim.examples.rabbitmq.common.enums.ConnectionPolicyEnum;
+import com.karim.examples.rabbitmq.connector.configures.ConnectionConfigurer;
+import com.karim.examples.rabbitmq.connector.util.Log4j;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+
+/**
+ * A fixed group of connections to the broker that the channels of a service are spread on,
+ * so a single socket and a single broker connection process are not the throughput ceiling,
+ * and the broker flow control on the publishers connections doesn't block the consumers.
+ * 
+ * The channels are assigned to the connections by {@link ConnectionPolicyEnum}.
+ * 
+ * The connections blocked by the broker flow control (connection.blocked on a memory or
+ * disk alarm) are tracked, so the publishers can check or wait for them to be unblocked
+ * instead of blocking in the publish.
+ * 
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class ConnectionGroup {
+	
+	/**
+	 * The usage of the channel, used by {@link ConnectionPolicyEnum#ROLE_BASED}
+	 */
+	enum ChannelRole {
+		PUBLISHER
+		, CONSUMER;
+	}
+	
+	// The opened connections
+	private final Connection[] _connections;
+	// No of open channels per connection
+	private final AtomicInteger[] _openChannels;
+	// Channel assignment policy
+	private final ConnectionPolicyEnum _policy;
+	// No of connections reserved for the consumers in role based policy
+	private final int _consumerConnections;
+	// Next connection index for the round robin assignment
+	private final AtomicInteger _nextIndex = new AtomicInteger();
+	// The broker blocking reason per connection, null if not blocked
+	private final AtomicReferenceArray<String> _blockedReasons;
+	// Notified when a connection is unblocked
+	private final Object _unblockedMonitor = new Object();
+	// No of the blocked connections, shared with the metrics
+	private final LongAdder _blockedConnections;
+	
+	private ConnectionGroup(Connection[] connections, ConnectionPolicyEnum policy, LongAdder blockedConnections) {
+		this._connections = connections;
+		this._policy = policy;
+		this._blockedConnections = blockedConnections;
+		this._openChannels = new AtomicInteger[connections.length];
+		this._blockedReasons = new AtomicReferenceArray<>(connections.length);
+		for(int i = 0; i < connections.length; i++) {
+			this._openChannels[i] = new AtomicInteger();
+		}
+		
+		// Half of the connections for the consumers, all shared if only one connection
+		this._consumerConnections = connections.length == 1? 1 : connections.length / 2;
+	}
+	
+	/**
+	 * Open {@link ConnectionConfigurer#getNoOfConnections()} connections. If one of them
+	 * failed, the already opened ones will be closed.
+	 * 
+	 * @param connectionFactory	the initialized connection factory
+	 * @param executorService	the consumers thread pool
+	 * @param argsConfigurer	the connection configuration
+	 * @param blockedConnections the counter of the connections blocked by the broker
+	 * @return the opened connections group
+	 * @throws IOException if problem occurred during establishing a connection
+	 * @throws TimeoutException if timeout elapsed during establishing a connection
+	 */
+	static ConnectionGroup open(ConnectionFactory connectionFactory, 
+			ExecutorService executorService, 
+			ConnectionConfigurer argsConfigurer,
+			LongAdder blockedConnections) throws IOException, TimeoutException {
+		int noOfConnections = argsConfigurer.getNoOfConnections();
+		ConnectionPolicyEnum policy = argsConfigurer.getConnectionPolicy();
+		
+		Connection[] connections = new Connection[noOfConnections];
+		ConnectionGroup connectionGroup = new ConnectionGroup(connections, policy, blockedConnections);
+		try {
+			for(int i = 0; i < noOfConnections; i++) {
+				String connectionName = connectionGroup.connectionName(argsConfigurer.getApplicationName(), i);
+				
+				if(argsConfigurer.getHost() != null) {
+					connections[i] = connectionFactory.newConnection(executorService, connectionName);
+				} else {
+					connections[i] = connectionFactory.newConnection(executorService, 
+							argsConfigurer.getAddresses(), 
+							connectionName);
+				}
+				connectionGroup.trackBlocked(i);
+			}
+		} catch (IOException | TimeoutException | RuntimeException e) {
+			connectionGroup.close(argsConfigurer.getConnectionTimeout());
+			throw e;
+		}
+		
+		return connectionGroup;
+	}
+	
+	/**
+	 * Create a new channel on the connection selected by the policy.
+	 * 
+	 * @param role the channel usage
+	 * @return a new channel descriptor, or null if none is available
+	 * @throws IOException if an I/O problem is encountered
+	 */
+	Channel createChannel(ChannelRole role) throws IOException {
+		final int index = selectConnection(role);
+		
+		Channel channel = _connections[index].createChannel();
+		if(channel == null)
+			return null;
+		
+		// Track the open channels of the connection
+		final AtomicInteger openChannels = _openChannels[index];
+		openChannels.incrementAndGet();
+		channel.addShutdownListener(cause -> openChannels.decrementAndGet());
+		if(channel instanceof Recoverable) {
+			((Recoverable) channel).addRecoveryListener(new RecoveryListener() {
+				@Override
+				public void handleRecovery(Recoverable recoverable) {
+					openChannels.incrementAndGet();
+				}
+				
+				@Override
+				public void handleRecoveryStarted(Recoverable recoverable) {
+					// no work to do
+				}
+			});
+		}
+		
+		return channel;
+	}
+	
+	/**
+	 * @param role the channel usage
+	 * @return true if all the connections used by the role are open
+	 */
+	boolean isOpen(ChannelRole role) {
+		for(int i = firstConnection(role); i < lastConnection(role); i++) {
+			if(!_connections[i].isOpen())
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * @param role the channel usage
+	 * @return true if one of the connections used by the role is blocked by the broker
+	 */
+	boolean isBlocked(ChannelRole role) {
+		return getBlockedReason(role) != null;
+	}
+	
+	/**
+	 * @param role the channel usage
+	 * @return the broker reason of blocking one of the connections used by the role, null if 
+	 * 			none is blocked
+	 */
+	String getBlockedReason(ChannelRole role) {
+		for(int i = firstConnection(role); i < lastConnection(role); i++) {
+			String reason = _blockedReasons.get(i);
+			if(reason != null)
+				return reason;
+		}
+		return null;
+	}
+	
+	/**
+	 * Wait for the broker to unblock the connections used by the role
+	 * 
+	 * @param role		the channel usage
+	 * @param timeout	the max wait in milliseconds
+	 * @return true if unblocked, false if the timeout elapsed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	boolean awaitUnblocked(ChannelRole role, long timeout) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		synchronized(_unblockedMonitor) {
+			while(isBlocked(role)) {
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0)
+					return false;
+				TimeUnit.NANOSECONDS.timedWait(_unblockedMonitor, remaining);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return the opened connections
+	 */
+	List<Connection> getConnections() {
+		return Collections.unmodifiableList(Arrays.asList(_connections));
+	}
+	
+	/**
+	 * Close all the opened connections.
+	 * 
+	 * @param timeout timeout (in milliseconds) for completing each connection close
+	 */
+	void close(int timeout) {
+		for(Connection connection : _connections) {
+			try {
+				if(connection != null && connection.isOpen())
+					connection.close(timeout);
+			} catch (IOException e) {
+				// Do nothing
+				Log4j.traceErrorException(ConnectionGroup.class, e, "Exception during closing the connection: {}", e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Track the broker flow control of the connection. A closed connection is not blocked 
+	 * anymore, the broker blocks it again once recovered if the alarm is still set.
+	 * 
+	 * @param index the connection index
+	 */
+	private void trackBlocked(final int index) {
+		Connection connection = _connections[index];
+		connection.addBlockedListener(reason -> {
+			if(_blockedReasons.getAndSet(index, reason) == null)
+				_blockedConnections.increment();
+			Log4j.traceError(ConnectionGroup.class, "The broker blocked the connection {}: {}", 
+					connection.getClientProvidedName(), reason);
+		}, () -> unblocked(index));
+		connection.addShutdownListener(cause -> unblocked(index));
+	}
+	
+	private void unblocked(int index) {
+		if(_blockedReasons.getAndSet(index, null) == null)
+			return;
+		
+		_blockedConnections.decrement();
+		synchronized(_unblockedMonitor) {
+			_unblockedMonitor.notifyAll();
+		}
+	}
+	
+	// The connections range used by the role
+	private int firstConnection(ChannelRole role) {
+		return _policy == ConnectionPolicyEnum.ROLE_BASED && _connections.length > 1 
+				&& role == ChannelRole.PUBLISHER? _consumerConnections : 0;
+	}
+	
+	private int lastConnection(ChannelRole role) {
+		return _policy == ConnectionPolicyEnum.ROLE_BASED && _connections.length > 1 
+				&& role == ChannelRole.CONSUMER? _consumerConnections : _connections.length;
+	}
+	
+	/**
+	 * Select the connection index by the policy
+	 * 
+	 * @param role the channel usage
+	 * @return the connection index
+	 */
+	private int selectConnection(ChannelRole role) {
+		if(_connections.length == 1)
+			return 0;
+		
+		switch (_policy) {
+			case LEAST_LOADED:
+				// The role is ignored, all the connections are candidates
+				int leastLoaded = 0;
+				for(int i = 1; i < _openChannels.length; i++) {
+					if(_openChannels[i].get() < _openChannels[leastLoaded].get())
+						leastLoaded = i;
+				}
+				return leastLoaded;
+			case ROLE_BASED:
+				if(role == ChannelRole.CONSUMER)
+					return nextIndex(_consumerConnections);
+				
+				return _consumerConnections + nextIndex(_connections.length - _consumerConnections);
+			case ROUND_ROBIN:
+			default:
+				return nextIndex(_connections.length);
+		}
+	}
+	
+	private int nextIndex(int bound) {
+		return (_nextIndex.getAndIncrement() & Integer.MAX_VALUE) % bound;
+	}
+	
+	/**
+	 * Name the connection by its application and role to be visible in the broker management.
+	 */
+	private String connectionName(String applicationName, int index) {
+		if(_policy == ConnectionPolicyEnum.ROLE_BASED && _connections.length > 1) {
+			return applicationName + "-" + (index < _consumerConnections? 
+					ChannelRole.CONSUMER 
+					: ChannelRole.PUBLISHER).name().toLowerCase() + "-" + index;
+		}
+		
+		return applicationName + "-" + index;
+	}
+}
@@ -0,0 +1,113 @@
+package com.karim.examples.rabbitmq.connector;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.karim.examples.rabbitmq.connector.util.Log4j;
+import com.karim.examples.rabbitmq.connector.util.NamedThreadFactory;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.impl.FrameHandlerFactory;
+import com.rabbitmq.client.impl.nio.NioParams;
+
+/**
+ * <p>A group of NIO event loops that can be shared between several {@link AMQPService}
+ * instances, for example one service per virtual host, so all their connections are 
+ * served by the same few I/O threads instead of a reader thread per connection.</p>
+ * 
+ * <p>The services sharing the group must use the same connection timeout and SSL 
+ * configuration, the event loops are created with the configuration of the first 
+ * service that opens a connection (one set of loops for plain and one for SSL connections).
+ * The group must be closed after all the services using it are closed.</p>
+ * 
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ * @see com.karim.examples.rabbitmq.connector.configures.ConnectionConfigurer.Builder#withNioEventLoopGroup(NioEventLoopGroup)
+ */
+public final class NioEventLoopGroup {
+	// Default read/write buffer size in bytes
+	private static final int DEFAULT_BUFFER_SIZE = 32 * 1024;
+	
+	// NIO parameters of all the connections in the group
+	private final NioParams _nioParams;
+	// The executor running the event loops
+	private final ExecutorService _nioExecutor;
+	// Shared frame handler factories (event loops) by SSL flag
+	private final Map<Boolean, FrameHandlerFactory> _frameHandlerFactories = new HashMap<>(2);
+	
+	/**
+	 * Create a group with default buffer sizes.
+	 * 
+	 * @param name			the event loops threads name prefix
+	 * @param nbIoThreads	the no of event loops (I/O threads)
+	 */
+	public NioEventLoopGroup(String name, int nbIoThreads) {
+		this(name, nbIoThreads, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Create a group.
+	 * 
+	 * @param name				the event loops threads name prefix
+	 * @param nbIoThreads		the no of event loops (I/O threads)
+	 * @param readBufferSize	the read buffer size in bytes per connection
+	 * @param writeBufferSize	the write buffer size in bytes per connection
+	 */
+	public NioEventLoopGroup(String name, int nbIoThreads, int readBufferSize, int writeBufferSize) {
+		if(nbIoThreads < 1)
+			throw new IllegalArgumentException("nbIoThreads must be greater than 0: " + nbIoThreads);
+		
+		this._nioExecutor = Executors.newFixedThreadPool(nbIoThreads, new NamedThreadFactory(name, true));
+		this._nioParams = new NioParams()
+				.setNbIoThreads(nbIoThreads)
+				.setReadByteBufferSize(readBufferSize)
+				.setWriteByteBufferSize(writeBufferSize)
+				.setNioExecutor(_nioExecutor);
+	}
+	
+	/**
+	 * Create a connection factory in NIO mode that opens its connections on the 
+	 * group event loops.
+	 * 
+	 * @return a new connection factory
+	 */
+	ConnectionFactory newConnectionFactory() {
+		ConnectionFactory connectionFactory = new ConnectionFactory() {
+			@Override
+			protected synchronized FrameHandlerFactory createFrameHandlerFactory() throws IOException {
+				synchronized (NioEventLoopGroup.this) {
+					FrameHandlerFactory frameHandlerFactory = _frameHandlerFactories.get(isSSL());
+					if(frameHandlerFactory == null) {
+						frameHandlerFactory = super.createFrameHandlerFactory();
+						_frameHandlerFactories.put(isSSL(), frameHandlerFactory);
+					}
+					return frameHandlerFactory;
+				}
+			}
+		};
+		
+		connectionFactory.useNio();
+		connectionFactory.setNioParams(new NioParams(_nioParams));
+		return connectionFactory;
+	}
+	
+	/**
+	 * Stop the event loops threads, must be called after closing all the services using 
+	 * the group.
+	 */
+	public void close() {
+		_nioExecutor.shutdown();
+		try {
+			if(!_nioExecutor.awaitTermination(2, TimeUnit.SECONDS)) {
+				_nioExecutor.shutdownNow();
+				Log4j.traceError(NioEventLoopGroup.class, "Not all thread closed properly in the NIO executor.");
+			}
+		} catch (InterruptedException e) {
+			_nioExecutor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+}
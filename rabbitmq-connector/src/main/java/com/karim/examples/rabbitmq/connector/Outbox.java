@@ -0,0 +1,258 @@
+package com.karim.examples.rabbitmq.connector;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.karim.examples.rabbitmq.connector.ConnectionGroup.ChannelRole;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.karim.examples.rabbitmq.connector.util.AMQPResourceBundle;
+import com.karim.examples.rabbitmq.connector.util.HashedWheelTimer;
+import com.karim.examples.rabbitmq.connector.util.Log4j;
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+
+/**
+ * Store-and-forward outbox of the messages published while the broker is unavailable.
+ * The messages are appended to a local {@link OutboxJournal} and replayed in order once the
+ * connection is available, in batches published with pipelined confirms. A batch is
+ * acknowledged in the journal only when all its messages are confirmed, so a message may be
+ * published twice if the connection is lost during the replay (at-least-once).
+ *
+ * A replayed message returned as not routed, e.g. its queue deleted while the broker was
+ * unavailable, can't be published again, its batch is acknowledged and the lost messages
+ * are counted and their ids logged as error.
+ *
+ * While the outbox has pending messages the new messages are appended to it too, so the
+ * messages are published in the order they were pushed.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class Outbox {
+	// Delay in milliseconds between replay attempts while the broker is unavailable
+	private static final long REPLAY_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+	// Max no of messages published before waiting for their confirms
+	private static final int REPLAY_BATCH_SIZE = 500;
+	// Max time in milliseconds waiting for the confirms of a batch
+	private static final long REPLAY_CONFIRM_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+
+	private final OutboxJournal _journal;
+	// Connections to replay the messages on
+	private final ConnectionGroup _connectionGroup;
+	// Executor running the replay, one replay at a time
+	private final ExecutorService _executorService;
+	private final HashedWheelTimer _timer;
+	// Replayed messages returned as not routed
+	private final LongAdder _returns;
+
+	// Set when a replay is scheduled or running
+	private final AtomicBoolean _replayScheduled = new AtomicBoolean(false);
+	private volatile boolean _closed = false;
+
+	/**
+	 * Open the outbox journal and replay the messages left from a previous run
+	 *
+	 * @param directory			the journal directory
+	 * @param segmentSize		the journal segment size in bytes
+	 * @param connectionGroup	the connections to replay the messages on
+	 * @param executorService	the executor to run the replay
+	 * @param timer				the timer to delay the replay attempts
+	 * @param returns			the counter of the replayed messages returned as not routed
+	 * @throws IOException if the journal can't be opened
+	 */
+	Outbox(File directory,
+			int segmentSize,
+			ConnectionGroup connectionGroup,
+			ExecutorService executorService,
+			HashedWheelTimer timer,
+			LongAdder returns) throws IOException {
+		this._journal = new OutboxJournal(directory, segmentSize);
+		this._connectionGroup = connectionGroup;
+		this._executorService = executorService;
+		this._timer = timer;
+		this._returns = returns;
+
+		if(_journal.hasPending())
+			replayNow();
+	}
+
+	/**
+	 * @return true if there are messages waiting to be replayed
+	 */
+	boolean hasPending() {
+		return _journal.hasPending();
+	}
+
+	/**
+	 * Append the message to the journal to be published when the broker is available.
+	 *
+	 * @param exchange		the exchange to publish the message to
+	 * @param routingKey	the routing key
+	 * @param props			the message properties
+	 * @param body			the message body
+	 * @throws AMQPCustomException if the message can't be written to the journal
+	 */
+	void spool(String exchange, String routingKey, BasicProperties props, byte[] body) throws AMQPCustomException {
+		try {
+			_journal.append(encode(exchange, routingKey, props, body));
+		} catch (IOException e) {
+			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP039"), e);
+		}
+
+		scheduleReplay();
+	}
+
+	/**
+	 * Replay the pending messages on the executor, used when the connection recovered.
+	 */
+	void replayNow() {
+		if(_closed || !_replayScheduled.compareAndSet(false, true))
+			return;
+
+		submitReplay();
+	}
+
+	/**
+	 * Stop the replay and close the journal, the pending messages are replayed by the next
+	 * opened outbox on the same directory.
+	 */
+	void close() {
+		_closed = true;
+		synchronized(this) {
+			_journal.close();
+		}
+	}
+
+	private void scheduleReplay() {
+		if(_closed || !_replayScheduled.compareAndSet(false, true))
+			return;
+
+		_timer.newTimeout(this::submitReplay, REPLAY_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	private void submitReplay() {
+		try {
+			_executorService.execute(this::replay);
+		} catch(RejectedExecutionException e) {
+			// The service is closing
+			_replayScheduled.set(false);
+		}
+	}
+
+	/**
+	 * Publish the pending messages in order, batch by batch, and acknowledge each batch in
+	 * the journal once confirmed. Reschedule itself if the broker is not available.
+	 */
+	private synchronized void replay() {
+		_replayScheduled.set(false);
+		if(_closed)
+			return;
+
+		Channel channel = null;
+		try {
+			channel = _connectionGroup.createChannel(ChannelRole.PUBLISHER);
+			if(channel == null)
+				throw new IOException(AMQPResourceBundle.getMessage("error_AMQP008"));
+
+			// The broker returns the message before confirming it, so the batch returns are known once confirmed
+			ConcurrentLinkedQueue<String> returned = new ConcurrentLinkedQueue<>();
+			channel.addReturnListener((replyCode, replyText, exchange, routingKey, properties, body) -> {
+				returned.add(String.valueOf(properties.getMessageId()));
+				Log4j.traceError(Outbox.class, "{} messageId: {}",
+						AMQPResourceBundle.getParameterizedMessage("error_AMQP035",
+								replyCode,
+								replyText,
+								routingKey,
+								exchange),
+						properties.getMessageId());
+			});
+			channel.confirmSelect();
+
+			while(!_closed && _journal.hasPending()) {
+				// Don't hold the replay thread in a publish blocked by the broker, replayed once unblocked
+				String blockedReason = _connectionGroup.getBlockedReason(ChannelRole.PUBLISHER);
+				if(blockedReason != null)
+					throw new IOException(AMQPResourceBundle.getParameterizedMessage("error_AMQP041", blockedReason));
+				
+				OutboxJournal.Batch batch = _journal.read(_journal.getAckedPosition(), REPLAY_BATCH_SIZE);
+				for(byte[] record : batch.records) {
+					DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+					String exchange = in.readUTF();
+					String routingKey = in.readUTF();
+					in.readShort(); // content class id
+					BasicProperties props = new BasicProperties(in);
+					byte[] body = new byte[in.readInt()];
+					in.readFully(body);
+
+					channel.basicPublish(exchange, routingKey, true, props, body);
+				}
+
+				// It'll throw IOException if a message was nack'd, the batch will be replayed again
+				channel.waitForConfirmsOrDie(REPLAY_CONFIRM_TIMEOUT);
+				_journal.acknowledge(batch.endPosition);
+				reportReturns(returned);
+
+				if(batch.records.isEmpty())
+					break;
+			}
+		} catch(Exception e) {
+			if(e instanceof InterruptedException)
+				Thread.currentThread().interrupt();
+
+			Log4j.traceDebug(Outbox.class, "Outbox replay postponed: {}", e.getMessage());
+		} finally {
+			if(channel != null && channel.isOpen()) {
+				try {
+					channel.close();
+				} catch(Exception e) {
+					// Do nothing
+				}
+			}
+		}
+
+		if(!_closed && _journal.hasPending())
+			scheduleReplay();
+	}
+
+	/**
+	 * Count the returned messages of an acknowledged batch, they are lost
+	 */
+	private void reportReturns(ConcurrentLinkedQueue<String> returned) {
+		if(returned.isEmpty())
+			return;
+
+		List<String> lost = new ArrayList<>();
+		for(String messageId = returned.poll(); messageId != null; messageId = returned.poll())
+			lost.add(messageId);
+		_returns.add(lost.size());
+		Log4j.traceError(Outbox.class, "Outbox replay lost {} not routed messages, messageIds: {}", lost.size(), lost);
+	}
+
+	/**
+	 * Encode the message in the journal record format: exchange, routing key, the properties
+	 * in AMQP content header format, body length, body.
+	 */
+	private static byte[] encode(String exchange, String routingKey, BasicProperties props, byte[] body) throws IOException {
+		ByteArrayOutputStream record = new ByteArrayOutputStream(body.length + 256);
+		DataOutputStream out = new DataOutputStream(record);
+		out.writeUTF(exchange);
+		out.writeUTF(routingKey);
+		out.write(props.toFrame(0, body.length).getPayload());
+		out.writeInt(body.length);
+		out.write(body);
+		out.flush();
+		return record.toByteArray();
+	}
+}
@@ -0,0 +1,384 @@
+package com.karim.examples.rabbitmq.connector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import com.karim.examples.rabbitmq.connector.util.Log4j;
+
+/**
+ * Append-only journal of records on local disk, split into memory-mapped segment files of
+ * a fixed size. The records are appended to the last segment, a new segment is created
+ * when the record doesn't fit, and the segments before the acknowledged position are
+ * deleted.
+ *
+ * Record format: [int length][int crc32][payload], a zero length marks the end of the
+ * written records in the segment as the mapped files are zero filled. The acknowledged
+ * position is kept in a checkpoint file so the acknowledged records are not replayed
+ * after a restart.
+ *
+ * The records are written to the page cache without forcing each one to the disk, so they
+ * survive a process crash; the segments are forced when rotated and closed.
+ *
+ * The deleted segments are unmapped at once instead of waiting for the GC to release their
+ * mappings, not to grow the virtual memory of a long running spool by a segment per
+ * rotation. If the JVM doesn't allow unmapping, the mapping is left to the GC.
+ *
+ * The journal holds an exclusive lock on the checkpoint file until closed, a second
+ * journal on the same directory, in this or another process, fails to open instead of
+ * replaying and deleting the same records.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class OutboxJournal {
+	// Segment file name format by segment id
+	private static final String SEGMENT_FILE_FORMAT = "outbox-%010d.log";
+	private static final String SEGMENT_FILE_PATTERN = "outbox-\\d{10}\\.log";
+	// Acknowledged position file name
+	private static final String CHECKPOINT_FILE = "outbox.checkpoint";
+	// Record length and crc
+	private static final int RECORD_HEADER_SIZE = 8;
+
+	// Journal directory
+	private final File _directory;
+	// Segment file size in bytes
+	private final int _segmentSize;
+
+	// Opened segments by id, guarded by this
+	private final TreeMap<Integer, Segment> _segments = new TreeMap<>();
+	// Segment of the appended records, guarded by this
+	private Segment _writeSegment;
+
+	// Position after the last appended record
+	private volatile long _writePosition;
+	// Position after the last acknowledged record
+	private volatile long _ackedPosition;
+
+	// The acknowledged position file
+	private final RandomAccessFile _checkpointFile;
+	private final MappedByteBuffer _checkpoint;
+
+	/**
+	 * Open the journal in the directory, create it if not exist, and recover the written
+	 * and acknowledged records.
+	 *
+	 * @param directory		the journal directory
+	 * @param segmentSize	the segment file size in bytes
+	 * @throws IOException if the journal files can't be opened, or the directory is used by another journal
+	 */
+	OutboxJournal(File directory, int segmentSize) throws IOException {
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create the outbox directory " + directory);
+
+		this._directory = directory;
+		this._segmentSize = segmentSize;
+
+		// Locked before reading the segments, released by closing the file
+		_checkpointFile = new RandomAccessFile(new File(directory, CHECKPOINT_FILE), "rw");
+		try {
+			if(!tryLock(_checkpointFile.getChannel()))
+				throw new IOException("The outbox directory " + directory + " is used by another outbox");
+
+			File[] files = directory.listFiles((dir, name) -> name.matches(SEGMENT_FILE_PATTERN));
+			for(File file : files) {
+				int id = Integer.parseInt(file.getName().replaceAll("\\D", ""));
+				_segments.put(id, new Segment(id, file));
+			}
+
+			if(_segments.isEmpty()) {
+				_writeSegment = createSegment(0);
+			} else {
+				_writeSegment = _segments.lastEntry().getValue();
+				_writeSegment.recoverWriteOffset();
+			}
+			_writePosition = position(_writeSegment.id, _writeSegment.writeOffset);
+
+			boolean newCheckpoint = _checkpointFile.length() < Long.BYTES;
+			_checkpoint = _checkpointFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+
+			long ackedPosition = _checkpoint.getLong(0);
+			if(newCheckpoint || segmentId(ackedPosition) < _segments.firstKey())
+				ackedPosition = position(_segments.firstKey(), 0);
+			_ackedPosition = ackedPosition;
+		} catch (IOException | RuntimeException e) {
+			for(Segment segment : _segments.values())
+				segment.close();
+			_segments.clear();
+			_checkpointFile.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @param channel the checkpoint file channel
+	 * @return true if locked, false if locked by another process or by another journal of this process
+	 * @throws IOException if the file can't be locked
+	 */
+	private static boolean tryLock(FileChannel channel) throws IOException {
+		try {
+			return channel.tryLock() != null;
+		} catch (OverlappingFileLockException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Append a record to the journal
+	 *
+	 * @param payload the record
+	 * @throws IOException if the record is larger than the segment or the segment can't be created
+	 */
+	synchronized void append(byte[] payload) throws IOException {
+		int recordSize = RECORD_HEADER_SIZE + payload.length;
+		if(recordSize > _segmentSize)
+			throw new IOException("Outbox record of " + payload.length + " bytes is larger than the segment size");
+
+		if(_writeSegment.writeOffset + recordSize > _segmentSize) {
+			_writeSegment.buffer.force();
+			_writeSegment = createSegment(_writeSegment.id + 1);
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+
+		// Write the length last, so a partially written record is read as the end
+		MappedByteBuffer buffer = _writeSegment.buffer;
+		int offset = _writeSegment.writeOffset;
+		buffer.putInt(offset + Integer.BYTES, (int) crc.getValue());
+		ByteBuffer payloadBuffer = buffer.duplicate();
+		payloadBuffer.position(offset + RECORD_HEADER_SIZE);
+		payloadBuffer.put(payload);
+		buffer.putInt(offset, payload.length);
+
+		_writeSegment.writeOffset += recordSize;
+		_writePosition = position(_writeSegment.id, _writeSegment.writeOffset);
+	}
+
+	/**
+	 * Read the records starting from a position
+	 *
+	 * @param fromPosition	the position to start reading from
+	 * @param maxRecords	the max no of records to read
+	 * @return the read records and the position after them
+	 */
+	synchronized Batch read(long fromPosition, int maxRecords) {
+		List<byte[]> records = new ArrayList<>(Math.min(maxRecords, 1024));
+
+		int id = segmentId(fromPosition);
+		int offset = segmentOffset(fromPosition);
+		Segment segment = _segments.get(id);
+		while(segment != null && records.size() < maxRecords) {
+			byte[] record = segment.read(offset);
+			if(record == null) {
+				// End of the segment, move to the next one if exist
+				Map.Entry<Integer, Segment> next = _segments.higherEntry(segment.id);
+				if(next == null)
+					break;
+
+				segment = next.getValue();
+				offset = 0;
+				continue;
+			}
+
+			records.add(record);
+			offset += RECORD_HEADER_SIZE + record.length;
+		}
+
+		return new Batch(records, segment == null? fromPosition : position(segment.id, offset));
+	}
+
+	/**
+	 * Acknowledge the records before a position and delete the segments completely
+	 * acknowledged.
+	 *
+	 * @param position the position after the last acknowledged record
+	 */
+	synchronized void acknowledge(long position) {
+		_ackedPosition = position;
+		_checkpoint.putLong(0, position);
+
+		int ackedSegmentId = segmentId(position);
+		while(!_segments.isEmpty() && _segments.firstKey() < ackedSegmentId) {
+			Segment segment = _segments.pollFirstEntry().getValue();
+			segment.delete();
+		}
+	}
+
+	/**
+	 * @return true if there are records not acknowledged yet
+	 */
+	boolean hasPending() {
+		return _ackedPosition != _writePosition;
+	}
+
+	long getAckedPosition() {
+		return _ackedPosition;
+	}
+
+	/**
+	 * Force the written records to the disk and close the files.
+	 */
+	synchronized void close() {
+		for(Segment segment : _segments.values())
+			segment.close();
+		_segments.clear();
+
+		try {
+			_checkpoint.force();
+			_checkpointFile.close();
+		} catch (IOException e) {
+			Log4j.traceErrorException(OutboxJournal.class, e, "Exception during closing the outbox checkpoint: {}", e.getMessage());
+		}
+	}
+
+	private Segment createSegment(int id) throws IOException {
+		Segment segment = new Segment(id, new File(_directory, String.format(SEGMENT_FILE_FORMAT, id)));
+		_segments.put(id, segment);
+		return segment;
+	}
+
+	/**
+	 * Release the mapping of a buffer not used anymore, by the JDK 9+ Unsafe.invokeCleaner or 
+	 * the JDK 8 buffer cleaner, as a mapping is otherwise released only when the buffer is 
+	 * garbage collected.
+	 *
+	 * @param buffer the mapped buffer, must not be accessed afterward
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Method invokeCleaner;
+			try {
+				invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			} catch (NoSuchMethodException e) {
+				// JDK 8
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if(cleaner != null)
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				return;
+			}
+
+			Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+			theUnsafe.setAccessible(true);
+			invokeCleaner.invoke(theUnsafe.get(null), buffer);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			Log4j.traceDebug(OutboxJournal.class, "Outbox segment left mapped until collected: {}", e.getMessage());
+		}
+	}
+
+	private static long position(int segmentId, int offset) {
+		return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+	}
+
+	private static int segmentId(long position) {
+		return (int) (position >>> 32);
+	}
+
+	private static int segmentOffset(long position) {
+		return (int) position;
+	}
+
+	////////////////////////////////////////
+	/**
+	 * Records read from the journal
+	 */
+	static final class Batch {
+		final List<byte[]> records;
+		// Position after the last read record
+		final long endPosition;
+
+		Batch(List<byte[]> records, long endPosition) {
+			this.records = records;
+			this.endPosition = endPosition;
+		}
+	}
+
+	/**
+	 * A memory-mapped segment file
+	 */
+	private final class Segment {
+		private final int id;
+		private final File file;
+		private final RandomAccessFile randomAccessFile;
+		private final MappedByteBuffer buffer;
+		// Offset after the last written record, used for the write segment
+		private int writeOffset;
+
+		Segment(int id, File file) throws IOException {
+			this.id = id;
+			this.file = file;
+			this.randomAccessFile = new RandomAccessFile(file, "rw");
+			this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, _segmentSize);
+		}
+
+		/**
+		 * Read the record at the offset
+		 *
+		 * @param offset the record offset
+		 * @return the record, or null if no valid record at the offset
+		 */
+		byte[] read(int offset) {
+			if(offset + RECORD_HEADER_SIZE > _segmentSize)
+				return null;
+
+			int length = buffer.getInt(offset);
+			if(length <= 0 || offset + RECORD_HEADER_SIZE + length > _segmentSize)
+				return null;
+
+			byte[] record = new byte[length];
+			ByteBuffer recordBuffer = buffer.duplicate();
+			recordBuffer.position(offset + RECORD_HEADER_SIZE);
+			recordBuffer.get(record);
+
+			CRC32 crc = new CRC32();
+			crc.update(record);
+			if((int) crc.getValue() != buffer.getInt(offset + Integer.BYTES)) {
+				Log4j.traceError(OutboxJournal.class, "Corrupted outbox record in {} at {}", file, offset);
+				return null;
+			}
+			return record;
+		}
+
+		/**
+		 * Find the end of the valid records after a restart
+		 */
+		void recoverWriteOffset() {
+			int offset = 0;
+			byte[] record;
+			while((record = read(offset)) != null)
+				offset += RECORD_HEADER_SIZE + record.length;
+
+			writeOffset = offset;
+		}
+
+		void close() {
+			try {
+				buffer.force();
+				randomAccessFile.close();
+			} catch (IOException e) {
+				Log4j.traceErrorException(OutboxJournal.class, e, "Exception during closing the outbox segment {}: {}", file, e.getMessage());
+			}
+		}
+
+		void delete() {
+			close();
+			unmap(buffer);
+			if(!file.delete())
+				Log4j.traceError(OutboxJournal.class, "Unable to delete the outbox segment {}", file);
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package com.karim.examples.rabbitmq.connector;
 
 import java.io.IOException;
+import java.util.Map;
 
 import com.karim.examples.rabbitmq.connector.configures.ConsumerConfigurer;
 import com.karim.examples.rabbitmq.connector.util.Log4j;
@@ -19,6 +20,8 @@ public class RabbitConsumer  implements Consumer {
     
     private final AMQPService _callerService;
     private final ConsumerConfigurer _consumerConfigure;
+    /** Offset of the consumed stream, null if the queue is not a stream. */
+    private final StreamOffsetTracker _streamOffset;
 
     /**
      * Constructs a new instance and records its association to the passed-in channel.
@@ -28,6 +31,7 @@ public class RabbitConsumer  implements Consumer {
         _channel = channel;
         _callerService = null;
         _consumerConfigure = null;
+        _streamOffset = null;
     }
     
     /**
@@ -42,9 +46,24 @@ public class RabbitConsumer  implements Consumer {
     public RabbitConsumer(Channel channel,
     		AMQPService callerService, 
     		ConsumerConfigurer consumerConfigure) {
+        this(channel, callerService, consumerConfigure, null);
+    }
+    
+    /**
+     * Constructs a new instance of a stream consumer.
+     * @param channel the channel to which this consumer is attached
+     * @param callerService called service
+     * @param consumerConfigure
+     * @param streamOffset the offset of the consumed stream, null if not a stream
+     */
+    RabbitConsumer(Channel channel,
+    		AMQPService callerService, 
+    		ConsumerConfigurer consumerConfigure,
+    		StreamOffsetTracker streamOffset) {
         _channel = channel;
         _callerService = callerService;
         _consumerConfigure = consumerConfigure;
+        _streamOffset = streamOffset;
     }
 
     /**
@@ -94,16 +113,16 @@ public class RabbitConsumer  implements Consumer {
         // no work to do
     	if( sig.isInitiatedByApplication()) {
     		Log4j.traceErrorException(RabbitConsumer.class, sig.getCause(), 
-    				"The connection to the messaging server was shut down with consumerTag: " +  consumerTag );
+    				"The connection to the messaging server was shut down with consumerTag: {}", consumerTag);
  
         } else if( sig.getReference() instanceof Channel ) {
             int nb = ((Channel) sig.getReference()).getChannelNumber();
             Log4j.traceErrorException(RabbitConsumer.class, sig.getCause(), 
-            		"A RabbitMQ consumer was shut down. Channel #" + nb + ", consumerTag: " + consumerTag );
+            		"A RabbitMQ consumer was shut down. Channel #{}, consumerTag: {}", nb, consumerTag);
  
         } else {
         	Log4j.traceErrorException(RabbitConsumer.class, sig.getCause(), 
-        			"A RabbitMQ consumer was shut down with consumerTag: " + consumerTag );
+        			"A RabbitMQ consumer was shut down with consumerTag: {}", consumerTag);
         }
     }
 
@@ -114,7 +133,7 @@ public class RabbitConsumer  implements Consumer {
     public void handleRecoverOk(String consumerTag) {
         // no work to do
     	Log4j.traceInfo(RabbitConsumer.class, 
-    			"handleRecoverOk called for consumerTag: " + consumerTag);
+    			"handleRecoverOk called for consumerTag: {}", consumerTag);
     }
 
     /**
@@ -157,5 +176,16 @@ public class RabbitConsumer  implements Consumer {
     public ConsumerConfigurer getConsumerConfigurer() {
     	return this._consumerConfigure;
     }
+    
+    StreamOffsetTracker getStreamOffset() {
+    	return this._streamOffset;
+    }
+    
+    /**
+     * @return the arguments to consume with, the current offset of a stream, or null
+     */
+    Map<String, Object> getConsumeArguments() {
+    	return this._streamOffset == null? null : this._streamOffset.getConsumeArguments();
+    }
 
 }
@@ -0,0 +1,267 @@
+package com.karim.examples.rabbitmq.connector;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.karim.examples.rabbitmq.common.enums.ConfirmModeEnum;
+import com.karim.examples.rabbitmq.connector.ConnectionGroup.ChannelRole;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.karim.examples.rabbitmq.connector.util.AMQPResourceBundle;
+import com.karim.examples.rabbitmq.connector.util.Log4j;
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+
+/**
+ * Publishes the replies of a consumer on a dedicated channel that is opened once and 
+ * reused for all the replies, instead of opening a channel, enabling confirms and 
+ * waiting for the confirm for every reply.
+ * 
+ * The replies confirmation is controlled by {@link ConfirmModeEnum}, with 
+ * {@link ConfirmModeEnum#ASYNC} the confirms are pipelined and nacks are only logged,
+ * so the consumer doesn't wait for the broker before acknowledging the request.
+ * 
+ * The failed messages republished to the delay tiers are always confirmed, on a second 
+ * channel not to wait for or fail by the nacks of the pipelined replies, and a 
+ * republished message returned as unroutable fails the republish, as the broker still 
+ * acks a returned message and the original delivery would be acknowledged and lost.
+ * 
+ * The confirms are waited for {@link #CONFIRM_TIMEOUT} at most, as the publishes run on 
+ * the consumer dispatch thread and a blocked broker would stall the consumer.
+ * 
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class ReplyPublisher {
+	// Max time in milliseconds waiting for a reply or republish confirm
+	private static final long CONFIRM_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+	
+	// Connections to open the reply channel from
+	private final ConnectionGroup _connectionGroup;
+	// Reply confirmation mode
+	private final ConfirmModeEnum _confirmMode;
+	
+	// The reused reply channel, guarded by this
+	private Channel _channel;
+	// The reused republish channel, always in confirm mode, guarded by this
+	private Channel _republishChannel;
+	
+	// Exchange and routing key of the republish waiting for its confirm, null if none
+	private volatile String _republishExchange;
+	private volatile String _republishRoutingKey;
+	// The waiting republish was returned by the broker
+	private volatile boolean _republishReturned;
+	
+	// Replies waiting for asynchronous confirms by publish sequence number
+	private final ConcurrentNavigableMap<Long, String> _outstandingConfirms = new ConcurrentSkipListMap<>();
+	
+	/**
+	 * @param connectionGroup	the connections to open the reply channel from
+	 * @param confirmMode		the reply confirmation mode
+	 */
+	ReplyPublisher(ConnectionGroup connectionGroup, ConfirmModeEnum confirmMode) {
+		this._connectionGroup = connectionGroup;
+		this._confirmMode = confirmMode;
+	}
+	
+	/**
+	 * Publish the reply to the queue through the default exchange
+	 * 
+	 * @param replyToQueue	the queue to send the reply
+	 * @param props			the reply properties
+	 * @param body			the reply body
+	 * @throws AMQPCustomException if an error is encountered
+	 */
+	synchronized void publish(String replyToQueue, BasicProperties props, byte[] body) throws AMQPCustomException {
+		Channel channel = getChannel();
+		try {
+			if(_confirmMode == ConfirmModeEnum.ASYNC)
+				_outstandingConfirms.put(channel.getNextPublishSeqNo(), String.valueOf(props.getCorrelationId()));
+			
+			channel.basicPublish("", replyToQueue, true, props, body);
+			
+			// It'll throw IOException if the reply was nack'd
+			if(_confirmMode == ConfirmModeEnum.SYNC)
+				channel.waitForConfirmsOrDie(CONFIRM_TIMEOUT);
+		} catch (IOException e) {
+			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP014"), e);
+		} catch (TimeoutException e) {
+			// The channel is closed by the timeout, reopened by the next publish
+			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP013"), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP012"), e);
+		}
+	}
+	
+	/**
+	 * Publish a failed message to the exchange and wait for its confirm, even if the 
+	 * replies confirms are disabled, as the original delivery is acknowledged afterward.
+	 * 
+	 * The broker sends the return of an unroutable message before its ack, so the return 
+	 * is known once the confirm is received.
+	 * 
+	 * @param exchange		the exchange to publish to
+	 * @param routingKey	the routing key
+	 * @param props			the message properties
+	 * @param body			the message body
+	 * @throws AMQPCustomException if an error is encountered, the message nack'd or returned
+	 */
+	synchronized void republish(String exchange, String routingKey, BasicProperties props, byte[] body) throws AMQPCustomException {
+		Channel channel = getRepublishChannel();
+		try {
+			_republishReturned = false;
+			_republishExchange = exchange;
+			_republishRoutingKey = routingKey;
+			channel.basicPublish(exchange, routingKey, true, props, body);
+			channel.waitForConfirmsOrDie(CONFIRM_TIMEOUT);
+			
+			if(_republishReturned)
+				throw new AMQPCustomException(AMQPResourceBundle.getParameterizedMessage("error_AMQP047", 
+						routingKey, exchange));
+		} catch (IOException e) {
+			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP014"), e);
+		} catch (TimeoutException e) {
+			// The channel is closed by the timeout, reopened by the next republish
+			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP013"), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP012"), e);
+		} finally {
+			_republishExchange = null;
+			_republishRoutingKey = null;
+		}
+	}
+	
+	/**
+	 * Close the reply and republish channels
+	 */
+	synchronized void close() {
+		closeChannel(_channel);
+		closeChannel(_republishChannel);
+		_channel = null;
+		_republishChannel = null;
+		_outstandingConfirms.clear();
+	}
+	
+	private static void closeChannel(Channel channel) {
+		try {
+			if(channel != null && channel.isOpen())
+				channel.close();
+		} catch (IOException | TimeoutException e) {
+			Log4j.traceErrorException(ReplyPublisher.class, e, "Exception during closing the reply channel: {}", e.getMessage());
+		}
+	}
+	
+	/**
+	 * Get the reply channel, open a new one if not opened yet or closed
+	 * 
+	 * @return the reply channel
+	 * @throws AMQPCustomException if an I/O problem is encountered
+	 */
+	private Channel getChannel() throws AMQPCustomException {
+		if(_channel != null && _channel.isOpen())
+			return _channel;
+		
+		_outstandingConfirms.clear();
+		try {
+			Channel channel = _connectionGroup.createChannel(ChannelRole.PUBLISHER);
+			if(channel == null)
+				throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP008"));
+			
+			/**
+			 * Register the return listener to log un-routed replies, the publisher may 
+			 * already stopped waiting and its reply queue deleted.
+			 */
+			channel.addReturnListener((replyCode, replyText, exchange, routingKey, properties, replyBody) -> 
+				logReturn(replyCode, replyText, exchange, routingKey));
+			
+			if(_confirmMode != ConfirmModeEnum.NONE)
+				channel.confirmSelect();
+			
+			if(_confirmMode == ConfirmModeEnum.ASYNC)
+				channel.addConfirmListener(new ReplyConfirmListener());
+			
+			_channel = channel;
+			return channel;
+		} catch (IOException e) {
+			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP008"), e);
+		}
+	}
+	
+	/**
+	 * Get the republish channel in confirm mode, open a new one if not opened yet or closed
+	 * 
+	 * @return the republish channel
+	 * @throws AMQPCustomException if an I/O problem is encountered
+	 */
+	private Channel getRepublishChannel() throws AMQPCustomException {
+		if(_republishChannel != null && _republishChannel.isOpen())
+			return _republishChannel;
+		
+		try {
+			Channel channel = _connectionGroup.createChannel(ChannelRole.PUBLISHER);
+			if(channel == null)
+				throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP008"));
+			
+			// Fail the waiting republish if returned
+			channel.addReturnListener((replyCode, replyText, exchange, routingKey, properties, replyBody) -> {
+				if(exchange.equals(_republishExchange) && routingKey.equals(_republishRoutingKey))
+					_republishReturned = true;
+				
+				logReturn(replyCode, replyText, exchange, routingKey);
+			});
+			channel.confirmSelect();
+			
+			_republishChannel = channel;
+			return channel;
+		} catch (IOException e) {
+			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP008"), e);
+		}
+	}
+	
+	private static void logReturn(int replyCode, String replyText, String exchange, String routingKey) {
+		Log4j.traceError(ReplyPublisher.class, "{}", 
+				AMQPResourceBundle.getParameterizedMessage("error_AMQP035", 
+						replyCode,
+						replyText,
+						routingKey,
+						exchange));
+	}
+	
+	////////////////////////////////////////
+	/**
+	 * Track the asynchronous confirms of the replies and log the nack'd ones
+	 */
+	private final class ReplyConfirmListener implements ConfirmListener {
+		
+		@Override
+		public void handleAck(long deliveryTag, boolean multiple) throws IOException {
+			if(multiple)
+				_outstandingConfirms.headMap(deliveryTag, true).clear();
+			else
+				_outstandingConfirms.remove(deliveryTag);
+		}
+		
+		@Override
+		public void handleNack(long deliveryTag, boolean multiple) throws IOException {
+			if(multiple) {
+				ConcurrentNavigableMap<Long, String> nacked = _outstandingConfirms.headMap(deliveryTag, true);
+				for(String correlationId : nacked.values()) {
+					logNack(correlationId);
+				}
+				nacked.clear();
+			} else {
+				logNack(_outstandingConfirms.remove(deliveryTag));
+			}
+		}
+		
+		private void logNack(String correlationId) {
+			Log4j.traceError(ReplyPublisher.class, 
+					"{} correlationId: {}", AMQPResourceBundle.getMessage("error_AMQP036"), correlationId);
+		}
+	}
+}
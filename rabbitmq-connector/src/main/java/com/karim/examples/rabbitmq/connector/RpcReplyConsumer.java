@@ -0,0 +1,229 @@
+package com.karim.examples.rabbitmq.connector;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.karim.examples.rabbitmq.common.enums.MessageHeaderEnum;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.karim.examples.rabbitmq.connector.exceptions.JSONCustomException;
+import com.karim.examples.rabbitmq.connector.exceptions.TimeoutCustomException;
+import com.karim.examples.rabbitmq.connector.parser.JSONFormatter;
+import com.karim.examples.rabbitmq.connector.util.AMQPResourceBundle;
+import com.karim.examples.rabbitmq.connector.util.Log4j;
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+
+/**
+ * A long lived consumer on a reply queue that completes the pending asynchronous
+ * requests by their correlationId. One consumer serves all the in-flight requests
+ * that share the same reply queue, so no thread is parked while waiting for a reply.
+ *
+ * The reply message must be in a JSON format. The futures are completed from the
+ * consumer dispatch thread, so heavy dependent stages should use the async variants
+ * of {@link CompletableFuture}.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ * @see AMQPService#pushAndReceiveAsync(com.karim.examples.rabbitmq.connector.configures.ProducerConfigurer, Map, Object, Class, long)
+ */
+class RpcReplyConsumer extends DefaultConsumer {
+	//Default messages encoding
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// The reply queue this consumer listening to
+	private volatile String _replyQueueName;
+
+	// In-flight requests waiting for a reply by correlationId
+	private final ConcurrentMap<String, PendingReply<?>> _pendingReplies = new ConcurrentHashMap<>();
+
+	// Set when the consumption stopped, so the owner can register a new one
+	private volatile boolean _closed = false;
+
+	/**
+	 * @param channel			the channel the consumer registered on
+	 * @param replyQueueName	the queue to consume the replies from
+	 */
+	RpcReplyConsumer(Channel channel, String replyQueueName) {
+		super(channel);
+		this._replyQueueName = replyQueueName;
+	}
+
+	/**
+	 * Register a new request waiting for a reply.
+	 *
+	 * @param correlationId	the request correlationId
+	 * @param returnClass	the expected reply class
+	 * @return the future to be completed with the reply, or null if there is already
+	 * 			a request waiting with the same correlationId
+	 */
+	<R> CompletableFuture<R> register(String correlationId, Class<R> returnClass) {
+		PendingReply<R> pendingReply = new PendingReply<R>(returnClass);
+		if(_pendingReplies.putIfAbsent(correlationId, pendingReply) != null)
+			return null;
+
+		return pendingReply.future;
+	}
+
+	/**
+	 * Stop waiting for the reply of a request as timeout elapsed. The request is removed on
+	 * the calling timer thread, and its future completed on the executor, so the dependent
+	 * stages don't run on the timer thread and delay the other timeouts.
+	 *
+	 * @param correlationId the request correlationId
+	 * @param executor		the executor completing the future
+	 */
+	void expire(String correlationId, Executor executor) {
+		PendingReply<?> pendingReply = _pendingReplies.remove(correlationId);
+		if(pendingReply == null)
+			return;
+
+		TimeoutCustomException ex = new TimeoutCustomException(AMQPResourceBundle.getMessage("error_AMQP029"));
+		try {
+			executor.execute(() -> pendingReply.future.completeExceptionally(ex));
+		} catch(RejectedExecutionException e) {
+			// The service is closing, don't leave the caller waiting
+			pendingReply.future.completeExceptionally(ex);
+		}
+	}
+
+	/**
+	 * Stop waiting for the reply of a request and complete it with the exception.
+	 *
+	 * @param correlationId the request correlationId
+	 * @param ex			the failure cause
+	 */
+	void fail(String correlationId, Throwable ex) {
+		PendingReply<?> pendingReply = _pendingReplies.remove(correlationId);
+		if(pendingReply != null)
+			pendingReply.future.completeExceptionally(ex);
+	}
+
+	/**
+	 * Complete all the waiting requests with the exception.
+	 *
+	 * @param ex the failure cause
+	 */
+	void failAll(Throwable ex) {
+		Iterator<PendingReply<?>> iterator = _pendingReplies.values().iterator();
+		while(iterator.hasNext()) {
+			PendingReply<?> pendingReply = iterator.next();
+			iterator.remove();
+			pendingReply.future.completeExceptionally(ex);
+		}
+	}
+
+	String getReplyQueueName() {
+		return _replyQueueName;
+	}
+
+	/**
+	 * Used when a server-named reply queue gets a new name after connection recovery
+	 *
+	 * @param replyQueueName the new queue name
+	 */
+	void setReplyQueueName(String replyQueueName) {
+		this._replyQueueName = replyQueueName;
+	}
+
+	boolean isClosed() {
+		return _closed || !getChannel().isOpen();
+	}
+
+	@Override
+	public void handleDelivery(String consumerTag,
+			Envelope envelope,
+			AMQP.BasicProperties properties,
+			byte[] body) throws IOException {
+
+		if(properties.getCorrelationId() == null)
+			return;
+
+		PendingReply<?> pendingReply = _pendingReplies.remove(properties.getCorrelationId());
+		if(pendingReply == null) {
+			// Late reply for a timed-out request or a reply for another client
+			Log4j.traceDebug(RpcReplyConsumer.class,
+					"Discard reply with unknown correlationId: {}", properties.getCorrelationId());
+			return;
+		}
+
+		// The request was already processed, its result isn't kept
+		if(isDuplicateReply(properties)) {
+			pendingReply.future.completeExceptionally(
+					new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP049")));
+			return;
+		}
+
+		pendingReply.complete(body);
+	}
+
+	/**
+	 * @param properties the reply properties
+	 * @return true if the reply answers a request dropped by the consumer deduplicator
+	 */
+	static boolean isDuplicateReply(AMQP.BasicProperties properties) {
+		return properties.getHeaders() != null
+				&& Boolean.TRUE.equals(properties.getHeaders().get(MessageHeaderEnum.EJ_DUPLICATE_REQUEST.name()));
+	}
+
+	/**
+	 * Called when the reply queue deleted or its node failed.
+	 */
+	@Override
+	public void handleCancel(String consumerTag) throws IOException {
+		_closed = true;
+		failAll(new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP024")));
+	}
+
+	@Override
+	public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+		_closed = true;
+		failAll(new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP024"), sig));
+	}
+
+	////////////////////////////////////////
+	/**
+	 * A request waiting for its reply
+	 */
+	private static final class PendingReply<R> {
+		private final Class<R> returnClass;
+		private final CompletableFuture<R> future = new CompletableFuture<R>();
+
+		PendingReply(Class<R> returnClass) {
+			this.returnClass = returnClass;
+		}
+
+		/**
+		 * parse the reply to supposed returnClass and complete the future, empty reply
+		 * completes the future with null.
+		 *
+		 * @param body the reply message
+		 */
+		void complete(byte[] body) {
+			if(body == null || body.length == 0) {
+				future.complete(null);
+				return;
+			}
+
+			String message = new String(body, UTF_8);
+			try {
+				future.complete(JSONFormatter.unmarshalJSONToObject(message, returnClass));
+			} catch(JSONCustomException e) {
+				future.completeExceptionally(new AMQPCustomException(
+						AMQPResourceBundle.getMessage("error_AMQP032") + message,
+						e));
+			} catch(Throwable e) {
+				future.completeExceptionally(new AMQPCustomException(e.getMessage(), e));
+			}
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package com.karim.examples.rabbitmq.connector;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.karim.examples.rabbitmq.connector.configures.ConsumerConfigurer;
+import com.karim.examples.rabbitmq.connector.util.AMQPResourceBundle;
+import com.karim.examples.rabbitmq.connector.util.Log4j;
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Offset of a stream queue consumer. The consumer starts from the offset after the one
+ * checkpointed to the local file if exist, otherwise from the configured
+ * {@link ConsumerConfigurer#getStreamOffset()}.
+ *
+ * The x-stream-offset consume argument is moved after each processed message, and the
+ * recovered consumers are registered again with the same arguments map, so they resume
+ * after the last processed message instead of the configured offset. The processed offset
+ * is written to the checkpoint file every checkpoint interval and on close, by writing a
+ * temporary file and moving it over the checkpoint, so a crash leaves the previous one.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class StreamOffsetTracker {
+	// Message header of the stream offset of the delivered messages
+	static final String STREAM_OFFSET_HEADER = "x-stream-offset";
+	// Consume argument of the stream start offset
+	private static final String STREAM_OFFSET_ARGUMENT = "x-stream-offset";
+
+	private final String _queueName;
+	private final File _checkpointFile;
+	private final long _checkpointInterval;
+	// Consume arguments shared with the recovered consumer
+	private final Map<String, Object> _consumeArguments = new ConcurrentHashMap<>();
+
+	// Last processed offset, -1 if none, guarded by this
+	private long _processedOffset = -1;
+	private long _checkpointedOffset = -1;
+	private long _nextCheckpoint;
+
+	/**
+	 * @param argsConfigurer the stream consumer configuration
+	 */
+	StreamOffsetTracker(ConsumerConfigurer argsConfigurer) {
+		this._queueName = argsConfigurer.getQueueName();
+		this._checkpointFile = argsConfigurer.getStreamCheckpointFile();
+		this._checkpointInterval = TimeUnit.MILLISECONDS.toNanos(argsConfigurer.getStreamCheckpointInterval());
+		this._nextCheckpoint = System.nanoTime() + _checkpointInterval;
+
+		long checkpointedOffset = readCheckpoint();
+		if(checkpointedOffset >= 0) {
+			this._processedOffset = checkpointedOffset;
+			this._checkpointedOffset = checkpointedOffset;
+			_consumeArguments.put(STREAM_OFFSET_ARGUMENT, checkpointedOffset + 1);
+			Log4j.traceInfo(StreamOffsetTracker.class, "Stream {} resumed after the checkpointed offset {}",
+					_queueName, checkpointedOffset);
+		} else {
+			switch(argsConfigurer.getStreamOffset()) {
+				case OFFSET:
+					_consumeArguments.put(STREAM_OFFSET_ARGUMENT, argsConfigurer.getStreamOffsetValue());
+					break;
+				case TIMESTAMP:
+					_consumeArguments.put(STREAM_OFFSET_ARGUMENT, new Date(argsConfigurer.getStreamOffsetValue()));
+					break;
+				default:
+					_consumeArguments.put(STREAM_OFFSET_ARGUMENT, argsConfigurer.getStreamOffset().value());
+			}
+		}
+	}
+
+	/**
+	 * @return the consume arguments starting the consumer from the current offset
+	 */
+	Map<String, Object> getConsumeArguments() {
+		return _consumeArguments;
+	}
+
+	/**
+	 * @param properties the delivered message properties
+	 * @return the stream offset of the message, or -1 if not delivered from a stream
+	 */
+	static long getOffset(BasicProperties properties) {
+		Object offset = properties.getHeaders() == null? null : properties.getHeaders().get(STREAM_OFFSET_HEADER);
+		return offset instanceof Number? ((Number) offset).longValue() : -1;
+	}
+
+	/**
+	 * Move the offset after a processed message, and checkpoint it if the interval elapsed
+	 *
+	 * @param offset the processed message offset, ignored if negative
+	 */
+	synchronized void processed(long offset) {
+		if(offset < 0 || offset <= _processedOffset)
+			return;
+
+		_processedOffset = offset;
+		_consumeArguments.put(STREAM_OFFSET_ARGUMENT, offset + 1);
+		if(_checkpointFile != null && System.nanoTime() - _nextCheckpoint >= 0)
+			checkpoint();
+	}
+
+	/**
+	 * Write the processed offset to the checkpoint file if changed
+	 */
+	synchronized void checkpoint() {
+		_nextCheckpoint = System.nanoTime() + _checkpointInterval;
+		if(_checkpointFile == null || _processedOffset == _checkpointedOffset)
+			return;
+
+		Path checkpoint = _checkpointFile.toPath();
+		Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+		try {
+			if(checkpoint.getParent() != null)
+				Files.createDirectories(checkpoint.getParent());
+			Files.write(temporary, Long.toString(_processedOffset).getBytes(StandardCharsets.US_ASCII));
+			try {
+				Files.move(temporary, checkpoint, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING);
+			}
+			_checkpointedOffset = _processedOffset;
+		} catch (IOException e) {
+			Log4j.traceErrorException(StreamOffsetTracker.class, e,
+					"{} queue: {}", AMQPResourceBundle.getMessage("error_AMQP046"), _queueName);
+		}
+	}
+
+	// The checkpointed offset, or -1 if not exist or not readable
+	private long readCheckpoint() {
+		if(_checkpointFile == null || !_checkpointFile.isFile())
+			return -1;
+
+		try {
+			return Long.parseLong(new String(Files.readAllBytes(_checkpointFile.toPath()), StandardCharsets.US_ASCII).trim());
+		} catch (IOException | NumberFormatException e) {
+			Log4j.traceErrorException(StreamOffsetTracker.class, e,
+					"Invalid stream offset checkpoint {}, consume from the configured offset", _checkpointFile);
+			return -1;
+		}
+	}
+}
@@ -1,12 +1,22 @@
 package com.karim.examples.rabbitmq.connector.configures;
 
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 
+import com.karim.examples.rabbitmq.common.enums.ConnectionPolicyEnum;
+import com.karim.examples.rabbitmq.common.enums.ConnectionProfileEnum;
+import com.karim.examples.rabbitmq.connector.NioEventLoopGroup;
 import com.karim.examples.rabbitmq.connector.extended.Address;
+import com.karim.examples.rabbitmq.connector.metrics.AMQPMetrics;
 import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.SocketConfigurator;
 
 public final class ConnectionConfigurer {
 	// Mandatory
@@ -30,6 +40,39 @@ public final class ConnectionConfigurer {
 	private final Integer _requestedHeartbeatTimeout;
 	private final Integer _connectionTimeout;
 	
+	private final Integer _noOfConnections;
+	private final ConnectionPolicyEnum _connectionPolicy;
+	
+	private final ExecutorService _dispatchExecutor;
+	private final Function<ThreadFactory, ExecutorService> _dispatchExecutorFactory;
+	private final ThreadFactory _threadFactory;
+	private final Integer _dispatchPoolSize;
+	private final Boolean _useWorkStealingPool;
+	private final ExecutorService _shutdownExecutor;
+	private final ExecutorService _recoveryExecutor;
+	
+	private final Boolean _useNio;
+	private final Integer _nioReadBufferSize;
+	private final Integer _nioWriteBufferSize;
+	private final Integer _nioThreads;
+	private final ExecutorService _nioExecutor;
+	private final NioEventLoopGroup _nioEventLoopGroup;
+	private final ConnectionFactory _connectionFactory;
+	
+	private final Boolean _tcpNoDelay;
+	private final Integer _sendBufferSize;
+	private final Integer _receiveBufferSize;
+	private final Boolean _keepAlive;
+	private final SocketConfigurator _socketConfigurator;
+	private final Integer _requestedFrameMax;
+	private final Integer _requestedChannelMax;
+	private final Integer _shutdownTimeout;
+	
+	private final File _outboxDirectory;
+	private final Integer _outboxSegmentSize;
+	
+	private final AMQPMetrics _metrics;
+	
 	// DEFAULTS
 	private static final int DEFAULT_PORT = AMQP.PROTOCOL.PORT;
 	private static final boolean DEFAULT_USE_SSL = false;
@@ -38,6 +81,28 @@ public final class ConnectionConfigurer {
 	private static final int DEFAULT_HEARTBEAT_TIMEOUT = 1 * 60 * 1000; // 1 minute
 	//Connection close timeout (10 seconds)
     private static final int DEFAULT_CONNECTION_TIMEOUT = 10 * 1000;
+    //One connection for the consumers and one for the publishers, set 1 to share a single connection
+    private static final int DEFAULT_NO_OF_CONNECTIONS = 2;
+    private static final ConnectionPolicyEnum DEFAULT_CONNECTION_POLICY = ConnectionPolicyEnum.ROLE_BASED;
+    //One dispatch thread per available processor
+    private static final int DEFAULT_DISPATCH_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    private static final boolean DEFAULT_USE_WORK_STEALING_POOL = false;
+    private static final boolean DEFAULT_USE_NIO = false;
+    //NIO read/write buffer size per connection (32 KB)
+    private static final int DEFAULT_NIO_BUFFER_SIZE = 32 * 1024;
+    private static final int DEFAULT_NIO_THREADS = 1;
+    //Nagle's algorithm disabled as amqp-client default
+    private static final boolean DEFAULT_TCP_NO_DELAY = true;
+    //Zero to keep the operating system socket buffer size
+    private static final int DEFAULT_SOCKET_BUFFER_SIZE = 0;
+    private static final boolean DEFAULT_KEEP_ALIVE = false;
+    //Zero for no limit, the broker frame max will be used
+    private static final int DEFAULT_REQUESTED_FRAME_MAX = ConnectionFactory.DEFAULT_FRAME_MAX;
+    private static final int DEFAULT_REQUESTED_CHANNEL_MAX = ConnectionFactory.DEFAULT_CHANNEL_MAX;
+    //Consumers work pool shutdown timeout (10 seconds)
+    private static final int DEFAULT_SHUTDOWN_TIMEOUT = ConnectionFactory.DEFAULT_SHUTDOWN_TIMEOUT;
+    //Outbox journal segment file size (64 MB)
+    private static final int DEFAULT_OUTBOX_SEGMENT_SIZE = 64 * 1024 * 1024;
 	
 	private ConnectionConfigurer(final Builder builder) {
 		this._applicationName = builder._applicationName;
@@ -58,6 +123,39 @@ public final class ConnectionConfigurer {
 		this._networkRecoveryInterval = builder._networkRecoveryInterval;
 		this._requestedHeartbeatTimeout = builder._requestedHeartbeatTimeout;
 		this._connectionTimeout = builder._connectionTimeout;
+		
+		this._noOfConnections = builder._noOfConnections;
+		this._connectionPolicy = builder._connectionPolicy;
+		
+		this._dispatchExecutor = builder._dispatchExecutor;
+		this._dispatchExecutorFactory = builder._dispatchExecutorFactory;
+		this._threadFactory = builder._threadFactory;
+		this._dispatchPoolSize = builder._dispatchPoolSize;
+		this._useWorkStealingPool = builder._useWorkStealingPool;
+		this._shutdownExecutor = builder._shutdownExecutor;
+		this._recoveryExecutor = builder._recoveryExecutor;
+		
+		this._useNio = builder._useNio;
+		this._nioReadBufferSize = builder._nioReadBufferSize;
+		this._nioWriteBufferSize = builder._nioWriteBufferSize;
+		this._nioThreads = builder._nioThreads;
+		this._nioExecutor = builder._nioExecutor;
+		this._nioEventLoopGroup = builder._nioEventLoopGroup;
+		this._connectionFactory = builder._connectionFactory;
+		
+		this._tcpNoDelay = builder._tcpNoDelay;
+		this._sendBufferSize = builder._sendBufferSize;
+		this._receiveBufferSize = builder._receiveBufferSize;
+		this._keepAlive = builder._keepAlive;
+		this._socketConfigurator = builder._socketConfigurator;
+		this._requestedFrameMax = builder._requestedFrameMax;
+		this._requestedChannelMax = builder._requestedChannelMax;
+		this._shutdownTimeout = builder._shutdownTimeout;
+		
+		this._outboxDirectory = builder._outboxDirectory;
+		this._outboxSegmentSize = builder._outboxSegmentSize;
+		
+		this._metrics = builder._metrics;
 	}
 	
 	// Getters
@@ -129,6 +227,145 @@ public final class ConnectionConfigurer {
 				: this._connectionTimeout;
 	}
 	
+	public int getNoOfConnections() {
+		return (this._noOfConnections == null || this._noOfConnections < 1)? 
+				DEFAULT_NO_OF_CONNECTIONS 
+				: this._noOfConnections;
+	}
+	
+	public ConnectionPolicyEnum getConnectionPolicy() {
+		return this._connectionPolicy == null? 
+				DEFAULT_CONNECTION_POLICY 
+				: this._connectionPolicy;
+	}
+	
+	public ExecutorService getDispatchExecutor() {
+		return this._dispatchExecutor;
+	}
+	
+	public Function<ThreadFactory, ExecutorService> getDispatchExecutorFactory() {
+		return this._dispatchExecutorFactory;
+	}
+	
+	public ThreadFactory getThreadFactory() {
+		return this._threadFactory;
+	}
+	
+	public int getDispatchPoolSize() {
+		return (this._dispatchPoolSize == null || this._dispatchPoolSize < 1)? 
+				DEFAULT_DISPATCH_POOL_SIZE 
+				: this._dispatchPoolSize;
+	}
+	
+	public boolean isUseWorkStealingPool() {
+		return this._useWorkStealingPool == null? 
+				DEFAULT_USE_WORK_STEALING_POOL 
+				: this._useWorkStealingPool;
+	}
+	
+	public ExecutorService getShutdownExecutor() {
+		return this._shutdownExecutor;
+	}
+	
+	public ExecutorService getRecoveryExecutor() {
+		return this._recoveryExecutor;
+	}
+	
+	public boolean isUseNio() {
+		return this._nioEventLoopGroup != null 
+				|| (this._useNio == null? DEFAULT_USE_NIO : this._useNio);
+	}
+	
+	public int getNioReadBufferSize() {
+		return this._nioReadBufferSize == null? 
+				DEFAULT_NIO_BUFFER_SIZE 
+				: this._nioReadBufferSize;
+	}
+	
+	public int getNioWriteBufferSize() {
+		return this._nioWriteBufferSize == null? 
+				DEFAULT_NIO_BUFFER_SIZE 
+				: this._nioWriteBufferSize;
+	}
+	
+	public int getNioThreads() {
+		return (this._nioThreads == null || this._nioThreads < 1)? 
+				DEFAULT_NIO_THREADS 
+				: this._nioThreads;
+	}
+	
+	public ExecutorService getNioExecutor() {
+		return this._nioExecutor;
+	}
+	
+	public NioEventLoopGroup getNioEventLoopGroup() {
+		return this._nioEventLoopGroup;
+	}
+	
+	public ConnectionFactory getConnectionFactory() {
+		return this._connectionFactory;
+	}
+	
+	public boolean isTcpNoDelay() {
+		return this._tcpNoDelay == null? 
+				DEFAULT_TCP_NO_DELAY 
+				: this._tcpNoDelay;
+	}
+	
+	public int getSendBufferSize() {
+		return this._sendBufferSize == null? 
+				DEFAULT_SOCKET_BUFFER_SIZE 
+				: this._sendBufferSize;
+	}
+	
+	public int getReceiveBufferSize() {
+		return this._receiveBufferSize == null? 
+				DEFAULT_SOCKET_BUFFER_SIZE 
+				: this._receiveBufferSize;
+	}
+	
+	public boolean isKeepAlive() {
+		return this._keepAlive == null? 
+				DEFAULT_KEEP_ALIVE 
+				: this._keepAlive;
+	}
+	
+	public SocketConfigurator getSocketConfigurator() {
+		return this._socketConfigurator;
+	}
+	
+	public int getRequestedFrameMax() {
+		return this._requestedFrameMax == null? 
+				DEFAULT_REQUESTED_FRAME_MAX 
+				: this._requestedFrameMax;
+	}
+	
+	public int getRequestedChannelMax() {
+		return this._requestedChannelMax == null? 
+				DEFAULT_REQUESTED_CHANNEL_MAX 
+				: this._requestedChannelMax;
+	}
+	
+	public int getShutdownTimeout() {
+		return this._shutdownTimeout == null? 
+				DEFAULT_SHUTDOWN_TIMEOUT 
+				: this._shutdownTimeout;
+	}
+	
+	public File getOutboxDirectory() {
+		return this._outboxDirectory;
+	}
+	
+	public int getOutboxSegmentSize() {
+		return (this._outboxSegmentSize == null || this._outboxSegmentSize <= 0)? 
+				DEFAULT_OUTBOX_SEGMENT_SIZE 
+				: this._outboxSegmentSize;
+	}
+	
+	public AMQPMetrics getMetrics() {
+		return this._metrics;
+	}
+	
 	
 
 
@@ -155,6 +392,39 @@ public final class ConnectionConfigurer {
 		public Integer _requestedHeartbeatTimeout;
 		public Integer _connectionTimeout;
 		
+		public Integer _noOfConnections;
+		public ConnectionPolicyEnum _connectionPolicy;
+		
+		public ExecutorService _dispatchExecutor;
+		public Function<ThreadFactory, ExecutorService> _dispatchExecutorFactory;
+		public ThreadFactory _threadFactory;
+		public Integer _dispatchPoolSize;
+		public Boolean _useWorkStealingPool;
+		public ExecutorService _shutdownExecutor;
+		public ExecutorService _recoveryExecutor;
+		
+		public Boolean _useNio;
+		public Integer _nioReadBufferSize;
+		public Integer _nioWriteBufferSize;
+		public Integer _nioThreads;
+		public ExecutorService _nioExecutor;
+		public NioEventLoopGroup _nioEventLoopGroup;
+		public ConnectionFactory _connectionFactory;
+		
+		public Boolean _tcpNoDelay;
+		public Integer _sendBufferSize;
+		public Integer _receiveBufferSize;
+		public Boolean _keepAlive;
+		public SocketConfigurator _socketConfigurator;
+		public Integer _requestedFrameMax;
+		public Integer _requestedChannelMax;
+		public Integer _shutdownTimeout;
+		
+		public File _outboxDirectory;
+		public Integer _outboxSegmentSize;
+		
+		public AMQPMetrics _metrics;
+		
 		
 		public Builder(final String applicationName,
 				final String host,
@@ -297,6 +567,414 @@ public final class ConnectionConfigurer {
 			return this; 
 		}
 		
+		/**
+		 * Sets no of connections to the broker that the channels spread on, default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_NO_OF_CONNECTIONS}. With 1 the 
+		 * publishers and consumers share the connection, so the broker flow control on the 
+		 * publishes blocks the consumers too.
+		 * 
+		 * @param noOfConnections the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_noOfConnections
+		 */
+		public Builder withNoOfConnections(final Integer noOfConnections) {
+			this._noOfConnections = noOfConnections;
+			return this; 
+		}
+		
+		/**
+		 * Sets how the channels are assigned to the connections, default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_CONNECTION_POLICY}. 
+		 * {@link ConnectionPolicyEnum#LEAST_LOADED} ignores the channel role, so the 
+		 * publishers and consumers may share a connection blocked by the broker flow control.
+		 * 
+		 * @param connectionPolicy the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_connectionPolicy
+		 */
+		public Builder withConnectionPolicy(final ConnectionPolicyEnum connectionPolicy) {
+			this._connectionPolicy = connectionPolicy;
+			return this; 
+		}
+		
+		/**
+		 * Sets the executor that dispatches the consumers deliveries. It's owned by the caller,
+		 * so it'll not be shut down when the service closed, and it can be shared between 
+		 * services. Has priority over the dispatch executor factory and the pool options.
+		 * 
+		 * @param dispatchExecutor the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_dispatchExecutor
+		 */
+		public Builder withDispatchExecutor(final ExecutorService dispatchExecutor) {
+			this._dispatchExecutor = dispatchExecutor;
+			return this; 
+		}
+		
+		/**
+		 * Sets the factory of the executor that dispatches the consumers deliveries. It's called
+		 * with the service thread factory and the created executor is shut down when the 
+		 * service closed.
+		 * 
+		 * @param dispatchExecutorFactory the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_dispatchExecutorFactory
+		 */
+		public Builder withDispatchExecutorFactory(final Function<ThreadFactory, ExecutorService> dispatchExecutorFactory) {
+			this._dispatchExecutorFactory = dispatchExecutorFactory;
+			return this; 
+		}
+		
+		/**
+		 * Sets the thread factory of the connections and the dispatch threads, default
+		 * threads are named by the application name.
+		 * 
+		 * @param threadFactory the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_threadFactory
+		 */
+		public Builder withThreadFactory(final ThreadFactory threadFactory) {
+			this._threadFactory = threadFactory;
+			return this; 
+		}
+		
+		/**
+		 * Sets the no of dispatch threads, default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_DISPATCH_POOL_SIZE}.
+		 * 
+		 * @param dispatchPoolSize the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_dispatchPoolSize
+		 */
+		public Builder withDispatchPoolSize(final Integer dispatchPoolSize) {
+			this._dispatchPoolSize = dispatchPoolSize;
+			return this; 
+		}
+		
+		/**
+		 * Use a work stealing {@link java.util.concurrent.ForkJoinPool} as dispatch pool 
+		 * instead of a fixed thread pool, default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_USE_WORK_STEALING_POOL}.
+		 * 
+		 * @param useWorkStealingPool the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_useWorkStealingPool
+		 */
+		public Builder withUseWorkStealingPool(final Boolean useWorkStealingPool) {
+			this._useWorkStealingPool = useWorkStealingPool;
+			return this; 
+		}
+		
+		/**
+		 * Sets the executor used to run the connections and channels shutdown listeners.
+		 * It's owned by the caller.
+		 * 
+		 * @param shutdownExecutor the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_shutdownExecutor
+		 */
+		public Builder withShutdownExecutor(final ExecutorService shutdownExecutor) {
+			this._shutdownExecutor = shutdownExecutor;
+			return this; 
+		}
+		
+		/**
+		 * Sets the executor used to retry the consumers registration, default is a single 
+		 * thread owned by the service. It's owned by the caller.
+		 * 
+		 * @param recoveryExecutor the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_recoveryExecutor
+		 */
+		public Builder withRecoveryExecutor(final ExecutorService recoveryExecutor) {
+			this._recoveryExecutor = recoveryExecutor;
+			return this; 
+		}
+		
+		/**
+		 * Use NIO instead of blocking socket I/O, so the connections are served by a few event
+		 * loops instead of a reader thread per connection, default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_USE_NIO}.
+		 * 
+		 * @param useNio the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_useNio
+		 */
+		public Builder withUseNio(final Boolean useNio) {
+			this._useNio = useNio;
+			return this; 
+		}
+		
+		/**
+		 * Sets the NIO read buffer size in bytes per connection, default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_NIO_BUFFER_SIZE}.
+		 * 
+		 * @param nioReadBufferSize the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_nioReadBufferSize
+		 */
+		public Builder withNioReadBufferSize(final Integer nioReadBufferSize) {
+			this._nioReadBufferSize = nioReadBufferSize;
+			return this; 
+		}
+		
+		/**
+		 * Sets the NIO write buffer size in bytes per connection, default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_NIO_BUFFER_SIZE}.
+		 * 
+		 * @param nioWriteBufferSize the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_nioWriteBufferSize
+		 */
+		public Builder withNioWriteBufferSize(final Integer nioWriteBufferSize) {
+			this._nioWriteBufferSize = nioWriteBufferSize;
+			return this; 
+		}
+		
+		/**
+		 * Sets the no of NIO event loops (I/O threads), default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_NIO_THREADS}.
+		 * 
+		 * @param nioThreads the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_nioThreads
+		 */
+		public Builder withNioThreads(final Integer nioThreads) {
+			this._nioThreads = nioThreads;
+			return this; 
+		}
+		
+		/**
+		 * Sets the executor running the NIO event loops, it must have at least
+		 * {@link ConnectionConfigurer#getNioThreads()} threads. It's owned by the caller.
+		 * 
+		 * @param nioExecutor the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_nioExecutor
+		 */
+		public Builder withNioExecutor(final ExecutorService nioExecutor) {
+			this._nioExecutor = nioExecutor;
+			return this; 
+		}
+		
+		/**
+		 * Sets NIO event loops shared with other services, it enables NIO and has priority 
+		 * over the other NIO options. It's owned by the caller.
+		 * 
+		 * @param nioEventLoopGroup the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_nioEventLoopGroup
+		 */
+		public Builder withNioEventLoopGroup(final NioEventLoopGroup nioEventLoopGroup) {
+			this._nioEventLoopGroup = nioEventLoopGroup;
+			return this; 
+		}
+		
+		/**
+		 * Sets the connection factory to be configured by the service and to open the 
+		 * connections, e.g. a sub-class opening in-memory connections for benchmarks. It has 
+		 * priority over the NIO event loops, default a new {@link ConnectionFactory}.
+		 * 
+		 * @param connectionFactory the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_connectionFactory
+		 */
+		public Builder withConnectionFactory(final ConnectionFactory connectionFactory) {
+			this._connectionFactory = connectionFactory;
+			return this; 
+		}
+		
+		/**
+		 * Apply a predefined set of socket and frame options. The profile overrides the
+		 * options set before it, so it should be called before the other options.
+		 * 
+		 * <ul>
+		 * <li>{@link ConnectionProfileEnum#LOW_LATENCY}: TCP_NODELAY, keepalive, 64 KB socket buffers.</li>
+		 * <li>{@link ConnectionProfileEnum#HIGH_THROUGHPUT}: TCP_NODELAY, 1 MB socket buffers, 
+		 * 		256 KB NIO buffers.</li>
+		 * <li>{@link ConnectionProfileEnum#LARGE_MESSAGE}: 4 MB socket buffers, 1 MB NIO buffers and 
+		 * 		the broker max frame size.</li>
+		 * </ul>
+		 * 
+		 * The presets are measured against the default options by the rabbitmq-benchmarks 
+		 * ConnectionProfileBenchmark. Over loopback they are within the noise of the defaults, 
+		 * the socket buffers only pay off on links with a high bandwidth-delay product, so run 
+		 * the benchmark against the target broker before relying on a profile.
+		 * 
+		 * @param profile the value to be specified
+		 * @return current object (this).
+		 */
+		public Builder withProfile(final ConnectionProfileEnum profile) {
+			switch (profile) {
+				case LOW_LATENCY:
+					this._tcpNoDelay = true;
+					this._keepAlive = true;
+					this._sendBufferSize = 64 * 1024;
+					this._receiveBufferSize = 64 * 1024;
+					break;
+				case HIGH_THROUGHPUT:
+					this._tcpNoDelay = true;
+					this._sendBufferSize = 1024 * 1024;
+					this._receiveBufferSize = 1024 * 1024;
+					this._nioReadBufferSize = 256 * 1024;
+					this._nioWriteBufferSize = 256 * 1024;
+					break;
+				case LARGE_MESSAGE:
+					this._tcpNoDelay = true;
+					this._sendBufferSize = 4 * 1024 * 1024;
+					this._receiveBufferSize = 4 * 1024 * 1024;
+					this._nioReadBufferSize = 1024 * 1024;
+					this._nioWriteBufferSize = 1024 * 1024;
+					this._requestedFrameMax = 0;
+					break;
+			}
+			return this;
+		}
+		
+		/**
+		 * Enable/disable TCP_NODELAY (disable Nagle's algorithm), default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_TCP_NO_DELAY}.
+		 * 
+		 * @param tcpNoDelay the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_tcpNoDelay
+		 */
+		public Builder withTcpNoDelay(final Boolean tcpNoDelay) {
+			this._tcpNoDelay = tcpNoDelay;
+			return this; 
+		}
+		
+		/**
+		 * Sets SO_SNDBUF in bytes, default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_SOCKET_BUFFER_SIZE} (operating system default).
+		 * 
+		 * @param sendBufferSize the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_sendBufferSize
+		 */
+		public Builder withSendBufferSize(final Integer sendBufferSize) {
+			this._sendBufferSize = sendBufferSize;
+			return this; 
+		}
+		
+		/**
+		 * Sets SO_RCVBUF in bytes, default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_SOCKET_BUFFER_SIZE} (operating system default).
+		 * 
+		 * @param receiveBufferSize the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_receiveBufferSize
+		 */
+		public Builder withReceiveBufferSize(final Integer receiveBufferSize) {
+			this._receiveBufferSize = receiveBufferSize;
+			return this; 
+		}
+		
+		/**
+		 * Enable/disable SO_KEEPALIVE, default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_KEEP_ALIVE}.
+		 * 
+		 * @param keepAlive the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_keepAlive
+		 */
+		public Builder withKeepAlive(final Boolean keepAlive) {
+			this._keepAlive = keepAlive;
+			return this; 
+		}
+		
+		/**
+		 * Sets a socket configurator applied after the socket options, in NIO mode it's 
+		 * applied to the socket of the channel.
+		 * 
+		 * @param socketConfigurator the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_socketConfigurator
+		 */
+		public Builder withSocketConfigurator(final SocketConfigurator socketConfigurator) {
+			this._socketConfigurator = socketConfigurator;
+			return this; 
+		}
+		
+		/**
+		 * Sets the requested max frame size in bytes, zero for the broker limit, default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_REQUESTED_FRAME_MAX}.
+		 * 
+		 * @param requestedFrameMax the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_requestedFrameMax
+		 */
+		public Builder withRequestedFrameMax(final Integer requestedFrameMax) {
+			this._requestedFrameMax = requestedFrameMax;
+			return this; 
+		}
+		
+		/**
+		 * Sets the requested max no of channels per connection, default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_REQUESTED_CHANNEL_MAX}.
+		 * 
+		 * @param requestedChannelMax the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_requestedChannelMax
+		 */
+		public Builder withRequestedChannelMax(final Integer requestedChannelMax) {
+			this._requestedChannelMax = requestedChannelMax;
+			return this; 
+		}
+		
+		/**
+		 * Sets the consumers work pool shutdown timeout in milliseconds, default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_SHUTDOWN_TIMEOUT}.
+		 * 
+		 * @param shutdownTimeout the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_shutdownTimeout
+		 */
+		public Builder withShutdownTimeout(final Integer shutdownTimeout) {
+			this._shutdownTimeout = shutdownTimeout;
+			return this; 
+		}
+		
+		/**
+		 * Sets the outbox journal directory, it enables spooling the pushed messages to the 
+		 * local disk while the broker is unavailable, to be published when it's available. 
+		 * The directory must be used by one service only.
+		 * 
+		 * @param outboxDirectory the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_outboxDirectory
+		 */
+		public Builder withOutboxDirectory(final File outboxDirectory) {
+			this._outboxDirectory = outboxDirectory;
+			return this; 
+		}
+		
+		/**
+		 * Sets the outbox journal segment file size in bytes, default 
+		 * set to {@link ConnectionConfigurer#DEFAULT_OUTBOX_SEGMENT_SIZE}.
+		 * 
+		 * @param outboxSegmentSize the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_outboxSegmentSize
+		 */
+		public Builder withOutboxSegmentSize(final Integer outboxSegmentSize) {
+			this._outboxSegmentSize = outboxSegmentSize;
+			return this; 
+		}
+		
+		/**
+		 * Sets the metrics registry to record the service metrics into, it allows sharing 
+		 * one registry between services. Default a new registry per service.
+		 * 
+		 * @param metrics the value to be specified
+		 * @return current object (this).
+		 * @see ConnectionConfigurer#_metrics
+		 */
+		public Builder withMetrics(final AMQPMetrics metrics) {
+			this._metrics = metrics;
+			return this; 
+		}
+		
 		/**
 		 * Use defined properties in the builder to initialize a new ConnectionConfigurer Object.
 		 * 
@@ -1,8 +1,16 @@
 package com.karim.examples.rabbitmq.connector.configures;
 
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.function.Consumer;
 
+import com.karim.examples.rabbitmq.common.enums.ConfirmModeEnum;
 import com.karim.examples.rabbitmq.common.enums.ContentTypeEnum;
+import com.karim.examples.rabbitmq.common.enums.MessageHeaderEnum;
+import com.karim.examples.rabbitmq.common.enums.StreamOffsetEnum;
+import com.karim.examples.rabbitmq.connector.dedupe.MessageDeduplicator;
 import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
 import com.karim.examples.rabbitmq.connector.util.AMQPResourceBundle;
 
@@ -18,6 +26,36 @@ public final class ConsumerConfigurer {
 	private final Boolean _autoAck; 
 	// Used as default consumer content type if message has not content_type property 
 	private final ContentTypeEnum _contentType;
+	// Confirmation mode of the replies sent on the consumer reply channel
+	private final ConfirmModeEnum _replyConfirmMode;
+	// Exchange of the delay queues, failed messages are routed to a delay tier by their requeue count
+	private final String _redeliveryExchange;
+	// No of delay tiers bound to the redelivery exchange
+	private final Integer _redeliveryTiers;
+	// Routing key prefix of the delay tiers, must match the installer delay/ queue prefix last segment
+	private final String _redeliveryRoutingKeyPrefix;
+	// No of in-process retries of the handler before rejecting the message
+	private final Integer _maxRetryAttempts;
+	// Delay in milliseconds before the first retry
+	private final Long _retryBackoff;
+	// Multiplier of the delay between the successive retries
+	private final Double _retryBackoffMultiplier;
+	// Max delay in milliseconds between two retries
+	private final Long _maxRetryBackoff;
+	// Max delay in milliseconds of all the retries of a message, the retries hold the consumer channel
+	private final Long _maxTotalRetryBackoff;
+	// Exception types to be retried, including their sub-classes
+	private final Set<Class<? extends Throwable>> _retryableExceptions;
+	// Drop the already processed messages by their message id, null to disable
+	private final MessageDeduplicator _deduplicator;
+	// Start offset of a stream queue consumer, null if the queue is not a stream
+	private final StreamOffsetEnum _streamOffset;
+	// The offset or the epoch milliseconds of the OFFSET and TIMESTAMP stream offsets
+	private final Long _streamOffsetValue;
+	// File checkpointing the processed stream offset to resume from, null to not checkpoint
+	private final File _streamCheckpointFile;
+	// Interval in milliseconds of writing the stream offset checkpoint
+	private final Long _streamCheckpointInterval;
 	
 	// Default pre-fetch count per consumer
 	private static final int DEFAULT_PRE_FETCH_COUNT = 5;
@@ -25,6 +63,25 @@ public final class ConsumerConfigurer {
 	private static final int DEFAULT_NO_OF_CONSUMERS = 1;
 	// Default not auto acknowledge 
 	private static final boolean DEFAULT_AUTO_ACK = false;
+	// Default pipelined replies confirmation
+	private static final ConfirmModeEnum DEFAULT_REPLY_CONFIRM_MODE = ConfirmModeEnum.ASYNC;
+	// Default delay tiers as declared by the installer (1s, 5s, 30s, 5m, 30m)
+	private static final int DEFAULT_REDELIVERY_TIERS = 5;
+	// Default routing key prefix of the delay tiers, followed by the tier index. The installer binds the
+	// tiers of delay/<exchange>/<queuePrefix> by the queue prefix last segment, e.g. waiting-requeue.<index>
+	private static final String DEFAULT_REDELIVERY_ROUTING_KEY_PREFIX = "waiting-requeue.";
+	// Default no in-process retries
+	private static final int DEFAULT_MAX_RETRY_ATTEMPTS = 0;
+	// Default delay before the first retry
+	private static final long DEFAULT_RETRY_BACKOFF = 50;
+	// Default doubling the delay between the retries
+	private static final double DEFAULT_RETRY_BACKOFF_MULTIPLIER = 2.0;
+	// Default max delay between two retries
+	private static final long DEFAULT_MAX_RETRY_BACKOFF = 1000;
+	// Default max delay of all the retries of a message
+	private static final long DEFAULT_MAX_TOTAL_RETRY_BACKOFF = 5000;
+	// Default stream offset checkpoint interval
+	private static final long DEFAULT_STREAM_CHECKPOINT_INTERVAL = 1000;
 	
 	public ConsumerConfigurer(final Builder builder) {
 		this._queueName = builder._queueName;
@@ -32,6 +89,23 @@ public final class ConsumerConfigurer {
 		this._noOfConumers = builder._noOfConumers;
 		this._autoAck = builder._autoAck;
 		this._contentType = builder._contentType;
+		this._replyConfirmMode = builder._replyConfirmMode;
+		this._redeliveryExchange = builder._redeliveryExchange;
+		this._redeliveryTiers = builder._redeliveryTiers;
+		this._redeliveryRoutingKeyPrefix = builder._redeliveryRoutingKeyPrefix;
+		this._maxRetryAttempts = builder._maxRetryAttempts;
+		this._retryBackoff = builder._retryBackoff;
+		this._retryBackoffMultiplier = builder._retryBackoffMultiplier;
+		this._maxRetryBackoff = builder._maxRetryBackoff;
+		this._maxTotalRetryBackoff = builder._maxTotalRetryBackoff;
+		this._retryableExceptions = builder._retryableExceptions == null? 
+				Collections.<Class<? extends Throwable>>emptySet() 
+				: Collections.unmodifiableSet(new HashSet<Class<? extends Throwable>>(builder._retryableExceptions));
+		this._deduplicator = builder._deduplicator;
+		this._streamOffset = builder._streamOffset;
+		this._streamOffsetValue = builder._streamOffsetValue;
+		this._streamCheckpointFile = builder._streamCheckpointFile;
+		this._streamCheckpointInterval = builder._streamCheckpointInterval;
 	}
 	
 	public String getQueueName() {
@@ -59,6 +133,129 @@ public final class ConsumerConfigurer {
 	public ContentTypeEnum getContentType() {
 		return this._contentType;
 	}
+	
+	public ConfirmModeEnum getReplyConfirmMode() {
+		return this._replyConfirmMode == null? 
+				DEFAULT_REPLY_CONFIRM_MODE 
+				: this._replyConfirmMode;
+	}
+	
+	public String getRedeliveryExchange() {
+		return this._redeliveryExchange;
+	}
+	
+	public int getRedeliveryTiers() {
+		return (this._redeliveryTiers == null || this._redeliveryTiers < 1)? 
+				DEFAULT_REDELIVERY_TIERS 
+				: this._redeliveryTiers;
+	}
+	
+	/**
+	 * Get the routing key of the delay tier for a failed message, the messages requeued 
+	 * more than the tiers stay on the last tier.
+	 * 
+	 * @param requeueCount the no of times the message requeued before
+	 * @return the delay tier routing key
+	 */
+	public String getRedeliveryRoutingKey(int requeueCount) {
+		int tier = Math.min(Math.max(requeueCount, 0), getRedeliveryTiers() - 1);
+		return getRedeliveryRoutingKeyPrefix() + tier;
+	}
+	
+	public String getRedeliveryRoutingKeyPrefix() {
+		return this._redeliveryRoutingKeyPrefix == null? 
+				DEFAULT_REDELIVERY_ROUTING_KEY_PREFIX 
+				: this._redeliveryRoutingKeyPrefix;
+	}
+	
+	public int getMaxRetryAttempts() {
+		return (this._maxRetryAttempts == null || this._maxRetryAttempts < 0)? 
+				DEFAULT_MAX_RETRY_ATTEMPTS 
+				: this._maxRetryAttempts;
+	}
+	
+	public long getRetryBackoff() {
+		return (this._retryBackoff == null || this._retryBackoff < 0)? 
+				DEFAULT_RETRY_BACKOFF 
+				: this._retryBackoff;
+	}
+	
+	public double getRetryBackoffMultiplier() {
+		return (this._retryBackoffMultiplier == null || this._retryBackoffMultiplier < 1)? 
+				DEFAULT_RETRY_BACKOFF_MULTIPLIER 
+				: this._retryBackoffMultiplier;
+	}
+	
+	public long getMaxRetryBackoff() {
+		return (this._maxRetryBackoff == null || this._maxRetryBackoff < 0)? 
+				DEFAULT_MAX_RETRY_BACKOFF 
+				: this._maxRetryBackoff;
+	}
+	
+	public long getMaxTotalRetryBackoff() {
+		return (this._maxTotalRetryBackoff == null || this._maxTotalRetryBackoff < 0)? 
+				DEFAULT_MAX_TOTAL_RETRY_BACKOFF 
+				: this._maxTotalRetryBackoff;
+	}
+	
+	public Set<Class<? extends Throwable>> getRetryableExceptions() {
+		return this._retryableExceptions;
+	}
+	
+	/**
+	 * Get the delay before a retry, growing exponentially up to the max retry backoff.
+	 * 
+	 * @param attempt the retry no starting from 1
+	 * @return the delay in milliseconds
+	 */
+	public long getRetryBackoff(int attempt) {
+		double backoff = getRetryBackoff() * Math.pow(getRetryBackoffMultiplier(), attempt - 1);
+		return (long) Math.min(backoff, getMaxRetryBackoff());
+	}
+	
+	/**
+	 * @param e the handler exception
+	 * @return true if the exception is one of the retryable types or no types specified
+	 */
+	public boolean isRetryable(Throwable e) {
+		if(this._retryableExceptions.isEmpty())
+			return true;
+		
+		for(Class<? extends Throwable> retryableException : this._retryableExceptions) {
+			if(retryableException.isInstance(e))
+				return true;
+		}
+		return false;
+	}
+	
+	public MessageDeduplicator getDeduplicator() {
+		return this._deduplicator;
+	}
+	
+	/**
+	 * @return true if the consumed queue is a stream, consumed from {@link #getStreamOffset()}
+	 */
+	public boolean isStream() {
+		return this._streamOffset != null;
+	}
+	
+	public StreamOffsetEnum getStreamOffset() {
+		return this._streamOffset;
+	}
+	
+	public Long getStreamOffsetValue() {
+		return this._streamOffsetValue;
+	}
+	
+	public File getStreamCheckpointFile() {
+		return this._streamCheckpointFile;
+	}
+	
+	public long getStreamCheckpointInterval() {
+		return this._streamCheckpointInterval == null? 
+				DEFAULT_STREAM_CHECKPOINT_INTERVAL 
+				: this._streamCheckpointInterval;
+	}
 
 	// Builder Class
 	public static final class Builder {
@@ -67,6 +264,21 @@ public final class ConsumerConfigurer {
 		public Integer _noOfConumers;
 		public Boolean _autoAck;
 		public ContentTypeEnum _contentType;
+		public ConfirmModeEnum _replyConfirmMode;
+		public String _redeliveryExchange;
+		public Integer _redeliveryTiers;
+		public String _redeliveryRoutingKeyPrefix;
+		public Integer _maxRetryAttempts;
+		public Long _retryBackoff;
+		public Double _retryBackoffMultiplier;
+		public Long _maxRetryBackoff;
+		public Long _maxTotalRetryBackoff;
+		public Set<Class<? extends Throwable>> _retryableExceptions;
+		public MessageDeduplicator _deduplicator;
+		public StreamOffsetEnum _streamOffset;
+		public Long _streamOffsetValue;
+		public File _streamCheckpointFile;
+		public Long _streamCheckpointInterval;
 		
 		public Builder(final String queueName) {
 			this._queueName = queueName;
@@ -129,6 +341,223 @@ public final class ConsumerConfigurer {
 			return this;
 		}
 
+		/**
+		 * Sets the replies confirmation mode, default 
+		 * set to {@link ConsumerConfigurer#DEFAULT_REPLY_CONFIRM_MODE}.
+		 * 
+		 * @param replyConfirmMode the value to be specified
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_replyConfirmMode
+		 */
+		public Builder withReplyConfirmMode(final ConfirmModeEnum replyConfirmMode) {
+			this._replyConfirmMode = replyConfirmMode;
+			return this;
+		}
+
+		/**
+		 * Sets the exchange of the delay queues. When set, the failed messages are published to 
+		 * the delay tier of their requeue count instead of being rejected to the queue 
+		 * dead-letter exchange.
+		 * 
+		 * @param redeliveryExchange the value to be specified
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_redeliveryExchange
+		 */
+		public Builder withRedeliveryExchange(final String redeliveryExchange) {
+			this._redeliveryExchange = redeliveryExchange;
+			return this;
+		}
+		
+		/**
+		 * Sets no of delay tiers, default 
+		 * set to {@link ConsumerConfigurer#DEFAULT_REDELIVERY_TIERS}.
+		 * 
+		 * @param redeliveryTiers the value to be specified
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_redeliveryTiers
+		 */
+		public Builder withRedeliveryTiers(final Integer redeliveryTiers) {
+			this._redeliveryTiers = redeliveryTiers;
+			return this;
+		}
+		
+		/**
+		 * Sets the routing key prefix of the delay tiers, followed by the tier index, default 
+		 * set to {@link ConsumerConfigurer#DEFAULT_REDELIVERY_ROUTING_KEY_PREFIX}. The installer 
+		 * binds the tiers of delay/&lt;exchange&gt;/&lt;queuePrefix&gt; by the last segment of 
+		 * the queue prefix and a dot, a republish to an unbound tier is returned and the 
+		 * message rejected.
+		 * 
+		 * @param redeliveryRoutingKeyPrefix the value to be specified
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_redeliveryRoutingKeyPrefix
+		 */
+		public Builder withRedeliveryRoutingKeyPrefix(final String redeliveryRoutingKeyPrefix) {
+			this._redeliveryRoutingKeyPrefix = redeliveryRoutingKeyPrefix;
+			return this;
+		}
+
+		/**
+		 * Sets no of in-process retries of the handler before rejecting the message, default 
+		 * set to {@link ConsumerConfigurer#DEFAULT_MAX_RETRY_ATTEMPTS}. The retries are done on 
+		 * the consumer thread, so the message stays unacknowledged during the retries and the 
+		 * next deliveries of the consumer channel wait for them, the total delay is capped by 
+		 * {@link #withMaxTotalRetryBackoff(Long)}.
+		 * 
+		 * @param maxRetryAttempts the value to be specified
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_maxRetryAttempts
+		 */
+		public Builder withMaxRetryAttempts(final Integer maxRetryAttempts) {
+			this._maxRetryAttempts = maxRetryAttempts;
+			return this;
+		}
+		
+		/**
+		 * Sets delay in milliseconds before the first retry, default 
+		 * set to {@link ConsumerConfigurer#DEFAULT_RETRY_BACKOFF}.
+		 * 
+		 * @param retryBackoff the value to be specified
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_retryBackoff
+		 */
+		public Builder withRetryBackoff(final Long retryBackoff) {
+			this._retryBackoff = retryBackoff;
+			return this;
+		}
+		
+		/**
+		 * Sets multiplier of the delay between the successive retries, default 
+		 * set to {@link ConsumerConfigurer#DEFAULT_RETRY_BACKOFF_MULTIPLIER}.
+		 * 
+		 * @param retryBackoffMultiplier the value to be specified
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_retryBackoffMultiplier
+		 */
+		public Builder withRetryBackoffMultiplier(final Double retryBackoffMultiplier) {
+			this._retryBackoffMultiplier = retryBackoffMultiplier;
+			return this;
+		}
+		
+		/**
+		 * Sets max delay in milliseconds between two retries, default 
+		 * set to {@link ConsumerConfigurer#DEFAULT_MAX_RETRY_BACKOFF}.
+		 * 
+		 * @param maxRetryBackoff the value to be specified
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_maxRetryBackoff
+		 */
+		public Builder withMaxRetryBackoff(final Long maxRetryBackoff) {
+			this._maxRetryBackoff = maxRetryBackoff;
+			return this;
+		}
+		
+		/**
+		 * Sets max delay in milliseconds of all the retries of a message, the message is 
+		 * rejected instead of a retry exceeding it, default 
+		 * set to {@link ConsumerConfigurer#DEFAULT_MAX_TOTAL_RETRY_BACKOFF}. The consumer 
+		 * channel doesn't dispatch other messages during the retries.
+		 * 
+		 * @param maxTotalRetryBackoff the value to be specified
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_maxTotalRetryBackoff
+		 */
+		public Builder withMaxTotalRetryBackoff(final Long maxTotalRetryBackoff) {
+			this._maxTotalRetryBackoff = maxTotalRetryBackoff;
+			return this;
+		}
+		
+		/**
+		 * Sets exception types to be retried including their sub-classes, default all the 
+		 * exceptions thrown by the handler are retried.
+		 * 
+		 * @param retryableExceptions the value to be specified
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_retryableExceptions
+		 */
+		@SafeVarargs
+		public final Builder withRetryableExceptions(final Class<? extends Throwable>... retryableExceptions) {
+			// Copied without passing the generic array to another varargs method
+			this._retryableExceptions = new HashSet<Class<? extends Throwable>>();
+			for(Class<? extends Throwable> retryableException : retryableExceptions)
+				this._retryableExceptions.add(retryableException);
+			return this;
+		}
+		
+		/**
+		 * Sets deduplicator of the consumed messages, the messages with an already processed 
+		 * message id are acknowledged and dropped before decoding, default no deduplication. 
+		 * A duplicate request with a reply-to is answered by an empty reply marked by 
+		 * {@link MessageHeaderEnum#EJ_DUPLICATE_REQUEST}, as its result isn't kept, so the 
+		 * RPC caller fails instead of waiting for the timeout.
+		 * 
+		 * @param deduplicator the value to be specified
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_deduplicator
+		 */
+		public Builder withDeduplicator(final MessageDeduplicator deduplicator) {
+			this._deduplicator = deduplicator;
+			return this;
+		}
+		
+		/**
+		 * Consume the queue as a stream from {@link StreamOffsetEnum#FIRST}, 
+		 * {@link StreamOffsetEnum#LAST} or {@link StreamOffsetEnum#NEXT}. A stream is read 
+		 * by a single consumer with manual acknowledgement, and the messages stay in the 
+		 * stream once acknowledged. Default the queue is not a stream.
+		 * 
+		 * @param streamOffset the value to be specified
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_streamOffset
+		 */
+		public Builder withStreamOffset(final StreamOffsetEnum streamOffset) {
+			this._streamOffset = streamOffset;
+			return this;
+		}
+		
+		/**
+		 * Consume the queue as a stream from an absolute offset by {@link StreamOffsetEnum#OFFSET}, 
+		 * or from the messages written since an epoch milliseconds by {@link StreamOffsetEnum#TIMESTAMP}.
+		 * 
+		 * @param streamOffset		the value to be specified
+		 * @param streamOffsetValue	the offset or the epoch milliseconds
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_streamOffsetValue
+		 */
+		public Builder withStreamOffset(final StreamOffsetEnum streamOffset, final Long streamOffsetValue) {
+			this._streamOffset = streamOffset;
+			this._streamOffsetValue = streamOffsetValue;
+			return this;
+		}
+		
+		/**
+		 * Sets the file checkpointing the processed stream offset, the consumer resumes after 
+		 * the checkpointed offset instead of {@link ConsumerConfigurer#_streamOffset} once the
+		 * file exist. Default no checkpoint, the offset is only kept for the connection recovery.
+		 * 
+		 * @param streamCheckpointFile the value to be specified
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_streamCheckpointFile
+		 */
+		public Builder withStreamCheckpointFile(final File streamCheckpointFile) {
+			this._streamCheckpointFile = streamCheckpointFile;
+			return this;
+		}
+		
+		/**
+		 * Sets the interval in milliseconds of writing the stream offset checkpoint, default 
+		 * set to {@link ConsumerConfigurer#DEFAULT_STREAM_CHECKPOINT_INTERVAL}. The offsets 
+		 * processed since the last checkpoint are consumed again after a crash.
+		 * 
+		 * @param streamCheckpointInterval the value to be specified
+		 * @return current object (this).
+		 * @see ConsumerConfigurer#_streamCheckpointInterval
+		 */
+		public Builder withStreamCheckpointInterval(final Long streamCheckpointInterval) {
+			this._streamCheckpointInterval = streamCheckpointInterval;
+			return this;
+		}
+
 		/**
 		 * Use defined properties in the builder to initialize a new ConsumerConfigurer Object.
 		 * 
@@ -140,6 +569,19 @@ public final class ConsumerConfigurer {
 				throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP022"));
 			}
 			
+			//A stream is read whole by each consumer, and needs the acknowledgements for its flow control
+			if(this._streamOffset != null 
+					&& ((this._noOfConumers != null && this._noOfConumers > 1) 
+							|| Boolean.TRUE.equals(this._autoAck))) {
+				throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP044"));
+			}
+			
+			//The OFFSET and TIMESTAMP stream offsets need their value
+			if((this._streamOffset == StreamOffsetEnum.OFFSET || this._streamOffset == StreamOffsetEnum.TIMESTAMP)
+					&& (this._streamOffsetValue == null || this._streamOffsetValue < 0)) {
+				throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP045"));
+			}
+			
 			return new ConsumerConfigurer(this); 
 		}
 		
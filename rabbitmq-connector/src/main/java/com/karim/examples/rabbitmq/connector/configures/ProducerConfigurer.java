@@ -2,8 +2,11 @@ package com.karim.examples.rabbitmq.connector.configures;
 
 import java.util.function.Consumer;
 
+import com.karim.examples.rabbitmq.common.enums.BlockedPolicyEnum;
+import com.karim.examples.rabbitmq.common.enums.ConfirmModeEnum;
 import com.karim.examples.rabbitmq.common.enums.ContentTypeEnum;
 import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.karim.examples.rabbitmq.connector.ratecontrol.PublishRateController;
 import com.karim.examples.rabbitmq.connector.util.AMQPResourceBundle;
 
 public final class ProducerConfigurer {
@@ -16,26 +19,48 @@ public final class ProducerConfigurer {
 	//the content type of message to be send {@link ContentTypeEnum}
 	private final ContentTypeEnum _messageContentType;
 	
+	/*
+	 * the publisher confirms of the message, NONE or SYNC, the publish channel is closed once 
+	 * the message published, so ASYNC is rejected as there is no channel left to confirm on
+	 */
+	private final ConfirmModeEnum _confirmMode;
+	
+	//the publish behavior while the broker blocks the publishing connections {@link BlockedPolicyEnum}
+	private final BlockedPolicyEnum _blockedPolicy;
+	
+	//max wait in milliseconds for the broker to unblock the connections by {@link BlockedPolicyEnum#TIMEOUT}
+	private final Long _blockedTimeout;
+	
+	//limits the publish rate by the broker feedback, shared by the copied configurers, null if not limited
+	private final PublishRateController _rateController;
+	
 	/*
 	 * used to send a reply in the message to this queue. 
 	 * Note: current user must has write privilege on this queue or there'll no 
 	 * 		response as it will be dropped silence 
 	 */
-	private String _replyToQueue;
+	private final String _replyToQueue;
 	
 	/*
 	 * used as identifier of reply message to make it related to
 	 * published messages
 	 */
-	private String _correlationId;
+	private final String _correlationId;
 
 	//DEFAULTS
 	private final static ContentTypeEnum DEFAULT_CONTENT_TYPE = ContentTypeEnum.TEXT_JSON;
+	private final static ConfirmModeEnum DEFAULT_CONFIRM_MODE = ConfirmModeEnum.SYNC;
+	private final static BlockedPolicyEnum DEFAULT_BLOCKED_POLICY = BlockedPolicyEnum.BLOCK;
+	private final static long DEFAULT_BLOCKED_TIMEOUT = 30000;
 	
 	public ProducerConfigurer(Builder builder) {
 		this._exhange = builder._exhange;
 		this._routingKey = builder._routingKey;
 		this._messageContentType = builder._messageContentType;
+		this._confirmMode = builder._confirmMode;
+		this._blockedPolicy = builder._blockedPolicy;
+		this._blockedTimeout = builder._blockedTimeout;
+		this._rateController = builder._rateController;
 		this._replyToQueue = builder._replyToQueue;
 		this._correlationId = builder._correlationId;
 	}
@@ -54,6 +79,28 @@ public final class ProducerConfigurer {
 				: this._messageContentType;
 	}
 	
+	public ConfirmModeEnum getConfirmMode() {
+		return this._confirmMode == null? 
+				DEFAULT_CONFIRM_MODE 
+				: this._confirmMode;
+	}
+	
+	public BlockedPolicyEnum getBlockedPolicy() {
+		return this._blockedPolicy == null? 
+				DEFAULT_BLOCKED_POLICY 
+				: this._blockedPolicy;
+	}
+	
+	public long getBlockedTimeout() {
+		return this._blockedTimeout == null? 
+				DEFAULT_BLOCKED_TIMEOUT 
+				: this._blockedTimeout;
+	}
+	
+	public PublishRateController getRateController() {
+		return this._rateController;
+	}
+	
 	public String getReplyToQueue() {
 		return this._replyToQueue;
 	}
@@ -63,10 +110,13 @@ public final class ProducerConfigurer {
 	}
 
 	public static class Builder {
-		private ProducerConfigurer _producerConfigurer;
 		private String _exhange; 
 		private String _routingKey;
 		public ContentTypeEnum _messageContentType;
+		public ConfirmModeEnum _confirmMode;
+		public BlockedPolicyEnum _blockedPolicy;
+		public Long _blockedTimeout;
+		public PublishRateController _rateController;
 		public String _replyToQueue;
 		public String _correlationId;
 		
@@ -75,11 +125,20 @@ public final class ProducerConfigurer {
 			this._routingKey = routingKey;
 		}
 		
+		/**
+		 * Copy the configuration of the producer, the copy is built into a new configurer 
+		 * and doesn't change the copied one, which may be shared between requests.
+		 * 
+		 * @param producerConfigurer the configuration to copy
+		 */
 		public Builder(ProducerConfigurer producerConfigurer) {
-			this._producerConfigurer = producerConfigurer;
 			this._exhange = producerConfigurer._exhange;
 			this._routingKey = producerConfigurer._routingKey;
 			this._messageContentType = producerConfigurer._messageContentType;
+			this._confirmMode = producerConfigurer._confirmMode;
+			this._blockedPolicy = producerConfigurer._blockedPolicy;
+			this._blockedTimeout = producerConfigurer._blockedTimeout;
+			this._rateController = producerConfigurer._rateController;
 			this._replyToQueue = producerConfigurer._replyToQueue;
 			this._correlationId = producerConfigurer._correlationId;
 		}
@@ -103,6 +162,61 @@ public final class ProducerConfigurer {
 			return this;
 		}
 
+		/**
+		 * Sets the publisher confirms mode, {@link ConfirmModeEnum#NONE} to publish without 
+		 * waiting for the broker, default is {@link ProducerConfigurer#DEFAULT_CONFIRM_MODE}. 
+		 * {@link ConfirmModeEnum#ASYNC} is rejected by {@link #build()}, it is supported by 
+		 * the consumers replies only.
+		 * 
+		 * @param confirmMode the value to be specified
+		 * @return current object (this).
+		 * @see ProducerConfigurer#_confirmMode
+		 */
+		public Builder withConfirmMode(ConfirmModeEnum confirmMode) {
+			this._confirmMode = confirmMode;
+			return this;
+		}
+
+		/**
+		 * Sets the publish behavior while the broker blocks the publishing connections by a 
+		 * memory or disk alarm, default is {@link ProducerConfigurer#DEFAULT_BLOCKED_POLICY}
+		 * 
+		 * @param blockedPolicy the value to be specified
+		 * @return current object (this).
+		 * @see ProducerConfigurer#_blockedPolicy
+		 */
+		public Builder withBlockedPolicy(BlockedPolicyEnum blockedPolicy) {
+			this._blockedPolicy = blockedPolicy;
+			return this;
+		}
+
+		/**
+		 * Sets the max wait in milliseconds for the broker to unblock the publishing connections
+		 * by {@link BlockedPolicyEnum#TIMEOUT}, default is 
+		 * {@link ProducerConfigurer#DEFAULT_BLOCKED_TIMEOUT}
+		 * 
+		 * @param blockedTimeout the value to be specified
+		 * @return current object (this).
+		 * @see ProducerConfigurer#_blockedTimeout
+		 */
+		public Builder withBlockedTimeout(long blockedTimeout) {
+			this._blockedTimeout = blockedTimeout;
+			return this;
+		}
+
+		/**
+		 * Sets the publish rate controller, the publishes wait for its permits and feed it
+		 * back with their confirm latency and nacks. Default the rate is not limited.
+		 * 
+		 * @param rateController the value to be specified
+		 * @return current object (this).
+		 * @see ProducerConfigurer#_rateController
+		 */
+		public Builder withRateController(PublishRateController rateController) {
+			this._rateController = rateController;
+			return this;
+		}
+
 		/**
 		 * Sets reply to queue.
 		 * 
@@ -112,7 +226,6 @@ public final class ProducerConfigurer {
 		 */
 		public Builder withReplyToQueue(String replyToQueue) {
 			this._replyToQueue = replyToQueue;
-			if(this._producerConfigurer != null) this._producerConfigurer._replyToQueue = replyToQueue;
 			return this;
 		}
 
@@ -125,7 +238,6 @@ public final class ProducerConfigurer {
 		 */
 		public Builder withCorrelationId(String correlationId) {
 			this._correlationId = correlationId;
-			if(this._producerConfigurer != null) this._producerConfigurer._correlationId = correlationId;
 			return this;
 		}
 
@@ -142,6 +254,11 @@ public final class ProducerConfigurer {
 				throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP020"));
 			}
 			
+			//The push waits for the confirm before closing its channel
+			if(this._confirmMode == ConfirmModeEnum.ASYNC) {
+				throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP048"));
+			}
+			
 			return new ProducerConfigurer(this);
 		}
 	}
@@ -0,0 +1,54 @@
+package com.karim.examples.rabbitmq.connector.dedupe;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free bloom filter of 64-bit fingerprints, the bit indexes are derived from the two 
+ * halves of the fingerprint (double hashing).
+ * 
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class BloomFilter {
+	private final AtomicLongArray _bits;
+	private final long _noOfBits;
+	private final int _noOfHashes;
+	
+	/**
+	 * @param expectedInsertions	the no of fingerprints to be added
+	 * @param falsePositiveRate		the expected false positive rate once full
+	 */
+	BloomFilter(long expectedInsertions, double falsePositiveRate) {
+		long noOfBits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+		noOfBits = Math.max(64, (noOfBits + 63) & ~63L);
+		
+		this._bits = new AtomicLongArray((int) Math.min(Integer.MAX_VALUE, noOfBits >>> 6));
+		this._noOfBits = (long) _bits.length() << 6;
+		this._noOfHashes = Math.max(1, (int) Math.round((double) noOfBits / expectedInsertions * Math.log(2)));
+	}
+	
+	void put(long fingerprint) {
+		int hash1 = (int) fingerprint;
+		int hash2 = (int) (fingerprint >>> 32);
+		for(int i = 1; i <= _noOfHashes; i++) {
+			long index = ((hash1 + (long) i * hash2) & Long.MAX_VALUE) % _noOfBits;
+			int word = (int) (index >>> 6);
+			long mask = 1L << index;
+			
+			long current;
+			while(((current = _bits.get(word)) & mask) == 0 
+					&& !_bits.compareAndSet(word, current, current | mask));
+		}
+	}
+	
+	boolean mightContain(long fingerprint) {
+		int hash1 = (int) fingerprint;
+		int hash2 = (int) (fingerprint >>> 32);
+		for(int i = 1; i <= _noOfHashes; i++) {
+			long index = ((hash1 + (long) i * hash2) & Long.MAX_VALUE) % _noOfBits;
+			if((_bits.get((int) (index >>> 6)) & (1L << index)) == 0)
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,37 @@
+package com.karim.examples.rabbitmq.connector.dedupe;
+
+/**
+ * 64-bit fingerprints of the message ids, without allocation.
+ * 
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class Fingerprints {
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
+	private Fingerprints() {
+	}
+	
+	/**
+	 * FNV-1a hash of the characters followed by a murmur3 finalizer to spread the bits.
+	 * 
+	 * @param value the message id
+	 * @return the 64-bit fingerprint
+	 */
+	static long fingerprint(CharSequence value) {
+		long hash = FNV_OFFSET_BASIS;
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+			hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+		}
+		
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
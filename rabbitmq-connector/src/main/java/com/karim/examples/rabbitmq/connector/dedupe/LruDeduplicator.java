@@ -0,0 +1,184 @@
+package com.karim.examples.rabbitmq.connector.dedupe;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.karim.examples.rabbitmq.connector.metrics.DedupeMetrics;
+
+/**
+ * On-heap bounded cache of the processed message ids. The cache is split into stripes by
+ * the message id fingerprint, each stripe is an LRU map guarded by its own lock, and the
+ * entries expire after the time to live.
+ *
+ * With the bloom filter enabled, the new message ids are answered by the filter without
+ * locking a stripe. As a bloom filter can't remove entries, two generations are kept and
+ * the older one is dropped every time to live.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class LruDeduplicator implements MessageDeduplicator {
+	// Default no of stripes, power of two
+	private static final int DEFAULT_NO_OF_STRIPES = 64;
+	// Bloom filter false positive rate once full
+	private static final double BLOOM_FILTER_FALSE_POSITIVE_RATE = 0.01;
+
+	private final Stripe[] _stripes;
+	private final long _ttlNanos;
+	private final DedupeMetrics _metrics = new DedupeMetrics();
+
+	// Bloom filter generations, null if disabled
+	private final int _maxEntries;
+	private final boolean _useBloomFilter;
+	private volatile BloomFilter _currentBloomFilter;
+	private volatile BloomFilter _previousBloomFilter;
+	private volatile long _bloomFilterRotateAt;
+
+	/**
+	 * @param maxEntries	the max no of message ids kept
+	 * @param ttl			the time a message id kept after being processed
+	 * @param unit			the ttl unit
+	 */
+	public LruDeduplicator(int maxEntries, long ttl, TimeUnit unit) {
+		this(maxEntries, ttl, unit, false);
+	}
+
+	/**
+	 * @param maxEntries		the max no of message ids kept
+	 * @param ttl				the time a message id kept after being processed
+	 * @param unit				the ttl unit
+	 * @param useBloomFilter	check a bloom filter before the cache
+	 */
+	public LruDeduplicator(int maxEntries, long ttl, TimeUnit unit, boolean useBloomFilter) {
+		if(maxEntries <= 0)
+			throw new IllegalArgumentException("maxEntries must be greater than 0: " + maxEntries);
+		if(ttl <= 0)
+			throw new IllegalArgumentException("ttl must be greater than 0: " + ttl);
+
+		int noOfStripes = Math.min(DEFAULT_NO_OF_STRIPES, Integer.highestOneBit(maxEntries));
+		int stripeCapacity = (maxEntries + noOfStripes - 1) / noOfStripes;
+		this._stripes = new Stripe[noOfStripes];
+		for(int i = 0; i < noOfStripes; i++)
+			_stripes[i] = new Stripe(stripeCapacity);
+
+		this._ttlNanos = unit.toNanos(ttl);
+		this._maxEntries = maxEntries;
+		this._useBloomFilter = useBloomFilter;
+		if(useBloomFilter) {
+			_currentBloomFilter = new BloomFilter(maxEntries, BLOOM_FILTER_FALSE_POSITIVE_RATE);
+			_previousBloomFilter = _currentBloomFilter;
+			_bloomFilterRotateAt = System.nanoTime() + _ttlNanos;
+		}
+	}
+
+	@Override
+	public boolean isDuplicate(String messageId) {
+		long fingerprint = Fingerprints.fingerprint(messageId);
+
+		if(_useBloomFilter
+				&& !_currentBloomFilter.mightContain(fingerprint)
+				&& !_previousBloomFilter.mightContain(fingerprint)) {
+			_metrics.recordBloomFilterMiss();
+			_metrics.recordMiss();
+			return false;
+		}
+
+		boolean duplicate = stripe(fingerprint).contains(messageId, System.nanoTime());
+		if(duplicate)
+			_metrics.recordHit();
+		else
+			_metrics.recordMiss();
+		return duplicate;
+	}
+
+	@Override
+	public void markProcessed(String messageId) {
+		long fingerprint = Fingerprints.fingerprint(messageId);
+		long now = System.nanoTime();
+
+		if(_useBloomFilter) {
+			rotateBloomFilter(now);
+			_currentBloomFilter.put(fingerprint);
+		}
+
+		stripe(fingerprint).put(messageId, now + _ttlNanos);
+	}
+
+	@Override
+	public DedupeMetrics getMetrics() {
+		return _metrics;
+	}
+
+	/**
+	 * @return the no of message ids kept, including the expired ones not evicted yet
+	 */
+	public int size() {
+		int size = 0;
+		for(Stripe stripe : _stripes)
+			size += stripe.size();
+		return size;
+	}
+
+	private Stripe stripe(long fingerprint) {
+		return _stripes[(int) (fingerprint >>> 32) & (_stripes.length - 1)];
+	}
+
+	/**
+	 * Start a new bloom filter generation every time to live, so the message ids older than
+	 * two times to live are dropped from the filter.
+	 */
+	private void rotateBloomFilter(long now) {
+		if(now - _bloomFilterRotateAt < 0)
+			return;
+
+		synchronized(this) {
+			if(now - _bloomFilterRotateAt < 0)
+				return;
+
+			_previousBloomFilter = _currentBloomFilter;
+			_currentBloomFilter = new BloomFilter(_maxEntries, BLOOM_FILTER_FALSE_POSITIVE_RATE);
+			_bloomFilterRotateAt = now + _ttlNanos;
+		}
+	}
+
+	////////////////////////////////////////
+	/**
+	 * LRU map of message ids to their expiry time
+	 */
+	private static final class Stripe {
+		// Guarded by this
+		private final LinkedHashMap<String, Long> _entries;
+
+		Stripe(final int capacity) {
+			this._entries = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+					return size() > capacity;
+				}
+			};
+		}
+
+		synchronized boolean contains(String messageId, long now) {
+			Long expireAt = _entries.get(messageId);
+			if(expireAt == null)
+				return false;
+
+			if(now - expireAt >= 0) {
+				_entries.remove(messageId);
+				return false;
+			}
+			return true;
+		}
+
+		synchronized void put(String messageId, long expireAt) {
+			_entries.put(messageId, expireAt);
+		}
+
+		synchronized int size() {
+			return _entries.size();
+		}
+	}
+}
@@ -0,0 +1,380 @@
+package com.karim.examples.rabbitmq.connector.dedupe;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.karim.examples.rabbitmq.connector.metrics.DedupeMetrics;
+import com.karim.examples.rabbitmq.connector.util.AMQPResourceBundle;
+import com.karim.examples.rabbitmq.connector.util.Log4j;
+
+/**
+ * Off-heap index of the processed message ids for long deduplication windows, the message
+ * ids are kept as 64-bit fingerprints in open addressing hash tables stored in memory-mapped
+ * files, so the index neither loads the heap nor is lost on restart.
+ *
+ * The window is split into time buckets, each bucket is a segment file holding the message
+ * ids processed during its time and the whole segment is deleted once it's out of the window.
+ * A message id is looked up in all the segments of the window.
+ *
+ * Each segment table is split into partitions by the fingerprint, a partition has its own
+ * linear probing range and lock. The lookups read the slots without locking, the inserts
+ * lock the partition only. Neither allocates per message.
+ *
+ * The segments are written to the page cache without forcing each insert to the disk, so
+ * they survive a process crash; they are forced when rotated and closed. Two message ids
+ * with the same fingerprint are considered the same message, with 64-bit fingerprints the
+ * probability is negligible for billions of message ids.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class MappedDeduplicator implements MessageDeduplicator, Closeable {
+	// Segment file name format by bucket no
+	private static final String SEGMENT_FILE_FORMAT = "dedupe-%d.idx";
+	private static final String SEGMENT_FILE_PATTERN = "dedupe-\\d+\\.idx";
+	// Segment file format identifier
+	private static final long MAGIC = 0x4445445550494458L;
+	// Partitions per segment, power of two
+	private static final int NO_OF_PARTITIONS = 64;
+	// Header: magic, bucket duration, slots per partition, no of partitions, entries per partition
+	private static final int HEADER_SIZE = 24 + NO_OF_PARTITIONS * Long.BYTES;
+	// Max ratio of the used slots in a partition
+	private static final double MAX_LOAD_FACTOR = 0.75;
+	// Slot value of no entry
+	private static final long EMPTY = 0L;
+
+	// Index directory
+	private final File _directory;
+	// Time in milliseconds covered by a segment
+	private final long _bucketDuration;
+	// No of segments in the window
+	private final int _noOfBuckets;
+	// Slots per partition, power of two
+	private final int _slotsPerPartition;
+	// Max entries per partition
+	private final int _maxPartitionEntries;
+
+	private final DedupeMetrics _metrics = new DedupeMetrics();
+
+	// Opened segments ordered from the newest, replaced on rotation
+	private volatile Segment[] _segments;
+	private volatile boolean _closed = false;
+
+	/**
+	 * Open the index in the directory, create it if not exist, and load the segments of the
+	 * window left from a previous run.
+	 *
+	 * @param directory				the index directory
+	 * @param window				the time a message id kept after being processed
+	 * @param unit					the window unit
+	 * @param noOfBuckets			no of segments the window split into
+	 * @param maxEntriesPerBucket	the max no of message ids processed during a bucket time
+	 * @throws AMQPCustomException if the index files can't be opened
+	 */
+	public MappedDeduplicator(File directory,
+			long window,
+			TimeUnit unit,
+			int noOfBuckets,
+			int maxEntriesPerBucket) throws AMQPCustomException {
+		if(noOfBuckets <= 0)
+			throw new IllegalArgumentException("noOfBuckets must be greater than 0: " + noOfBuckets);
+		if(unit.toMillis(window) < noOfBuckets)
+			throw new IllegalArgumentException("window must be at least one millisecond per bucket: " + window);
+		if(maxEntriesPerBucket <= 0)
+			throw new IllegalArgumentException("maxEntriesPerBucket must be greater than 0: " + maxEntriesPerBucket);
+
+		long slotsPerPartition = Long.highestOneBit(
+				(long) Math.ceil(maxEntriesPerBucket / MAX_LOAD_FACTOR / NO_OF_PARTITIONS) * 2 - 1);
+		slotsPerPartition = Math.max(16, slotsPerPartition);
+		if(HEADER_SIZE + slotsPerPartition * NO_OF_PARTITIONS * Long.BYTES > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("maxEntriesPerBucket is too large for a segment, use more buckets: "
+					+ maxEntriesPerBucket);
+
+		this._directory = directory;
+		this._bucketDuration = unit.toMillis(window) / noOfBuckets;
+		this._noOfBuckets = noOfBuckets;
+		this._slotsPerPartition = (int) slotsPerPartition;
+		this._maxPartitionEntries = (int) (slotsPerPartition * MAX_LOAD_FACTOR);
+
+		try {
+			this._segments = openSegments();
+		} catch(IOException e) {
+			throw new AMQPCustomException(AMQPResourceBundle.getMessage("error_AMQP040"), e);
+		}
+	}
+
+	@Override
+	public boolean isDuplicate(String messageId) {
+		long fingerprint = fingerprint(messageId);
+		long minBucket = currentBucket() - _noOfBuckets + 1;
+
+		for(Segment segment : _segments) {
+			if(segment.bucket >= minBucket && segment.contains(fingerprint)) {
+				_metrics.recordHit();
+				return true;
+			}
+		}
+
+		_metrics.recordMiss();
+		return false;
+	}
+
+	@Override
+	public void markProcessed(String messageId) {
+		Segment segment = currentSegment();
+		if(segment != null)
+			segment.put(fingerprint(messageId));
+	}
+
+	@Override
+	public DedupeMetrics getMetrics() {
+		return _metrics;
+	}
+
+	/**
+	 * Force the segments to the disk and close the files, the message ids are loaded by the
+	 * next opened index on the same directory.
+	 */
+	@Override
+	public synchronized void close() {
+		_closed = true;
+		for(Segment segment : _segments)
+			segment.close();
+		_segments = new Segment[0];
+	}
+
+	private long currentBucket() {
+		return System.currentTimeMillis() / _bucketDuration;
+	}
+
+	/**
+	 * @return the segment of the current bucket, rotating the segments on a new bucket
+	 */
+	private Segment currentSegment() {
+		long bucket = currentBucket();
+		Segment[] segments = _segments;
+		if(segments.length > 0 && segments[0].bucket == bucket)
+			return segments[0];
+
+		return rotate(bucket);
+	}
+
+	/**
+	 * Create the segment of the new bucket and delete the segments out of the window
+	 *
+	 * @param bucket the current bucket no
+	 * @return the new segment, or null if it can't be created
+	 */
+	private synchronized Segment rotate(long bucket) {
+		if(_closed)
+			return null;
+
+		Segment[] segments = _segments;
+		if(segments.length > 0 && segments[0].bucket >= bucket)
+			return segments[0];
+
+		Segment newSegment;
+		try {
+			newSegment = new Segment(bucket, new File(_directory, String.format(SEGMENT_FILE_FORMAT, bucket)));
+		} catch(IOException e) {
+			Log4j.traceErrorException(MappedDeduplicator.class, e, AMQPResourceBundle.getMessage("error_AMQP040"));
+			return null;
+		}
+
+		List<Segment> liveSegments = new ArrayList<>(_noOfBuckets);
+		liveSegments.add(newSegment);
+		for(Segment segment : segments) {
+			if(segment.bucket > bucket - _noOfBuckets) {
+				liveSegments.add(segment);
+				// The previous bucket is complete
+				if(segment == segments[0])
+					segment.force();
+			} else {
+				segment.delete();
+			}
+		}
+
+		_segments = liveSegments.toArray(new Segment[liveSegments.size()]);
+		return newSegment;
+	}
+
+	/**
+	 * Open the segments of the window, delete the expired and incompatible ones
+	 */
+	private Segment[] openSegments() throws IOException {
+		if(!_directory.isDirectory() && !_directory.mkdirs())
+			throw new IOException("Unable to create the dedupe directory " + _directory);
+
+		long minBucket = currentBucket() - _noOfBuckets + 1;
+		List<Segment> segments = new ArrayList<>();
+
+		File[] files = _directory.listFiles((dir, name) -> name.matches(SEGMENT_FILE_PATTERN));
+		for(File file : files) {
+			long bucket = Long.parseLong(file.getName().replaceAll("\\D", ""));
+			if(bucket < minBucket || !isCompatible(file)) {
+				if(!file.delete())
+					Log4j.traceError(MappedDeduplicator.class, "Unable to delete the dedupe segment {}", file);
+				continue;
+			}
+
+			segments.add(new Segment(bucket, file));
+		}
+
+		segments.sort((s1, s2) -> Long.compare(s2.bucket, s1.bucket));
+		return segments.toArray(new Segment[segments.size()]);
+	}
+
+	/**
+	 * @param file the segment file
+	 * @return true if the segment is written with the same bucket duration and table size
+	 */
+	private boolean isCompatible(File file) throws IOException {
+		if(file.length() != segmentSize())
+			return false;
+
+		try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+			return randomAccessFile.readLong() == MAGIC
+					&& randomAccessFile.readLong() == _bucketDuration
+					&& randomAccessFile.readInt() == _slotsPerPartition
+					&& randomAccessFile.readInt() == NO_OF_PARTITIONS;
+		}
+	}
+
+	private int segmentSize() {
+		return HEADER_SIZE + _slotsPerPartition * NO_OF_PARTITIONS * Long.BYTES;
+	}
+
+	private static long fingerprint(String messageId) {
+		long fingerprint = Fingerprints.fingerprint(messageId);
+		return fingerprint == EMPTY? 1L : fingerprint;
+	}
+
+	////////////////////////////////////////
+	/**
+	 * A memory-mapped hash table of the message ids processed during a bucket time
+	 */
+	private final class Segment {
+		private final long bucket;
+		private final File file;
+		private final RandomAccessFile randomAccessFile;
+		private final MappedByteBuffer buffer;
+		// Entries per partition, guarded by the partition lock
+		private final int[] entries = new int[NO_OF_PARTITIONS];
+		private final Object[] locks = new Object[NO_OF_PARTITIONS];
+		// Set once a partition is full, to log it once
+		private volatile boolean full = false;
+
+		Segment(long bucket, File file) throws IOException {
+			this.bucket = bucket;
+			this.file = file;
+
+			boolean newFile = !file.exists();
+			this.randomAccessFile = new RandomAccessFile(file, "rw");
+			this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize());
+
+			if(newFile) {
+				buffer.putLong(0, MAGIC);
+				buffer.putLong(8, _bucketDuration);
+				buffer.putInt(16, _slotsPerPartition);
+				buffer.putInt(20, NO_OF_PARTITIONS);
+			}
+
+			for(int i = 0; i < NO_OF_PARTITIONS; i++) {
+				entries[i] = (int) buffer.getLong(entriesOffset(i));
+				locks[i] = new Object();
+			}
+		}
+
+		boolean contains(long fingerprint) {
+			int partition = partition(fingerprint);
+			int mask = _slotsPerPartition - 1;
+			int slot = (int) fingerprint & mask;
+
+			for(int i = 0; i < _slotsPerPartition; i++) {
+				long value = buffer.getLong(slotOffset(partition, slot));
+				if(value == fingerprint)
+					return true;
+				if(value == EMPTY)
+					return false;
+
+				slot = (slot + 1) & mask;
+			}
+			return false;
+		}
+
+		void put(long fingerprint) {
+			int partition = partition(fingerprint);
+			int mask = _slotsPerPartition - 1;
+			int slot = (int) fingerprint & mask;
+
+			synchronized(locks[partition]) {
+				if(entries[partition] >= _maxPartitionEntries) {
+					if(!full) {
+						full = true;
+						Log4j.traceError(MappedDeduplicator.class,
+								"Dedupe segment {} is full, increase the max entries per bucket", file);
+					}
+					return;
+				}
+
+				long value;
+				while((value = buffer.getLong(slotOffset(partition, slot))) != EMPTY) {
+					if(value == fingerprint)
+						return;
+
+					slot = (slot + 1) & mask;
+				}
+
+				buffer.putLong(slotOffset(partition, slot), fingerprint);
+				buffer.putLong(entriesOffset(partition), ++entries[partition]);
+			}
+		}
+
+		private int partition(long fingerprint) {
+			return (int) (fingerprint >>> 32) & (NO_OF_PARTITIONS - 1);
+		}
+
+		private int entriesOffset(int partition) {
+			return 24 + partition * Long.BYTES;
+		}
+
+		private int slotOffset(int partition, int slot) {
+			return HEADER_SIZE + (partition * _slotsPerPartition + slot) * Long.BYTES;
+		}
+
+		void force() {
+			buffer.force();
+		}
+
+		void close() {
+			try {
+				buffer.force();
+				randomAccessFile.close();
+			} catch (IOException e) {
+				Log4j.traceErrorException(MappedDeduplicator.class, e, "Exception during closing the dedupe segment {}: {}", file, e.getMessage());
+			}
+		}
+
+		/**
+		 * Delete the expired segment, the mapping stays valid for the concurrent lookups
+		 * until it's garbage collected.
+		 */
+		void delete() {
+			try {
+				randomAccessFile.close();
+			} catch (IOException e) {
+				Log4j.traceErrorException(MappedDeduplicator.class, e, "Exception during closing the dedupe segment {}: {}", file, e.getMessage());
+			}
+			if(!file.delete())
+				Log4j.traceError(MappedDeduplicator.class, "Unable to delete the dedupe segment {}", file);
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package com.karim.examples.rabbitmq.connector.dedupe;
+
+import com.karim.examples.rabbitmq.connector.metrics.DedupeMetrics;
+
+/**
+ * Detect the messages already processed by their messageId, so the redelivered messages 
+ * are acknowledged and dropped before being handled again.
+ * 
+ * A message is marked as processed only after it's handled successfully, so the failed 
+ * messages are not considered duplicates when they're redelivered.
+ * 
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public interface MessageDeduplicator {
+	
+	/**
+	 * @param messageId the message id
+	 * @return true if the message is already processed
+	 */
+	public boolean isDuplicate(String messageId);
+	
+	/**
+	 * Mark the message as processed
+	 * 
+	 * @param messageId the message id
+	 */
+	public void markProcessed(String messageId);
+	
+	/**
+	 * @return the duplicate checks counters
+	 */
+	public DedupeMetrics getMetrics();
+}
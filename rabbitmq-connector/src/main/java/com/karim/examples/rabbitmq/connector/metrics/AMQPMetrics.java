@@ -0,0 +1,185 @@
+package com.karim.examples.rabbitmq.connector.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the connector metrics: latency histograms, counters and gauges by name. The
+ * queue metrics are named by the metric name followed by the queue name, e.g.
+ * <code>amqp.consumer.handler.companyName.global.qu.orders</code>.
+ *
+ * The metrics are created once and kept by the recording code, so recording doesn't look up
+ * the registry. The counters of a current state, as the opened channels, are decremented
+ * too, so they are summed correctly when the registry is shared between services. The
+ * {@link #getHistograms()}, {@link #getCounters()} and {@link #getGauges()} views can be
+ * polled to export the metrics to a monitoring system.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class AMQPMetrics {
+	// Time of the message publish call
+	public static final String PUBLISH_LATENCY = "amqp.publish.latency";
+	// Time waiting for the broker confirm of a published message
+	public static final String PUBLISH_CONFIRM_LATENCY = "amqp.publish.confirm.latency";
+	// Published messages waiting for the broker confirm
+	public static final String PUBLISH_OUTSTANDING_CONFIRMS = "amqp.publish.outstanding-confirms";
+	// Published messages returned as not routed
+	public static final String PUBLISH_RETURNS = "amqp.publish.returns";
+	// Replayed outbox messages returned as not routed, acknowledged in the journal so lost
+	public static final String OUTBOX_RETURNS = "amqp.outbox.returns";
+	// Published messages nack'd by the broker
+	public static final String PUBLISH_NACKS = "amqp.publish.nacks";
+	// Time from the request publish to its reply
+	public static final String RPC_ROUND_TRIP = "amqp.rpc.round-trip";
+	// Connections blocked by the broker flow control
+	public static final String PUBLISH_BLOCKED = "amqp.publish.blocked";
+	// Publishes failed by the producer blocked policy while the connection is blocked
+	public static final String PUBLISH_BLOCKED_FAILURES = "amqp.publish.blocked-failures";
+	// Time waiting for a permit of the producer rate controller
+	public static final String PUBLISH_THROTTLE_WAIT = "amqp.publish.throttle-wait";
+	// Publishes failed as no rate controller permit within its max wait
+	public static final String PUBLISH_THROTTLE_FAILURES = "amqp.publish.throttle-failures";
+	// Requests timed out waiting for their reply
+	public static final String RPC_TIMEOUTS = "amqp.rpc.timeouts";
+	// Time to un-marshal a consumed message, by queue
+	public static final String CONSUMER_DECODE = "amqp.consumer.decode";
+	// Time of the message handler, including its retries, by queue
+	public static final String CONSUMER_HANDLER = "amqp.consumer.handler";
+	// Time to publish the reply of a consumed message, by queue
+	public static final String CONSUMER_REPLY = "amqp.consumer.reply";
+	// Time to acknowledge or reject a consumed message, by queue
+	public static final String CONSUMER_ACK = "amqp.consumer.ack";
+	// Time from the message publish to its delivery to the consumer, by queue
+	public static final String CONSUMER_BROKER_RESIDENCE = "amqp.consumer.broker-residence";
+	// Time from the message publish to the end of its processing, by queue
+	public static final String CONSUMER_END_TO_END = "amqp.consumer.end-to-end";
+	// In-process retries of the handler, messages succeeded after a retry and messages failed 
+	// after all the retries, by queue
+	public static final String CONSUMER_RETRY_ATTEMPTS = "amqp.consumer.retry.attempts";
+	public static final String CONSUMER_RETRY_RECOVERED = "amqp.consumer.retry.recovered";
+	public static final String CONSUMER_RETRY_EXHAUSTED = "amqp.consumer.retry.exhausted";
+	// Age in milliseconds of the oldest message being processed, by queue
+	public static final String CONSUMER_OLDEST_MESSAGE_AGE = "amqp.consumer.oldest-message-age";
+	// Opened connections
+	public static final String CONNECTIONS = "amqp.connections";
+	// Opened channels
+	public static final String CHANNELS = "amqp.channels";
+	// Messages published, consumed, acknowledged and rejected, counted by the client library
+	public static final String MESSAGES_PUBLISHED = "amqp.messages.published";
+	public static final String MESSAGES_CONSUMED = "amqp.messages.consumed";
+	public static final String MESSAGES_ACKNOWLEDGED = "amqp.messages.acknowledged";
+	public static final String MESSAGES_REJECTED = "amqp.messages.rejected";
+	// Connection recoveries started and completed
+	public static final String RECOVERIES_STARTED = "amqp.recovery.started";
+	public static final String RECOVERIES_COMPLETED = "amqp.recovery.completed";
+
+	private final ConcurrentMap<String, LatencyHistogram> _histograms = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LongAdder> _counters = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, LongSupplier> _gauges = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, OldestMessageAge> _oldestMessageAges = new ConcurrentHashMap<>();
+
+	/**
+	 * @param name the metric name
+	 * @return the histogram, created if not exist
+	 */
+	public LatencyHistogram histogram(String name) {
+		return _histograms.computeIfAbsent(name, key -> new LatencyHistogram());
+	}
+
+	/**
+	 * @param name		the metric name
+	 * @param queueName	the queue name
+	 * @return the queue histogram, created if not exist
+	 */
+	public LatencyHistogram histogram(String name, String queueName) {
+		return histogram(name + "." + queueName);
+	}
+
+	/**
+	 * @param name the metric name
+	 * @return the counter, created if not exist
+	 */
+	public LongAdder counter(String name) {
+		return _counters.computeIfAbsent(name, key -> new LongAdder());
+	}
+
+	/**
+	 * @param name		the metric name
+	 * @param queueName	the queue name
+	 * @return the queue counter, created if not exist
+	 */
+	public LongAdder counter(String name, String queueName) {
+		return counter(name + "." + queueName);
+	}
+
+	/**
+	 * Register a gauge read when the metrics are polled, replacing the gauge of the same name
+	 *
+	 * @param name	the metric name
+	 * @param gauge	the gauge value supplier
+	 */
+	public void gauge(String name, LongSupplier gauge) {
+		_gauges.put(name, gauge);
+	}
+
+	/**
+	 * @param queueName the queue name
+	 * @return the oldest message age of the queue consumers, created and registered as a 
+	 * 			gauge if not exist
+	 */
+	public OldestMessageAge oldestMessageAge(String queueName) {
+		return _oldestMessageAges.computeIfAbsent(queueName, key -> {
+			OldestMessageAge oldestMessageAge = new OldestMessageAge();
+			gauge(CONSUMER_OLDEST_MESSAGE_AGE + "." + queueName, oldestMessageAge::getAgeMillis);
+			return oldestMessageAge;
+		});
+	}
+
+	/**
+	 * @return the histograms snapshots by name
+	 */
+	public Map<String, HistogramSnapshot> getHistograms() {
+		Map<String, HistogramSnapshot> histograms = new TreeMap<>();
+		for(Map.Entry<String, LatencyHistogram> histogram : _histograms.entrySet())
+			histograms.put(histogram.getKey(), histogram.getValue().snapshot());
+		return Collections.unmodifiableMap(histograms);
+	}
+
+	/**
+	 * @return the counters values by name
+	 */
+	public Map<String, Long> getCounters() {
+		Map<String, Long> counters = new TreeMap<>();
+		for(Map.Entry<String, LongAdder> counter : _counters.entrySet())
+			counters.put(counter.getKey(), counter.getValue().sum());
+		return Collections.unmodifiableMap(counters);
+	}
+
+	/**
+	 * @return the gauges values by name
+	 */
+	public Map<String, Long> getGauges() {
+		Map<String, Long> gauges = new TreeMap<>();
+		for(Map.Entry<String, LongSupplier> gauge : _gauges.entrySet())
+			gauges.put(gauge.getKey(), gauge.getValue().getAsLong());
+		return Collections.unmodifiableMap(gauges);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		for(Map.Entry<String, HistogramSnapshot> histogram : getHistograms().entrySet())
+			builder.append(histogram.getKey()).append(": ").append(histogram.getValue()).append('\n');
+		for(Map.Entry<String, Long> counter : getCounters().entrySet())
+			builder.append(counter.getKey()).append(": ").append(counter.getValue()).append('\n');
+		for(Map.Entry<String, Long> gauge : getGauges().entrySet())
+			builder.append(gauge.getKey()).append(": ").append(gauge.getValue()).append('\n');
+		return builder.toString();
+	}
+}
@@ -0,0 +1,75 @@
+package com.karim.examples.rabbitmq.connector.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.impl.AbstractMetricsCollector;
+
+/**
+ * Client library metrics collector recording the connections, channels and messages counts
+ * into an {@link AMQPMetrics} registry.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class AMQPMetricsCollector extends AbstractMetricsCollector {
+	private final LongAdder _connections;
+	private final LongAdder _channels;
+	private final LongAdder _published;
+	private final LongAdder _consumed;
+	private final LongAdder _acknowledged;
+	private final LongAdder _rejected;
+
+	/**
+	 * @param metrics the registry to record the metrics into
+	 */
+	public AMQPMetricsCollector(AMQPMetrics metrics) {
+		this._connections = metrics.counter(AMQPMetrics.CONNECTIONS);
+		this._channels = metrics.counter(AMQPMetrics.CHANNELS);
+		this._published = metrics.counter(AMQPMetrics.MESSAGES_PUBLISHED);
+		this._consumed = metrics.counter(AMQPMetrics.MESSAGES_CONSUMED);
+		this._acknowledged = metrics.counter(AMQPMetrics.MESSAGES_ACKNOWLEDGED);
+		this._rejected = metrics.counter(AMQPMetrics.MESSAGES_REJECTED);
+	}
+
+	@Override
+	protected void incrementConnectionCount(Connection connection) {
+		_connections.increment();
+	}
+
+	@Override
+	protected void decrementConnectionCount(Connection connection) {
+		_connections.decrement();
+	}
+
+	@Override
+	protected void incrementChannelCount(Channel channel) {
+		_channels.increment();
+	}
+
+	@Override
+	protected void decrementChannelCount(Channel channel) {
+		_channels.decrement();
+	}
+
+	@Override
+	protected void markPublishedMessage() {
+		_published.increment();
+	}
+
+	@Override
+	protected void markConsumedMessage() {
+		_consumed.increment();
+	}
+
+	@Override
+	protected void markAcknowledgedMessage() {
+		_acknowledged.increment();
+	}
+
+	@Override
+	protected void markRejectedMessage() {
+		_rejected.increment();
+	}
+}
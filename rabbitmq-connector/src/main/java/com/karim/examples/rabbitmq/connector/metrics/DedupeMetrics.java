@@ -0,0 +1,42 @@
+package com.karim.examples.rabbitmq.connector.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the duplicate messages checks.
+ * 
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class DedupeMetrics {
+	// No of messages found already processed
+	private final LongAdder _hits = new LongAdder();
+	// No of messages not processed before
+	private final LongAdder _misses = new LongAdder();
+	// No of misses answered by the bloom filter without checking the cache
+	private final LongAdder _bloomFilterMisses = new LongAdder();
+	
+	public void recordHit() {
+		_hits.increment();
+	}
+	
+	public void recordMiss() {
+		_misses.increment();
+	}
+	
+	public void recordBloomFilterMiss() {
+		_bloomFilterMisses.increment();
+	}
+	
+	public long getHits() {
+		return _hits.sum();
+	}
+	
+	public long getMisses() {
+		return _misses.sum();
+	}
+	
+	public long getBloomFilterMisses() {
+		return _bloomFilterMisses.sum();
+	}
+}
@@ -0,0 +1,67 @@
+package com.karim.examples.rabbitmq.connector.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time copy of a {@link LatencyHistogram}, the values are in nanoseconds.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class HistogramSnapshot {
+	private final long[] _counts;
+	private final long _count;
+	private final long _sum;
+	private final long _max;
+
+	HistogramSnapshot(long[] counts, long count, long sum, long max) {
+		this._counts = counts;
+		this._count = count;
+		this._sum = sum;
+		this._max = max;
+	}
+
+	public long getCount() {
+		return _count;
+	}
+
+	public long getMax() {
+		return _max;
+	}
+
+	public double getMean() {
+		return _count == 0? 0 : (double) _sum / _count;
+	}
+
+	/**
+	 * @param percentile the percentile between 0 and 100
+	 * @return the highest value of the bucket the percentile falls in, zero if empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if(_count == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * _count));
+		long seen = 0;
+		for(int i = 0; i < _counts.length; i++) {
+			seen += _counts[i];
+			if(seen >= rank)
+				return Math.min(LatencyHistogram.highestValue(i), _max);
+		}
+		return _max;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + _count
+				+ ", mean=" + micros((long) getMean())
+				+ "us, p50=" + micros(getValueAtPercentile(50))
+				+ "us, p99=" + micros(getValueAtPercentile(99))
+				+ "us, p99.9=" + micros(getValueAtPercentile(99.9))
+				+ "us, max=" + micros(_max) + "us";
+	}
+
+	private static long micros(long nanos) {
+		return TimeUnit.NANOSECONDS.toMicros(nanos);
+	}
+}
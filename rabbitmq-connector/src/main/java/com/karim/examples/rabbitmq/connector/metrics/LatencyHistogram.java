@@ -0,0 +1,103 @@
+package com.karim.examples.rabbitmq.connector.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds, with a log-linear bucket layout as in
+ * HdrHistogram: each power of two range is split into {@value #SUB_BUCKET_COUNT} linear
+ * sub-buckets, so a recorded value is kept with about 3% precision. The values larger
+ * than one hour are recorded as one hour.
+ *
+ * Recording a value is a few atomic increments on preallocated counters, it doesn't lock
+ * or allocate. A {@link #snapshot()} copies the counters for reading.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class LatencyHistogram {
+	// Sub-buckets per power of two, 2^SUB_BUCKET_BITS
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	// Highest trackable value
+	private static final long MAX_VALUE = TimeUnit.HOURS.toNanos(1);
+	// No of buckets up to the highest trackable value
+	private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+	private final AtomicLongArray _counts = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder _count = new LongAdder();
+	private final LongAdder _sum = new LongAdder();
+	private final AtomicLong _max = new AtomicLong();
+
+	/**
+	 * @param nanos the latency in nanoseconds, negative values are recorded as zero
+	 */
+	public void record(long nanos) {
+		long value = nanos < 0? 0 : Math.min(nanos, MAX_VALUE);
+
+		_counts.incrementAndGet(bucketIndex(value));
+		_count.increment();
+		_sum.add(value);
+
+		long max;
+		while(value > (max = _max.get()) && !_max.compareAndSet(max, value));
+	}
+
+	/**
+	 * Record the time elapsed since a start time
+	 *
+	 * @param startNanos the start time from {@link System#nanoTime()}
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * @return the no of recorded values
+	 */
+	public long getCount() {
+		return _count.sum();
+	}
+
+	/**
+	 * Copy the recorded values, the values recorded while copying may be partially included.
+	 *
+	 * @return the histogram snapshot
+	 */
+	public HistogramSnapshot snapshot() {
+		long[] counts = new long[BUCKET_COUNT];
+		long count = 0;
+		for(int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = _counts.get(i);
+			count += counts[i];
+		}
+		return new HistogramSnapshot(counts, count, _sum.sum(), _max.get());
+	}
+
+	/**
+	 * Values below {@link #SUB_BUCKET_COUNT} have a bucket each, the larger values are
+	 * bucketed by their power of two and their next {@link #SUB_BUCKET_BITS} bits.
+	 */
+	static int bucketIndex(long value) {
+		if(value < SUB_BUCKET_COUNT)
+			return (int) value;
+
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKET_COUNT;
+		return ((shift + 1) << SUB_BUCKET_BITS) + subBucket;
+	}
+
+	/**
+	 * @return the highest value recorded in the bucket
+	 */
+	static long highestValue(int bucketIndex) {
+		if(bucketIndex < SUB_BUCKET_COUNT)
+			return bucketIndex;
+
+		int shift = (bucketIndex >>> SUB_BUCKET_BITS) - 1;
+		long subBucket = (bucketIndex & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,50 @@
+package com.karim.examples.rabbitmq.connector.metrics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.karim.examples.rabbitmq.connector.util.EpochClock;
+
+/**
+ * Age of the oldest message being processed by the consumers of a queue, measured from its
+ * publish time. The queue is consumed in order, so it's the age of the oldest message not
+ * processed yet, a lag signal which keeps growing if the consumers are stuck. It's zero when
+ * no message is being processed.
+ *
+ * Each consumer has its own slot holding the publish time of the message it's processing.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class OldestMessageAge {
+	// Publish time in microseconds of the message processed by each consumer, zero if idle
+	private final List<AtomicLong> _slots = new CopyOnWriteArrayList<>();
+
+	/**
+	 * @return a new consumer slot, set to the publish time of the message being processed
+	 * 			and zero once processed
+	 */
+	public AtomicLong newSlot() {
+		AtomicLong slot = new AtomicLong();
+		_slots.add(slot);
+		return slot;
+	}
+
+	/**
+	 * @return the age in milliseconds of the oldest message being processed, zero if none
+	 */
+	public long getAgeMillis() {
+		long oldest = Long.MAX_VALUE;
+		for(AtomicLong slot : _slots) {
+			long publishTime = slot.get();
+			if(publishTime > 0 && publishTime < oldest)
+				oldest = publishTime;
+		}
+
+		if(oldest == Long.MAX_VALUE)
+			return 0;
+		return Math.max(0, TimeUnit.MICROSECONDS.toMillis(EpochClock.currentTimeMicros() - oldest));
+	}
+}
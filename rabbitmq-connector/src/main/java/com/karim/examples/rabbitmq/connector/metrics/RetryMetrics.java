@@ -0,0 +1,54 @@
+package com.karim.examples.rabbitmq.connector.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the in-process retries of a consumed queue, registered in the service 
+ * {@link AMQPMetrics} as {@link AMQPMetrics#CONSUMER_RETRY_ATTEMPTS}, 
+ * {@link AMQPMetrics#CONSUMER_RETRY_RECOVERED} and {@link AMQPMetrics#CONSUMER_RETRY_EXHAUSTED}.
+ * 
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class RetryMetrics {
+	// No of handler invocations retried
+	private final LongAdder _attempts;
+	// No of messages succeeded after at least one retry
+	private final LongAdder _recovered;
+	// No of messages failed after all the retries
+	private final LongAdder _exhausted;
+	
+	/**
+	 * @param metrics	the registry of the counters
+	 * @param queueName	the consumed queue name
+	 */
+	public RetryMetrics(AMQPMetrics metrics, String queueName) {
+		this._attempts = metrics.counter(AMQPMetrics.CONSUMER_RETRY_ATTEMPTS, queueName);
+		this._recovered = metrics.counter(AMQPMetrics.CONSUMER_RETRY_RECOVERED, queueName);
+		this._exhausted = metrics.counter(AMQPMetrics.CONSUMER_RETRY_EXHAUSTED, queueName);
+	}
+	
+	public void recordAttempt() {
+		_attempts.increment();
+	}
+	
+	public void recordRecovered() {
+		_recovered.increment();
+	}
+	
+	public void recordExhausted() {
+		_exhausted.increment();
+	}
+	
+	public long getAttempts() {
+		return _attempts.sum();
+	}
+	
+	public long getRecovered() {
+		return _recovered.sum();
+	}
+	
+	public long getExhausted() {
+		return _exhausted.sum();
+	}
+}
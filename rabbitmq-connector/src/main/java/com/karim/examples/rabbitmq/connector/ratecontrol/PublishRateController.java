@@ -0,0 +1,370 @@
+package com.karim.examples.rabbitmq.connector.ratecontrol;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket limiting the publish rate of the producers sharing it, with the rate adjusted
+ * AIMD-style from the broker feedback, so an aggressive producer slows down before the broker
+ * has to block the connections by a memory alarm.
+ *
+ * Every adjust interval the rate is decreased by the decrease factor if a publish was nack'd,
+ * the average confirm latency exceeded the target, or the sampled depth of the target queue
+ * exceeded its limit. Otherwise it's increased by the increase step if the publishers waited
+ * for a permit meanwhile. The rate is kept between the min and the max rates.
+ *
+ * The adjustment is done by the publishing threads, no thread is started. The controller is
+ * shared by the configurers copied from the one it's set to.
+ *
+ * <pre>
+ * PublishRateController rateController = new PublishRateController.Builder(500).
+ *         withMaxRate(5000).withQueueDepthLimit("companyName.global.qu.orders", 100000).build();
+ * ProducerConfigurer producerConfigurer = new ProducerConfigurer.Builder(exchange, routingKey).
+ *         withRateController(rateController).build();
+ * </pre>
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class PublishRateController {
+	// Rate bounds in messages per second
+	private final double _minRate;
+	private final double _maxRate;
+	// Max burst of the bucket in seconds of the current rate
+	private final double _burst;
+	// Average confirm latency above it the broker is considered congested, in nanoseconds
+	private final long _targetConfirmLatency;
+	// Multiplier of the rate on congestion
+	private final double _decreaseFactor;
+	// Messages per second added to the rate per adjust interval without congestion
+	private final double _increaseStep;
+	// Rate adjust and queue depth sample interval in nanoseconds
+	private final long _adjustInterval;
+	// Sampled queue and its max no of ready messages, null if not sampled
+	private final String _queueName;
+	private final long _maxQueueDepth;
+	// Max wait for a permit in milliseconds
+	private final long _maxWait;
+
+	// Bucket state, guarded by this
+	private double _rate;
+	private double _tokens;
+	private long _refillTime;
+	private long _adjustTime;
+
+	// Feedback of the current adjust interval
+	private final LongAdder _confirms = new LongAdder();
+	private final LongAdder _confirmLatency = new LongAdder();
+	private final LongAdder _nacks = new LongAdder();
+	private final LongAdder _waits = new LongAdder();
+	private volatile long _queueDepth = -1;
+	// Next queue depth sample time in nanoseconds
+	private final AtomicLong _nextQueueDepthSample = new AtomicLong();
+
+	private PublishRateController(Builder builder) {
+		this._minRate = builder._minRate;
+		this._maxRate = builder._maxRate;
+		this._burst = builder._burst;
+		this._targetConfirmLatency = TimeUnit.MILLISECONDS.toNanos(builder._targetConfirmLatency);
+		this._decreaseFactor = builder._decreaseFactor;
+		this._increaseStep = builder._increaseStep;
+		this._adjustInterval = TimeUnit.MILLISECONDS.toNanos(builder._adjustInterval);
+		this._queueName = builder._queueName;
+		this._maxQueueDepth = builder._maxQueueDepth;
+		this._maxWait = builder._maxWait;
+
+		long now = System.nanoTime();
+		this._rate = builder._initialRate;
+		this._tokens = 1;
+		this._refillTime = now;
+		this._adjustTime = now;
+		this._nextQueueDepthSample.set(now);
+	}
+
+	/**
+	 * Take a permit to publish one message, waiting for it up to the max wait
+	 *
+	 * @return the time waited in nanoseconds, or -1 if no permit within the max wait
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public long acquire() throws InterruptedException {
+		long wait = reserve(System.nanoTime());
+		if(wait > 0)
+			TimeUnit.NANOSECONDS.sleep(wait);
+		return wait;
+	}
+
+	// Reserve a token, the callers after a reservation wait for the following tokens
+	private synchronized long reserve(long now) {
+		adjust(now);
+
+		_tokens = Math.min(Math.max(1, _rate * _burst), _tokens + (now - _refillTime) * _rate / TimeUnit.SECONDS.toNanos(1));
+		_refillTime = now;
+		if(_tokens >= 1) {
+			_tokens--;
+			return 0;
+		}
+
+		long wait = (long) Math.ceil((1 - _tokens) * TimeUnit.SECONDS.toNanos(1) / _rate);
+		if(wait > TimeUnit.MILLISECONDS.toNanos(_maxWait))
+			return -1;
+		_tokens--;
+		_waits.increment();
+		return wait;
+	}
+
+	// Apply the feedback of the ended adjust interval
+	private void adjust(long now) {
+		if(now - _adjustTime < _adjustInterval)
+			return;
+		_adjustTime = now;
+
+		long confirms = _confirms.sumThenReset();
+		long confirmLatency = _confirmLatency.sumThenReset();
+		long nacks = _nacks.sumThenReset();
+		long waits = _waits.sumThenReset();
+		long queueDepth = _queueDepth;
+
+		boolean congested = nacks > 0
+				|| (confirms > 0 && confirmLatency / confirms > _targetConfirmLatency)
+				|| (_queueName != null && queueDepth > _maxQueueDepth);
+		if(congested)
+			_rate = Math.max(_minRate, _rate * _decreaseFactor);
+		else if(waits > 0)
+			_rate = Math.min(_maxRate, _rate + _increaseStep);
+	}
+
+	/**
+	 * @param latency the confirm latency of a published message in nanoseconds
+	 */
+	public void recordConfirm(long latency) {
+		_confirms.increment();
+		_confirmLatency.add(latency);
+	}
+
+	/**
+	 * Record a message nack'd by the broker
+	 */
+	public void recordNack() {
+		_nacks.increment();
+	}
+
+	/**
+	 * Claim the queue depth sample of the current interval, so only one publisher samples it
+	 *
+	 * @return true if the caller has to sample the queue depth and record it
+	 */
+	public boolean claimQueueDepthSample() {
+		if(_queueName == null)
+			return false;
+
+		long now = System.nanoTime();
+		long next = _nextQueueDepthSample.get();
+		return now - next >= 0 && _nextQueueDepthSample.compareAndSet(next, now + _adjustInterval);
+	}
+
+	/**
+	 * @param queueDepth the sampled no of ready messages of {@link #getQueueName()}
+	 */
+	public void recordQueueDepth(long queueDepth) {
+		this._queueDepth = queueDepth;
+	}
+
+	/**
+	 * @return the sampled queue name, null if not sampled
+	 */
+	public String getQueueName() {
+		return _queueName;
+	}
+
+	/**
+	 * @return the current rate in messages per second
+	 */
+	public synchronized double getRate() {
+		return _rate;
+	}
+
+	/**
+	 * @return the max wait for a permit in milliseconds
+	 */
+	public long getMaxWait() {
+		return _maxWait;
+	}
+
+	////////////////////////////////////////
+	public static class Builder {
+		private final double _initialRate;
+		private double _minRate;
+		private double _maxRate;
+		private double _burst = DEFAULT_BURST;
+		private long _targetConfirmLatency = DEFAULT_TARGET_CONFIRM_LATENCY;
+		private double _decreaseFactor = DEFAULT_DECREASE_FACTOR;
+		private double _increaseStep;
+		private long _adjustInterval = DEFAULT_ADJUST_INTERVAL;
+		private String _queueName;
+		private long _maxQueueDepth;
+		private long _maxWait = DEFAULT_MAX_WAIT;
+
+		// Default burst, 100 milliseconds of the rate
+		private static final double DEFAULT_BURST = 0.1;
+		// Default target confirm latency in milliseconds
+		private static final long DEFAULT_TARGET_CONFIRM_LATENCY = 50;
+		// Default multiplier of the rate on congestion
+		private static final double DEFAULT_DECREASE_FACTOR = 0.5;
+		// Default adjust interval in milliseconds
+		private static final long DEFAULT_ADJUST_INTERVAL = 1000;
+		// Default max wait for a permit in milliseconds
+		private static final long DEFAULT_MAX_WAIT = 30000;
+
+		/**
+		 * The min rate defaults to a tenth of the initial rate, the max rate to ten times of
+		 * it, and the increase step to a twentieth of it.
+		 *
+		 * @param initialRate the initial rate in messages per second
+		 */
+		public Builder(double initialRate) {
+			this._initialRate = initialRate;
+			this._minRate = initialRate / 10;
+			this._maxRate = initialRate * 10;
+			this._increaseStep = initialRate / 20;
+		}
+
+		/**
+		 * Sets the min rate in messages per second, default is a tenth of the initial rate
+		 *
+		 * @param minRate the value to be specified
+		 * @return current object (this).
+		 * @see PublishRateController#_minRate
+		 */
+		public Builder withMinRate(double minRate) {
+			this._minRate = minRate;
+			return this;
+		}
+
+		/**
+		 * Sets the max rate in messages per second, default is ten times of the initial rate
+		 *
+		 * @param maxRate the value to be specified
+		 * @return current object (this).
+		 * @see PublishRateController#_maxRate
+		 */
+		public Builder withMaxRate(double maxRate) {
+			this._maxRate = maxRate;
+			return this;
+		}
+
+		/**
+		 * Sets the max burst in seconds of the current rate, default is
+		 * {@link Builder#DEFAULT_BURST}
+		 *
+		 * @param burst the value to be specified
+		 * @return current object (this).
+		 * @see PublishRateController#_burst
+		 */
+		public Builder withBurst(double burst) {
+			this._burst = burst;
+			return this;
+		}
+
+		/**
+		 * Sets the average confirm latency in milliseconds above it the rate is decreased,
+		 * default is {@link Builder#DEFAULT_TARGET_CONFIRM_LATENCY}
+		 *
+		 * @param targetConfirmLatency the value to be specified
+		 * @return current object (this).
+		 * @see PublishRateController#_targetConfirmLatency
+		 */
+		public Builder withTargetConfirmLatency(long targetConfirmLatency) {
+			this._targetConfirmLatency = targetConfirmLatency;
+			return this;
+		}
+
+		/**
+		 * Sets the multiplier of the rate on congestion, default is
+		 * {@link Builder#DEFAULT_DECREASE_FACTOR}
+		 *
+		 * @param decreaseFactor the value to be specified
+		 * @return current object (this).
+		 * @see PublishRateController#_decreaseFactor
+		 */
+		public Builder withDecreaseFactor(double decreaseFactor) {
+			this._decreaseFactor = decreaseFactor;
+			return this;
+		}
+
+		/**
+		 * Sets the messages per second added to the rate per adjust interval without
+		 * congestion, default is a twentieth of the initial rate
+		 *
+		 * @param increaseStep the value to be specified
+		 * @return current object (this).
+		 * @see PublishRateController#_increaseStep
+		 */
+		public Builder withIncreaseStep(double increaseStep) {
+			this._increaseStep = increaseStep;
+			return this;
+		}
+
+		/**
+		 * Sets the rate adjust and queue depth sample interval in milliseconds, default is
+		 * {@link Builder#DEFAULT_ADJUST_INTERVAL}
+		 *
+		 * @param adjustInterval the value to be specified
+		 * @return current object (this).
+		 * @see PublishRateController#_adjustInterval
+		 */
+		public Builder withAdjustInterval(long adjustInterval) {
+			this._adjustInterval = adjustInterval;
+			return this;
+		}
+
+		/**
+		 * Sets the queue to sample its depth every adjust interval, the rate is decreased
+		 * while it has more ready messages than the max depth. Default no queue sampled.
+		 *
+		 * @param queueName		the sampled queue name
+		 * @param maxQueueDepth	the max no of ready messages
+		 * @return current object (this).
+		 * @see PublishRateController#_queueName
+		 */
+		public Builder withQueueDepthLimit(String queueName, long maxQueueDepth) {
+			this._queueName = queueName;
+			this._maxQueueDepth = maxQueueDepth;
+			return this;
+		}
+
+		/**
+		 * Sets the max wait for a permit in milliseconds, the publish fails if the permit
+		 * can't be taken within it, default is {@link Builder#DEFAULT_MAX_WAIT}
+		 *
+		 * @param maxWait the value to be specified
+		 * @return current object (this).
+		 * @see PublishRateController#_maxWait
+		 */
+		public Builder withMaxWait(long maxWait) {
+			this._maxWait = maxWait;
+			return this;
+		}
+
+		public PublishRateController build() {
+			if(_minRate <= 0 || _initialRate < _minRate || _maxRate < _initialRate)
+				throw new IllegalArgumentException("rates must be 0 < minRate <= initialRate <= maxRate: "
+						+ _minRate + ", " + _initialRate + ", " + _maxRate);
+			if(_burst <= 0)
+				throw new IllegalArgumentException("burst must be greater than 0: " + _burst);
+			if(_decreaseFactor <= 0 || _decreaseFactor >= 1)
+				throw new IllegalArgumentException("decreaseFactor must be between 0 and 1: " + _decreaseFactor);
+			if(_increaseStep < 0)
+				throw new IllegalArgumentException("increaseStep must not be negative: " + _increaseStep);
+			if(_adjustInterval <= 0)
+				throw new IllegalArgumentException("adjustInterval must be greater than 0: " + _adjustInterval);
+			if(_queueName != null && (_queueName.trim().isEmpty() || _maxQueueDepth < 0))
+				throw new IllegalArgumentException("invalid queue depth limit: " + _queueName + ", " + _maxQueueDepth);
+			if(_maxWait < 0)
+				throw new IllegalArgumentException("maxWait must not be negative: " + _maxWait);
+
+			return new PublishRateController(this);
+		}
+	}
+}
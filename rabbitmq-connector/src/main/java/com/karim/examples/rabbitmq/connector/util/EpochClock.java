@@ -0,0 +1,56 @@
+package com.karim.examples.rabbitmq.connector.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wall clock time in microseconds since the epoch. {@link System#currentTimeMillis()} has
+ * millisecond resolution only, so the time is extrapolated by {@link System#nanoTime()} from
+ * an anchor taken when the wall clock millisecond ticks, and re-anchored when it drifts by
+ * more than a millisecond from the wall clock (e.g. the wall clock adjusted by NTP).
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class EpochClock {
+	// Max difference in microseconds from the wall clock before re-anchoring
+	private static final long MAX_DRIFT = TimeUnit.MILLISECONDS.toMicros(1);
+
+	// Wall clock time and nano time of the anchor, replaced as a whole
+	private static volatile Anchor anchor = new Anchor();
+
+	private EpochClock() {
+	}
+
+	/**
+	 * @return the current time in microseconds since the epoch
+	 */
+	public static long currentTimeMicros() {
+		Anchor current = anchor;
+		long micros = current.epochMicros + (System.nanoTime() - current.nanos) / 1000;
+
+		// The wall clock is truncated to the millisecond, so it's up to a millisecond behind
+		long wallClockMicros = System.currentTimeMillis() * 1000;
+		if(micros < wallClockMicros - MAX_DRIFT || micros > wallClockMicros + 2 * MAX_DRIFT) {
+			current = new Anchor();
+			anchor = current;
+			return current.epochMicros;
+		}
+		return micros;
+	}
+
+	////////////////////////////////////////
+	private static final class Anchor {
+		private final long epochMicros;
+		private final long nanos;
+
+		Anchor() {
+			// Wait for the next millisecond tick, at most a millisecond
+			long millis = System.currentTimeMillis();
+			long tick;
+			while((tick = System.currentTimeMillis()) == millis);
+
+			this.nanos = System.nanoTime();
+			this.epochMicros = tick * 1000;
+		}
+	}
+}
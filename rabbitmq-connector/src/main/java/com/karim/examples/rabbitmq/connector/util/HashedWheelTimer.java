@@ -0,0 +1,433 @@
+package com.karim.examples.rabbitmq.connector.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * <p>A hashed timing wheel used to schedule a large number of short, mostly cancelled,
+ * timeouts like the RPC reply deadlines, the consumer retry delays, and the acknowledge
+ * flush timers.</p>
+ *
+ * <p>Scheduling and cancelling a timeout are O(1) and all the timeouts are handled by a
+ * single ticker thread. The timeouts are expired with a precision of one tick, so it's not
+ * suitable for exact real-time scheduling.</p>
+ *
+ * <p>The tasks are executed on the ticker thread, so they must be short and non-blocking,
+ * any long running work must be handed to an executor.</p>
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class HashedWheelTimer {
+	// Default tick duration in milliseconds
+	private static final long DEFAULT_TICK_DURATION = 10;
+	// Default no of buckets in the wheel
+	private static final int DEFAULT_TICKS_PER_WHEEL = 512;
+	// Max no of new timeouts moved to the wheel per tick to not starve the expiration
+	private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+	// Worker states
+	private static final int WORKER_STATE_INIT = 0;
+	private static final int WORKER_STATE_STARTED = 1;
+	private static final int WORKER_STATE_SHUTDOWN = 2;
+
+	// Tick duration in nanoseconds
+	private final long _tickDuration;
+	// The wheel buckets, its length is a power of two
+	private final Bucket[] _wheel;
+	private final int _mask;
+
+	// Timeouts scheduled by the callers and not moved to the wheel yet
+	private final Queue<WheelTimeout> _pendingTimeouts = new ConcurrentLinkedQueue<>();
+	// Timeouts cancelled by the callers and not removed from the wheel yet
+	private final Queue<WheelTimeout> _cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+	private final AtomicInteger _workerState = new AtomicInteger(WORKER_STATE_INIT);
+	private final Thread _workerThread;
+
+	// The ticker start time, used as a base of all the deadlines
+	private volatile long _startTime;
+	private final CountDownLatch _startTimeInitialized = new CountDownLatch(1);
+
+	/**
+	 * Lazy holder of the shared instance
+	 */
+	private static final class SharedTimerHolder {
+		private static final HashedWheelTimer INSTANCE = new HashedWheelTimer("amqp-timer");
+	}
+
+	/**
+	 * Create a new timer with {@value #DEFAULT_TICK_DURATION} milliseconds tick and
+	 * {@value #DEFAULT_TICKS_PER_WHEEL} ticks per wheel.
+	 *
+	 * @param threadName the ticker thread name
+	 */
+	public HashedWheelTimer(String threadName) {
+		this(threadName, DEFAULT_TICK_DURATION, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+	}
+
+	/**
+	 * Create a new timer.
+	 *
+	 * @param threadName	the ticker thread name
+	 * @param tickDuration	the duration between ticks
+	 * @param unit			the tick duration unit
+	 * @param ticksPerWheel	the no of buckets in the wheel, rounded up to a power of two
+	 */
+	public HashedWheelTimer(String threadName, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if(tickDuration <= 0)
+			throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+		if(ticksPerWheel <= 0 || ticksPerWheel > (1 << 30))
+			throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30: " + ticksPerWheel);
+
+		int wheelSize = Integer.highestOneBit(ticksPerWheel);
+		if(wheelSize < ticksPerWheel)
+			wheelSize <<= 1;
+
+		this._wheel = new Bucket[wheelSize];
+		for(int i = 0; i < wheelSize; i++) {
+			this._wheel[i] = new Bucket();
+		}
+		this._mask = wheelSize - 1;
+		this._tickDuration = unit.toNanos(tickDuration);
+
+		this._workerThread = new Thread(new Worker(), threadName);
+		this._workerThread.setDaemon(true);
+	}
+
+	/**
+	 * The process-wide timer shared by all the connector services, its ticker thread is a
+	 * daemon thread started on first use and never stopped.
+	 *
+	 * @return the shared timer
+	 */
+	public static HashedWheelTimer getSharedTimer() {
+		return SharedTimerHolder.INSTANCE;
+	}
+
+	/**
+	 * Schedule the task to be executed once on the ticker thread after the delay.
+	 *
+	 * @param task	the task to be executed, must be short and non-blocking
+	 * @param delay	the delay before executing the task
+	 * @param unit	the delay unit
+	 * @return a handle to cancel the task
+	 * @throws IllegalStateException if the timer already stopped
+	 */
+	public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+		if(task == null)
+			throw new NullPointerException("task");
+
+		start();
+
+		// Add the timeout to the pending queue, it'll be moved to its bucket on the next tick
+		long deadline = System.nanoTime() + unit.toNanos(Math.max(delay, 0)) - _startTime;
+
+		// Guard against overflow
+		if(delay > 0 && deadline < 0)
+			deadline = Long.MAX_VALUE;
+
+		WheelTimeout timeout = new WheelTimeout(task, deadline);
+		_pendingTimeouts.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stop the ticker thread and cancel all not expired timeouts.
+	 * The shared timer can't be stopped.
+	 */
+	public void stop() {
+		if(this == SharedTimerHolder.INSTANCE)
+			throw new IllegalStateException("The shared timer can't be stopped.");
+
+		if(_workerState.getAndSet(WORKER_STATE_SHUTDOWN) != WORKER_STATE_STARTED)
+			return;
+
+		_workerThread.interrupt();
+		try {
+			_workerThread.join(TimeUnit.SECONDS.toMillis(1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Start the ticker thread if not started and wait for its start time initialization.
+	 */
+	private void start() {
+		switch(_workerState.get()) {
+			case WORKER_STATE_INIT:
+				if(_workerState.compareAndSet(WORKER_STATE_INIT, WORKER_STATE_STARTED))
+					_workerThread.start();
+				break;
+			case WORKER_STATE_STARTED:
+				break;
+			default:
+				throw new IllegalStateException("Timer already stopped.");
+		}
+
+		boolean interrupted = false;
+		while(_startTime == 0) {
+			try {
+				_startTimeInitialized.await();
+			} catch (InterruptedException ignore) {
+				// Keep waiting as the ticker thread about to start
+				interrupted = true;
+			}
+		}
+
+		// Re-interrupt the thread to set the interrupt flag
+		if(interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	////////////////////////////////////////
+	/**
+	 * A handle of a scheduled task.
+	 */
+	public interface Timeout {
+		/**
+		 * Cancel the task if not executed yet.
+		 *
+		 * @return true if cancelled, false if already expired or cancelled
+		 */
+		boolean cancel();
+
+		boolean isExpired();
+
+		boolean isCancelled();
+	}
+
+	/**
+	 * A scheduled task linked into its bucket.
+	 */
+	private final class WheelTimeout implements Timeout {
+		private static final int ST_INIT = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		private final Runnable task;
+		// Deadline in nanoseconds relative to the timer start time
+		private final long deadline;
+		// No of wheel rounds to pass before expiring, only accessed by the ticker thread
+		private long remainingRounds;
+
+		// Not private to be accessible by the field updater
+		volatile int state = ST_INIT;
+
+		// Bucket links, only accessed by the ticker thread
+		private WheelTimeout next;
+		private WheelTimeout prev;
+		private Bucket bucket;
+
+		WheelTimeout(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel() {
+			if(!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_CANCELLED))
+				return false;
+
+			// Unlinked by the ticker thread on the next tick
+			_cancelledTimeouts.add(this);
+			return true;
+		}
+
+		@Override
+		public boolean isExpired() {
+			return state == ST_EXPIRED;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return state == ST_CANCELLED;
+		}
+
+		void expire() {
+			if(!STATE_UPDATER.compareAndSet(this, ST_INIT, ST_EXPIRED))
+				return;
+
+			try {
+				task.run();
+			} catch(Throwable e) {
+				Log4j.traceErrorException(HashedWheelTimer.class, e, "A timer task raised an exception.");
+			}
+		}
+	}
+
+	private static final AtomicIntegerFieldUpdater<WheelTimeout> STATE_UPDATER =
+		AtomicIntegerFieldUpdater.newUpdater(WheelTimeout.class, "state");
+
+	/**
+	 * A doubly-linked list of timeouts, only accessed by the ticker thread.
+	 */
+	private static final class Bucket {
+		private WheelTimeout head;
+		private WheelTimeout tail;
+
+		void add(WheelTimeout timeout) {
+			timeout.bucket = this;
+			if(head == null) {
+				head = tail = timeout;
+			} else {
+				tail.next = timeout;
+				timeout.prev = tail;
+				tail = timeout;
+			}
+		}
+
+		void remove(WheelTimeout timeout) {
+			WheelTimeout next = timeout.next;
+			if(timeout.prev != null)
+				timeout.prev.next = next;
+			if(timeout.next != null)
+				timeout.next.prev = timeout.prev;
+
+			if(timeout == head) {
+				if(timeout == tail) {
+					head = tail = null;
+				} else {
+					head = next;
+				}
+			} else if(timeout == tail) {
+				tail = timeout.prev;
+			}
+
+			timeout.prev = null;
+			timeout.next = null;
+			timeout.bucket = null;
+		}
+
+		/**
+		 * Expire the timeouts in the current round and decrease the rounds of the others.
+		 *
+		 * @param deadline the current tick deadline
+		 */
+		void expireTimeouts(long deadline) {
+			WheelTimeout timeout = head;
+			while(timeout != null) {
+				WheelTimeout next = timeout.next;
+				if(timeout.remainingRounds <= 0) {
+					remove(timeout);
+					if(timeout.deadline <= deadline)
+						timeout.expire();
+				} else if(timeout.isCancelled()) {
+					remove(timeout);
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+		}
+
+		/**
+		 * Unlink all the timeouts, used when the timer stopped.
+		 */
+		void clear() {
+			WheelTimeout timeout = head;
+			while(timeout != null) {
+				WheelTimeout next = timeout.next;
+				remove(timeout);
+				timeout.cancel();
+				timeout = next;
+			}
+		}
+	}
+
+	/**
+	 * The ticker loop.
+	 */
+	private final class Worker implements Runnable {
+		private long tick;
+
+		@Override
+		public void run() {
+			// Zero used as not initialized indicator
+			long startTime = System.nanoTime();
+			_startTime = startTime == 0 ? 1 : startTime;
+			_startTimeInitialized.countDown();
+
+			while(_workerState.get() == WORKER_STATE_STARTED) {
+				long deadline = waitForNextTick();
+				if(deadline > 0) {
+					removeCancelledTimeouts();
+					transferTimeoutsToBuckets();
+					_wheel[(int) (tick & _mask)].expireTimeouts(deadline);
+					tick++;
+				}
+			}
+
+			// Timer stopped, cancel the not expired timeouts
+			for(Bucket bucket : _wheel) {
+				bucket.clear();
+			}
+			WheelTimeout timeout;
+			while((timeout = _pendingTimeouts.poll()) != null) {
+				timeout.cancel();
+			}
+			_cancelledTimeouts.clear();
+		}
+
+		/**
+		 * Move the new timeouts to their buckets.
+		 */
+		private void transferTimeoutsToBuckets() {
+			for(int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+				WheelTimeout timeout = _pendingTimeouts.poll();
+				if(timeout == null)
+					break;
+
+				if(timeout.isCancelled())
+					continue;
+
+				long calculated = timeout.deadline / _tickDuration;
+				timeout.remainingRounds = (calculated - tick) / _wheel.length;
+
+				// Don't schedule into the past, expire on the current tick
+				long ticks = Math.max(calculated, tick);
+				_wheel[(int) (ticks & _mask)].add(timeout);
+			}
+		}
+
+		/**
+		 * Unlink the cancelled timeouts from their buckets.
+		 */
+		private void removeCancelledTimeouts() {
+			WheelTimeout timeout;
+			while((timeout = _cancelledTimeouts.poll()) != null) {
+				if(timeout.bucket != null)
+					timeout.bucket.remove(timeout);
+			}
+		}
+
+		/**
+		 * Sleep until the next tick.
+		 *
+		 * @return the current time relative to the start time, or negative if the timer stopped
+		 */
+		private long waitForNextTick() {
+			long deadline = _tickDuration * (tick + 1);
+
+			while(true) {
+				long currentTime = System.nanoTime() - _startTime;
+				long sleepTimeMs = (deadline - currentTime + 999999) / 1000000;
+
+				if(sleepTimeMs <= 0)
+					return currentTime == Long.MIN_VALUE ? -Long.MAX_VALUE : currentTime;
+
+				try {
+					Thread.sleep(sleepTimeMs);
+				} catch (InterruptedException ignore) {
+					if(_workerState.get() == WORKER_STATE_SHUTDOWN)
+						return Long.MIN_VALUE;
+				}
+			}
+		}
+	}
+}
@@ -2,18 +2,48 @@ package com.karim.examples.rabbitmq.connector.util;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import org.apache.log4j.Appender;
+import org.apache.log4j.AsyncAppender;
+import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
+import org.slf4j.helpers.FormattingTuple;
+import org.slf4j.helpers.MessageFormatter;
 
 /**
  * This class manages the log files in the system
  * 
+ * The loggers are cached by class, the messages with parameters are formatted the SLF4J way
+ * ({} placeholders, a last Throwable parameter is the exception) only if the level is
+ * enabled, and the root appenders are wrapped by a non-blocking {@link AsyncAppender}
+ * with a bounded buffer, discarding and counting the events once full. The errors are
+ * deduplicated and rate limited by {@link LogThrottle}. Configured by the log4j.properties
+ * keys connector.log.async, connector.log.async.bufferSize, connector.log.throttle.window
+ * and connector.log.throttle.maxKeys.
+ *
  * @author nour
  * 
  */
 public class Log4j extends Logger {
+	// Default async appender buffer size in events
+	private static final int DEFAULT_ASYNC_BUFFER_SIZE = 8192;
+	// Default errors throttle window in milliseconds
+	private static final long DEFAULT_THROTTLE_WINDOW = 10000;
+	// Default max no of different errors per throttle window
+	private static final int DEFAULT_THROTTLE_MAX_KEYS = 1000;
+
+	// Loggers by class, Logger.getLogger locks the repository on every call
+	private static final ConcurrentMap<Class<?>, Logger> LOGGERS = new ConcurrentHashMap<>();
+	// Errors throttle, null if disabled
+	private static final LogThrottle THROTTLE;
+
 	static {
 		ClassLoader cl = Log4j.class.getClassLoader();
 		Properties props = new Properties();
@@ -25,34 +55,78 @@ public class Log4j extends Logger {
 		} catch (Exception e) {
 			System.out.println("Log4j : Error loading Log4j.properties");
 		}
+
+		if(Boolean.parseBoolean(props.getProperty("connector.log.async", "true")))
+			useAsyncAppender(Integer.parseInt(props.getProperty("connector.log.async.bufferSize",
+					String.valueOf(DEFAULT_ASYNC_BUFFER_SIZE))));
+
+		long throttleWindow = Long.parseLong(props.getProperty("connector.log.throttle.window",
+				String.valueOf(DEFAULT_THROTTLE_WINDOW)));
+		THROTTLE = throttleWindow > 0?
+				new LogThrottle(throttleWindow, Integer.parseInt(props.getProperty("connector.log.throttle.maxKeys",
+						String.valueOf(DEFAULT_THROTTLE_MAX_KEYS))))
+				: null;
 	}
 
 	public Log4j(String name) {
 		super(name);
 	}
 
+	/**
+	 * Move the root appenders behind an async appender, so the logging threads only queue
+	 * the events. Once the buffer is full the events are discarded, and a summary of the
+	 * discarded events is logged, rather than blocking the consumer and publisher threads.
+	 *
+	 * @param bufferSize the max no of queued events
+	 */
+	private static void useAsyncAppender(int bufferSize) {
+		Logger root = Logger.getRootLogger();
+		List<Appender> appenders = new ArrayList<>();
+		for(Enumeration<?> e = root.getAllAppenders(); e.hasMoreElements();)
+			appenders.add((Appender) e.nextElement());
+		if(appenders.isEmpty())
+			return;
+
+		AsyncAppender asyncAppender = new AsyncAppender();
+		asyncAppender.setName("connector-async");
+		asyncAppender.setBufferSize(bufferSize);
+		asyncAppender.setBlocking(false);
+		for(Appender appender : appenders) {
+			root.removeAppender(appender);
+			asyncAppender.addAppender(appender);
+		}
+		root.addAppender(asyncAppender);
+
+		// Write the queued events on exit, closing drains the buffer
+		Runtime.getRuntime().addShutdownHook(new Thread(asyncAppender::close, "connector-log-flush"));
+	}
+
+	private static Logger logger(Class<?> cl) {
+		Logger logger = LOGGERS.get(cl);
+		return logger != null? logger : LOGGERS.computeIfAbsent(cl, Logger::getLogger);
+	}
+
 	public static void traceInfo(Class<?> cl, String msg) {
-		Logger logger = Logger.getLogger(cl);
+		Logger logger = logger(cl);
 		logger.info(msg);
 	}
 
 	public static void traceDebug(Class<?> cl, String msg) {
-		Logger logger = Logger.getLogger(cl);
+		Logger logger = logger(cl);
 		logger.debug(msg);
 	}
 
 	public static void traceLog(Class<?> cl, String msg) {
-		Logger logger = Logger.getLogger(cl);
+		Logger logger = logger(cl);
 		logger.info(msg);
 	}
 
 	public static void traceError(Class<?> cl, String msg) {
-		Logger logger = Logger.getLogger(cl);
-		logger.error(msg);
+		log(logger(cl), Level.ERROR, msg, msg, null);
 	}
 
 	public static void traceFatal(Class<?> cl, String msg) {
-		Logger logger = Logger.getLogger(cl);
+		Logger logger = logger(cl);
 		logger.fatal(msg);
 	}
 
@@ -61,24 +135,92 @@ public class Log4j extends Logger {
 	 * log file and send E-mail with error string, Context-Root must be 
 	 * written in log4j.properties file as # <context-root>Name Here</context-root>
 	 * 
+	 * The repeated errors are summarized by {@link LogThrottle}.
+	 *
 	 * @param cl
 	 * @param ex
 	 * @param msg
 	 */
 	public static void traceErrorException(Class<?> cl, Throwable ex, String msg) {
-		Logger logger = Logger.getLogger(cl);
-		logger.error(msg, ex);
+		log(logger(cl), Level.ERROR, msg, msg, ex);
 	}
 
 	public static void traceFatalException(Class<?> cl, Exception ex, String msg) {
-		Logger logger = Logger.getLogger(cl);
+		Logger logger = logger(cl);
 		logger.fatal(msg, ex);
 	}
 
 	public static void traceDebugException(Class<?> cl, Exception ex, String msg) {
-		Logger logger = Logger.getLogger(cl);
+		Logger logger = logger(cl);
 		logger.debug(msg, ex);
 	}
+
+	/**
+	 * Trace info message formatted only if the info level enabled
+	 *
+	 * @param cl		the class logging
+	 * @param format	the message with {} placeholders
+	 * @param args		the placeholders values, a last Throwable is logged as the exception
+	 */
+	public static void traceInfo(Class<?> cl, String format, Object... args) {
+		Logger logger = logger(cl);
+		if(logger.isInfoEnabled())
+			log(logger, Level.INFO, format, MessageFormatter.arrayFormat(format, args));
+	}
+
+	/**
+	 * Trace debug message formatted only if the debug level enabled
+	 *
+	 * @param cl		the class logging
+	 * @param format	the message with {} placeholders
+	 * @param args		the placeholders values, a last Throwable is logged as the exception
+	 */
+	public static void traceDebug(Class<?> cl, String format, Object... args) {
+		Logger logger = logger(cl);
+		if(logger.isDebugEnabled())
+			log(logger, Level.DEBUG, format, MessageFormatter.arrayFormat(format, args));
+	}
+
+	/**
+	 * Trace error message, the repeated errors are summarized by {@link LogThrottle}
+	 *
+	 * @param cl		the class logging
+	 * @param format	the message with {} placeholders
+	 * @param args		the placeholders values, a last Throwable is logged as the exception
+	 */
+	public static void traceError(Class<?> cl, String format, Object... args) {
+		Logger logger = logger(cl);
+		if(logger.isEnabledFor(Level.ERROR))
+			log(logger, Level.ERROR, format, MessageFormatter.arrayFormat(format, args));
+	}
+
+	/**
+	 * Trace error exception, the repeated errors are summarized by {@link LogThrottle}
+	 *
+	 * @param cl		the class logging
+	 * @param ex		the error
+	 * @param format	the message with {} placeholders
+	 * @param args		the placeholders values
+	 */
+	public static void traceErrorException(Class<?> cl, Throwable ex, String format, Object... args) {
+		Logger logger = logger(cl);
+		if(logger.isEnabledFor(Level.ERROR))
+			log(logger, Level.ERROR, format, MessageFormatter.arrayFormat(format, args).getMessage(), ex);
+	}
+
+	private static void log(Logger logger, Level level, String format, FormattingTuple message) {
+		log(logger, level, format, message.getMessage(), message.getThrowable());
+	}
+
+	// The errors of the same template are throttled together
+	private static void log(Logger logger, Level level, String format, String msg, Throwable ex) {
+		if(!logger.isEnabledFor(level))
+			return;
+		if(level.isGreaterOrEqual(Level.ERROR) && THROTTLE != null
+				&& !THROTTLE.acquire(logger, level, format, msg, ex))
+			return;
+		logger.log(level, msg, ex);
+	}
 	
 	/**
 	 * return the error stacktrace
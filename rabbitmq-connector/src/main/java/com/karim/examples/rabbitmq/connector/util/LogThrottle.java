@@ -0,0 +1,143 @@
+package com.karim.examples.rabbitmq.connector.util;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Deduplicate and rate limit the repeated log events, so a failing handler or a broker
+ * outage doesn't turn into a log storm throttling the threads logging it.
+ *
+ * The first event of a key (the logger, the message template and the exception class) is
+ * logged in full, then the similar events are only counted until the window of the key
+ * ends, when a single summary line with their count is logged. The no of keys per window is bounded,
+ * the events of the extra keys are counted and summarized together, except the first event of
+ * an exception class never logged before, which is always logged.
+ *
+ * The template is the key, so the callers pass the variable parts, e.g. the exception message,
+ * as parameters of a fixed template.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class LogThrottle {
+	// Min period of the windows check in milliseconds
+	private static final long MIN_FLUSH_PERIOD = 100;
+
+	// Window of a key in milliseconds
+	private final long _window;
+	// Max no of keys per window
+	private final int _maxKeys;
+
+	private final ConcurrentMap<String, Entry> _entries = new ConcurrentHashMap<>();
+	// Events of the keys over the max
+	private final AtomicInteger _overflow = new AtomicInteger();
+	// Logger of the overflow summary, the last logger overflowed
+	private volatile Logger _overflowLogger;
+	// Exception classes already logged, bounded by the no of classes
+	private final Set<String> _exceptionClasses = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @param window	the window of a key in milliseconds
+	 * @param maxKeys	the max no of keys per window
+	 */
+	LogThrottle(long window, int maxKeys) {
+		this._window = window;
+		this._maxKeys = maxKeys;
+
+		ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+				new NamedThreadFactory("connector-log-throttle", true));
+		long period = Math.max(window / 10, MIN_FLUSH_PERIOD);
+		flusher.scheduleWithFixedDelay(this::flush, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param logger	the logger of the event
+	 * @param level		the level of the event
+	 * @param template	the event message before formatting its parameters
+	 * @param message	the event message
+	 * @param ex		the event exception, or null
+	 * @return true if the event has to be logged, false if counted for the summary
+	 */
+	boolean acquire(Logger logger, Level level, String template, String message, Throwable ex) {
+		String key = logger.getName() + '\u0000' + template + '\u0000' + (ex == null? "" : ex.getClass().getName());
+		boolean newExceptionClass = ex != null && _exceptionClasses.add(ex.getClass().getName());
+		while(true) {
+			Entry entry = _entries.get(key);
+			if(entry == null) {
+				if(_entries.size() >= _maxKeys) {
+					// A new kind of failure, not hidden by the storm of the others
+					if(newExceptionClass)
+						return true;
+					_overflowLogger = logger;
+					_overflow.incrementAndGet();
+					return false;
+				}
+				if(_entries.putIfAbsent(key, new Entry(logger, level, message, System.currentTimeMillis())) == null)
+					return true;
+				continue;
+			}
+
+			synchronized (entry) {
+				// Removed by the flush meanwhile, the event starts a new window
+				if(entry._removed)
+					continue;
+				entry._suppressed++;
+				return false;
+			}
+		}
+	}
+
+	// Summarize the ended windows and release their keys
+	private void flush() {
+		try {
+			long now = System.currentTimeMillis();
+			for(Entry entry : _entries.values()) {
+				int suppressed;
+				synchronized (entry) {
+					if(now - entry._windowStart < _window)
+						continue;
+					entry._removed = true;
+					suppressed = entry._suppressed;
+				}
+				_entries.values().remove(entry);
+				if(suppressed > 0)
+					entry._logger.log(entry._level, entry._message + " [" + suppressed
+							+ " similar events suppressed in the last " + (now - entry._windowStart) / 1000 + "s]");
+			}
+
+			int overflow = _overflow.getAndSet(0);
+			if(overflow > 0)
+				_overflowLogger.log(Level.WARN, overflow + " log events of more than " + _maxKeys
+						+ " different errors suppressed in the last " + _window / 1000 + "s");
+		} catch (Throwable e) {
+			// Keep the flusher running
+		}
+	}
+
+	////////////////////////////////////////
+	private static final class Entry {
+		private final Logger _logger;
+		private final Level _level;
+		private final String _message;
+		private final long _windowStart;
+
+		// Guarded by this
+		private int _suppressed;
+		private boolean _removed;
+
+		private Entry(Logger logger, Level level, String message, long windowStart) {
+			this._logger = logger;
+			this._level = level;
+			this._message = message;
+			this._windowStart = windowStart;
+		}
+	}
+}
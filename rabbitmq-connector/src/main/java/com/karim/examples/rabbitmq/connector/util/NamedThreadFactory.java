@@ -0,0 +1,62 @@
+package com.karim.examples.rabbitmq.connector.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory that names the created threads with a prefix and a sequence number, so
+ * the connector threads are identifiable in the thread dumps and the profilers.
+ * 
+ * It can be used also as a {@link ForkJoinWorkerThreadFactory} for work stealing pools.
+ * 
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class NamedThreadFactory implements ThreadFactory, ForkJoinWorkerThreadFactory {
+	// Threads name prefix
+	private final String _prefix;
+	// Is it daemon threads
+	private final boolean _daemon;
+	// Next thread sequence number
+	private final AtomicInteger _threadNumber = new AtomicInteger(1);
+	
+	/**
+	 * Create a factory of non-daemon threads
+	 * 
+	 * @param prefix the threads name prefix
+	 */
+	public NamedThreadFactory(String prefix) {
+		this(prefix, false);
+	}
+	
+	/**
+	 * @param prefix the threads name prefix
+	 * @param daemon true to create daemon threads
+	 */
+	public NamedThreadFactory(String prefix, boolean daemon) {
+		this._prefix = prefix;
+		this._daemon = daemon;
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, nextThreadName());
+		thread.setDaemon(_daemon);
+		return thread;
+	}
+
+	@Override
+	public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+		ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+		thread.setName(nextThreadName());
+		thread.setDaemon(_daemon);
+		return thread;
+	}
+	
+	private String nextThreadName() {
+		return _prefix + "-" + _threadNumber.getAndIncrement();
+	}
+}
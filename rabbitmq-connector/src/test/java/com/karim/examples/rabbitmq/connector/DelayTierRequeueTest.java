@@ -0,0 +1,120 @@
+package com.karim.examples.rabbitmq.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.karim.examples.rabbitmq.broker.EmbeddedBroker;
+import com.karim.examples.rabbitmq.connector.configures.ConnectionConfigurer;
+import com.karim.examples.rabbitmq.connector.configures.ConsumerConfigurer;
+import com.karim.examples.rabbitmq.connector.configures.ProducerConfigurer;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+
+/**
+ * The failed messages of a consumer with a redelivery exchange against an embedded broker:
+ * requeued to the delay tier of their requeue count, or rejected to the queue dead-letter
+ * exchange when the tier republish is returned.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public class DelayTierRequeueTest {
+	private static final String QUEUE_NAME = "test.qu.requeue";
+	private static final String DEAD_LETTER_EXCHANGE = "test.ex.dead-letter";
+	private static final String DEAD_LETTER_QUEUE = "test.qu.dead-letter";
+	private static final String REDELIVERY_EXCHANGE = "test.ex.redelivery";
+	private static final String TIER_QUEUE = "test.qu.redelivery.0";
+	private static final long WAIT_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+	private EmbeddedBroker broker;
+	private Connection connection;
+	private Channel channel;
+	private AMQPService service;
+
+	@Before
+	public void start() throws IOException, TimeoutException, AMQPCustomException {
+		broker = new EmbeddedBroker(0, -1).start();
+
+		ConnectionFactory connectionFactory = new ConnectionFactory();
+		connectionFactory.setPort(broker.getPort());
+		connection = connectionFactory.newConnection();
+		channel = connection.createChannel();
+		channel.exchangeDeclare(DEAD_LETTER_EXCHANGE, "fanout", true);
+		channel.queueDeclare(DEAD_LETTER_QUEUE, true, false, false, null);
+		channel.queueBind(DEAD_LETTER_QUEUE, DEAD_LETTER_EXCHANGE, "");
+		channel.exchangeDeclare(REDELIVERY_EXCHANGE, "direct", true);
+		channel.queueDeclare(TIER_QUEUE, true, false, false, null);
+		channel.queueDeclare(QUEUE_NAME, true, false, false,
+				Collections.<String, Object>singletonMap("x-dead-letter-exchange", DEAD_LETTER_EXCHANGE));
+
+		service = new AMQPService(new ConnectionConfigurer.
+				Builder("test", "localhost", EmbeddedBroker.DEFAULT_VIRTUAL_HOST, "guest", "guest").
+				withPort(broker.getPort()).
+				withNoOfConnections(1).build());
+	}
+
+	@After
+	public void stop() throws IOException {
+		service.close();
+		connection.close();
+		broker.stop();
+	}
+
+	@Test
+	public void requeueToDelayTier() throws Exception {
+		channel.queueBind(TIER_QUEUE, REDELIVERY_EXCHANGE,
+				"waiting-requeue.0");
+		listenFailing();
+
+		service.push(new ProducerConfigurer.Builder("", QUEUE_NAME).build(), null, "failed");
+
+		assertTrue(waitFor(() -> messageCount(TIER_QUEUE) == 1));
+		assertEquals(0, messageCount(DEAD_LETTER_QUEUE));
+	}
+
+	@Test
+	public void rejectReturnedRequeue() throws Exception {
+		// No delay tier bound, the republish is returned
+		listenFailing();
+
+		service.push(new ProducerConfigurer.Builder("", QUEUE_NAME).build(), null, "failed");
+
+		assertTrue(waitFor(() -> messageCount(DEAD_LETTER_QUEUE) == 1));
+		assertEquals(0, messageCount(TIER_QUEUE));
+	}
+
+	private void listenFailing() throws AMQPCustomException {
+		service.setReceiveMessageListener(new ConsumerConfigurer.Builder(QUEUE_NAME).
+				withRedeliveryExchange(REDELIVERY_EXCHANGE).build(),
+				(message, headers) -> {
+					throw new IllegalStateException("Failed handling " + message);
+				},
+				String.class);
+	}
+
+	private int messageCount(String queue) {
+		return broker.getMessageCount(EmbeddedBroker.DEFAULT_VIRTUAL_HOST, queue);
+	}
+
+	private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+		while(!condition.getAsBoolean()) {
+			if(System.currentTimeMillis() > deadline)
+				return false;
+			Thread.sleep(20);
+		}
+		return true;
+	}
+}
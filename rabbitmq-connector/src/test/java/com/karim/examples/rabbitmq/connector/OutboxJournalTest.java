@@ -0,0 +1,135 @@
+package com.karim.examples.rabbitmq.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * {@link OutboxJournal} on a temporary directory: the records are read in the appended order
+ * across the rotated segments, the acknowledged segments are deleted, and the written and
+ * acknowledged positions are recovered after a restart.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public class OutboxJournalTest {
+	// Four "record-N" records per segment
+	private static final int SEGMENT_SIZE = 64;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File directory;
+	private OutboxJournal journal;
+
+	@Before
+	public void open() throws IOException {
+		directory = folder.newFolder("outbox");
+		journal = new OutboxJournal(directory, SEGMENT_SIZE);
+	}
+
+	@After
+	public void close() {
+		journal.close();
+	}
+
+	@Test
+	public void readInOrderAcrossSegments() throws IOException {
+		append(0, 10);
+
+		assertEquals(3, segmentFiles());
+		assertEquals(records(0, 10), pending());
+	}
+
+	@Test
+	public void readBatches() throws IOException {
+		append(0, 10);
+
+		OutboxJournal.Batch first = journal.read(journal.getAckedPosition(), 6);
+		OutboxJournal.Batch second = journal.read(first.endPosition, 6);
+
+		assertEquals(records(0, 6), strings(first));
+		assertEquals(records(6, 10), strings(second));
+	}
+
+	@Test
+	public void acknowledgeDeletesSegments() throws IOException {
+		append(0, 10);
+
+		// The first segment and half of the second one
+		journal.acknowledge(journal.read(journal.getAckedPosition(), 6).endPosition);
+		assertEquals(2, segmentFiles());
+		assertTrue(journal.hasPending());
+		assertEquals(records(6, 10), pending());
+
+		journal.acknowledge(journal.read(journal.getAckedPosition(), 100).endPosition);
+		assertEquals(1, segmentFiles());
+		assertFalse(journal.hasPending());
+	}
+
+	@Test
+	public void recoverAfterRestart() throws IOException {
+		append(0, 6);
+		journal.acknowledge(journal.read(journal.getAckedPosition(), 2).endPosition);
+		journal.close();
+
+		journal = new OutboxJournal(directory, SEGMENT_SIZE);
+		assertTrue(journal.hasPending());
+		assertEquals(records(2, 6), pending());
+
+		// Appended after the recovered records, not over them
+		append(6, 10);
+		assertEquals(records(2, 10), pending());
+	}
+
+	@Test
+	public void secondJournalRejected() {
+		try {
+			new OutboxJournal(directory, SEGMENT_SIZE).close();
+			fail("The directory is used by the opened journal");
+		} catch(IOException e) {
+			// Expected
+		}
+	}
+
+	private void append(int from, int to) throws IOException {
+		for(String record : records(from, to))
+			journal.append(record.getBytes(StandardCharsets.UTF_8));
+	}
+
+	// The records not acknowledged yet
+	private List<String> pending() {
+		return strings(journal.read(journal.getAckedPosition(), 100));
+	}
+
+	private static List<String> strings(OutboxJournal.Batch batch) {
+		List<String> records = new ArrayList<String>();
+		for(byte[] record : batch.records)
+			records.add(new String(record, StandardCharsets.UTF_8));
+		return records;
+	}
+
+	private int segmentFiles() {
+		return directory.list((dir, name) -> name.endsWith(".log")).length;
+	}
+
+	private static List<String> records(int from, int to) {
+		List<String> records = new ArrayList<String>();
+		for(int i = from; i < to; i++)
+			records.add("record-" + i);
+		return records;
+	}
+}
@@ -0,0 +1,144 @@
+package com.karim.examples.rabbitmq.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.karim.examples.rabbitmq.broker.EmbeddedBroker;
+import com.karim.examples.rabbitmq.connector.configures.ConnectionConfigurer;
+import com.karim.examples.rabbitmq.connector.configures.ProducerConfigurer;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.GetResponse;
+
+/**
+ * The {@link Outbox} of a service against an embedded broker: the messages pushed while the
+ * connection is lost are spooled and replayed in order once recovered, or by the next
+ * service on the same directory after a restart.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public class OutboxTest {
+	private static final String QUEUE_NAME = "test.qu.outbox";
+	private static final int MESSAGE_COUNT = 5;
+	private static final long WAIT_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private EmbeddedBroker broker;
+	private Connection connection;
+	private Channel channel;
+	private File directory;
+	private AMQPService service;
+
+	@Before
+	public void start() throws IOException, TimeoutException {
+		broker = new EmbeddedBroker(0, -1).start();
+		broker.declareQueue(EmbeddedBroker.DEFAULT_VIRTUAL_HOST, QUEUE_NAME);
+		directory = folder.newFolder("outbox");
+	}
+
+	@After
+	public void stop() throws IOException {
+		if(service != null)
+			service.close();
+		if(connection != null)
+			connection.close();
+		broker.stop();
+	}
+
+	@Test
+	public void replayAfterRecovery() throws Exception {
+		service = openService(500);
+		broker.closeConnections();
+
+		pushMessages();
+
+		assertTrue(waitFor(() -> messageCount() == MESSAGE_COUNT));
+		assertEquals(expectedMessages(), consumeMessages());
+	}
+
+	@Test
+	public void replayAfterRestart() throws Exception {
+		// Not recovered before the service is closed
+		service = openService((int) TimeUnit.MINUTES.toMillis(10));
+		broker.closeConnections();
+
+		pushMessages();
+		service.close();
+		assertEquals(0, messageCount());
+
+		service = openService(500);
+
+		assertTrue(waitFor(() -> messageCount() == MESSAGE_COUNT));
+		assertEquals(expectedMessages(), consumeMessages());
+	}
+
+	private AMQPService openService(int networkRecoveryInterval) throws AMQPCustomException {
+		return new AMQPService(new ConnectionConfigurer.
+				Builder("test", "localhost", EmbeddedBroker.DEFAULT_VIRTUAL_HOST, "guest", "guest").
+				withPort(broker.getPort()).
+				withNoOfConnections(1).
+				withNetworkRecoveryInterval(networkRecoveryInterval).
+				withOutboxDirectory(directory).build());
+	}
+
+	private void pushMessages() throws Exception {
+		ProducerConfigurer producerConfigurer = new ProducerConfigurer.Builder("", QUEUE_NAME).build();
+		for(int i = 0; i < MESSAGE_COUNT; i++)
+			service.push(producerConfigurer, null, "message-" + i);
+	}
+
+	private List<String> consumeMessages() throws IOException, TimeoutException {
+		ConnectionFactory connectionFactory = new ConnectionFactory();
+		connectionFactory.setPort(broker.getPort());
+		connection = connectionFactory.newConnection();
+		channel = connection.createChannel();
+
+		List<String> messages = new ArrayList<String>();
+		GetResponse response;
+		while((response = channel.basicGet(QUEUE_NAME, true)) != null)
+			messages.add(new String(response.getBody(), StandardCharsets.UTF_8));
+		return messages;
+	}
+
+	private static List<String> expectedMessages() {
+		List<String> messages = new ArrayList<String>();
+		// Marshaled to JSON strings
+		for(int i = 0; i < MESSAGE_COUNT; i++)
+			messages.add("\"message-" + i + "\"");
+		return messages;
+	}
+
+	private int messageCount() {
+		return broker.getMessageCount(EmbeddedBroker.DEFAULT_VIRTUAL_HOST, QUEUE_NAME);
+	}
+
+	private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+		while(!condition.getAsBoolean()) {
+			if(System.currentTimeMillis() > deadline)
+				return false;
+			Thread.sleep(20);
+		}
+		return true;
+	}
+}
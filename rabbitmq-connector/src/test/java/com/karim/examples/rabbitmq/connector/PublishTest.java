@@ -0,0 +1,86 @@
+package com.karim.examples.rabbitmq.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.karim.examples.rabbitmq.broker.EmbeddedBroker;
+import com.karim.examples.rabbitmq.common.enums.ConfirmModeEnum;
+import com.karim.examples.rabbitmq.connector.configures.ConnectionConfigurer;
+import com.karim.examples.rabbitmq.connector.configures.ProducerConfigurer;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.karim.examples.rabbitmq.connector.metrics.AMQPMetrics;
+
+/**
+ * {@link AMQPService#push} against an embedded broker: the confirmed messages reach their
+ * queue and the returned ones fail the push.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public class PublishTest {
+	private static final String QUEUE_NAME = "test.qu.publish";
+
+	private static EmbeddedBroker broker;
+	private AMQPService service;
+
+	@BeforeClass
+	public static void startBroker() throws IOException {
+		broker = new EmbeddedBroker(0, -1).start();
+		broker.declareQueue(EmbeddedBroker.DEFAULT_VIRTUAL_HOST, QUEUE_NAME);
+	}
+
+	@AfterClass
+	public static void stopBroker() {
+		broker.stop();
+	}
+
+	@Before
+	public void openService() throws AMQPCustomException {
+		service = new AMQPService(new ConnectionConfigurer.
+				Builder("test", "localhost", EmbeddedBroker.DEFAULT_VIRTUAL_HOST, "guest", "guest").
+				withPort(broker.getPort()).
+				withNoOfConnections(1).build());
+	}
+
+	@After
+	public void closeService() {
+		service.close();
+	}
+
+	@Test
+	public void pushConfirmed() throws Exception {
+		int messageCount = broker.getMessageCount(EmbeddedBroker.DEFAULT_VIRTUAL_HOST, QUEUE_NAME);
+
+		String messageId = service.push(new ProducerConfigurer.Builder("", QUEUE_NAME).build(), null, "confirmed");
+
+		assertNotNull(messageId);
+		// Confirmed, so already enqueued when the push returns
+		assertEquals(messageCount + 1, broker.getMessageCount(EmbeddedBroker.DEFAULT_VIRTUAL_HOST, QUEUE_NAME));
+	}
+
+	@Test
+	public void pushReturned() throws Exception {
+		try {
+			service.push(new ProducerConfigurer.Builder("", "test.qu.not-exist").build(), null, "returned");
+			fail("The returned message must fail the push");
+		} catch(AMQPCustomException e) {
+			// Expected
+		}
+
+		assertEquals(1L, (long) service.getMetrics().getCounters().get(AMQPMetrics.PUBLISH_RETURNS));
+	}
+
+	@Test(expected = AMQPCustomException.class)
+	public void asyncConfirmModeRejected() throws AMQPCustomException {
+		new ProducerConfigurer.Builder("", QUEUE_NAME).withConfirmMode(ConfirmModeEnum.ASYNC).build();
+	}
+}
@@ -0,0 +1,165 @@
+package com.karim.examples.rabbitmq.connector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.karim.examples.rabbitmq.broker.EmbeddedBroker;
+import com.karim.examples.rabbitmq.connector.configures.ConnectionConfigurer;
+import com.karim.examples.rabbitmq.connector.configures.ConsumerConfigurer;
+import com.karim.examples.rabbitmq.connector.configures.ProducerConfigurer;
+import com.karim.examples.rabbitmq.connector.dedupe.MessageDeduplicator;
+import com.karim.examples.rabbitmq.connector.exceptions.AMQPCustomException;
+import com.karim.examples.rabbitmq.connector.exceptions.TimeoutCustomException;
+import com.karim.examples.rabbitmq.connector.metrics.DedupeMetrics;
+
+/**
+ * The request/reply of {@link AMQPService#pushAndWaitForReply} and
+ * {@link AMQPService#pushAndReceiveAsync} against an embedded broker, with a responder
+ * consuming the requests by {@link AMQPService#setReceiveMessageListener}.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public class RpcTest {
+	private static final String QUEUE_NAME = "test.qu.rpc";
+	private static final String NO_RESPONDER_QUEUE_NAME = "test.qu.rpc.no-responder";
+	private static final String DUPLICATE_QUEUE_NAME = "test.qu.rpc.duplicate";
+	private static final long WAIT_FOR_REPLY_TIMEOUT = 10;
+
+	private static EmbeddedBroker broker;
+	private AMQPService service;
+
+	@BeforeClass
+	public static void startBroker() throws IOException {
+		broker = new EmbeddedBroker(0, -1).start();
+		broker.declareQueue(EmbeddedBroker.DEFAULT_VIRTUAL_HOST, QUEUE_NAME);
+		broker.declareQueue(EmbeddedBroker.DEFAULT_VIRTUAL_HOST, NO_RESPONDER_QUEUE_NAME);
+		broker.declareQueue(EmbeddedBroker.DEFAULT_VIRTUAL_HOST, DUPLICATE_QUEUE_NAME);
+	}
+
+	@AfterClass
+	public static void stopBroker() {
+		broker.stop();
+	}
+
+	@Before
+	public void openService() throws AMQPCustomException {
+		service = new AMQPService(new ConnectionConfigurer.
+				Builder("test", "localhost", EmbeddedBroker.DEFAULT_VIRTUAL_HOST, "guest", "guest").
+				withPort(broker.getPort()).
+				withNoOfConnections(1).build());
+
+		service.setReceiveMessageListener(new ConsumerConfigurer.Builder(QUEUE_NAME).build(),
+				(request, headers) -> "reply to " + request,
+				String.class);
+
+		// Every request is dropped as already processed
+		service.setReceiveMessageListener(new ConsumerConfigurer.Builder(DUPLICATE_QUEUE_NAME).
+				withDeduplicator(new MessageDeduplicator() {
+					@Override
+					public boolean isDuplicate(String messageId) {
+						return true;
+					}
+
+					@Override
+					public void markProcessed(String messageId) {
+					}
+
+					@Override
+					public DedupeMetrics getMetrics() {
+						return null;
+					}
+				}).build(),
+				(request, headers) -> "reply to " + request,
+				String.class);
+	}
+
+	@After
+	public void closeService() {
+		service.close();
+	}
+
+	@Test
+	public void pushAndWaitForReply() throws Exception {
+		String reply = service.pushAndWaitForReply(new ProducerConfigurer.Builder("", QUEUE_NAME).build(),
+				null,
+				"sync request",
+				String.class,
+				WAIT_FOR_REPLY_TIMEOUT);
+
+		assertEquals("reply to sync request", reply);
+	}
+
+	@Test
+	public void pushAndReceiveAsync() throws Exception {
+		String reply = service.pushAndReceiveAsync(new ProducerConfigurer.Builder("", QUEUE_NAME).build(),
+				null,
+				"async request",
+				String.class,
+				WAIT_FOR_REPLY_TIMEOUT).get(WAIT_FOR_REPLY_TIMEOUT, TimeUnit.SECONDS);
+
+		assertEquals("reply to async request", reply);
+	}
+
+	@Test
+	public void sharedConfigurerUnchanged() throws Exception {
+		ProducerConfigurer producerConfigurer = new ProducerConfigurer.Builder("", QUEUE_NAME).build();
+
+		service.pushAndWaitForReply(producerConfigurer, null, "first", String.class, WAIT_FOR_REPLY_TIMEOUT);
+		service.pushAndReceiveAsync(producerConfigurer, null, "second", String.class, WAIT_FOR_REPLY_TIMEOUT).
+				get(WAIT_FOR_REPLY_TIMEOUT, TimeUnit.SECONDS);
+
+		// The requests reply to and correlation id are set on copies
+		assertNull(producerConfigurer.getReplyToQueue());
+		assertNull(producerConfigurer.getCorrelationId());
+	}
+
+	@Test(expected = AMQPCustomException.class)
+	public void pushAndWaitForReplyDuplicate() throws Exception {
+		service.pushAndWaitForReply(new ProducerConfigurer.Builder("", DUPLICATE_QUEUE_NAME).build(),
+				null,
+				"duplicate request",
+				String.class,
+				WAIT_FOR_REPLY_TIMEOUT);
+	}
+
+	@Test
+	public void pushAndReceiveAsyncDuplicate() throws Exception {
+		try {
+			service.pushAndReceiveAsync(new ProducerConfigurer.Builder("", DUPLICATE_QUEUE_NAME).build(),
+					null,
+					"duplicate request",
+					String.class,
+					WAIT_FOR_REPLY_TIMEOUT).get(WAIT_FOR_REPLY_TIMEOUT, TimeUnit.SECONDS);
+			fail("The duplicate request must fail");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof AMQPCustomException);
+		}
+	}
+
+	@Test
+	public void pushAndReceiveAsyncTimeout() throws Exception {
+		try {
+			service.pushAndReceiveAsync(new ProducerConfigurer.Builder("", NO_RESPONDER_QUEUE_NAME).build(),
+					null,
+					"unanswered request",
+					String.class,
+					1).get(WAIT_FOR_REPLY_TIMEOUT, TimeUnit.SECONDS);
+			fail("The unanswered request must time out");
+		} catch(ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutCustomException);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package com.karim.examples.rabbitmq.broker;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.LongString;
+
+/**
+ * Reads the arguments tables of the declarations and the policies definitions, which hold
+ * {@link LongString} and any integer type when received over AMQP, and {@link String},
+ * {@link Integer} and {@link Long} when received as JSON by the management API.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class BrokerArguments {
+	private BrokerArguments() {
+	}
+
+	/**
+	 * @param arguments the arguments, may be null
+	 * @return a copy of the arguments with the AMQP types replaced by the JSON ones
+	 */
+	static Map<String, Object> normalize(Map<String, Object> arguments) {
+		if(arguments == null || arguments.isEmpty())
+			return Collections.emptyMap();
+
+		Map<String, Object> normalized = new HashMap<>();
+		for(Map.Entry<String, Object> entry : arguments.entrySet())
+			normalized.put(entry.getKey(), normalizeValue(entry.getValue()));
+		return Collections.unmodifiableMap(normalized);
+	}
+
+	@SuppressWarnings("unchecked")
+	static Object normalizeValue(Object value) {
+		if(value instanceof LongString || value instanceof byte[])
+			return value.toString();
+		if(value instanceof Byte || value instanceof Short || value instanceof Integer)
+			return ((Number) value).longValue();
+		if(value instanceof Map)
+			return normalize((Map<String, Object>) value);
+		if(value instanceof List) {
+			List<Object> list = new ArrayList<>();
+			for(Object item : (List<Object>) value)
+				list.add(normalizeValue(item));
+			return list;
+		}
+		return value;
+	}
+
+	/**
+	 * @param arguments	the normalized arguments
+	 * @param name		the argument name
+	 * @return the string argument, or null if not exist
+	 * @throws BrokerException if the argument is not a string
+	 */
+	static String getString(Map<String, Object> arguments, String name) throws BrokerException {
+		Object value = arguments.get(name);
+		if(value == null || value instanceof String)
+			return (String) value;
+		throw new BrokerException(AMQP.PRECONDITION_FAILED,
+				"invalid arg '" + name + "' for " + value);
+	}
+
+	/**
+	 * @param arguments	the normalized arguments
+	 * @param name		the argument name
+	 * @return the non-negative integer argument, or null if not exist
+	 * @throws BrokerException if the argument is not a non-negative integer
+	 */
+	static Long getLong(Map<String, Object> arguments, String name) throws BrokerException {
+		Object value = arguments.get(name);
+		if(value == null)
+			return null;
+		if(value instanceof Long && (Long) value >= 0)
+			return (Long) value;
+		throw new BrokerException(AMQP.PRECONDITION_FAILED,
+				"invalid arg '" + name + "' for " + value);
+	}
+
+	/**
+	 * Whether two declarations of the same resource have the same arguments, only the
+	 * arguments starting by "x-" count as the broker does
+	 *
+	 * @param first		the normalized arguments of the existing resource
+	 * @param second	the normalized arguments of the new declaration
+	 * @return the name of the first different argument, or null if equivalent
+	 */
+	static String findInequivalent(Map<String, Object> first, Map<String, Object> second) {
+		for(Map.Entry<String, Object> entry : first.entrySet())
+			if(entry.getKey().startsWith("x-") && !entry.getValue().equals(second.get(entry.getKey())))
+				return entry.getKey();
+		for(String name : second.keySet())
+			if(name.startsWith("x-") && !first.containsKey(name))
+				return name;
+		return null;
+	}
+}
@@ -0,0 +1,83 @@
+package com.karim.examples.rabbitmq.broker;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Binding of a queue, or of an exchange, to a source exchange.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class BrokerBinding {
+	private final BrokerExchange _source;
+	// The destination, either a queue or an exchange
+	private final BrokerQueue _queue;
+	private final BrokerExchange _exchange;
+	private final String _routingKey;
+	// Normalized arguments, used by the headers exchange
+	private final Map<String, Object> _arguments;
+
+	private BrokerBinding(BrokerExchange source, BrokerQueue queue, BrokerExchange exchange,
+			String routingKey, Map<String, Object> arguments) {
+		this._source = source;
+		this._queue = queue;
+		this._exchange = exchange;
+		this._routingKey = routingKey == null? "" : routingKey;
+		this._arguments = BrokerArguments.normalize(arguments);
+	}
+
+	static BrokerBinding toQueue(BrokerExchange source, BrokerQueue queue, String routingKey, Map<String, Object> arguments) {
+		return new BrokerBinding(source, queue, null, routingKey, arguments);
+	}
+
+	static BrokerBinding toExchange(BrokerExchange source, BrokerExchange exchange, String routingKey, Map<String, Object> arguments) {
+		return new BrokerBinding(source, null, exchange, routingKey, arguments);
+	}
+
+	BrokerExchange getSource() {
+		return _source;
+	}
+
+	/**
+	 * @return the destination queue, or null if bound to an exchange
+	 */
+	BrokerQueue getQueue() {
+		return _queue;
+	}
+
+	/**
+	 * @return the destination exchange, or null if bound to a queue
+	 */
+	BrokerExchange getExchange() {
+		return _exchange;
+	}
+
+	String getDestinationName() {
+		return _queue != null? _queue.getName() : _exchange.getName();
+	}
+
+	String getRoutingKey() {
+		return _routingKey;
+	}
+
+	Map<String, Object> getArguments() {
+		return _arguments;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if(this == obj)
+			return true;
+		if(!(obj instanceof BrokerBinding))
+			return false;
+		BrokerBinding other = (BrokerBinding) obj;
+		return _source == other._source && _queue == other._queue && _exchange == other._exchange
+				&& _routingKey.equals(other._routingKey) && _arguments.equals(other._arguments);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(_source.getName(), getDestinationName(), _routingKey);
+	}
+}
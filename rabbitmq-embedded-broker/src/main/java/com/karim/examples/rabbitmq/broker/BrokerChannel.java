@@ -0,0 +1,373 @@
+package com.karim.examples.rabbitmq.broker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.impl.AMQCommand;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.Method;
+
+/**
+ * Channel of a client connection handling the exchange, queue, basic and confirm class
+ * methods. The methods are handled on the connection thread, while the deliveries are
+ * sent by the thread routing or settling the messages.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class BrokerChannel {
+	private enum Outcome { ACK, REQUEUE, REJECT }
+
+	private final BrokerConnection _connection;
+	private final int _number;
+	private final VirtualHost _virtualHost;
+
+	// Set once the channel closed by the client or the broker
+	private volatile boolean _closed;
+	private volatile boolean _flowActive = true;
+
+	// Handled on the connection thread only
+	private boolean _confirmMode;
+	private long _publishSeqNo;
+	// Prefetch count of the next consumers
+	private int _prefetchCount;
+	// Name of the last queue declared, used when a method has an empty queue name
+	private String _lastQueueName = "";
+
+	// Prefetch count of the channel as a whole, 0 for unlimited
+	private volatile int _globalPrefetchCount;
+	// Guarded by this, the delivery tag is allocated and sent in order
+	private long _deliveryTag;
+	private final ConcurrentSkipListMap<Long, Delivery> _unacknowledged = new ConcurrentSkipListMap<>();
+	private final AtomicInteger _unacknowledgedCount = new AtomicInteger();
+	private final ConcurrentMap<String, BrokerConsumer> _consumers = new ConcurrentHashMap<>();
+
+	/**
+	 * @param connection	the channel connection
+	 * @param number		the channel number
+	 * @param virtualHost	the connection virtual host
+	 */
+	BrokerChannel(BrokerConnection connection, int number, VirtualHost virtualHost) {
+		this._connection = connection;
+		this._number = number;
+		this._virtualHost = virtualHost;
+	}
+
+	int getNumber() {
+		return _number;
+	}
+
+	/**
+	 * Handle a method of the exchange, queue, basic, confirm or tx class
+	 *
+	 * @param command the assembled method with its content if any
+	 * @throws BrokerException if the method failed, closing the channel or the connection
+	 */
+	void handle(AMQCommand command) throws BrokerException {
+		Method method = command.getMethod();
+		if(method instanceof AMQP.Basic.Publish) {
+			publish((AMQP.Basic.Publish) method, (BasicProperties) command.getContentHeader(), command.getContentBody());
+		} else if(method instanceof AMQP.Basic.Ack) {
+			AMQP.Basic.Ack ack = (AMQP.Basic.Ack) method;
+			settle(ack.getDeliveryTag(), ack.getMultiple(), Outcome.ACK);
+		} else if(method instanceof AMQP.Basic.Nack) {
+			AMQP.Basic.Nack nack = (AMQP.Basic.Nack) method;
+			settle(nack.getDeliveryTag(), nack.getMultiple(), nack.getRequeue()? Outcome.REQUEUE : Outcome.REJECT);
+		} else if(method instanceof AMQP.Basic.Reject) {
+			AMQP.Basic.Reject reject = (AMQP.Basic.Reject) method;
+			settle(reject.getDeliveryTag(), false, reject.getRequeue()? Outcome.REQUEUE : Outcome.REJECT);
+		} else if(method instanceof AMQP.Basic.Consume) {
+			consume((AMQP.Basic.Consume) method);
+		} else if(method instanceof AMQP.Basic.Cancel) {
+			cancel((AMQP.Basic.Cancel) method);
+		} else if(method instanceof AMQP.Basic.Get) {
+			get((AMQP.Basic.Get) method);
+		} else if(method instanceof AMQP.Basic.Qos) {
+			AMQP.Basic.Qos qos = (AMQP.Basic.Qos) method;
+			if(qos.getGlobal())
+				_globalPrefetchCount = qos.getPrefetchCount();
+			else
+				_prefetchCount = qos.getPrefetchCount();
+			_connection.send(_number, new AMQImpl.Basic.QosOk());
+		} else if(method instanceof AMQP.Basic.Recover) {
+			settle(0, true, Outcome.REQUEUE);
+			_connection.send(_number, new AMQImpl.Basic.RecoverOk());
+		} else if(method instanceof AMQP.Basic.RecoverAsync) {
+			settle(0, true, Outcome.REQUEUE);
+		} else if(method instanceof AMQP.Queue.Declare) {
+			declareQueue((AMQP.Queue.Declare) method);
+		} else if(method instanceof AMQP.Queue.Bind) {
+			AMQP.Queue.Bind bind = (AMQP.Queue.Bind) method;
+			_virtualHost.bindQueue(queueName(bind.getQueue()), bind.getExchange(), bind.getRoutingKey(), bind.getArguments(), _connection);
+			if(!bind.getNowait())
+				_connection.send(_number, new AMQImpl.Queue.BindOk());
+		} else if(method instanceof AMQP.Queue.Unbind) {
+			AMQP.Queue.Unbind unbind = (AMQP.Queue.Unbind) method;
+			_virtualHost.unbindQueue(queueName(unbind.getQueue()), unbind.getExchange(), unbind.getRoutingKey(), unbind.getArguments(), _connection);
+			_connection.send(_number, new AMQImpl.Queue.UnbindOk());
+		} else if(method instanceof AMQP.Queue.Purge) {
+			AMQP.Queue.Purge purge = (AMQP.Queue.Purge) method;
+			int count = _virtualHost.getQueue(queueName(purge.getQueue()), _connection).purge();
+			if(!purge.getNowait())
+				_connection.send(_number, new AMQImpl.Queue.PurgeOk(count));
+		} else if(method instanceof AMQP.Queue.Delete) {
+			AMQP.Queue.Delete delete = (AMQP.Queue.Delete) method;
+			int count = _virtualHost.deleteQueue(queueName(delete.getQueue()), delete.getIfUnused(), delete.getIfEmpty(), _connection);
+			if(!delete.getNowait())
+				_connection.send(_number, new AMQImpl.Queue.DeleteOk(count));
+		} else if(method instanceof AMQP.Exchange.Declare) {
+			AMQP.Exchange.Declare declare = (AMQP.Exchange.Declare) method;
+			_virtualHost.declareExchange(declare.getExchange(), declare.getType(), declare.getPassive(), declare.getDurable(),
+					declare.getAutoDelete(), declare.getInternal(), declare.getArguments());
+			if(!declare.getNowait())
+				_connection.send(_number, new AMQImpl.Exchange.DeclareOk());
+		} else if(method instanceof AMQP.Exchange.Delete) {
+			AMQP.Exchange.Delete delete = (AMQP.Exchange.Delete) method;
+			_virtualHost.deleteExchange(delete.getExchange(), delete.getIfUnused());
+			if(!delete.getNowait())
+				_connection.send(_number, new AMQImpl.Exchange.DeleteOk());
+		} else if(method instanceof AMQP.Exchange.Bind) {
+			AMQP.Exchange.Bind bind = (AMQP.Exchange.Bind) method;
+			_virtualHost.bindExchange(bind.getDestination(), bind.getSource(), bind.getRoutingKey(), bind.getArguments());
+			if(!bind.getNowait())
+				_connection.send(_number, new AMQImpl.Exchange.BindOk());
+		} else if(method instanceof AMQP.Exchange.Unbind) {
+			AMQP.Exchange.Unbind unbind = (AMQP.Exchange.Unbind) method;
+			_virtualHost.unbindExchange(unbind.getDestination(), unbind.getSource(), unbind.getRoutingKey(), unbind.getArguments());
+			if(!unbind.getNowait())
+				_connection.send(_number, new AMQImpl.Exchange.UnbindOk());
+		} else if(method instanceof AMQP.Confirm.Select) {
+			_confirmMode = true;
+			if(!((AMQP.Confirm.Select) method).getNowait())
+				_connection.send(_number, new AMQImpl.Confirm.SelectOk());
+		} else if(method instanceof AMQP.Channel.Flow) {
+			boolean active = ((AMQP.Channel.Flow) method).getActive();
+			_flowActive = active;
+			_connection.send(_number, new AMQImpl.Channel.FlowOk(active));
+			if(active)
+				resumeQueues(new LinkedHashSet<>());
+		} else if(method instanceof AMQP.Tx.Select) {
+			throw BrokerException.connectionError(AMQP.NOT_IMPLEMENTED, "transactions not supported by the embedded broker");
+		} else {
+			throw BrokerException.connectionError(AMQP.COMMAND_INVALID, "unexpected method " + method.protocolMethodName());
+		}
+	}
+
+	/**
+	 * @return true if the channel consumers can take a delivery, as its flow and prefetch allow
+	 */
+	boolean canDeliver() {
+		int globalPrefetchCount = _globalPrefetchCount;
+		return !_closed && _flowActive
+				&& (globalPrefetchCount == 0 || _unacknowledgedCount.get() < globalPrefetchCount);
+	}
+
+	/**
+	 * Send a message to a consumer, called by the queue
+	 *
+	 * @param consumer	the consumer
+	 * @param message	the queue head message
+	 * @return false if the channel closed meanwhile, so the message stays in the queue
+	 */
+	synchronized boolean deliver(BrokerConsumer consumer, BrokerQueue.QueuedMessage message) {
+		if(_closed)
+			return false;
+
+		long deliveryTag = ++_deliveryTag;
+		if(!consumer.isNoAck())
+			addUnacknowledged(deliveryTag, new Delivery(consumer.getQueue(), consumer, message));
+
+		BrokerMessage brokerMessage = message.getMessage();
+		_connection.send(_number, new AMQImpl.Basic.Deliver(consumer.getTag(), deliveryTag, message.isRedelivered(),
+				brokerMessage.getExchange(), brokerMessage.getRoutingKey()),
+				brokerMessage.getProperties(), brokerMessage.getBody());
+		return true;
+	}
+
+	/**
+	 * Cancel a consumer of a deleted queue, notifying the client
+	 *
+	 * @param consumer the consumer
+	 */
+	void cancelConsumer(BrokerConsumer consumer) {
+		if(!_closed && _consumers.remove(consumer.getTag(), consumer))
+			_connection.send(_number, new AMQImpl.Basic.Cancel(consumer.getTag(), true));
+	}
+
+	/**
+	 * Close the channel, cancel its consumers and requeue its unacknowledged messages
+	 */
+	void release() {
+		synchronized (this) {
+			if(_closed)
+				return;
+			_closed = true;
+		}
+
+		for(BrokerConsumer consumer : _consumers.values())
+			consumer.getQueue().removeConsumer(consumer);
+		_consumers.clear();
+		settleAll(new ArrayList<>(_unacknowledged.values()), Outcome.REQUEUE, new LinkedHashSet<>());
+		_unacknowledged.clear();
+	}
+
+	private void publish(AMQP.Basic.Publish publish, BasicProperties properties, byte[] body) throws BrokerException {
+		if(properties != null && properties.getExpiration() != null) {
+			try {
+				if(Long.parseLong(properties.getExpiration()) < 0)
+					throw new NumberFormatException();
+			} catch (NumberFormatException e) {
+				throw new BrokerException(AMQP.PRECONDITION_FAILED, "invalid expiration '" + properties.getExpiration() + "'");
+			}
+		}
+
+		BrokerMessage message = new BrokerMessage(publish.getExchange(), publish.getRoutingKey(), properties, body);
+		boolean routed = _virtualHost.publish(publish.getExchange(), message);
+		if(!routed && publish.getMandatory())
+			_connection.send(_number, new AMQImpl.Basic.Return(AMQP.NO_ROUTE, "NO_ROUTE", publish.getExchange(), publish.getRoutingKey()),
+					message.getProperties(), message.getBody());
+		if(_confirmMode)
+			_connection.send(_number, new AMQImpl.Basic.Ack(++_publishSeqNo, false));
+	}
+
+	private void declareQueue(AMQP.Queue.Declare declare) throws BrokerException {
+		BrokerQueue queue = _virtualHost.declareQueue(declare.getQueue(), declare.getPassive(), declare.getDurable(),
+				declare.getExclusive(), declare.getAutoDelete(), declare.getArguments(), _connection);
+		_lastQueueName = queue.getName();
+		if(!declare.getNowait())
+			_connection.send(_number, new AMQImpl.Queue.DeclareOk(queue.getName(), queue.getMessageCount(), queue.getConsumerCount()));
+	}
+
+	private void consume(AMQP.Basic.Consume consume) throws BrokerException {
+		BrokerQueue queue = _virtualHost.getQueue(queueName(consume.getQueue()), _connection);
+		String tag = consume.getConsumerTag().isEmpty()? "amq.ctag-" + UUID.randomUUID() : consume.getConsumerTag();
+		if(_consumers.containsKey(tag))
+			throw BrokerException.connectionError(AMQP.NOT_ALLOWED, "attempt to reuse consumer tag '" + tag + "'");
+
+		BrokerConsumer consumer = new BrokerConsumer(this, queue, tag, consume.getNoAck(), consume.getExclusive(), _prefetchCount);
+		queue.addConsumer(consumer);
+		_consumers.put(tag, consumer);
+		if(!consume.getNowait())
+			_connection.send(_number, new AMQImpl.Basic.ConsumeOk(tag));
+		queue.resume();
+	}
+
+	private void cancel(AMQP.Basic.Cancel cancel) {
+		BrokerConsumer consumer = _consumers.remove(cancel.getConsumerTag());
+		if(consumer != null)
+			consumer.getQueue().removeConsumer(consumer);
+		if(!cancel.getNowait())
+			_connection.send(_number, new AMQImpl.Basic.CancelOk(cancel.getConsumerTag()));
+	}
+
+	private void get(AMQP.Basic.Get get) throws BrokerException {
+		BrokerQueue queue = _virtualHost.getQueue(queueName(get.getQueue()), _connection);
+		BrokerQueue.QueuedMessage message = queue.poll();
+		if(message == null) {
+			_connection.send(_number, new AMQImpl.Basic.GetEmpty(""));
+			return;
+		}
+
+		BrokerMessage brokerMessage = message.getMessage();
+		synchronized (this) {
+			long deliveryTag = ++_deliveryTag;
+			if(!get.getNoAck())
+				addUnacknowledged(deliveryTag, new Delivery(queue, null, message));
+			_connection.send(_number, new AMQImpl.Basic.GetOk(deliveryTag, message.isRedelivered(),
+					brokerMessage.getExchange(), brokerMessage.getRoutingKey(), queue.getMessageCount()),
+					brokerMessage.getProperties(), brokerMessage.getBody());
+		}
+	}
+
+	private void addUnacknowledged(long deliveryTag, Delivery delivery) {
+		_unacknowledged.put(deliveryTag, delivery);
+		_unacknowledgedCount.incrementAndGet();
+	}
+
+	/**
+	 * Acknowledge, requeue or reject a delivery, or all the deliveries up to the tag if
+	 * multiple, all the deliveries if the tag is 0
+	 */
+	private void settle(long deliveryTag, boolean multiple, Outcome outcome) throws BrokerException {
+		List<Delivery> deliveries = new ArrayList<>();
+		if(multiple) {
+			if(deliveryTag != 0 && !_unacknowledged.containsKey(deliveryTag))
+				throw new BrokerException(AMQP.PRECONDITION_FAILED, "unknown delivery tag " + deliveryTag);
+			NavigableMap<Long, Delivery> settled = deliveryTag == 0? _unacknowledged : _unacknowledged.headMap(deliveryTag, true);
+			deliveries.addAll(settled.values());
+			settled.clear();
+		} else {
+			Delivery delivery = _unacknowledged.remove(deliveryTag);
+			if(delivery == null)
+				throw new BrokerException(AMQP.PRECONDITION_FAILED, "unknown delivery tag " + deliveryTag);
+			deliveries.add(delivery);
+		}
+
+		Set<BrokerQueue> queues = new LinkedHashSet<>();
+		settleAll(deliveries, outcome, queues);
+		resumeQueues(queues);
+	}
+
+	private void settleAll(Collection<Delivery> deliveries, Outcome outcome, Set<BrokerQueue> queues) {
+		// Requeued per queue in delivery order
+		Map<BrokerQueue, List<BrokerQueue.QueuedMessage>> requeued = new LinkedHashMap<>();
+		for(Delivery delivery : deliveries) {
+			_unacknowledgedCount.decrementAndGet();
+			if(delivery._consumer != null)
+				delivery._consumer.settled();
+			queues.add(delivery._queue);
+
+			if(outcome == Outcome.REQUEUE)
+				requeued.computeIfAbsent(delivery._queue, queue -> new ArrayList<>()).add(delivery._message);
+			else if(outcome == Outcome.REJECT)
+				delivery._queue.reject(delivery._message);
+		}
+		for(Map.Entry<BrokerQueue, List<BrokerQueue.QueuedMessage>> entry : requeued.entrySet())
+			entry.getKey().requeue(entry.getValue());
+	}
+
+	/**
+	 * Resume the settled queues and the channel consumers queues, as the channel prefetch
+	 * may have blocked them
+	 */
+	private void resumeQueues(Set<BrokerQueue> queues) {
+		for(BrokerConsumer consumer : _consumers.values())
+			queues.add(consumer.getQueue());
+		for(BrokerQueue queue : queues)
+			queue.resume();
+	}
+
+	private String queueName(String queueName) {
+		return queueName.isEmpty()? _lastQueueName : queueName;
+	}
+
+	////////////////////////////////////////
+	/**
+	 * Delivery waiting for the client acknowledgement
+	 */
+	private static final class Delivery {
+		private final BrokerQueue _queue;
+		// Null for a basic.get delivery
+		private final BrokerConsumer _consumer;
+		private final BrokerQueue.QueuedMessage _message;
+
+		Delivery(BrokerQueue queue, BrokerConsumer consumer, BrokerQueue.QueuedMessage message) {
+			this._queue = queue;
+			this._consumer = consumer;
+			this._message = message;
+		}
+	}
+}
@@ -0,0 +1,400 @@
+package com.karim.examples.rabbitmq.broker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.UnexpectedFrameError;
+import com.rabbitmq.client.impl.AMQCommand;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.rabbitmq.client.impl.Frame;
+import com.rabbitmq.client.impl.LongStringHelper;
+import com.rabbitmq.client.impl.Method;
+
+/**
+ * Client connection of the embedded broker, reading and handling the client frames on its
+ * own thread. The AMQP 0-9-1 frames and methods are encoded and decoded by the amqp-client
+ * implementation classes, so the wire format is the one the client expects.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class BrokerConnection implements Runnable {
+	private static final Logger LOGGER = Logger.getLogger(BrokerConnection.class);
+
+	private static final byte[] PROTOCOL_HEADER = { 'A', 'M', 'Q', 'P', 0, 0, 9, 1 };
+	// Tune values proposed to the client
+	private static final int CHANNEL_MAX = 2047;
+	private static final int FRAME_MAX = 131072;
+	private static final int HEARTBEAT = 60;
+	// Missed heartbeat intervals before the connection considered dead
+	private static final int MAX_MISSED_HEARTBEATS = 2;
+
+	private final EmbeddedBroker _broker;
+	private final Socket _socket;
+	private final DataInputStream _in;
+	// Guarded by itself, a command frames are written together
+	private final DataOutputStream _out;
+
+	private final Map<Integer, BrokerChannel> _channels = new ConcurrentHashMap<>();
+	// Channels closed by the broker waiting for the client close-ok
+	private final Map<Integer, Boolean> _closingChannels = new ConcurrentHashMap<>();
+	// Commands being assembled from their frames per channel, read on the connection thread only
+	private final Map<Integer, AMQCommand> _assembling = new HashMap<>();
+
+	private volatile VirtualHost _virtualHost;
+	private volatile String _name;
+	private volatile int _frameMax = FRAME_MAX;
+	// Set once the connection.close sent, the connection waits for the client close-ok
+	private volatile boolean _closing;
+	private volatile ScheduledFuture<?> _heartbeats;
+
+	/**
+	 * @param broker the embedded broker
+	 * @param socket the accepted client socket
+	 * @throws IOException if the socket streams can't be opened
+	 */
+	BrokerConnection(EmbeddedBroker broker, Socket socket) throws IOException {
+		this._broker = broker;
+		this._socket = socket;
+		this._in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		this._out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		this._name = String.valueOf(socket.getRemoteSocketAddress());
+		socket.setTcpNoDelay(true);
+	}
+
+	/**
+	 * @return the client provided connection name, or the client address
+	 */
+	String getName() {
+		return _name;
+	}
+
+	VirtualHost getVirtualHost() {
+		return _virtualHost;
+	}
+
+	@Override
+	public void run() {
+		try {
+			byte[] header = new byte[PROTOCOL_HEADER.length];
+			_in.readFully(header);
+			if(!Arrays.equals(header, PROTOCOL_HEADER)) {
+				synchronized (_out) {
+					_out.write(PROTOCOL_HEADER);
+					_out.flush();
+				}
+				return;
+			}
+
+			send(0, new AMQImpl.Connection.Start(0, 9, serverProperties(),
+					LongStringHelper.asLongString("PLAIN AMQPLAIN"), LongStringHelper.asLongString("en_US")));
+
+			int missedHeartbeats = 0;
+			while(!_socket.isClosed()) {
+				Frame frame = Frame.readFrom(_in);
+				if(frame == null) {
+					// Read timeout of a heartbeat interval
+					if(++missedHeartbeats > MAX_MISSED_HEARTBEATS) {
+						LOGGER.warn("Missed heartbeats from connection " + _name + ", closing it");
+						return;
+					}
+					continue;
+				}
+				missedHeartbeats = 0;
+
+				if(!handleFrame(frame))
+					return;
+			}
+		} catch (EOFException | SocketException e) {
+			LOGGER.debug("Connection " + _name + " closed: " + e.getMessage());
+		} catch (IOException | RuntimeException e) {
+			LOGGER.error("Connection " + _name + " failed: " + e.getMessage(), e);
+		} finally {
+			release();
+		}
+	}
+
+	/**
+	 * @return false once the connection closed
+	 */
+	private boolean handleFrame(Frame frame) throws IOException {
+		if(frame.type == AMQP.FRAME_HEARTBEAT)
+			return true;
+
+		Method method = null;
+		try {
+			if(frame.channel == 0) {
+				if(frame.type != AMQP.FRAME_METHOD)
+					throw BrokerException.connectionError(AMQP.UNEXPECTED_FRAME, "unexpected frame type " + frame.type + " on channel 0");
+				method = AMQImpl.readMethodFrom(frame.getInputStream());
+				return handleConnectionMethod(method);
+			}
+			if(_closing)
+				return true;
+
+			AMQCommand command = _assembling.computeIfAbsent(frame.channel, channel -> new AMQCommand());
+			if(!command.handleFrame(frame))
+				return true;
+			_assembling.remove(frame.channel);
+			method = command.getMethod();
+			handleChannelCommand(frame.channel, command);
+		} catch (UnexpectedFrameError e) {
+			closeWithError(BrokerException.connectionError(AMQP.UNEXPECTED_FRAME, e.getMessage()), method);
+		} catch (BrokerException e) {
+			closeWithError(e, method);
+		}
+		return true;
+	}
+
+	private boolean handleConnectionMethod(Method method) throws BrokerException {
+		if(method instanceof AMQP.Connection.StartOk) {
+			AMQP.Connection.StartOk startOk = (AMQP.Connection.StartOk) method;
+			if(!startOk.getMechanism().equals("PLAIN") && !startOk.getMechanism().equals("AMQPLAIN"))
+				throw BrokerException.connectionError(AMQP.ACCESS_REFUSED, "unsupported mechanism " + startOk.getMechanism());
+			Object connectionName = startOk.getClientProperties() == null? null : startOk.getClientProperties().get("connection_name");
+			if(connectionName != null)
+				_name = connectionName + " (" + _socket.getRemoteSocketAddress() + ")";
+			send(0, new AMQImpl.Connection.Tune(CHANNEL_MAX, FRAME_MAX, HEARTBEAT));
+		} else if(method instanceof AMQP.Connection.TuneOk) {
+			AMQP.Connection.TuneOk tuneOk = (AMQP.Connection.TuneOk) method;
+			if(tuneOk.getFrameMax() > 0)
+				_frameMax = tuneOk.getFrameMax();
+			startHeartbeats(tuneOk.getHeartbeat());
+		} else if(method instanceof AMQP.Connection.Open) {
+			String virtualHostName = ((AMQP.Connection.Open) method).getVirtualHost();
+			VirtualHost virtualHost = _broker.getVirtualHost(virtualHostName);
+			if(virtualHost == null)
+				throw BrokerException.connectionError(AMQP.NOT_ALLOWED, "vhost '" + virtualHostName + "' not found");
+			_virtualHost = virtualHost;
+			send(0, new AMQImpl.Connection.OpenOk(""));
+			String alarm = _broker.getResourceAlarm();
+			if(alarm != null)
+				send(0, new AMQImpl.Connection.Blocked(alarm));
+		} else if(method instanceof AMQP.Connection.Close) {
+			send(0, new AMQImpl.Connection.CloseOk());
+			return false;
+		} else if(method instanceof AMQP.Connection.CloseOk) {
+			return false;
+		} else if(!_closing) {
+			throw BrokerException.connectionError(AMQP.COMMAND_INVALID, "unexpected method " + method.protocolMethodName() + " on channel 0");
+		}
+		return true;
+	}
+
+	private void handleChannelCommand(int channelNumber, AMQCommand command) throws BrokerException {
+		Method method = command.getMethod();
+		if(_closingChannels.containsKey(channelNumber)) {
+			// Only the close handshake is handled on a channel closed by the broker
+			if(method instanceof AMQP.Channel.CloseOk || method instanceof AMQP.Channel.Close)
+				_closingChannels.remove(channelNumber);
+			return;
+		}
+		if(_virtualHost == null)
+			throw BrokerException.connectionError(AMQP.COMMAND_INVALID, "channel opened before connection.open");
+
+		BrokerChannel channel = _channels.get(channelNumber);
+		if(method instanceof AMQP.Channel.Open) {
+			if(channel != null)
+				throw BrokerException.connectionError(AMQP.CHANNEL_ERROR, "second 'channel.open' seen");
+			if(channelNumber > CHANNEL_MAX)
+				throw BrokerException.connectionError(AMQP.NOT_ALLOWED, "channel number " + channelNumber + " above channel max");
+			_channels.put(channelNumber, new BrokerChannel(this, channelNumber, _virtualHost));
+			send(channelNumber, new AMQImpl.Channel.OpenOk(LongStringHelper.asLongString("")));
+			return;
+		}
+		if(channel == null)
+			throw BrokerException.connectionError(AMQP.CHANNEL_ERROR, "expected 'channel.open' on channel " + channelNumber);
+
+		if(method instanceof AMQP.Channel.Close) {
+			_channels.remove(channelNumber);
+			channel.release();
+			send(channelNumber, new AMQImpl.Channel.CloseOk());
+			return;
+		}
+
+		// Stop reading the connection on a publish while the resource alarm is set, as the broker does
+		if(method instanceof AMQP.Basic.Publish)
+			_broker.awaitResourceAlarmCleared(this);
+
+		try {
+			channel.handle(command);
+		} catch (BrokerException e) {
+			if(e.isConnectionError())
+				throw e;
+
+			// Channel error, the client replies by close-ok
+			_channels.remove(channelNumber);
+			_closingChannels.put(channelNumber, Boolean.TRUE);
+			channel.release();
+			send(channelNumber, new AMQImpl.Channel.Close(e.getReplyCode(), e.getReplyText(),
+					method.protocolClassId(), method.protocolMethodId()));
+		}
+	}
+
+	private void closeWithError(BrokerException e, Method method) {
+		LOGGER.warn("Closing connection " + _name + ": " + e.getReplyText());
+		close(e.getReplyCode(), e.getReplyText(),
+				method == null? 0 : method.protocolClassId(),
+				method == null? 0 : method.protocolMethodId());
+	}
+
+	/**
+	 * Notify the client that the connection is blocked or unblocked by the resource alarm
+	 *
+	 * @param alarm the alarm reason, null once cleared
+	 */
+	void resourceAlarm(String alarm) {
+		if(_virtualHost == null || _closing)
+			return;
+		send(0, alarm == null? new AMQImpl.Connection.Unblocked() : new AMQImpl.Connection.Blocked(alarm));
+	}
+
+	boolean isClosed() {
+		return _socket.isClosed();
+	}
+
+	/**
+	 * Close the connection by the broker, the client replies by close-ok
+	 *
+	 * @param reason the reason sent to the client
+	 */
+	void forceClose(String reason) {
+		close(AMQP.CONNECTION_FORCED, "CONNECTION_FORCED - " + reason, 0, 0);
+	}
+
+	private void close(int replyCode, String replyText, int classId, int methodId) {
+		if(_closing)
+			return;
+		_closing = true;
+		releaseChannels();
+		send(0, new AMQImpl.Connection.Close(replyCode, replyText, classId, methodId));
+	}
+
+	/**
+	 * Send a method without content
+	 *
+	 * @param channel	the channel number
+	 * @param method	the method
+	 */
+	void send(int channel, Method method) {
+		synchronized (_out) {
+			try {
+				method.toFrame(channel).writeTo(_out);
+				_out.flush();
+			} catch (IOException e) {
+				closeSocket();
+			}
+		}
+	}
+
+	/**
+	 * Send a method with its content, the body split to the negotiated frame max
+	 *
+	 * @param channel		the channel number
+	 * @param method		the method
+	 * @param properties	the content properties
+	 * @param body			the content body
+	 */
+	void send(int channel, Method method, BasicProperties properties, byte[] body) {
+		synchronized (_out) {
+			try {
+				method.toFrame(channel).writeTo(_out);
+				properties.toFrame(channel, body.length).writeTo(_out);
+				int maxBodySize = _frameMax - AMQCommand.EMPTY_FRAME_SIZE;
+				for(int offset = 0; offset < body.length; offset += maxBodySize)
+					Frame.fromBodyFragment(channel, body, offset, Math.min(maxBodySize, body.length - offset)).writeTo(_out);
+				_out.flush();
+			} catch (IOException e) {
+				closeSocket();
+			}
+		}
+	}
+
+	private void startHeartbeats(int heartbeat) {
+		if(heartbeat <= 0)
+			return;
+		try {
+			// A read timeout per heartbeat interval counts the missed heartbeats
+			_socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(heartbeat));
+		} catch (SocketException e) {
+			closeSocket();
+			return;
+		}
+
+		long interval = Math.max(1, TimeUnit.SECONDS.toMillis(heartbeat) / 2);
+		_heartbeats = _broker.getTimer().scheduleAtFixedRate(() -> {
+			synchronized (_out) {
+				try {
+					new Frame(AMQP.FRAME_HEARTBEAT, 0).writeTo(_out);
+					_out.flush();
+				} catch (IOException e) {
+					closeSocket();
+				}
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	private void releaseChannels() {
+		for(BrokerChannel channel : _channels.values())
+			channel.release();
+		_channels.clear();
+	}
+
+	private void release() {
+		ScheduledFuture<?> heartbeats = _heartbeats;
+		if(heartbeats != null)
+			heartbeats.cancel(false);
+
+		releaseChannels();
+		VirtualHost virtualHost = _virtualHost;
+		if(virtualHost != null)
+			virtualHost.deleteExclusiveQueues(this);
+		closeSocket();
+		_broker.connectionClosed(this);
+	}
+
+	/**
+	 * Close the socket without the close handshake, the connection thread releases the
+	 * connection resources
+	 */
+	void closeSocket() {
+		try {
+			_socket.close();
+		} catch (IOException e) {
+			LOGGER.debug("Error during closing connection " + _name + ": " + e.getMessage());
+		}
+	}
+
+	private static Map<String, Object> serverProperties() {
+		Map<String, Object> capabilities = new HashMap<>();
+		capabilities.put("publisher_confirms", true);
+		capabilities.put("exchange_exchange_bindings", true);
+		capabilities.put("basic.nack", true);
+		capabilities.put("consumer_cancel_notify", true);
+		capabilities.put("connection.blocked", true);
+		capabilities.put("per_consumer_qos", true);
+
+		Map<String, Object> properties = new HashMap<>();
+		properties.put("product", LongStringHelper.asLongString("Embedded Broker"));
+		properties.put("version", LongStringHelper.asLongString(EmbeddedBroker.VERSION));
+		properties.put("platform", LongStringHelper.asLongString("Java " + System.getProperty("java.version")));
+		properties.put("capabilities", capabilities);
+		return properties;
+	}
+}
@@ -0,0 +1,92 @@
+package com.karim.examples.rabbitmq.broker;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Consumer of a queue registered by a channel, limited by its prefetch count unless it
+ * consumes without acknowledgement.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class BrokerConsumer {
+	private final BrokerChannel _channel;
+	private final BrokerQueue _queue;
+	private final String _tag;
+	private final boolean _noAck;
+	private final boolean _exclusive;
+	// Max unacknowledged deliveries, 0 for unlimited
+	private final int _prefetchCount;
+
+	// Deliveries not acknowledged yet
+	private final AtomicInteger _unacknowledged = new AtomicInteger();
+
+	/**
+	 * @param channel		the channel consuming
+	 * @param queue			the consumed queue
+	 * @param tag			the consumer tag, unique in the channel
+	 * @param noAck			true if the deliveries are acknowledged once sent
+	 * @param exclusive		true if the only consumer of the queue
+	 * @param prefetchCount	the max unacknowledged deliveries, 0 for unlimited
+	 */
+	BrokerConsumer(BrokerChannel channel, BrokerQueue queue, String tag, boolean noAck,
+			boolean exclusive, int prefetchCount) {
+		this._channel = channel;
+		this._queue = queue;
+		this._tag = tag;
+		this._noAck = noAck;
+		this._exclusive = exclusive;
+		this._prefetchCount = prefetchCount;
+	}
+
+	BrokerChannel getChannel() {
+		return _channel;
+	}
+
+	BrokerQueue getQueue() {
+		return _queue;
+	}
+
+	String getTag() {
+		return _tag;
+	}
+
+	boolean isNoAck() {
+		return _noAck;
+	}
+
+	boolean isExclusive() {
+		return _exclusive;
+	}
+
+	/**
+	 * @return true if the consumer can take a delivery now
+	 */
+	boolean canDeliver() {
+		return _channel.canDeliver()
+				&& (_noAck || _prefetchCount == 0 || _unacknowledged.get() < _prefetchCount);
+	}
+
+	/**
+	 * Send a message to the consumer, called by the queue
+	 *
+	 * @param message the queue head message
+	 * @return false if the channel closed meanwhile, so the message stays in the queue
+	 */
+	boolean deliver(BrokerQueue.QueuedMessage message) {
+		if(!_noAck)
+			_unacknowledged.incrementAndGet();
+		if(_channel.deliver(this, message))
+			return true;
+		if(!_noAck)
+			_unacknowledged.decrementAndGet();
+		return false;
+	}
+
+	/**
+	 * A delivery is acknowledged, rejected or requeued
+	 */
+	void settled() {
+		_unacknowledged.decrementAndGet();
+	}
+}
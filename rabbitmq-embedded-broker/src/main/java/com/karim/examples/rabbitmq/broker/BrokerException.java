@@ -0,0 +1,76 @@
+package com.karim.examples.rabbitmq.broker;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * AMQP error raised while handling a client method, closing the channel or the whole
+ * connection with the reply code, as the broker does. The management API maps it to the
+ * equivalent HTTP status.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class BrokerException extends Exception {
+	private static final long serialVersionUID = 1L;
+
+	private final int _replyCode;
+	// True if the error closes the connection, otherwise the channel only
+	private final boolean _connectionError;
+
+	/**
+	 * Channel error
+	 *
+	 * @param replyCode	the AMQP reply code
+	 * @param message	the reply text without the code name
+	 */
+	BrokerException(int replyCode, String message) {
+		this(replyCode, message, false);
+	}
+
+	private BrokerException(int replyCode, String message, boolean connectionError) {
+		super(message);
+		this._replyCode = replyCode;
+		this._connectionError = connectionError;
+	}
+
+	/**
+	 * @param replyCode	the AMQP reply code
+	 * @param message	the reply text without the code name
+	 * @return connection error
+	 */
+	static BrokerException connectionError(int replyCode, String message) {
+		return new BrokerException(replyCode, message, true);
+	}
+
+	int getReplyCode() {
+		return _replyCode;
+	}
+
+	boolean isConnectionError() {
+		return _connectionError;
+	}
+
+	/**
+	 * @return the reply text as sent by the broker, prefixed by the code name
+	 */
+	String getReplyText() {
+		return replyName(_replyCode) + " - " + getMessage();
+	}
+
+	private static String replyName(int replyCode) {
+		switch (replyCode) {
+		case AMQP.CONNECTION_FORCED:	return "CONNECTION_FORCED";
+		case AMQP.ACCESS_REFUSED:		return "ACCESS_REFUSED";
+		case AMQP.NOT_FOUND:			return "NOT_FOUND";
+		case AMQP.RESOURCE_LOCKED:		return "RESOURCE_LOCKED";
+		case AMQP.PRECONDITION_FAILED:	return "PRECONDITION_FAILED";
+		case AMQP.FRAME_ERROR:			return "FRAME_ERROR";
+		case AMQP.COMMAND_INVALID:		return "COMMAND_INVALID";
+		case AMQP.CHANNEL_ERROR:		return "CHANNEL_ERROR";
+		case AMQP.UNEXPECTED_FRAME:		return "UNEXPECTED_FRAME";
+		case AMQP.NOT_ALLOWED:			return "NOT_ALLOWED";
+		case AMQP.NOT_IMPLEMENTED:		return "NOT_IMPLEMENTED";
+		default:						return "INTERNAL_ERROR";
+		}
+	}
+}
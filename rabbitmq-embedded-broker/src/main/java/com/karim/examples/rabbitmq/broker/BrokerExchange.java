@@ -0,0 +1,163 @@
+package com.karim.examples.rabbitmq.broker;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.rabbitmq.client.BuiltinExchangeType;
+
+/**
+ * Exchange of a virtual host routing the messages to its bound queues and exchanges by its
+ * type, direct, fanout, topic or headers.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class BrokerExchange {
+	// Argument of the exchange to route the unroutable messages to
+	static final String ALTERNATE_EXCHANGE_ARGUMENT = "alternate-exchange";
+
+	private final String _name;
+	private final BuiltinExchangeType _type;
+	private final boolean _durable;
+	private final boolean _autoDelete;
+	private final boolean _internal;
+	private final Map<String, Object> _arguments;
+
+	// Bindings having the exchange as source, read on every publish
+	private final CopyOnWriteArrayList<BrokerBinding> _bindings = new CopyOnWriteArrayList<>();
+
+	/**
+	 * @param name			the exchange name
+	 * @param type			the exchange type
+	 * @param durable		true if survives the broker restart
+	 * @param autoDelete	true if deleted once its last binding removed
+	 * @param internal		true if the clients can't publish to it
+	 * @param arguments		the exchange arguments
+	 */
+	BrokerExchange(String name, BuiltinExchangeType type, boolean durable, boolean autoDelete,
+			boolean internal, Map<String, Object> arguments) {
+		this._name = name;
+		this._type = type;
+		this._durable = durable;
+		this._autoDelete = autoDelete;
+		this._internal = internal;
+		this._arguments = BrokerArguments.normalize(arguments);
+	}
+
+	String getName() {
+		return _name;
+	}
+
+	BuiltinExchangeType getType() {
+		return _type;
+	}
+
+	boolean isDurable() {
+		return _durable;
+	}
+
+	boolean isAutoDelete() {
+		return _autoDelete;
+	}
+
+	boolean isInternal() {
+		return _internal;
+	}
+
+	Map<String, Object> getArguments() {
+		return _arguments;
+	}
+
+	List<BrokerBinding> getBindings() {
+		return _bindings;
+	}
+
+	/**
+	 * @return true if added, false if already exist
+	 */
+	boolean addBinding(BrokerBinding binding) {
+		return _bindings.addIfAbsent(binding);
+	}
+
+	boolean removeBinding(BrokerBinding binding) {
+		return _bindings.remove(binding);
+	}
+
+	/**
+	 * Route a message to the bound queues, following the bindings to other exchanges
+	 *
+	 * @param message	the message to route
+	 * @param queues	the queues the message routed to
+	 * @param visited	the exchanges already routed through, to break the bindings cycles
+	 */
+	void route(BrokerMessage message, Set<BrokerQueue> queues, Set<BrokerExchange> visited) {
+		if(!visited.add(this))
+			return;
+
+		for(BrokerBinding binding : _bindings) {
+			if(!matches(binding, message))
+				continue;
+			if(binding.getQueue() != null)
+				queues.add(binding.getQueue());
+			else
+				binding.getExchange().route(message, queues, visited);
+		}
+	}
+
+	private boolean matches(BrokerBinding binding, BrokerMessage message) {
+		switch (_type) {
+		case FANOUT:
+			return true;
+		case TOPIC:
+			return topicMatches(binding.getRoutingKey().split("\\.", -1), 0, message.getRoutingKey().split("\\.", -1), 0);
+		case HEADERS:
+			return headersMatch(binding.getArguments(), message.getProperties().getHeaders());
+		default:
+			return binding.getRoutingKey().equals(message.getRoutingKey());
+		}
+	}
+
+	/**
+	 * "*" matches exactly one word and "#" matches zero or more words
+	 */
+	private static boolean topicMatches(String[] pattern, int patternIndex, String[] words, int wordIndex) {
+		if(patternIndex == pattern.length)
+			return wordIndex == words.length;
+
+		String token = pattern[patternIndex];
+		if(token.equals("#")) {
+			for(int i = wordIndex; i <= words.length; i++)
+				if(topicMatches(pattern, patternIndex + 1, words, i))
+					return true;
+			return false;
+		}
+		if(wordIndex == words.length)
+			return false;
+		if(!token.equals("*") && !token.equals(words[wordIndex]))
+			return false;
+		return topicMatches(pattern, patternIndex + 1, words, wordIndex + 1);
+	}
+
+	/**
+	 * "x-match" is "all" by default or "any", the binding arguments starting by "x-" are
+	 * ignored, and an argument without value matches the header presence
+	 */
+	private static boolean headersMatch(Map<String, Object> arguments, Map<String, Object> headers) {
+		boolean any = "any".equals(arguments.get("x-match"));
+		for(Map.Entry<String, Object> argument : arguments.entrySet()) {
+			if(argument.getKey().startsWith("x-"))
+				continue;
+
+			boolean match = headers != null && headers.containsKey(argument.getKey())
+					&& (argument.getValue() == null
+						|| argument.getValue().equals(BrokerArguments.normalizeValue(headers.get(argument.getKey()))));
+			if(any && match)
+				return true;
+			if(!any && !match)
+				return false;
+		}
+		return !any;
+	}
+}
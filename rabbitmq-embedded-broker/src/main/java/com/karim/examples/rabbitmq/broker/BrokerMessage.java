@@ -0,0 +1,67 @@
+package com.karim.examples.rabbitmq.broker;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Published message as routed to the queues, shared by all the queues it is routed to.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class BrokerMessage {
+	private final String _exchange;
+	private final String _routingKey;
+	private final BasicProperties _properties;
+	private final byte[] _body;
+
+	/**
+	 * @param exchange		the exchange the message published to
+	 * @param routingKey	the routing key the message published with
+	 * @param properties	the message properties
+	 * @param body			the message body
+	 */
+	BrokerMessage(String exchange, String routingKey, BasicProperties properties, byte[] body) {
+		this._exchange = exchange;
+		this._routingKey = routingKey;
+		this._properties = properties == null? new BasicProperties() : properties;
+		this._body = body == null? new byte[0] : body;
+	}
+
+	String getExchange() {
+		return _exchange;
+	}
+
+	String getRoutingKey() {
+		return _routingKey;
+	}
+
+	BasicProperties getProperties() {
+		return _properties;
+	}
+
+	byte[] getBody() {
+		return _body;
+	}
+
+	/**
+	 * @return true if published with the persistent delivery mode
+	 */
+	boolean isPersistent() {
+		return Integer.valueOf(2).equals(_properties.getDeliveryMode());
+	}
+
+	/**
+	 * @return the per-message TTL in milliseconds, or null if not set or invalid
+	 */
+	Long getExpiration() {
+		String expiration = _properties.getExpiration();
+		if(expiration == null)
+			return null;
+		try {
+			long ttl = Long.parseLong(expiration);
+			return ttl < 0? null : ttl;
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.karim.examples.rabbitmq.broker;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.rabbitmq.client.AMQP;
+
+/**
+ * Policy of a virtual host, its definition applies to the queues or exchanges matching its
+ * pattern, and only the highest priority matching policy applies to a resource.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class BrokerPolicy {
+	static final String APPLY_TO_ALL = "all";
+	static final String APPLY_TO_QUEUES = "queues";
+	static final String APPLY_TO_EXCHANGES = "exchanges";
+
+	private final String _name;
+	private final Pattern _pattern;
+	private final String _applyTo;
+	private final long _priority;
+	// Normalized definition, the keys are the queue arguments without the "x-" prefix
+	private final Map<String, Object> _definition;
+
+	/**
+	 * @param name			the policy name
+	 * @param pattern		the regular expression of the resources names
+	 * @param applyTo		all, queues or exchanges
+	 * @param priority		the policy priority
+	 * @param definition	the policy definition
+	 * @throws BrokerException if the pattern or apply-to is invalid
+	 */
+	BrokerPolicy(String name, String pattern, String applyTo, long priority, Map<String, Object> definition)
+			throws BrokerException {
+		try {
+			this._pattern = Pattern.compile(pattern);
+		} catch (PatternSyntaxException | NullPointerException e) {
+			throw new BrokerException(AMQP.PRECONDITION_FAILED, "invalid pattern '" + pattern + "' of policy '" + name + "'");
+		}
+		if(applyTo == null) {
+			applyTo = APPLY_TO_ALL;
+		} else if(!applyTo.equals(APPLY_TO_ALL) && !applyTo.equals(APPLY_TO_QUEUES) && !applyTo.equals(APPLY_TO_EXCHANGES)) {
+			throw new BrokerException(AMQP.PRECONDITION_FAILED, "invalid apply-to '" + applyTo + "' of policy '" + name + "'");
+		}
+		if(definition == null || definition.isEmpty())
+			throw new BrokerException(AMQP.PRECONDITION_FAILED, "empty definition of policy '" + name + "'");
+
+		this._name = name;
+		this._applyTo = applyTo;
+		this._priority = priority;
+		this._definition = BrokerArguments.normalize(definition);
+	}
+
+	String getName() {
+		return _name;
+	}
+
+	String getPattern() {
+		return _pattern.pattern();
+	}
+
+	String getApplyTo() {
+		return _applyTo;
+	}
+
+	long getPriority() {
+		return _priority;
+	}
+
+	Map<String, Object> getDefinition() {
+		return _definition;
+	}
+
+	/**
+	 * @param name		the resource name
+	 * @param queue		true for a queue, false for an exchange
+	 * @return true if the policy applies to the resource
+	 */
+	boolean appliesTo(String name, boolean queue) {
+		if(!_applyTo.equals(APPLY_TO_ALL) && !_applyTo.equals(queue? APPLY_TO_QUEUES : APPLY_TO_EXCHANGES))
+			return false;
+		return _pattern.matcher(name).find();
+	}
+}
@@ -0,0 +1,461 @@
+package com.karim.examples.rabbitmq.broker;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.AMQP.BasicProperties;
+
+/**
+ * Queue of a virtual host, delivering its messages to its consumers round robin as their
+ * prefetch allows. The messages expired by the message TTL, dropped by the max length or
+ * rejected without requeue are dead-lettered to the dead letter exchange if set, by the
+ * queue arguments or by the queue policy, with the x-death header as the broker does.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class BrokerQueue {
+	// Settings read from the "x-" prefixed arguments, or from the policy definition
+	static final String MESSAGE_TTL = "message-ttl";
+	static final String MAX_LENGTH = "max-length";
+	static final String DEAD_LETTER_EXCHANGE = "dead-letter-exchange";
+	static final String DEAD_LETTER_ROUTING_KEY = "dead-letter-routing-key";
+
+	// Dead letter reasons
+	static final String REASON_REJECTED = "rejected";
+	static final String REASON_EXPIRED = "expired";
+	static final String REASON_MAX_LENGTH = "maxlen";
+
+	private final VirtualHost _virtualHost;
+	private final String _name;
+	private final boolean _durable;
+	private final boolean _autoDelete;
+	// The connection owning the exclusive queue, null if not exclusive
+	private final BrokerConnection _owner;
+	private final Map<String, Object> _arguments;
+	// The highest priority policy applying to the queue, null if none
+	private volatile BrokerPolicy _policy;
+
+	// Guarded by this
+	private final ArrayDeque<QueuedMessage> _messages = new ArrayDeque<>();
+	private final List<BrokerConsumer> _consumers = new ArrayList<>();
+	private int _nextConsumer;
+	private boolean _deleted;
+	// Time of the next scheduled expiry check
+	private long _nextExpiryCheck = Long.MAX_VALUE;
+
+	/**
+	 * @param virtualHost	the queue virtual host
+	 * @param name			the queue name
+	 * @param durable		true if survives the broker restart
+	 * @param autoDelete	true if deleted once its last consumer cancelled
+	 * @param owner			the owner connection of an exclusive queue, null if not exclusive
+	 * @param arguments		the queue arguments
+	 * @throws BrokerException if an argument is invalid
+	 */
+	BrokerQueue(VirtualHost virtualHost, String name, boolean durable, boolean autoDelete,
+			BrokerConnection owner, Map<String, Object> arguments) throws BrokerException {
+		this._virtualHost = virtualHost;
+		this._name = name;
+		this._durable = durable;
+		this._autoDelete = autoDelete;
+		this._owner = owner;
+		this._arguments = BrokerArguments.normalize(arguments);
+
+		BrokerArguments.getLong(_arguments, "x-" + MESSAGE_TTL);
+		BrokerArguments.getLong(_arguments, "x-" + MAX_LENGTH);
+		BrokerArguments.getString(_arguments, "x-" + DEAD_LETTER_EXCHANGE);
+		BrokerArguments.getString(_arguments, "x-" + DEAD_LETTER_ROUTING_KEY);
+	}
+
+	String getName() {
+		return _name;
+	}
+
+	boolean isDurable() {
+		return _durable;
+	}
+
+	boolean isAutoDelete() {
+		return _autoDelete;
+	}
+
+	BrokerConnection getOwner() {
+		return _owner;
+	}
+
+	Map<String, Object> getArguments() {
+		return _arguments;
+	}
+
+	BrokerPolicy getPolicy() {
+		return _policy;
+	}
+
+	void setPolicy(BrokerPolicy policy) {
+		this._policy = policy;
+	}
+
+	synchronized int getMessageCount() {
+		return _messages.size();
+	}
+
+	synchronized int getConsumerCount() {
+		return _consumers.size();
+	}
+
+	synchronized boolean isDeleted() {
+		return _deleted;
+	}
+
+	/**
+	 * Add a routed message to the queue tail and deliver it if a consumer can take it
+	 *
+	 * @param message the routed message
+	 */
+	void enqueue(BrokerMessage message) {
+		List<DeadLetter> deadLetters = new ArrayList<>();
+		synchronized (this) {
+			if(_deleted)
+				return;
+
+			long now = System.currentTimeMillis();
+			_messages.addLast(new QueuedMessage(message, expiresAt(message, now)));
+
+			Long maxLength = getLongSetting(MAX_LENGTH);
+			while(maxLength != null && _messages.size() > maxLength)
+				deadLetters.add(new DeadLetter(_messages.pollFirst(), REASON_MAX_LENGTH));
+
+			dispatch(now, deadLetters);
+		}
+		deadLetter(deadLetters);
+	}
+
+	/**
+	 * Deliver the waiting messages to the consumers which can take them, called once a
+	 * consumer added or a delivery settled
+	 */
+	void resume() {
+		List<DeadLetter> deadLetters = new ArrayList<>();
+		synchronized (this) {
+			dispatch(System.currentTimeMillis(), deadLetters);
+		}
+		deadLetter(deadLetters);
+	}
+
+	/**
+	 * Remove the head message for a basic.get
+	 *
+	 * @return the head message, or null if the queue is empty
+	 */
+	QueuedMessage poll() {
+		List<DeadLetter> deadLetters = new ArrayList<>();
+		QueuedMessage message;
+		synchronized (this) {
+			expireHead(System.currentTimeMillis(), deadLetters);
+			message = _messages.pollFirst();
+		}
+		deadLetter(deadLetters);
+		return message;
+	}
+
+	/**
+	 * Put the unacknowledged messages back to the queue head, flagged as redelivered
+	 *
+	 * @param messages the messages in delivery order
+	 */
+	void requeue(List<QueuedMessage> messages) {
+		List<DeadLetter> deadLetters = new ArrayList<>();
+		synchronized (this) {
+			if(_deleted)
+				return;
+
+			for(ListIterator<QueuedMessage> iterator = messages.listIterator(messages.size()); iterator.hasPrevious();) {
+				QueuedMessage message = iterator.previous();
+				message._redelivered = true;
+				_messages.addFirst(message);
+			}
+			dispatch(System.currentTimeMillis(), deadLetters);
+		}
+		deadLetter(deadLetters);
+	}
+
+	/**
+	 * Dead-letter a message rejected without requeue
+	 *
+	 * @param message the rejected message
+	 */
+	void reject(QueuedMessage message) {
+		deadLetter(Collections.singletonList(new DeadLetter(message, REASON_REJECTED)));
+	}
+
+	/**
+	 * Add a consumer, the messages are delivered to it on the next {@link #resume()} so the
+	 * channel replies the consume-ok first
+	 *
+	 * @param consumer the consumer to add
+	 * @throws BrokerException if the queue deleted or in exclusive use
+	 */
+	synchronized void addConsumer(BrokerConsumer consumer) throws BrokerException {
+		if(_deleted)
+			throw new BrokerException(AMQP.NOT_FOUND, "no queue '" + _name + "' in vhost '" + _virtualHost.getName() + "'");
+		boolean exclusiveUse = consumer.isExclusive() && !_consumers.isEmpty();
+		for(BrokerConsumer existing : _consumers)
+			exclusiveUse |= existing.isExclusive();
+		if(exclusiveUse)
+			throw new BrokerException(AMQP.ACCESS_REFUSED, "queue '" + _name + "' in vhost '" + _virtualHost.getName() + "' in exclusive use");
+
+		_consumers.add(consumer);
+	}
+
+	/**
+	 * Remove a consumer, the auto-delete queue is deleted once its last consumer removed
+	 *
+	 * @param consumer the consumer to remove
+	 */
+	void removeConsumer(BrokerConsumer consumer) {
+		boolean delete;
+		synchronized (this) {
+			if(!_consumers.remove(consumer))
+				return;
+			delete = _autoDelete && _consumers.isEmpty() && !_deleted;
+		}
+		if(delete)
+			_virtualHost.deleteQueue(this);
+	}
+
+	/**
+	 * @return the no of messages removed
+	 */
+	synchronized int purge() {
+		int count = _messages.size();
+		_messages.clear();
+		return count;
+	}
+
+	/**
+	 * Mark the queue deleted, drop its messages and cancel its consumers
+	 *
+	 * @return the no of messages removed
+	 */
+	int delete() {
+		List<BrokerConsumer> consumers;
+		int count;
+		synchronized (this) {
+			if(_deleted)
+				return 0;
+			_deleted = true;
+			count = _messages.size();
+			_messages.clear();
+			consumers = new ArrayList<>(_consumers);
+			_consumers.clear();
+		}
+		for(BrokerConsumer consumer : consumers)
+			consumer.getChannel().cancelConsumer(consumer);
+		return count;
+	}
+
+	/**
+	 * Drop the transient messages on the broker stop, the persistent ones survive in a
+	 * durable queue
+	 */
+	synchronized void dropTransientMessages() {
+		_consumers.clear();
+		for(Iterator<QueuedMessage> iterator = _messages.iterator(); iterator.hasNext();)
+			if(!iterator.next()._message.isPersistent())
+				iterator.remove();
+	}
+
+	// Guarded by this
+	private void dispatch(long now, List<DeadLetter> deadLetters) {
+		while(true) {
+			expireHead(now, deadLetters);
+			if(_messages.isEmpty())
+				return;
+
+			BrokerConsumer consumer = nextConsumer();
+			if(consumer == null)
+				break;
+			if(consumer.deliver(_messages.peekFirst()))
+				_messages.pollFirst();
+		}
+		scheduleExpiry(now);
+	}
+
+	// Guarded by this
+	private void expireHead(long now, List<DeadLetter> deadLetters) {
+		while(!_messages.isEmpty() && _messages.peekFirst()._expiresAt < now)
+			deadLetters.add(new DeadLetter(_messages.pollFirst(), REASON_EXPIRED));
+	}
+
+	// Guarded by this
+	private BrokerConsumer nextConsumer() {
+		for(int i = 0; i < _consumers.size(); i++) {
+			BrokerConsumer consumer = _consumers.get((_nextConsumer + i) % _consumers.size());
+			if(consumer.canDeliver()) {
+				_nextConsumer = (_nextConsumer + i + 1) % _consumers.size();
+				return consumer;
+			}
+		}
+		return null;
+	}
+
+	// Guarded by this, the head message expires even if no consumer and no publish wakes the queue up
+	private void scheduleExpiry(long now) {
+		QueuedMessage head = _messages.peekFirst();
+		if(head == null || head._expiresAt == Long.MAX_VALUE || head._expiresAt >= _nextExpiryCheck)
+			return;
+
+		_nextExpiryCheck = head._expiresAt;
+		_virtualHost.getTimer().schedule(() -> {
+			synchronized (this) {
+				_nextExpiryCheck = Long.MAX_VALUE;
+			}
+			resume();
+		}, head._expiresAt - now + 1, TimeUnit.MILLISECONDS);
+	}
+
+	private long expiresAt(BrokerMessage message, long now) {
+		Long ttl = getLongSetting(MESSAGE_TTL);
+		Long expiration = message.getExpiration();
+		if(expiration != null && (ttl == null || expiration < ttl))
+			ttl = expiration;
+		return ttl == null? Long.MAX_VALUE : now + ttl;
+	}
+
+	/**
+	 * @return the lowest of the argument and the policy setting, null if neither
+	 */
+	private Long getLongSetting(String name) {
+		Long argument = (Long) _arguments.get("x-" + name);
+		BrokerPolicy policy = _policy;
+		Object definition = policy == null? null : policy.getDefinition().get(name);
+		Long policyValue = definition instanceof Long? (Long) definition : null;
+		if(argument == null || policyValue == null)
+			return argument != null? argument : policyValue;
+		return Math.min(argument, policyValue);
+	}
+
+	/**
+	 * @return the argument setting, or the policy one if no argument
+	 */
+	private String getStringSetting(String name) {
+		Object argument = _arguments.get("x-" + name);
+		if(argument != null)
+			return argument.toString();
+		BrokerPolicy policy = _policy;
+		Object definition = policy == null? null : policy.getDefinition().get(name);
+		return definition == null? null : definition.toString();
+	}
+
+	private void deadLetter(List<DeadLetter> deadLetters) {
+		if(deadLetters.isEmpty())
+			return;
+		String exchange = getStringSetting(DEAD_LETTER_EXCHANGE);
+		if(exchange == null)
+			return;
+
+		String routingKey = getStringSetting(DEAD_LETTER_ROUTING_KEY);
+		for(DeadLetter deadLetter : deadLetters) {
+			BrokerMessage message = deadLetter._message._message;
+			_virtualHost.publishDeadLetter(new BrokerMessage(exchange,
+					routingKey != null? routingKey : message.getRoutingKey(),
+					deadLetterProperties(message, deadLetter._reason),
+					message.getBody()));
+		}
+	}
+
+	/**
+	 * Add the x-death entry of the queue and reason, or increment its count, and move it first
+	 */
+	@SuppressWarnings("unchecked")
+	private BasicProperties deadLetterProperties(BrokerMessage message, String reason) {
+		BasicProperties properties = message.getProperties();
+		Map<String, Object> headers = properties.getHeaders() == null?
+				new HashMap<>()
+				: new HashMap<>(properties.getHeaders());
+
+		List<Object> deaths = new ArrayList<>();
+		if(headers.get("x-death") instanceof List)
+			deaths.addAll((List<Object>) headers.get("x-death"));
+
+		Map<String, Object> death = null;
+		for(Iterator<Object> iterator = deaths.iterator(); iterator.hasNext();) {
+			Object item = iterator.next();
+			if(item instanceof Map) {
+				Map<String, Object> entry = (Map<String, Object>) item;
+				if(_name.equals(String.valueOf(entry.get("queue"))) && reason.equals(String.valueOf(entry.get("reason")))) {
+					iterator.remove();
+					death = new HashMap<>(entry);
+					break;
+				}
+			}
+		}
+		if(death == null) {
+			death = new HashMap<>();
+			death.put("queue", _name);
+			death.put("reason", reason);
+			death.put("exchange", message.getExchange());
+			death.put("routing-keys", Collections.singletonList(message.getRoutingKey()));
+			if(properties.getExpiration() != null)
+				death.put("original-expiration", properties.getExpiration());
+		}
+		Object count = death.get("count");
+		death.put("count", count instanceof Number? ((Number) count).longValue() + 1 : 1L);
+		death.put("time", new Date());
+		deaths.add(0, death);
+
+		headers.put("x-death", deaths);
+		headers.putIfAbsent("x-first-death-reason", reason);
+		headers.putIfAbsent("x-first-death-queue", _name);
+		headers.putIfAbsent("x-first-death-exchange", message.getExchange());
+		return properties.builder()
+				.headers(headers)
+				.expiration(null)
+				.build();
+	}
+
+	////////////////////////////////////////
+	/**
+	 * Message waiting in the queue or delivered and not acknowledged yet
+	 */
+	static final class QueuedMessage {
+		private final BrokerMessage _message;
+		// Time the message expires in milliseconds since the epoch, Long.MAX_VALUE if never
+		private final long _expiresAt;
+		private volatile boolean _redelivered;
+
+		QueuedMessage(BrokerMessage message, long expiresAt) {
+			this._message = message;
+			this._expiresAt = expiresAt;
+		}
+
+		BrokerMessage getMessage() {
+			return _message;
+		}
+
+		boolean isRedelivered() {
+			return _redelivered;
+		}
+	}
+
+	////////////////////////////////////////
+	private static final class DeadLetter {
+		private final QueuedMessage _message;
+		private final String _reason;
+
+		DeadLetter(QueuedMessage message, String reason) {
+			this._message = message;
+			this._reason = reason;
+		}
+	}
+}
@@ -0,0 +1,420 @@
+package com.karim.examples.rabbitmq.broker;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * In-process stand-in of a RabbitMQ broker speaking AMQP 0-9-1 on a TCP port, with a subset
+ * of the management HTTP API on another port, so the connector, the installer, the benchmarks
+ * and the load test tool can run end-to-end without a real broker.
+ *
+ * It supports the direct, fanout, topic and headers exchanges, exchange to exchange bindings,
+ * alternate exchanges, publisher confirms, mandatory returns, consumer prefetch, basic.get,
+ * the message TTL, the max length, dead-lettering and the policies setting them. The broker
+ * keeps everything in memory, accepts any credentials and has no clustering or transactions,
+ * the flow control is simulated by {@link #setResourceAlarm(String)}. {@link #stop()} keeps the durable exchanges and queues, with the persistent
+ * messages of the durable queues, for a later {@link #start()} as a broker restart does, and
+ * {@link #closeConnections()} closes the client connections to exercise their recovery.
+ *
+ * <pre>
+ * try(EmbeddedBroker broker = new EmbeddedBroker().start()) {
+ *     ConnectionConfigurer configurer = new ConnectionConfigurer.Builder("app", "localhost", "/", "guest", "guest")
+ *             .withPort(broker.getPort()).build();
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public class EmbeddedBroker implements AutoCloseable {
+	private static final Logger LOGGER = Logger.getLogger(EmbeddedBroker.class);
+
+	// Version reported to the clients and by the management API
+	static final String VERSION = "3.7.7";
+
+	public static final int DEFAULT_PORT = 5672;
+	public static final int DEFAULT_MANAGEMENT_PORT = 15672;
+	public static final String DEFAULT_VIRTUAL_HOST = "/";
+	// Max wait for the clients to reply the connection close on stop in milliseconds
+	private static final long CLOSE_TIMEOUT = 1000;
+
+	// Ports, 0 for any free port until the first start, and a negative management port to disable it
+	private int _port;
+	private int _managementPort;
+
+	private final ConcurrentMap<String, VirtualHost> _virtualHosts = new ConcurrentHashMap<>();
+	private final Set<BrokerConnection> _connections = ConcurrentHashMap.newKeySet();
+	// Timer of the heartbeats and the messages expiry, kept across restarts with the virtual hosts
+	private final ScheduledExecutorService _timer = Executors.newSingleThreadScheduledExecutor(
+			threadFactory("embedded-broker-timer"));
+
+	// Reason of the simulated memory or disk alarm, null if not set, guarded by _alarmMonitor
+	private volatile String _resourceAlarm;
+	private final Object _alarmMonitor = new Object();
+
+	// Set while started
+	private ServerSocket _serverSocket;
+	private ManagementServer _managementServer;
+	private ExecutorService _connectionThreads;
+
+	/**
+	 * Broker on any free ports, kept by the restarts, see {@link #getPort()} and {@link #getManagementPort()}
+	 */
+	public EmbeddedBroker() {
+		this(0, 0);
+	}
+
+	/**
+	 * @param port				the AMQP port, 0 for any free port
+	 * @param managementPort	the management HTTP port, 0 for any free port, negative to disable it
+	 */
+	public EmbeddedBroker(int port, int managementPort) {
+		this._port = port;
+		this._managementPort = managementPort;
+		addVirtualHost(DEFAULT_VIRTUAL_HOST);
+	}
+
+	/**
+	 * Start listening for the AMQP connections and the management requests
+	 *
+	 * @return current object (this).
+	 * @throws IOException if a port can't be bound
+	 */
+	public synchronized EmbeddedBroker start() throws IOException {
+		if(_serverSocket != null)
+			return this;
+
+		ServerSocket serverSocket = new ServerSocket();
+		serverSocket.setReuseAddress(true);
+		serverSocket.bind(new InetSocketAddress(_port));
+
+		ManagementServer managementServer = null;
+		try {
+			if(_managementPort >= 0) {
+				managementServer = new ManagementServer(this, _managementPort);
+				managementServer.start();
+			}
+		} catch (IOException e) {
+			serverSocket.close();
+			throw e;
+		}
+
+		// A restart listens on the same ports, so the clients recover
+		_serverSocket = serverSocket;
+		_port = serverSocket.getLocalPort();
+		_managementServer = managementServer;
+		if(managementServer != null)
+			_managementPort = managementServer.getPort();
+		_connectionThreads = Executors.newCachedThreadPool(threadFactory("embedded-broker-connection"));
+		_connectionThreads.execute(() -> accept(serverSocket));
+
+		LOGGER.info("Embedded broker started on port " + getPort()
+				+ (managementServer == null? "" : ", management on port " + managementServer.getPort()));
+		return this;
+	}
+
+	/**
+	 * Close the client connections and stop listening. The durable exchanges and queues are
+	 * kept for the next start, with the persistent messages of the durable queues.
+	 */
+	public synchronized void stop() {
+		if(_serverSocket == null)
+			return;
+
+		try {
+			_serverSocket.close();
+		} catch (IOException e) {
+			LOGGER.debug("Error during closing the server socket: " + e.getMessage());
+		}
+		if(_managementServer != null)
+			_managementServer.stop();
+
+		closeConnections("broker shutdown");
+		_connectionThreads.shutdown();
+		try {
+			_connectionThreads.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for(BrokerConnection connection : new ArrayList<>(_connections))
+			connection.closeSocket();
+		_connectionThreads.shutdownNow();
+
+		for(VirtualHost virtualHost : _virtualHosts.values())
+			virtualHost.dropTransientState();
+
+		_serverSocket = null;
+		_managementServer = null;
+		LOGGER.info("Embedded broker stopped");
+	}
+
+	/**
+	 * Same as {@link #stop()}
+	 */
+	@Override
+	public void close() {
+		stop();
+	}
+
+	/**
+	 * @return the AMQP port listening
+	 * @throws IllegalStateException if not started
+	 */
+	public synchronized int getPort() {
+		if(_serverSocket == null)
+			throw new IllegalStateException("Embedded broker not started");
+		return _serverSocket.getLocalPort();
+	}
+
+	/**
+	 * @return the management HTTP port listening
+	 * @throws IllegalStateException if not started or the management disabled
+	 */
+	public synchronized int getManagementPort() {
+		if(_managementServer == null)
+			throw new IllegalStateException("Embedded broker management not started");
+		return _managementServer.getPort();
+	}
+
+	/**
+	 * Close all the client connections by the broker, as a broker node going down does, so
+	 * the clients with automatic recovery enabled reconnect
+	 */
+	public void closeConnections() {
+		closeConnections("closed by the embedded broker");
+	}
+
+	private void closeConnections(String reason) {
+		for(BrokerConnection connection : new ArrayList<>(_connections))
+			connection.forceClose(reason);
+	}
+
+	/**
+	 * Simulate a memory or disk alarm, the clients are notified by connection.blocked and the
+	 * connections publishing are no longer read until {@link #clearResourceAlarm()}
+	 *
+	 * @param reason the alarm reason sent to the clients, e.g. "low on memory"
+	 */
+	public void setResourceAlarm(String reason) {
+		synchronized (_alarmMonitor) {
+			if(_resourceAlarm != null)
+				return;
+			_resourceAlarm = reason;
+		}
+		for(BrokerConnection connection : new ArrayList<>(_connections))
+			connection.resourceAlarm(reason);
+	}
+
+	/**
+	 * Clear the alarm set by {@link #setResourceAlarm(String)}, the clients are notified by
+	 * connection.unblocked and the blocked publishes are handled
+	 */
+	public void clearResourceAlarm() {
+		synchronized (_alarmMonitor) {
+			if(_resourceAlarm == null)
+				return;
+			_resourceAlarm = null;
+			_alarmMonitor.notifyAll();
+		}
+		for(BrokerConnection connection : new ArrayList<>(_connections))
+			connection.resourceAlarm(null);
+	}
+
+	/**
+	 * @param name the virtual host name
+	 * @return true if added, false if already exist
+	 */
+	public boolean addVirtualHost(String name) {
+		return _virtualHosts.putIfAbsent(name, new VirtualHost(name, _timer)) == null;
+	}
+
+	/**
+	 * Delete a virtual host, closing its client connections
+	 *
+	 * @param name the virtual host name
+	 * @return true if deleted, false if not exist
+	 */
+	public boolean deleteVirtualHost(String name) {
+		VirtualHost virtualHost = _virtualHosts.remove(name);
+		if(virtualHost == null)
+			return false;
+
+		for(BrokerConnection connection : new ArrayList<>(_connections))
+			if(connection.getVirtualHost() == virtualHost)
+				connection.forceClose("vhost '" + name + "' is deleted");
+		for(BrokerQueue queue : new ArrayList<>(virtualHost.getQueues()))
+			virtualHost.deleteQueue(queue);
+		return true;
+	}
+
+	/**
+	 * Declare a durable queue if not exist, bound to the default exchange only
+	 *
+	 * @param virtualHost	the virtual host name
+	 * @param queue			the queue name
+	 * @throws IllegalArgumentException if the virtual host not exist or the queue can't be declared
+	 */
+	public void declareQueue(String virtualHost, String queue) {
+		VirtualHost host = _virtualHosts.get(virtualHost);
+		try {
+			if(host == null)
+				throw new IllegalArgumentException("No virtual host '" + virtualHost + "'");
+			host.declareQueue(queue, false, true, false, false, null, null);
+		} catch (BrokerException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * @param virtualHost	the virtual host name
+	 * @param queue			the queue name
+	 * @return true if the queue exist
+	 */
+	public boolean hasQueue(String virtualHost, String queue) {
+		VirtualHost host = _virtualHosts.get(virtualHost);
+		return host != null && host.getQueues().stream().anyMatch(brokerQueue -> brokerQueue.getName().equals(queue));
+	}
+
+	/**
+	 * @param virtualHost	the virtual host name
+	 * @param exchange		the exchange name
+	 * @return true if the exchange exist
+	 */
+	public boolean hasExchange(String virtualHost, String exchange) {
+		VirtualHost host = _virtualHosts.get(virtualHost);
+		return host != null && host.getExchanges().stream().anyMatch(brokerExchange -> brokerExchange.getName().equals(exchange));
+	}
+
+	/**
+	 * @param virtualHost	the virtual host name
+	 * @param queue			the queue name
+	 * @return the no of messages ready in the queue, not counting the unacknowledged ones
+	 * @throws IllegalArgumentException if the queue not exist
+	 */
+	public int getMessageCount(String virtualHost, String queue) {
+		return getQueue(virtualHost, queue).getMessageCount();
+	}
+
+	/**
+	 * @param virtualHost	the virtual host name
+	 * @param queue			the queue name
+	 * @return the no of consumers of the queue
+	 * @throws IllegalArgumentException if the queue not exist
+	 */
+	public int getConsumerCount(String virtualHost, String queue) {
+		return getQueue(virtualHost, queue).getConsumerCount();
+	}
+
+	/**
+	 * @return the no of open client connections
+	 */
+	public int getConnectionCount() {
+		return _connections.size();
+	}
+
+	private BrokerQueue getQueue(String virtualHost, String queue) {
+		VirtualHost host = _virtualHosts.get(virtualHost);
+		try {
+			if(host == null)
+				throw new IllegalArgumentException("No virtual host '" + virtualHost + "'");
+			return host.getQueue(queue, null);
+		} catch (BrokerException e) {
+			throw new IllegalArgumentException(e.getMessage(), e);
+		}
+	}
+
+	VirtualHost getVirtualHost(String name) {
+		return _virtualHosts.get(name);
+	}
+
+	Set<String> getVirtualHostNames() {
+		return _virtualHosts.keySet();
+	}
+
+	String getResourceAlarm() {
+		return _resourceAlarm;
+	}
+
+	// Block the connection thread while the alarm is set, until the connection closed
+	void awaitResourceAlarmCleared(BrokerConnection connection) {
+		synchronized (_alarmMonitor) {
+			while(_resourceAlarm != null && !connection.isClosed()) {
+				try {
+					_alarmMonitor.wait(CLOSE_TIMEOUT);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	ScheduledExecutorService getTimer() {
+		return _timer;
+	}
+
+	void connectionClosed(BrokerConnection connection) {
+		_connections.remove(connection);
+	}
+
+	private void accept(ServerSocket serverSocket) {
+		while(!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				BrokerConnection connection = new BrokerConnection(this, socket);
+				_connections.add(connection);
+				_connectionThreads.execute(connection);
+			} catch (SocketException e) {
+				// Server socket closed by stop
+			} catch (IOException | RuntimeException e) {
+				LOGGER.error("Error during accepting a connection: " + e.getMessage(), e);
+			}
+		}
+	}
+
+	private static ThreadFactory threadFactory(String prefix) {
+		AtomicInteger threadNo = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix + "-" + threadNo.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Run the broker until the JVM stops
+	 *
+	 * @param args (port) (managementPort)
+	 * @throws Exception if the broker failed to start
+	 */
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int managementPort = args.length > 1? Integer.parseInt(args[1]) : DEFAULT_MANAGEMENT_PORT;
+
+		EmbeddedBroker broker = new EmbeddedBroker(port, managementPort).start();
+
+		CountDownLatch stopped = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			broker.stop();
+			stopped.countDown();
+		}));
+		stopped.await();
+	}
+}
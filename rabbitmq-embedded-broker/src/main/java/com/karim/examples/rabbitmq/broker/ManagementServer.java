@@ -0,0 +1,539 @@
+package com.karim.examples.rabbitmq.broker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import org.apache.log4j.Logger;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rabbitmq.client.AMQP;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Subset of the management HTTP API under "/api/", enough for the installer to declare its
+ * virtual host, exchanges, queues, bindings, policies, users and permissions, one by one or
+ * by importing their definitions, and to read them back. The users and permissions are
+ * stored only, the embedded broker accepts any credentials.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class ManagementServer {
+	private static final Logger LOGGER = Logger.getLogger(ManagementServer.class);
+
+	private static final String API_PATH = "/api/";
+	private static final TypeReference<Map<String, Object>> JSON_OBJECT = new TypeReference<Map<String, Object>>() {};
+
+	private final EmbeddedBroker _broker;
+	private final HttpServer _server;
+	// Lenient as the broker, the installer sends the regex escapes of the permissions as is
+	private final ObjectMapper _mapper = new ObjectMapper()
+			.configure(JsonParser.Feature.ALLOW_BACKSLASH_ESCAPING_ANY_CHARACTER, true);
+
+	// Users by name, and the permissions by virtual host and user
+	private final ConcurrentMap<String, Map<String, Object>> _users = new ConcurrentHashMap<>();
+	private final ConcurrentMap<List<String>, Map<String, Object>> _permissions = new ConcurrentHashMap<>();
+	private final ConcurrentMap<List<String>, Map<String, Object>> _topicPermissions = new ConcurrentHashMap<>();
+
+	/**
+	 * @param broker	the embedded broker
+	 * @param port		the HTTP port, 0 for any free port
+	 * @throws IOException if the port can't be bound
+	 */
+	ManagementServer(EmbeddedBroker broker, int port) throws IOException {
+		this._broker = broker;
+		this._server = HttpServer.create(new InetSocketAddress(port), 0);
+		this._server.createContext(API_PATH, this::handle);
+	}
+
+	void start() {
+		_server.start();
+	}
+
+	void stop() {
+		_server.stop(0);
+	}
+
+	int getPort() {
+		return _server.getAddress().getPort();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		try {
+			String[] path = decodePath(exchange.getRequestURI().getRawPath().substring(API_PATH.length()));
+			send(exchange, route(exchange.getRequestMethod(), path, readBody(exchange)));
+		} catch (BrokerException e) {
+			int status = e.getReplyCode() == AMQP.NOT_FOUND? 404
+					: e.getReplyCode() == AMQP.ACCESS_REFUSED? 403
+					: 400;
+			send(exchange, status, error(status == 404? "not_found" : "bad_request", e.getMessage()));
+		} catch (IndexOutOfBoundsException e) {
+			send(exchange, 404, error("not_found", "resource not found"));
+		} catch (JsonProcessingException | ClassCastException | IllegalArgumentException e) {
+			send(exchange, 400, error("bad_request", e.getMessage()));
+		} catch (RuntimeException e) {
+			LOGGER.error("Management request " + exchange.getRequestURI() + " failed", e);
+			send(exchange, 500, error("internal_error", e.getMessage()));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private Response route(String method, String[] path, Map<String, Object> body) throws BrokerException {
+		String resource = path[0];
+		switch (resource) {
+		case "overview":
+			return get(method, overview());
+		case "vhosts":
+			if(path.length == 1)
+				return get(method, new ArrayList<>(_broker.getVirtualHostNames()));
+			if(path.length > 2 && path[2].equals("permissions")) {
+				getVirtualHost(path[1]);
+				List<Object> permissions = new ArrayList<>();
+				for(Map.Entry<List<String>, Map<String, Object>> permission : _permissions.entrySet())
+					if(permission.getKey().get(0).equals(path[1]))
+						permissions.add(permission.getValue());
+				return get(method, permissions);
+			}
+			return virtualHost(method, path[1]);
+		case "exchanges":
+			if(path.length == 2)
+				return get(method, list(getVirtualHost(path[1]).getExchanges(), this::toJson));
+			return exchange(method, getVirtualHost(path[1]), path[2], body);
+		case "queues":
+			if(path.length == 2)
+				return get(method, list(getVirtualHost(path[1]).getQueues(), this::toJson));
+			return queue(method, getVirtualHost(path[1]), path[2], body);
+		case "bindings":
+			return binding(method, path, body);
+		case "policies":
+			if(path.length == 2)
+				return get(method, list(getVirtualHost(path[1]).getPolicies(), policy -> toJson(path[1], policy)));
+			return policy(method, getVirtualHost(path[1]), path[2], body);
+		case "users":
+			if(path.length == 1)
+				return get(method, new ArrayList<>(_users.values()));
+			return user(method, path[1], body);
+		case "permissions":
+			return permission(method, _permissions, path, body, "configure", "write", "read");
+		case "topic-permissions":
+			return permission(method, _topicPermissions, path, body, "exchange", "write", "read");
+		case "definitions":
+			return definitions(method, path.length > 1 && !path[1].isEmpty()? getVirtualHost(path[1]) : null, body);
+		default:
+			throw new BrokerException(AMQP.NOT_FOUND, "no resource '" + resource + "'");
+		}
+	}
+
+	private Response virtualHost(String method, String name) throws BrokerException {
+		switch (method) {
+		case "GET":
+			getVirtualHost(name);
+			return Response.ok(Collections.singletonMap("name", name));
+		case "PUT":
+			return _broker.addVirtualHost(name)? Response.CREATED : Response.NO_CONTENT;
+		case "DELETE":
+			if(!_broker.deleteVirtualHost(name))
+				throw new BrokerException(AMQP.NOT_FOUND, "no vhost '" + name + "'");
+			return Response.NO_CONTENT;
+		default:
+			return Response.METHOD_NOT_ALLOWED;
+		}
+	}
+
+	private Response exchange(String method, VirtualHost virtualHost, String name, Map<String, Object> body)
+			throws BrokerException {
+		switch (method) {
+		case "GET":
+			return Response.ok(toJson(virtualHost.getExchange(name)));
+		case "PUT":
+			boolean exist = virtualHost.getExchanges().stream().anyMatch(exchange -> exchange.getName().equals(name));
+			virtualHost.declareExchange(name, (String) body.get("type"), false,
+					getBoolean(body, "durable", true), getBoolean(body, "auto_delete", false),
+					getBoolean(body, "internal", false), getMap(body, "arguments"));
+			return exist? Response.NO_CONTENT : Response.CREATED;
+		case "DELETE":
+			virtualHost.getExchange(name);
+			virtualHost.deleteExchange(name, false);
+			return Response.NO_CONTENT;
+		default:
+			return Response.METHOD_NOT_ALLOWED;
+		}
+	}
+
+	private Response queue(String method, VirtualHost virtualHost, String name, Map<String, Object> body)
+			throws BrokerException {
+		switch (method) {
+		case "GET":
+			return Response.ok(toJson(virtualHost.getQueue(name, null)));
+		case "PUT":
+			boolean exist = virtualHost.getQueues().stream().anyMatch(queue -> queue.getName().equals(name));
+			virtualHost.declareQueue(name, false, getBoolean(body, "durable", true), false,
+					getBoolean(body, "auto_delete", false), getMap(body, "arguments"), null);
+			return exist? Response.NO_CONTENT : Response.CREATED;
+		case "DELETE":
+			virtualHost.getQueue(name, null);
+			virtualHost.deleteQueue(name, false, false, null);
+			return Response.NO_CONTENT;
+		default:
+			return Response.METHOD_NOT_ALLOWED;
+		}
+	}
+
+	/**
+	 * bindings/vhost, bindings/vhost/e/source/(q|e)/destination and its properties key, the
+	 * routing key or "~" if empty
+	 */
+	private Response binding(String method, String[] path, Map<String, Object> body) throws BrokerException {
+		VirtualHost virtualHost = getVirtualHost(path[1]);
+		if(path.length == 2)
+			return get(method, list(virtualHost.getBindings(), binding -> toJson(path[1], binding)));
+		if(path.length < 6 || !path[2].equals("e") || !(path[4].equals("q") || path[4].equals("e")))
+			throw new BrokerException(AMQP.NOT_FOUND, "no binding resource");
+
+		String source = path[3];
+		boolean toQueue = path[4].equals("q");
+		String destination = path[5];
+		switch (method) {
+		case "GET":
+			List<Object> bindings = new ArrayList<>();
+			for(BrokerBinding binding : virtualHost.getExchange(source).getBindings())
+				if((binding.getQueue() != null) == toQueue && binding.getDestinationName().equals(destination)
+						&& (path.length == 6 || propertiesKey(binding).equals(path[6])))
+					bindings.add(toJson(path[1], binding));
+			if(path.length > 6 && bindings.isEmpty())
+				throw new BrokerException(AMQP.NOT_FOUND, "no binding '" + path[6] + "'");
+			return Response.ok(path.length > 6? bindings.get(0) : bindings);
+		case "POST":
+			String routingKey = body.get("routing_key") == null? "" : body.get("routing_key").toString();
+			if(toQueue)
+				virtualHost.bindQueue(destination, source, routingKey, getMap(body, "arguments"), null);
+			else
+				virtualHost.bindExchange(destination, source, routingKey, getMap(body, "arguments"));
+			Response response = new Response(201, null);
+			response.location = encode(routingKey.isEmpty()? "~" : routingKey);
+			return response;
+		case "DELETE":
+			if(path.length < 7)
+				return Response.METHOD_NOT_ALLOWED;
+			for(BrokerBinding binding : virtualHost.getExchange(source).getBindings()) {
+				if((binding.getQueue() != null) == toQueue && binding.getDestinationName().equals(destination)
+						&& propertiesKey(binding).equals(path[6])) {
+					if(toQueue)
+						virtualHost.unbindQueue(destination, source, binding.getRoutingKey(), binding.getArguments(), null);
+					else
+						virtualHost.unbindExchange(destination, source, binding.getRoutingKey(), binding.getArguments());
+					return Response.NO_CONTENT;
+				}
+			}
+			throw new BrokerException(AMQP.NOT_FOUND, "no binding '" + path[6] + "'");
+		default:
+			return Response.METHOD_NOT_ALLOWED;
+		}
+	}
+
+	private Response policy(String method, VirtualHost virtualHost, String name, Map<String, Object> body)
+			throws BrokerException {
+		switch (method) {
+		case "GET":
+			for(BrokerPolicy policy : virtualHost.getPolicies())
+				if(policy.getName().equals(name))
+					return Response.ok(toJson(virtualHost.getName(), policy));
+			throw new BrokerException(AMQP.NOT_FOUND, "no policy '" + name + "'");
+		case "PUT":
+			boolean exist = virtualHost.getPolicies().stream().anyMatch(policy -> policy.getName().equals(name));
+			Object priority = body.get("priority");
+			virtualHost.setPolicy(new BrokerPolicy(name, (String) body.get("pattern"), (String) body.get("apply-to"),
+					priority == null? 0 : ((Number) priority).longValue(), getMap(body, "definition")));
+			return exist? Response.NO_CONTENT : Response.CREATED;
+		case "DELETE":
+			if(!virtualHost.deletePolicy(name))
+				throw new BrokerException(AMQP.NOT_FOUND, "no policy '" + name + "'");
+			return Response.NO_CONTENT;
+		default:
+			return Response.METHOD_NOT_ALLOWED;
+		}
+	}
+
+	private Response user(String method, String name, Map<String, Object> body) throws BrokerException {
+		switch (method) {
+		case "GET":
+			Map<String, Object> user = _users.get(name);
+			if(user == null)
+				throw new BrokerException(AMQP.NOT_FOUND, "no user '" + name + "'");
+			return Response.ok(user);
+		case "PUT":
+			Map<String, Object> newUser = new LinkedHashMap<>();
+			newUser.put("name", name);
+			newUser.put("tags", body.get("tags") == null? "" : body.get("tags"));
+			return _users.put(name, newUser) == null? Response.CREATED : Response.NO_CONTENT;
+		case "DELETE":
+			if(_users.remove(name) == null)
+				throw new BrokerException(AMQP.NOT_FOUND, "no user '" + name + "'");
+			return Response.NO_CONTENT;
+		default:
+			return Response.METHOD_NOT_ALLOWED;
+		}
+	}
+
+	/**
+	 * permissions/vhost/user, the fields are kept in the broker order, user, vhost then the
+	 * permission fields
+	 */
+	private Response permission(String method, ConcurrentMap<List<String>, Map<String, Object>> permissions,
+			String[] path, Map<String, Object> body, String... fields) throws BrokerException {
+		if(path.length < 3)
+			throw new BrokerException(AMQP.NOT_FOUND, "no permission resource");
+		getVirtualHost(path[1]);
+		List<String> key = Arrays.asList(path[1], path[2]);
+		switch (method) {
+		case "GET":
+			Map<String, Object> permission = permissions.get(key);
+			if(permission == null)
+				throw new BrokerException(AMQP.NOT_FOUND, "no permission of user '" + path[2] + "' in vhost '" + path[1] + "'");
+			return Response.ok(permission);
+		case "PUT":
+			if(!_users.containsKey(path[2]))
+				throw new BrokerException(AMQP.PRECONDITION_FAILED, "no user '" + path[2] + "'");
+			Map<String, Object> newPermission = new LinkedHashMap<>();
+			newPermission.put("user", path[2]);
+			newPermission.put("vhost", path[1]);
+			for(String field : fields)
+				newPermission.put(field, body.get(field) == null? "" : body.get(field).toString());
+			return permissions.put(key, newPermission) == null? Response.CREATED : Response.NO_CONTENT;
+		case "DELETE":
+			if(permissions.remove(key) == null)
+				throw new BrokerException(AMQP.NOT_FOUND, "no permission of user '" + path[2] + "' in vhost '" + path[1] + "'");
+			return Response.NO_CONTENT;
+		default:
+			return Response.METHOD_NOT_ALLOWED;
+		}
+	}
+
+	/**
+	 * definitions and definitions/vhost, only the import, applied in the broker order and
+	 * stopping at the first failing resource. The resources of the global import have their
+	 * vhost field, the virtual host import ignores the virtual hosts, users and permissions.
+	 */
+	private Response definitions(String method, VirtualHost virtualHost, Map<String, Object> body)
+			throws BrokerException {
+		if(!method.equals("POST"))
+			return Response.METHOD_NOT_ALLOWED;
+
+		if(virtualHost == null) {
+			for(Map<String, Object> vhost : getList(body, "vhosts"))
+				_broker.addVirtualHost((String) vhost.get("name"));
+			for(Map<String, Object> user : getList(body, "users"))
+				user("PUT", (String) user.get("name"), user);
+			for(Map<String, Object> permission : getList(body, "permissions"))
+				permission("PUT", _permissions, new String[] {"permissions", (String) permission.get("vhost"),
+						(String) permission.get("user")}, permission, "configure", "write", "read");
+			for(Map<String, Object> permission : getList(body, "topic_permissions"))
+				permission("PUT", _topicPermissions, new String[] {"topic-permissions", (String) permission.get("vhost"),
+						(String) permission.get("user")}, permission, "exchange", "write", "read");
+		}
+
+		for(Map<String, Object> exchange : getList(body, "exchanges"))
+			exchange("PUT", getVirtualHost(virtualHost, exchange), (String) exchange.get("name"), exchange);
+		for(Map<String, Object> queue : getList(body, "queues"))
+			queue("PUT", getVirtualHost(virtualHost, queue), (String) queue.get("name"), queue);
+		for(Map<String, Object> binding : getList(body, "bindings"))
+			binding("POST", new String[] {"bindings", getVirtualHost(virtualHost, binding).getName(), "e",
+					(String) binding.get("source"), "queue".equals(binding.get("destination_type"))? "q" : "e",
+					(String) binding.get("destination")}, binding);
+		for(Map<String, Object> policy : getList(body, "policies"))
+			policy("PUT", getVirtualHost(virtualHost, policy), (String) policy.get("name"), policy);
+		return Response.NO_CONTENT;
+	}
+
+	private Map<String, Object> overview() {
+		Map<String, Object> overview = new LinkedHashMap<>();
+		overview.put("management_version", EmbeddedBroker.VERSION);
+		overview.put("rabbitmq_version", EmbeddedBroker.VERSION);
+		overview.put("product_name", "Embedded Broker");
+		return overview;
+	}
+
+	private VirtualHost getVirtualHost(String name) throws BrokerException {
+		VirtualHost virtualHost = _broker.getVirtualHost(name);
+		if(virtualHost == null)
+			throw new BrokerException(AMQP.NOT_FOUND, "no vhost '" + name + "'");
+		return virtualHost;
+	}
+
+	// The virtual host of the import, otherwise of the imported resource
+	private VirtualHost getVirtualHost(VirtualHost virtualHost, Map<String, Object> resource) throws BrokerException {
+		return virtualHost != null? virtualHost : getVirtualHost((String) resource.get("vhost"));
+	}
+
+	private Map<String, Object> toJson(BrokerExchange exchange) {
+		Map<String, Object> json = new LinkedHashMap<>();
+		json.put("name", exchange.getName());
+		json.put("type", exchange.getType().getType());
+		json.put("durable", exchange.isDurable());
+		json.put("auto_delete", exchange.isAutoDelete());
+		json.put("internal", exchange.isInternal());
+		json.put("arguments", exchange.getArguments());
+		return json;
+	}
+
+	private Map<String, Object> toJson(BrokerQueue queue) {
+		Map<String, Object> json = new LinkedHashMap<>();
+		json.put("name", queue.getName());
+		json.put("durable", queue.isDurable());
+		json.put("auto_delete", queue.isAutoDelete());
+		json.put("exclusive", queue.getOwner() != null);
+		json.put("arguments", queue.getArguments());
+		json.put("policy", queue.getPolicy() == null? null : queue.getPolicy().getName());
+		json.put("messages", queue.getMessageCount());
+		json.put("consumers", queue.getConsumerCount());
+		return json;
+	}
+
+	private Map<String, Object> toJson(String virtualHost, BrokerBinding binding) {
+		Map<String, Object> json = new LinkedHashMap<>();
+		json.put("source", binding.getSource().getName());
+		json.put("vhost", virtualHost);
+		json.put("destination", binding.getDestinationName());
+		json.put("destination_type", binding.getQueue() != null? "queue" : "exchange");
+		json.put("routing_key", binding.getRoutingKey());
+		json.put("arguments", binding.getArguments());
+		json.put("properties_key", propertiesKey(binding));
+		return json;
+	}
+
+	private Map<String, Object> toJson(String virtualHost, BrokerPolicy policy) {
+		Map<String, Object> json = new LinkedHashMap<>();
+		json.put("vhost", virtualHost);
+		json.put("name", policy.getName());
+		json.put("pattern", policy.getPattern());
+		json.put("apply-to", policy.getApplyTo());
+		json.put("definition", policy.getDefinition());
+		json.put("priority", policy.getPriority());
+		return json;
+	}
+
+	private static String propertiesKey(BrokerBinding binding) {
+		return binding.getRoutingKey().isEmpty()? "~" : binding.getRoutingKey();
+	}
+
+	private static <T> List<Object> list(Iterable<T> items, Function<T, Object> toJson) {
+		List<Object> list = new ArrayList<>();
+		for(T item : items)
+			list.add(toJson.apply(item));
+		return list;
+	}
+
+	private static Response get(String method, Object body) {
+		return method.equals("GET")? Response.ok(body) : Response.METHOD_NOT_ALLOWED;
+	}
+
+	private static boolean getBoolean(Map<String, Object> body, String name, boolean defaultValue) {
+		Object value = body.get(name);
+		return value == null? defaultValue : (Boolean) value;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Map<String, Object> getMap(Map<String, Object> body, String name) {
+		return (Map<String, Object>) body.get(name);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static List<Map<String, Object>> getList(Map<String, Object> body, String name) {
+		Object list = body.get(name);
+		return list == null? Collections.<Map<String, Object>>emptyList() : (List<Map<String, Object>>) list;
+	}
+
+	private static Map<String, Object> error(String error, String reason) {
+		Map<String, Object> json = new LinkedHashMap<>();
+		json.put("error", error);
+		json.put("reason", reason);
+		return json;
+	}
+
+	private static String[] decodePath(String rawPath) throws UnsupportedEncodingException {
+		String[] segments = rawPath.split("/", -1);
+		for(int i = 0; i < segments.length; i++)
+			segments[i] = URLDecoder.decode(segments[i].replace("+", "%2B"), "UTF-8");
+		return segments;
+	}
+
+	private static String encode(String segment) {
+		try {
+			return URLEncoder.encode(segment, "UTF-8").replace("+", "%20");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+		try(InputStream input = exchange.getRequestBody()) {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			for(int read; (read = input.read(buffer)) != -1;)
+				body.write(buffer, 0, read);
+			if(body.size() == 0)
+				return Collections.emptyMap();
+			return _mapper.readValue(body.toByteArray(), JSON_OBJECT);
+		}
+	}
+
+	private void send(HttpExchange exchange, int status, Object body) throws IOException {
+		if(body == null) {
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		byte[] json = _mapper.writeValueAsString(body).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, json.length);
+		try(OutputStream output = exchange.getResponseBody()) {
+			output.write(json);
+		}
+	}
+
+	private void send(HttpExchange exchange, Response response) throws IOException {
+		if(response.location != null)
+			exchange.getResponseHeaders().set("Location", response.location);
+		send(exchange, response.status, response.body);
+	}
+
+	////////////////////////////////////////
+	private static final class Response {
+		static final Response CREATED = new Response(201, null);
+		static final Response NO_CONTENT = new Response(204, null);
+		static final Response METHOD_NOT_ALLOWED = new Response(405, error("method_not_allowed", "method not allowed"));
+
+		private final int status;
+		private final Object body;
+		private String location;
+
+		Response(int status, Object body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		static Response ok(Object body) {
+			return new Response(200, body);
+		}
+	}
+}
@@ -0,0 +1,454 @@
+package com.karim.examples.rabbitmq.broker;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.BuiltinExchangeType;
+
+/**
+ * Virtual host of the embedded broker holding its exchanges, queues, bindings and policies.
+ * The declarations are serialized by the virtual host lock, while the publishes only read
+ * the concurrent maps and the bindings.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+final class VirtualHost {
+	static final String DEFAULT_EXCHANGE = "";
+	// Prefix of the names reserved to the broker
+	private static final String RESERVED_PREFIX = "amq.";
+
+	private final String _name;
+	// Timer of the messages expiry
+	private final ScheduledExecutorService _timer;
+
+	private final ConcurrentMap<String, BrokerExchange> _exchanges = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, BrokerQueue> _queues = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, BrokerPolicy> _policies = new ConcurrentHashMap<>();
+
+	/**
+	 * @param name	the virtual host name
+	 * @param timer	the timer of the messages expiry
+	 */
+	VirtualHost(String name, ScheduledExecutorService timer) {
+		this._name = name;
+		this._timer = timer;
+
+		// The default and the pre-declared exchanges
+		addBuiltinExchange(DEFAULT_EXCHANGE, BuiltinExchangeType.DIRECT);
+		addBuiltinExchange("amq.direct", BuiltinExchangeType.DIRECT);
+		addBuiltinExchange("amq.fanout", BuiltinExchangeType.FANOUT);
+		addBuiltinExchange("amq.topic", BuiltinExchangeType.TOPIC);
+		addBuiltinExchange("amq.headers", BuiltinExchangeType.HEADERS);
+		addBuiltinExchange("amq.match", BuiltinExchangeType.HEADERS);
+	}
+
+	private void addBuiltinExchange(String name, BuiltinExchangeType type) {
+		_exchanges.put(name, new BrokerExchange(name, type, true, false, false, null));
+	}
+
+	String getName() {
+		return _name;
+	}
+
+	ScheduledExecutorService getTimer() {
+		return _timer;
+	}
+
+	Collection<BrokerExchange> getExchanges() {
+		return _exchanges.values();
+	}
+
+	Collection<BrokerQueue> getQueues() {
+		return _queues.values();
+	}
+
+	Collection<BrokerPolicy> getPolicies() {
+		return _policies.values();
+	}
+
+	/**
+	 * @return all the bindings, excluding the implicit bindings of the default exchange
+	 */
+	List<BrokerBinding> getBindings() {
+		List<BrokerBinding> bindings = new ArrayList<>();
+		for(BrokerExchange exchange : _exchanges.values())
+			bindings.addAll(exchange.getBindings());
+		return bindings;
+	}
+
+	/**
+	 * @param name the exchange name
+	 * @return the exchange
+	 * @throws BrokerException if not exist
+	 */
+	BrokerExchange getExchange(String name) throws BrokerException {
+		BrokerExchange exchange = _exchanges.get(name);
+		if(exchange == null)
+			throw new BrokerException(AMQP.NOT_FOUND, "no exchange '" + name + "' in vhost '" + _name + "'");
+		return exchange;
+	}
+
+	/**
+	 * @param name			the queue name
+	 * @param connection	the connection accessing the queue, null for the management
+	 * @return the queue
+	 * @throws BrokerException if not exist or exclusive to another connection
+	 */
+	BrokerQueue getQueue(String name, BrokerConnection connection) throws BrokerException {
+		BrokerQueue queue = _queues.get(name);
+		if(queue == null)
+			throw new BrokerException(AMQP.NOT_FOUND, "no queue '" + name + "' in vhost '" + _name + "'");
+		checkOwner(queue, connection);
+		return queue;
+	}
+
+	private void checkOwner(BrokerQueue queue, BrokerConnection connection) throws BrokerException {
+		if(queue.getOwner() != null && connection != null && queue.getOwner() != connection)
+			throw new BrokerException(AMQP.RESOURCE_LOCKED, "cannot obtain exclusive access to locked queue '"
+					+ queue.getName() + "' in vhost '" + _name + "'");
+	}
+
+	/**
+	 * Declare an exchange, or check the existing one is equivalent
+	 *
+	 * @return the exchange
+	 * @throws BrokerException if the type is unknown, the name reserved or the existing exchange not equivalent
+	 */
+	synchronized BrokerExchange declareExchange(String name, String type, boolean passive, boolean durable,
+			boolean autoDelete, boolean internal, Map<String, Object> arguments) throws BrokerException {
+		if(passive)
+			return getExchange(name);
+		if(name.equals(DEFAULT_EXCHANGE))
+			throw new BrokerException(AMQP.ACCESS_REFUSED, "operation not permitted on the default exchange");
+
+		BuiltinExchangeType exchangeType = parseExchangeType(type);
+		BrokerExchange exchange = _exchanges.get(name);
+		if(exchange != null) {
+			String inequivalent = exchange.getType() != exchangeType? "type"
+					: exchange.isDurable() != durable? "durable"
+					: exchange.isAutoDelete() != autoDelete? "auto_delete"
+					: exchange.isInternal() != internal? "internal"
+					: BrokerArguments.findInequivalent(exchange.getArguments(), BrokerArguments.normalize(arguments));
+			if(inequivalent != null)
+				throw new BrokerException(AMQP.PRECONDITION_FAILED, "inequivalent arg '" + inequivalent
+						+ "' for exchange '" + name + "' in vhost '" + _name + "'");
+			return exchange;
+		}
+		if(name.startsWith(RESERVED_PREFIX))
+			throw new BrokerException(AMQP.ACCESS_REFUSED, "exchange name '" + name + "' contains reserved prefix 'amq.*'");
+
+		exchange = new BrokerExchange(name, exchangeType, durable, autoDelete, internal, arguments);
+		_exchanges.put(name, exchange);
+		return exchange;
+	}
+
+	private static BuiltinExchangeType parseExchangeType(String type) throws BrokerException {
+		for(BuiltinExchangeType exchangeType : BuiltinExchangeType.values())
+			if(exchangeType.getType().equals(type))
+				return exchangeType;
+		throw BrokerException.connectionError(AMQP.COMMAND_INVALID, "unknown exchange type '" + type + "'");
+	}
+
+	/**
+	 * Delete an exchange and its bindings, nothing if not exist
+	 *
+	 * @throws BrokerException if the exchange reserved, or used and ifUnused set
+	 */
+	synchronized void deleteExchange(String name, boolean ifUnused) throws BrokerException {
+		if(name.equals(DEFAULT_EXCHANGE) || name.startsWith(RESERVED_PREFIX))
+			throw new BrokerException(AMQP.ACCESS_REFUSED, "operation not permitted on exchange '" + name + "'");
+		BrokerExchange exchange = _exchanges.get(name);
+		if(exchange == null)
+			return;
+		if(ifUnused && !exchange.getBindings().isEmpty())
+			throw new BrokerException(AMQP.PRECONDITION_FAILED, "exchange '" + name + "' in vhost '" + _name + "' in use");
+
+		removeExchange(exchange);
+	}
+
+	// Guarded by this
+	private void removeExchange(BrokerExchange exchange) {
+		_exchanges.remove(exchange.getName(), exchange);
+		exchange.getBindings().clear();
+		for(BrokerExchange source : new ArrayList<>(_exchanges.values()))
+			for(BrokerBinding binding : source.getBindings())
+				if(binding.getExchange() == exchange)
+					removeBinding(binding);
+	}
+
+	/**
+	 * Declare a queue, or check the existing one is equivalent
+	 *
+	 * @param name			the queue name, empty for a server-named queue
+	 * @param connection	the declaring connection, the owner if exclusive, null for the management
+	 * @return the queue
+	 * @throws BrokerException if the name reserved, an argument invalid or the existing queue not equivalent
+	 */
+	synchronized BrokerQueue declareQueue(String name, boolean passive, boolean durable, boolean exclusive,
+			boolean autoDelete, Map<String, Object> arguments, BrokerConnection connection) throws BrokerException {
+		if(passive)
+			return getQueue(name, connection);
+
+		if(name.isEmpty()) {
+			name = "amq.gen-" + UUID.randomUUID();
+		} else if(!_queues.containsKey(name) && name.startsWith(RESERVED_PREFIX)) {
+			throw new BrokerException(AMQP.ACCESS_REFUSED, "queue name '" + name + "' contains reserved prefix 'amq.*'");
+		}
+
+		BrokerQueue queue = _queues.get(name);
+		if(queue != null) {
+			checkOwner(queue, connection);
+			String inequivalent = queue.isDurable() != durable? "durable"
+					: (queue.getOwner() != null) != exclusive? "exclusive"
+					: queue.isAutoDelete() != autoDelete? "auto_delete"
+					: BrokerArguments.findInequivalent(queue.getArguments(), BrokerArguments.normalize(arguments));
+			if(inequivalent != null)
+				throw new BrokerException(AMQP.PRECONDITION_FAILED, "inequivalent arg '" + inequivalent
+						+ "' for queue '" + name + "' in vhost '" + _name + "'");
+			return queue;
+		}
+
+		queue = new BrokerQueue(this, name, durable, autoDelete, exclusive? connection : null, arguments);
+		queue.setPolicy(findPolicy(name, true));
+		_queues.put(name, queue);
+		return queue;
+	}
+
+	/**
+	 * Delete a queue, nothing if not exist
+	 *
+	 * @return the no of messages deleted
+	 * @throws BrokerException if exclusive to another connection, or used or not empty and the matching flag set
+	 */
+	int deleteQueue(String name, boolean ifUnused, boolean ifEmpty, BrokerConnection connection) throws BrokerException {
+		BrokerQueue queue;
+		synchronized (this) {
+			queue = _queues.get(name);
+			if(queue == null)
+				return 0;
+			checkOwner(queue, connection);
+			if(ifUnused && queue.getConsumerCount() > 0)
+				throw new BrokerException(AMQP.PRECONDITION_FAILED, "queue '" + name + "' in vhost '" + _name + "' in use");
+			if(ifEmpty && queue.getMessageCount() > 0)
+				throw new BrokerException(AMQP.PRECONDITION_FAILED, "queue '" + name + "' in vhost '" + _name + "' not empty");
+		}
+		return deleteQueue(queue);
+	}
+
+	/**
+	 * Delete a queue and its bindings, and cancel its consumers
+	 *
+	 * @return the no of messages deleted
+	 */
+	int deleteQueue(BrokerQueue queue) {
+		synchronized (this) {
+			if(!_queues.remove(queue.getName(), queue))
+				return 0;
+			for(BrokerExchange exchange : new ArrayList<>(_exchanges.values()))
+				for(BrokerBinding binding : exchange.getBindings())
+					if(binding.getQueue() == queue)
+						removeBinding(binding);
+		}
+		return queue.delete();
+	}
+
+	/**
+	 * Delete the exclusive queues of a closed connection
+	 */
+	void deleteExclusiveQueues(BrokerConnection connection) {
+		for(BrokerQueue queue : _queues.values())
+			if(queue.getOwner() == connection)
+				deleteQueue(queue);
+	}
+
+	/**
+	 * Bind a queue to an exchange, nothing if already bound
+	 *
+	 * @throws BrokerException if the queue or exchange not exist, or the exchange is the default one
+	 */
+	synchronized void bindQueue(String queueName, String exchangeName, String routingKey,
+			Map<String, Object> arguments, BrokerConnection connection) throws BrokerException {
+		BrokerQueue queue = getQueue(queueName, connection);
+		BrokerExchange exchange = getBindableExchange(exchangeName);
+		exchange.addBinding(BrokerBinding.toQueue(exchange, queue, routingKey, arguments));
+	}
+
+	/**
+	 * Unbind a queue from an exchange, nothing if not bound
+	 *
+	 * @throws BrokerException if the queue or exchange not exist, or the exchange is the default one
+	 */
+	synchronized void unbindQueue(String queueName, String exchangeName, String routingKey,
+			Map<String, Object> arguments, BrokerConnection connection) throws BrokerException {
+		BrokerQueue queue = getQueue(queueName, connection);
+		BrokerExchange exchange = getBindableExchange(exchangeName);
+		removeBinding(BrokerBinding.toQueue(exchange, queue, routingKey, arguments));
+	}
+
+	/**
+	 * Bind an exchange to a source exchange, nothing if already bound
+	 *
+	 * @throws BrokerException if an exchange not exist, or is the default one
+	 */
+	synchronized void bindExchange(String destinationName, String sourceName, String routingKey,
+			Map<String, Object> arguments) throws BrokerException {
+		BrokerExchange destination = getBindableExchange(destinationName);
+		BrokerExchange source = getBindableExchange(sourceName);
+		source.addBinding(BrokerBinding.toExchange(source, destination, routingKey, arguments));
+	}
+
+	/**
+	 * Unbind an exchange from a source exchange, nothing if not bound
+	 *
+	 * @throws BrokerException if an exchange not exist, or is the default one
+	 */
+	synchronized void unbindExchange(String destinationName, String sourceName, String routingKey,
+			Map<String, Object> arguments) throws BrokerException {
+		BrokerExchange destination = getBindableExchange(destinationName);
+		BrokerExchange source = getBindableExchange(sourceName);
+		removeBinding(BrokerBinding.toExchange(source, destination, routingKey, arguments));
+	}
+
+	private BrokerExchange getBindableExchange(String name) throws BrokerException {
+		if(name.equals(DEFAULT_EXCHANGE))
+			throw new BrokerException(AMQP.ACCESS_REFUSED, "operation not permitted on the default exchange");
+		return getExchange(name);
+	}
+
+	// Guarded by this, the auto-delete source exchange is deleted once its last binding removed
+	private void removeBinding(BrokerBinding binding) {
+		BrokerExchange source = binding.getSource();
+		if(source.removeBinding(binding) && source.isAutoDelete() && source.getBindings().isEmpty())
+			removeExchange(source);
+	}
+
+	/**
+	 * Route a published message to the queues
+	 *
+	 * @param exchangeName	the exchange to publish to
+	 * @param message		the message
+	 * @return true if routed to at least one queue
+	 * @throws BrokerException if the exchange not exist or internal
+	 */
+	boolean publish(String exchangeName, BrokerMessage message) throws BrokerException {
+		BrokerExchange exchange = getExchange(exchangeName);
+		if(exchange.isInternal())
+			throw new BrokerException(AMQP.ACCESS_REFUSED, "cannot publish to internal exchange '" + exchangeName
+					+ "' in vhost '" + _name + "'");
+
+		Set<BrokerQueue> queues = route(exchange, message);
+		for(BrokerQueue queue : queues)
+			queue.enqueue(message);
+		return !queues.isEmpty();
+	}
+
+	/**
+	 * Route a dead-lettered message, dropped if the dead letter exchange not exist
+	 *
+	 * @param message the message with its dead letter exchange and routing key
+	 */
+	void publishDeadLetter(BrokerMessage message) {
+		BrokerExchange exchange = _exchanges.get(message.getExchange());
+		if(exchange == null)
+			return;
+		for(BrokerQueue queue : route(exchange, message))
+			queue.enqueue(message);
+	}
+
+	/**
+	 * The default exchange routes to the queue named by the routing key, and the unroutable
+	 * messages of an exchange go to its alternate exchange if set
+	 */
+	private Set<BrokerQueue> route(BrokerExchange exchange, BrokerMessage message) {
+		Set<BrokerQueue> queues = new LinkedHashSet<>();
+		if(exchange.getName().equals(DEFAULT_EXCHANGE)) {
+			BrokerQueue queue = _queues.get(message.getRoutingKey());
+			if(queue != null)
+				queues.add(queue);
+			return queues;
+		}
+
+		Set<BrokerExchange> visited = new HashSet<>();
+		while(exchange != null && queues.isEmpty()) {
+			exchange.route(message, queues, visited);
+			if(!queues.isEmpty())
+				break;
+
+			Object alternate = exchange.getArguments().get(BrokerExchange.ALTERNATE_EXCHANGE_ARGUMENT);
+			if(alternate == null) {
+				BrokerPolicy policy = findPolicy(exchange.getName(), false);
+				alternate = policy == null? null : policy.getDefinition().get(BrokerExchange.ALTERNATE_EXCHANGE_ARGUMENT);
+			}
+			exchange = alternate == null? null : _exchanges.get(alternate.toString());
+			if(exchange != null && visited.contains(exchange))
+				exchange = null;
+		}
+		return queues;
+	}
+
+	/**
+	 * Add or replace a policy and apply it to the matching queues
+	 */
+	synchronized void setPolicy(BrokerPolicy policy) {
+		_policies.put(policy.getName(), policy);
+		applyPolicies();
+	}
+
+	/**
+	 * @return true if deleted, false if not exist
+	 */
+	synchronized boolean deletePolicy(String name) {
+		boolean deleted = _policies.remove(name) != null;
+		applyPolicies();
+		return deleted;
+	}
+
+	// Guarded by this
+	private void applyPolicies() {
+		for(BrokerQueue queue : _queues.values())
+			queue.setPolicy(findPolicy(queue.getName(), true));
+	}
+
+	/**
+	 * @return the highest priority policy matching the resource, null if none
+	 */
+	private BrokerPolicy findPolicy(String name, boolean queue) {
+		BrokerPolicy found = null;
+		for(BrokerPolicy policy : _policies.values())
+			if(policy.appliesTo(name, queue) && (found == null || policy.getPriority() > found.getPriority()))
+				found = policy;
+		return found;
+	}
+
+	/**
+	 * Keep the durable resources only, and the persistent messages of the durable queues, as
+	 * a broker restart does
+	 */
+	void dropTransientState() {
+		List<BrokerQueue> transientQueues = new ArrayList<>();
+		synchronized (this) {
+			for(BrokerQueue queue : _queues.values()) {
+				if(queue.isDurable() && queue.getOwner() == null)
+					queue.dropTransientMessages();
+				else
+					transientQueues.add(queue);
+			}
+			for(BrokerExchange exchange : new ArrayList<>(_exchanges.values()))
+				if(!exchange.isDurable())
+					removeExchange(exchange);
+		}
+		for(BrokerQueue queue : transientQueues)
+			deleteQueue(queue);
+	}
+}
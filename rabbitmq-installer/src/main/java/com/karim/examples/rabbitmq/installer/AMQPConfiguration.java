@@ -2,21 +2,27 @@ package com.karim.examples.rabbitmq.installer;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import com.karim.examples.rabbitmq.installer.model.Binding;
 import com.karim.examples.rabbitmq.installer.model.Exchange;
 import com.karim.examples.rabbitmq.installer.model.Policy;
 import com.karim.examples.rabbitmq.installer.model.Queue;
+import com.karim.examples.rabbitmq.installer.model.QueueArguments;
 
 
 public class AMQPConfiguration {
@@ -26,15 +32,32 @@ public class AMQPConfiguration {
 	private final String vHost;
 	private final String includeUsersAndPermissionsDefinition;
 	private final List<String> configurationFiles;
+	// Import all the resources by the definitions endpoint, otherwise declare them one by one
+	private final boolean importDefinitions;
+	// RabbitMQ major and minor version, read once when needed, {0, 0} if unknown
+	private int[] brokerVersion;
 
 	public final static String companyName = "companyName";
+	// Streams are supported from RabbitMQ 3.9
+	private final static int[] MIN_STREAM_VERSION = {3, 9};
+	// Quorum queues are supported from RabbitMQ 3.8
+	private final static int[] MIN_QUORUM_VERSION = {3, 8};
+	private final static Pattern RABBITMQ_VERSION = Pattern.compile("\"rabbitmq_version\":\"([0-9]+)\\.([0-9]+)");
+	// A string field of a JSON object by name, the value kept quoted
+	private final static Pattern JSON_STRING_FIELD = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"\\s*:\\s*(\"(?:[^\"\\\\]|\\\\.)*\")");
+
 	public AMQPConfiguration(String baseUrl, String username, String password, String vHost, String includeUsersAndPermissionsDefinition, List<String> configurationFiles) {
+		this(baseUrl, username, password, vHost, includeUsersAndPermissionsDefinition, configurationFiles, true);
+	}
+
+	public AMQPConfiguration(String baseUrl, String username, String password, String vHost, String includeUsersAndPermissionsDefinition, List<String> configurationFiles, boolean importDefinitions) {
 		this.baseUrl = baseUrl;
 		this.username = username;
 		this.password = password;
 		this.vHost = vHost;
 		this.includeUsersAndPermissionsDefinition = includeUsersAndPermissionsDefinition;
 		this.configurationFiles = configurationFiles;
+		this.importDefinitions = importDefinitions;
 	}
 	
 	public void install() {
@@ -53,22 +76,32 @@ public class AMQPConfiguration {
 		System.out.println("Start declaring resources...");
 		createVirtualHost(this.vHost);
 
-		for (Exchange ex : properties.getExchanges()) {
-			createExchange(this.vHost, ex.getName(), ex.getProperties());
-		}
-		for (Queue queue : properties.getQueues()) {
-			createQueue(this.vHost, queue.getName(), queue.getProperties());
-		}
-		for (Binding binding : properties.getBindings()) {
-			bindExchangeToQueue(this.vHost, binding.getExchangeName(), binding.getQueueName(), binding.getRoutingKey());
-		}
-
-		for (Policy policy : properties.getPolicies()) {
-			createPolicy(this.vHost, policy.getName(), policy.getProperties());
+		List<Queue> queues = supportedQueues(properties.getQueues());
+		List<Queue> streams = supportedQueues(properties.getStreams());
+		
+		// The resources are declared one by one if the import fails, e.g. an older broker
+		if(!importDefinitions || !importTopology(properties, queues, streams)) {
+			for (Exchange ex : properties.getExchanges()) {
+				createExchange(this.vHost, ex.getName(), ex.getProperties());
+			}
+			for (Queue queue : queues) {
+				createQueue(this.vHost, queue.getName(), queue.getProperties());
+			}
+			for (Queue stream : streams) {
+				createStream(this.vHost, stream.getName(), stream.getProperties());
+			}
+			for (Binding binding : properties.getBindings()) {
+				bindExchangeToQueue(this.vHost, binding.getExchangeName(), binding.getQueueName(), binding.getRoutingKey());
+			}
+	
+			for (Policy policy : properties.getPolicies()) {
+				createPolicy(this.vHost, policy.getName(), policy.getProperties());
+			}
 		}
 		
 		// Set the default privilege if enabled
-		if(includeUsersAndPermissionsDefinition.equals("true")) {
+		if(includeUsersAndPermissionsDefinition.equals("true") 
+				&& (!importDefinitions || !importUsers(properties))) {
 			for(Map.Entry<String, Set<String>> entry : properties.getUsers().entrySet()) {
 				String user = entry.getKey();
 				Set<String> exchangesToAccess = entry.getValue();
@@ -77,13 +110,7 @@ public class AMQPConfiguration {
 				createUser(user);
 				
 				// Add permissions
-				Set<String> appsToAccess = new HashSet<String>();
-				
-				for (String exchangeName : exchangesToAccess) {
-					appsToAccess.add(exchangeName.substring(exchangeName.lastIndexOf(".") + 1));
-				}
-				
-				AssignBasicPermissionToUser(this.vHost, user, appsToAccess);
+				AssignBasicPermissionToUser(this.vHost, user, appsToAccess(exchangesToAccess));
 				AssignTopicPermissionToUser(this.vHost, user, exchangesToAccess);
 			}
 		}
@@ -91,6 +118,122 @@ public class AMQPConfiguration {
 		System.out.println("Finish declaring resources...");
 	}
 
+	/**
+	 * An older broker would declare the quorum queues and the streams as classic queues, 
+	 * kept in memory, so they are not declared.
+	 * 
+	 * @param queues	the loaded queues
+	 * @return the queues the broker supports
+	 */
+	private List<Queue> supportedQueues(Set<Queue> queues) {
+		List<Queue> supportedQueues = new ArrayList<Queue>();
+		for (Queue queue : queues) {
+			int[] minVersion = QueueArguments.QUORUM.equals(queue.getType())? MIN_QUORUM_VERSION 
+					: QueueArguments.STREAM.equals(queue.getType())? MIN_STREAM_VERSION 
+					: null;
+			if(minVersion != null && !isBrokerVersionAtLeast(minVersion)) {
+				System.err.println(queue.getType() + " queue not declared, RabbitMQ " + minVersion[0] + "." 
+						+ minVersion[1] + " or later required: " + queue.getName());
+				continue;
+			}
+			supportedQueues.add(queue);
+		}
+		return supportedQueues;
+	}
+
+	private boolean importTopology(AMQPProperties properties, List<Queue> queues, List<Queue> streams) {
+		AMQPDefinitions definitions = new AMQPDefinitions(this.vHost);
+		for (Exchange ex : properties.getExchanges()) {
+			definitions.addExchange(ex);
+		}
+		for (Queue queue : queues) {
+			definitions.addQueue(queue);
+		}
+		for (Queue stream : streams) {
+			definitions.addQueue(stream);
+		}
+		for (Binding binding : properties.getBindings()) {
+			definitions.addBinding(binding);
+		}
+		for (Policy policy : properties.getPolicies()) {
+			definitions.addPolicy(policy);
+		}
+		
+		return importDefinitions("definitions/" + this.vHost, definitions.getTopology(), definitions.getTopologyResources());
+	}
+
+	private boolean importUsers(AMQPProperties properties) {
+		// The write permissions of the virtual host users, read at once to keep their apps
+		Map<String, String> writePermissions = new HashMap<String, String>();
+		try {
+			HttpResponse response = request("vhosts/" + this.vHost + "/permissions", "GET", null);
+			if(!response.isSuccessful())
+				throw new IOException(response.message);
+			
+			// The fields are read by name, their order depends on the broker version
+			for(Map<String, String> permission : jsonObjects(response.body == null? "" : response.body)) {
+				String user = permission.get("user");
+				String write = permission.get("write");
+				if(user != null && write != null)
+					writePermissions.put(unquote(user), write);
+			}
+		} catch (Exception e) {
+			System.err.println("Error during reading the permissions: " + e.getMessage());
+			System.err.println("Declaring the users and permissions one by one instead");
+			return false;
+		}
+		
+		AMQPDefinitions definitions = new AMQPDefinitions(this.vHost);
+		for(Map.Entry<String, Set<String>> entry : properties.getUsers().entrySet()) {
+			String user = entry.getKey();
+			Set<String> exchangesToAccess = entry.getValue();
+			definitions.addUser(user);
+			
+			Set<String> appsToAccess = appsToAccess(exchangesToAccess);
+			String writePermission = writePermissions.get(user);
+			if(writePermission != null && !addWritePermissionApps(writePermission, appsToAccess)) {
+				System.err.println("Old permission format not valid.");
+			} else {
+				definitions.addPermission(user, basicPermission(user, appsToAccess));
+			}
+			
+			for(String exchange : exchangesToAccess) {
+				definitions.addTopicPermission(user, topicPermission(user, exchange));
+			}
+		}
+		
+		return definitions.getUsers() == null 
+				|| importDefinitions("definitions", definitions.getUsers(), definitions.getUserResources());
+	}
+
+	/**
+	 * Import a definitions document at once, the broker stops at the first resource failing,
+	 * so the resources imported before it are kept and declared again by the fallback.
+	 * 
+	 * @param path		the definitions endpoint
+	 * @param document	the definitions document
+	 * @param resources	the resources of the document, reported once imported
+	 * @return true if imported, false to declare the resources one by one
+	 */
+	private boolean importDefinitions(String path, String document, List<String> resources) {
+		try {
+			System.out.println("Import definitions: " + path + " (" + resources.size() + " resources)");
+			HttpResponse response = request(path, "POST", document);
+			if(response.isSuccessful()) {
+				for (String resource : resources) {
+					System.out.println("Imported " + resource);
+				}
+				return true;
+			}
+			System.err.println("Error during import the definitions: " + response.message 
+					+ (response.body == null? "" : " " + response.body));
+		} catch (Exception e) {
+			System.err.println("Error during import the definitions: " + e.getMessage());
+		}
+		System.err.println("Declaring the resources one by one instead");
+		return false;
+	}
+
 	private void createVirtualHost(String name) {
 		try {
 			System.out.println("Declare virtual host: " + name);
@@ -121,6 +264,36 @@ public class AMQPConfiguration {
 		}
 	}
 
+	private void createStream(String vh, String name, String body) {
+		try {
+			System.out.println("Declare stream: " + name);
+			String responseString = sendDataToServer("queues/" + vh + "/" + name, "PUT", body);
+			System.out.println(responseString);
+		} catch (Exception e) {
+			System.err.println("Error during define the stream: " + e.getMessage());
+		}
+	}
+
+	private boolean isBrokerVersionAtLeast(int[] minVersion) {
+		if(brokerVersion == null) {
+			brokerVersion = new int[] {0, 0};
+			try {
+				Matcher version = RABBITMQ_VERSION.matcher(sendDataToServer("overview", "GET", null));
+				if(version.find()) {
+					brokerVersion[0] = Integer.parseInt(version.group(1));
+					brokerVersion[1] = Integer.parseInt(version.group(2));
+				} else {
+					System.err.println("Unable to read the RabbitMQ version");
+				}
+			} catch (Exception e) {
+				System.err.println("Error during reading the RabbitMQ version: " + e.getMessage());
+			}
+		}
+		
+		return brokerVersion[0] > minVersion[0] 
+				|| (brokerVersion[0] == minVersion[0] && brokerVersion[1] >= minVersion[1]);
+	}
+
 	private void bindExchangeToQueue(String vh, String exchangeName, String queueName, String routingKey) {
 		try {
 			System.out.println("Binding queue: " + queueName + " to exchange " + exchangeName);
@@ -164,43 +337,104 @@ public class AMQPConfiguration {
 			String oldPermission = sendDataToServer("permissions/" + vHost + "/" + user, "GET", null);	
 			if(!oldPermission.equals("Not Found")) {
 				String writePermission = (oldPermission.split(",")[3]).split(":")[1];
-				if(!writePermission.equals("\"\"")) {
-					String[] permissionDetails = writePermission.split("\\.");
-					
-					if(permissionDetails.length != 3) {
-						System.err.println("Old permission format not valid.");
-						return;
-					}
-					writePermission = permissionDetails[2];
-					writePermission = writePermission.substring(1, writePermission.length()-2);
-					
-					appsToAccess.addAll(Arrays.asList(writePermission.split("\\|")));
+				if(!addWritePermissionApps(writePermission, appsToAccess)) {
+					System.err.println("Old permission format not valid.");
+					return;
 				}
 			}
 		
-			String permission = "";
-			if(appsToAccess.size() > 0) {
-				for(String appToAccess : appsToAccess) {
-					permission += appToAccess + "|";
-				}
-				
-				permission = "{\"configure\":\"\",\"write\":\"" + companyName + "\\.ex\\.("+ permission.substring(0, permission.length() - 1) +")\",\"read\":\""+companyName+"\\.qu\\."+ user +"\\..+\"}";
-			} else {
-				permission = "{\"configure\":\"\",\"write\":\"\",\"read\":\""+companyName+"\\.qu\\."+ user +"\\\\..*\"}";
-			}
-			
-			String responseString = sendDataToServer("permissions/" + vHost + "/" + user, "PUT", permission);
+			String responseString = sendDataToServer("permissions/" + vHost + "/" + user, "PUT", basicPermission(user, appsToAccess));
 			System.out.println(responseString);
 		} catch (Exception e) {
 			System.err.println("Error during define the basic permission: " + e.getMessage());
 		}
 	}
+
+	/**
+	 * @param array	a JSON array of flat objects, e.g. the permissions of a virtual host
+	 * @return the string fields by name of each object, the values kept quoted
+	 */
+	private static List<Map<String, String>> jsonObjects(String array) {
+		List<Map<String, String>> objects = new ArrayList<Map<String, String>>();
+		boolean inString = false;
+		int objectStart = -1;
+		for(int i = 0; i < array.length(); i++) {
+			char c = array.charAt(i);
+			if(inString) {
+				if(c == '\\')
+					i++;
+				else if(c == '"')
+					inString = false;
+			} else if(c == '"') {
+				inString = true;
+			} else if(c == '{') {
+				objectStart = i;
+			} else if(c == '}' && objectStart >= 0) {
+				Map<String, String> fields = new HashMap<String, String>();
+				Matcher field = JSON_STRING_FIELD.matcher(array.substring(objectStart, i + 1));
+				while(field.find()) {
+					fields.put(field.group(1), field.group(2));
+				}
+				objects.add(fields);
+				objectStart = -1;
+			}
+		}
+		return objects;
+	}
+
+	private static String unquote(String value) {
+		return value.substring(1, value.length() - 1).replaceAll("\\\\(.)", "$1");
+	}
+
+	private static Set<String> appsToAccess(Set<String> exchangesToAccess) {
+		Set<String> appsToAccess = new HashSet<String>();
+		for (String exchangeName : exchangesToAccess) {
+			appsToAccess.add(exchangeName.substring(exchangeName.lastIndexOf(".") + 1));
+		}
+		return appsToAccess;
+	}
+
+	/**
+	 * @param writePermission	the quoted write permission of a user, e.g. "companyName\\.ex\\.(app1|app2)"
+	 * @param appsToAccess		the apps to add the write permission apps to
+	 * @return false if the write permission format is not valid
+	 */
+	private static boolean addWritePermissionApps(String writePermission, Set<String> appsToAccess) {
+		if(writePermission.equals("\"\""))
+			return true;
+		
+		String[] permissionDetails = writePermission.split("\\.");
+		if(permissionDetails.length != 3)
+			return false;
+		
+		writePermission = permissionDetails[2];
+		writePermission = writePermission.substring(1, writePermission.length()-2);
+		
+		appsToAccess.addAll(Arrays.asList(writePermission.split("\\|")));
+		return true;
+	}
+
+	private static String basicPermission(String user, Set<String> appsToAccess) {
+		String permission = "";
+		if(appsToAccess.size() > 0) {
+			for(String appToAccess : appsToAccess) {
+				permission += appToAccess + "|";
+			}
+			
+			return "{\"configure\":\"\",\"write\":\"" + companyName + "\\.ex\\.("+ permission.substring(0, permission.length() - 1) +")\",\"read\":\""+companyName+"\\.qu\\."+ user +"\\..+\"}";
+		}
+		return "{\"configure\":\"\",\"write\":\"\",\"read\":\""+companyName+"\\.qu\\."+ user +"\\\\..*\"}";
+	}
+
+	private static String topicPermission(String user, String exchange) {
+		return "{\"exchange\":\""+ exchange +"\",\"write\":\""+ user +"\\..+\",\"read\":\"\"}";
+	}
 	
 
 	private void AssignTopicPermissionToUser(String vHost, String user, Set<String> exchangesToAccess) {
 		for(String exchange : exchangesToAccess) {
 			try {
-				String permission = "{\"exchange\":\""+ exchange +"\",\"write\":\""+ user +"\\..+\",\"read\":\"\"}";
+				String permission = topicPermission(user, exchange);
 				System.out.println("Declare topic permission on vHost: " + vHost + " to user: " + user + " to access: " + exchange + " with permission: " + permission);
 				
 				String responseString = sendDataToServer("topic-permissions/" + vHost + "/" + user, "PUT", permission);
@@ -213,35 +447,46 @@ public class AMQPConfiguration {
 	
 
 	private String sendDataToServer(String path, String requestMethod, String body) throws IOException {
-		HttpURLConnection urlConnection = null;
-		BufferedReader br = null;
-		try {
-			urlConnection = startHttpURLConnection(new URL(baseUrl + path));
-			urlConnection.setRequestMethod(requestMethod);
-			urlConnection.setRequestProperty("Content-Type", "application/json");
-
-			// add body
-			if (body != null) {
-				OutputStreamWriter writer = new OutputStreamWriter(urlConnection.getOutputStream(), "UTF-8");
-				writer.write(body);
-				writer.close();
-			}
-			
-			if (200 <= urlConnection.getResponseCode() && urlConnection.getResponseCode() <= 299) {
-			    br = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()));
-			    String responseBody = br.readLine();
-			    return (responseBody == null)? urlConnection.getResponseMessage() : responseBody;
-			} 
-			
-			return urlConnection.getResponseMessage();
-		} finally {
-			if(br != null) {
+		HttpResponse response = request(path, requestMethod, body);
+		if (response.isSuccessful()) {
+		    return (response.body == null)? response.message : response.body;
+		} 
+		
+		return response.message;
+	}
+
+	/**
+	 * The response is read to its end and closed without disconnecting, so the connection
+	 * is kept alive and reused by the next request instead of connecting again.
+	 */
+	private HttpResponse request(String path, String requestMethod, String body) throws IOException {
+		HttpURLConnection urlConnection = startHttpURLConnection(new URL(baseUrl + path));
+		urlConnection.setRequestMethod(requestMethod);
+		urlConnection.setRequestProperty("Content-Type", "application/json");
+
+		// add body
+		if (body != null) {
+			OutputStreamWriter writer = new OutputStreamWriter(urlConnection.getOutputStream(), "UTF-8");
+			writer.write(body);
+			writer.close();
+		}
+		
+		int status = urlConnection.getResponseCode();
+		InputStream input = (200 <= status && status <= 299)? urlConnection.getInputStream() : urlConnection.getErrorStream();
+		StringBuilder responseBody = new StringBuilder();
+		if(input != null) {
+			BufferedReader br = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+			try {
+				for(String line; (line = br.readLine()) != null;) {
+					responseBody.append(line);
+				}
+			} finally {
 				br.close();
 			}
-			
-			if(urlConnection != null)
-				urlConnection.disconnect();
 		}
+		
+		return new HttpResponse(status, urlConnection.getResponseMessage(), 
+				responseBody.length() == 0? null : responseBody.toString());
 	}
 
 	private HttpURLConnection startHttpURLConnection(URL url) throws IOException {
@@ -253,4 +498,22 @@ public class AMQPConfiguration {
 		urlConnection.setRequestProperty("Authorization", "Basic " + authStringEnc);
 		return urlConnection;
 	}
+
+	////////////////////////////////////////
+	private static final class HttpResponse {
+		private final int status;
+		private final String message;
+		// The response body, null if empty
+		private final String body;
+
+		private HttpResponse(int status, String message, String body) {
+			this.status = status;
+			this.message = message;
+			this.body = body;
+		}
+
+		private boolean isSuccessful() {
+			return 200 <= status && status <= 299;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,156 @@
+package com.karim.examples.rabbitmq.installer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.karim.examples.rabbitmq.installer.model.Binding;
+import com.karim.examples.rabbitmq.installer.model.Exchange;
+import com.karim.examples.rabbitmq.installer.model.Policy;
+import com.karim.examples.rabbitmq.installer.model.Queue;
+
+/**
+ * Definitions documents of the loaded resources, imported at once by the management
+ * definitions endpoint instead of a request per resource. The topology (exchanges, queues,
+ * bindings and policies) is imported to the virtual host by POST definitions/vhost, the
+ * users and permissions are not imported by the virtual host endpoint, so they are imported
+ * by POST definitions.
+ *
+ * The declarations of the resources are the ones sent by the per resource requests, with
+ * the name and the fields the import requires but the requests default.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+class AMQPDefinitions {
+	private final String vHost;
+
+	private final List<String> exchanges = new ArrayList<String>();
+	private final List<String> queues = new ArrayList<String>();
+	private final List<String> bindings = new ArrayList<String>();
+	private final List<String> policies = new ArrayList<String>();
+	private final List<String> users = new ArrayList<String>();
+	private final List<String> permissions = new ArrayList<String>();
+	private final List<String> topicPermissions = new ArrayList<String>();
+
+	// The resources in the documents, "kind: name", reported once imported
+	private final List<String> topologyResources = new ArrayList<String>();
+	private final List<String> userResources = new ArrayList<String>();
+
+	/**
+	 * @param vHost the virtual host of the permissions
+	 */
+	AMQPDefinitions(String vHost) {
+		this.vHost = vHost;
+	}
+
+	void addExchange(Exchange exchange) {
+		exchanges.add(withFields(exchange.getProperties(), "name", quote(exchange.getName()),
+				"durable", "true", "auto_delete", "false", "internal", "false", "arguments", "{}"));
+		topologyResources.add("exchange: " + exchange.getName());
+	}
+
+	void addQueue(Queue queue) {
+		queues.add(withFields(queue.getProperties(), "name", quote(queue.getName()),
+				"durable", "true", "auto_delete", "false", "arguments", "{}"));
+		topologyResources.add("queue: " + queue.getName());
+	}
+
+	void addBinding(Binding binding) {
+		bindings.add("{\"source\":" + quote(binding.getExchangeName())
+				+ ",\"destination\":" + quote(binding.getQueueName())
+				+ ",\"destination_type\":\"queue\",\"routing_key\":"
+				+ quote(binding.getRoutingKey() == null? "" : binding.getRoutingKey())
+				+ ",\"arguments\":{}}");
+		topologyResources.add("binding: " + binding.getQueueName() + " to exchange " + binding.getExchangeName());
+	}
+
+	void addPolicy(Policy policy) {
+		policies.add(withFields(policy.getProperties(), "name", quote(policy.getName()),
+				"priority", "0", "apply-to", quote("all")));
+		topologyResources.add("policy: " + policy.getName());
+	}
+
+	/**
+	 * @param name		the user name, its password too
+	 */
+	void addUser(String name) {
+		users.add("{\"name\":" + quote(name) + ",\"password\":" + quote(name) + ",\"tags\":\"\"}");
+		userResources.add("user: " + name);
+	}
+
+	/**
+	 * @param user			the user name
+	 * @param permission	the permission JSON sent to permissions/vhost/user
+	 */
+	void addPermission(String user, String permission) {
+		permissions.add(withFields(permission, "user", quote(user), "vhost", quote(vHost)));
+		userResources.add("permission: " + user + " " + permission);
+	}
+
+	/**
+	 * @param user			the user name
+	 * @param permission	the topic permission JSON sent to topic-permissions/vhost/user
+	 */
+	void addTopicPermission(String user, String permission) {
+		topicPermissions.add(withFields(permission, "user", quote(user), "vhost", quote(vHost)));
+		userResources.add("topic permission: " + user + " " + permission);
+	}
+
+	/**
+	 * @return the exchanges, queues, bindings and policies document
+	 */
+	String getTopology() {
+		return "{\"exchanges\":" + array(exchanges) + ",\"queues\":" + array(queues)
+				+ ",\"bindings\":" + array(bindings) + ",\"policies\":" + array(policies) + "}";
+	}
+
+	/**
+	 * @return the users and permissions document, null if none
+	 */
+	String getUsers() {
+		if(users.isEmpty())
+			return null;
+		return "{\"users\":" + array(users) + ",\"permissions\":" + array(permissions)
+				+ ",\"topic_permissions\":" + array(topicPermissions) + "}";
+	}
+
+	List<String> getTopologyResources() {
+		return topologyResources;
+	}
+
+	List<String> getUserResources() {
+		return userResources;
+	}
+
+	/**
+	 * Add fields in front of a JSON object, the field name and value pairs after the first
+	 * one (the name) are added only if the object hasn't them
+	 */
+	private static String withFields(String json, String... fields) {
+		StringBuilder object = new StringBuilder("{");
+		for(int i = 0; i < fields.length; i += 2) {
+			if(i > 0 && json.contains("\"" + fields[i] + "\""))
+				continue;
+			if(object.length() > 1)
+				object.append(",");
+			object.append(quote(fields[i])).append(":").append(fields[i + 1]);
+		}
+
+		String body = json.trim().substring(1).trim();
+		return object.append(body.startsWith("}")? "" : ",").append(body).toString();
+	}
+
+	private static String array(List<String> values) {
+		StringBuilder array = new StringBuilder("[");
+		for(String value : values) {
+			if(array.length() > 1)
+				array.append(",");
+			array.append(value);
+		}
+		return array.append("]").toString();
+	}
+
+	private static String quote(String value) {
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+}
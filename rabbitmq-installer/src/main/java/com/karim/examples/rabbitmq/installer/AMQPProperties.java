@@ -2,9 +2,11 @@ package com.karim.examples.rabbitmq.installer;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -13,13 +15,33 @@ import com.karim.examples.rabbitmq.installer.model.Binding;
 import com.karim.examples.rabbitmq.installer.model.Exchange;
 import com.karim.examples.rabbitmq.installer.model.Policy;
 import com.karim.examples.rabbitmq.installer.model.Queue;
+import com.karim.examples.rabbitmq.installer.model.QueueArguments;
 
 
 public class AMQPProperties {
 	private static final String BASE_DIR = "";
+	// Routing key the delayed messages dead-lettered with when their TTL expires, the requeue queue
+	// binding of basic-configuration, the connector delay tier keys are documented by loadDelayTiers
+	private static final String REQUEUE_ROUTING_KEY = "requeue";
+	// Stream retention and segment arguments by their property name
+	private static final Map<String, String> STREAM_ARGUMENTS = new LinkedHashMap<String, String>();
+	// Stream max age, a number followed by the unit (Y, M, D, h, m or s)
+	private static final String STREAM_MAX_AGE_PATTERN = "[1-9][0-9]*[YMDhms]";
+	// Options applied to the queues declared by options of an app pair file
+	private static final String QUEUE_DEFAULTS = "queue-defaults";
+	// Named options referenced by @name from the queues and policies options
+	private static final String QUEUE_TEMPLATE = "queue-template/";
+	
+	static {
+		STREAM_ARGUMENTS.put("max-age", "x-max-age");
+		STREAM_ARGUMENTS.put("max-length-bytes", "x-max-length-bytes");
+		STREAM_ARGUMENTS.put("max-segment-size-bytes", "x-stream-max-segment-size-bytes");
+		STREAM_ARGUMENTS.put("initial-cluster-size", "x-initial-cluster-size");
+	}
 	
 	private Set<Exchange> exchanges;
 	private Set<Queue> queues;
+	private Set<Queue> streams;
 	private Set<Binding> bindings;
 	private Set<Policy> policies;
 	private Map<String, Set<String>> users;
@@ -27,6 +49,7 @@ public class AMQPProperties {
 	public AMQPProperties() {
 		exchanges = new HashSet<Exchange>();
 		queues = new HashSet<Queue>();
+		streams = new HashSet<Queue>();
 		bindings = new HashSet<Binding>();
 		policies = new HashSet<Policy>();
 		users = new HashMap<String, Set<String>>();
@@ -54,6 +77,8 @@ public class AMQPProperties {
 					throw new IOException("Unable to find " + fileName);
 			}
 			prop.load(input);
+			// The app pair defaults and templates override the common configuration ones
+			Properties pairProperties = (Properties) prop.clone();
 			
 			//Add users with default name 
 			users.putIfAbsent(apps[0], new HashSet<String>());
@@ -67,7 +92,23 @@ public class AMQPProperties {
 					configProperties.load(classLoader.getResourceAsStream(files[i]+".properties"));
 					prop.putAll(configProperties);
 				}
+				for(String keyName : pairProperties.stringPropertyNames()) {
+					if(keyName.equals(QUEUE_DEFAULTS) || keyName.startsWith(QUEUE_TEMPLATE))
+						prop.setProperty(keyName, pairProperties.getProperty(keyName));
+				}
+			}
+			
+			//Load the queue templates and defaults, before the queues and policies using them
+			Map<String, Map<String, String>> templates = new HashMap<String, Map<String, String>>();
+			for(String keyName : prop.stringPropertyNames()) {
+				if (keyName.startsWith(QUEUE_TEMPLATE)) {
+					String templateName = keyName.substring(QUEUE_TEMPLATE.length());
+					templates.put(templateName, QueueArguments.parse("template " + templateName, 
+							prop.getProperty(keyName), null, Collections.<String, Map<String, String>>emptyMap()));
+				}
 			}
+			Map<String, String> queueDefaults = prop.getProperty(QUEUE_DEFAULTS) == null? null 
+					: QueueArguments.parse(fileName + " " + QUEUE_DEFAULTS, prop.getProperty(QUEUE_DEFAULTS), null, templates);
 			
 			//Load configurations
 			Enumeration<Object> keySet = prop.keys();
@@ -81,7 +122,16 @@ public class AMQPProperties {
 				}
 				if (keyName.matches("queue/.*")) {
 					String queueName = keyName.substring(keyName.lastIndexOf("/")+1);
-					queues.add(new Queue(queueName, keyValue));
+					if(isJson(keyValue)) {
+						queues.add(new Queue(queueName, keyValue));
+					} else {
+						queues.add(new Queue(queueName, QueueArguments.toQueueArguments(queueName, 
+								QueueArguments.parse(queueName, keyValue, queueDefaults, templates))));
+					}
+				}
+				if (keyName.matches("stream/.*")) {
+					String streamName = keyName.substring(keyName.lastIndexOf("/")+1);
+					streams.add(new Queue(streamName, streamArguments(streamName, keyValue)));
 				}
 				if (keyName.matches("bind/.*")) {
 					String[] bindingInformation = keyName.split("/");
@@ -98,7 +148,25 @@ public class AMQPProperties {
 				}
 				
 				if (keyName.matches("policy/.*")) {
-					policies.add(new Policy(keyName.split("/")[1], keyValue));
+					String policyName = keyName.split("/")[1];
+					if(isJson(keyValue)) {
+						policies.add(new Policy(policyName, keyValue));
+					} else {
+						// The queue defaults are not applied, a policy bounds the queues it matches only
+						Map<String, String> options = QueueArguments.parse(policyName, keyValue, null, templates);
+						String priority = options.get(QueueArguments.PRIORITY);
+						policies.add(new Policy(policyName, options.get(QueueArguments.PATTERN), 
+								priority == null? 0 : Long.parseLong(priority), 
+								QueueArguments.toPolicyDefinition(policyName, options)));
+					}
+				}
+				
+				if (keyName.matches("delay/.*")) {
+					String[] delayInformation = keyName.split("/");
+					if(delayInformation.length != 3)
+						throw new IOException("Wrong delay definition " + keyName);
+					
+					loadDelayTiers(delayInformation[1], delayInformation[2], keyValue);
 				}
 
 			}
@@ -113,6 +181,98 @@ public class AMQPProperties {
 		}
 	}
 
+	/**
+	 * Declare a ladder of delay queues, one queue per TTL as a single queue TTL gives no 
+	 * backoff and per message TTLs are only expired at the head of the queue.
+	 * 
+	 * Each tier queue named queuePrefix.index and bound to the exchange with the routing key
+	 * (queuePrefix last segment).index, when the TTL expires the message is dead-lettered 
+	 * to the exchange with the requeue routing key.
+	 * 
+	 * The connector publishes the failed messages by the routing key prefix of
+	 * ConsumerConfigurer.withRedeliveryRoutingKeyPrefix, default waiting-requeue., so a queue
+	 * prefix of another last segment needs the consumers configured with it, otherwise the 
+	 * tiers are unroutable and the failed messages rejected to the dead-letter exchange.
+	 * 
+	 * @param exchangeName	the dead-letter exchange
+	 * @param queuePrefix	the delay queues name prefix
+	 * @param tiers			comma separated TTLs in milliseconds in ascending order
+	 * @throws IOException if the TTLs are not valid
+	 */
+	private void loadDelayTiers(String exchangeName, String queuePrefix, String tiers) throws IOException {
+		String routingKeyPrefix = queuePrefix.substring(queuePrefix.lastIndexOf(".") + 1);
+		String[] ttls = tiers.split(",");
+		
+		long previousTtl = 0;
+		for(int i = 0; i < ttls.length; i++) {
+			long ttl;
+			try {
+				ttl = Long.parseLong(ttls[i].trim());
+			} catch (NumberFormatException e) {
+				throw new IOException("Wrong delay TTL " + ttls[i] + " for " + queuePrefix);
+			}
+			if(ttl <= previousTtl)
+				throw new IOException("Delay TTLs must be positive and ascending for " + queuePrefix);
+			previousTtl = ttl;
+			
+			String queueName = queuePrefix + "." + i;
+			queues.add(new Queue(queueName, 
+					"{\"auto_delete\":false,\"durable\":true,\"arguments\":{\"x-message-ttl\":" + ttl 
+					+ ",\"x-dead-letter-exchange\":\"" + exchangeName 
+					+ "\",\"x-dead-letter-routing-key\":\"" + REQUEUE_ROUTING_KEY + "\"}}"));
+			bindings.add(new Binding(exchangeName, queueName, routingKeyPrefix + "." + i));
+		}
+	}
+
+	// A queue or policy declared by its JSON, otherwise by options
+	private static boolean isJson(String value) {
+		return value.trim().startsWith("{");
+	}
+
+	/**
+	 * Build the arguments of a stream queue, a durable queue of x-queue-type stream with 
+	 * its retention. The retention is comma separated name=value pairs of max-age (e.g. 7D), 
+	 * max-length-bytes, max-segment-size-bytes and initial-cluster-size, empty to keep all.
+	 * 
+	 * @param streamName	the stream queue name
+	 * @param retention		the stream retention
+	 * @return the stream queue arguments
+	 * @throws IOException if the retention is not valid
+	 */
+	private Map<String, Object> streamArguments(String streamName, String retention) throws IOException {
+		Map<String, Object> arguments = new LinkedHashMap<String, Object>();
+		arguments.put("x-queue-type", QueueArguments.STREAM);
+		
+		for(String argument : retention.split(",")) {
+			if(argument.trim().isEmpty())
+				continue;
+			
+			String[] nameValue = argument.split("=");
+			String name = nameValue[0].trim();
+			if(nameValue.length != 2 || !STREAM_ARGUMENTS.containsKey(name))
+				throw new IOException("Wrong stream retention " + argument + " for " + streamName 
+						+ ", expected one of " + STREAM_ARGUMENTS.keySet());
+			
+			String value = nameValue[1].trim();
+			if(name.equals("max-age")) {
+				if(!value.matches(STREAM_MAX_AGE_PATTERN))
+					throw new IOException("Wrong stream max-age " + value + " for " + streamName);
+				arguments.put(STREAM_ARGUMENTS.get(name), value);
+			} else {
+				try {
+					long number = Long.parseLong(value);
+					if(number <= 0)
+						throw new NumberFormatException();
+					arguments.put(STREAM_ARGUMENTS.get(name), number);
+				} catch (NumberFormatException e) {
+					throw new IOException("Wrong stream " + name + " " + value + " for " + streamName);
+				}
+			}
+		}
+		
+		return arguments;
+	}
+
 	public Set<Exchange> getExchanges() {
 		return exchanges;
 	}
@@ -121,6 +281,10 @@ public class AMQPProperties {
 		return queues;
 	}
 
+	public Set<Queue> getStreams() {
+		return streams;
+	}
+
 	public Set<Binding> getBindings() {
 		return bindings;
 	}
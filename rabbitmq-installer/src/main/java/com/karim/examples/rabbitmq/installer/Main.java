@@ -35,7 +35,10 @@ public class Main {
 		}
 		String baseUrl = "http://" + host + ":" + port + "/api/";
 		
-		AMQPConfiguration AMQPConfiguration = new AMQPConfiguration(baseUrl, username, password, vHost, includeUsersAndPermissionsDefinition, configFiles);
+		// -Dinstaller.mode=resources declares the resources one by one instead of importing the definitions
+		boolean importDefinitions = !"resources".equals(System.getProperty("installer.mode"));
+		
+		AMQPConfiguration AMQPConfiguration = new AMQPConfiguration(baseUrl, username, password, vHost, includeUsersAndPermissionsDefinition, configFiles, importDefinitions);
 		AMQPConfiguration.install();	
 	}
 }
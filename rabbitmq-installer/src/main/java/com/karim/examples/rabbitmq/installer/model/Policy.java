@@ -1,5 +1,8 @@
 package com.karim.examples.rabbitmq.installer.model;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class Policy {
 	private String name;
 	private String properties;
@@ -9,6 +12,25 @@ public class Policy {
 		this.properties = properties;
 	}
 
+	/**
+	 * A policy applied to the queues, declared by options, see {@link QueueArguments}
+	 * 
+	 * @param name			the policy name
+	 * @param pattern		the regular expression of the queue names
+	 * @param priority		the policy priority, the highest applies if more than one matches
+	 * @param definition	the policy definition
+	 */
+	public Policy(String name, String pattern, long priority, Map<String, Object> definition) {
+		this.name = name;
+		
+		Map<String, Object> policy = new LinkedHashMap<String, Object>();
+		policy.put("pattern", pattern);
+		policy.put("definition", definition);
+		policy.put("priority", priority);
+		policy.put("apply-to", "queues");
+		this.properties = QueueArguments.toJson(policy);
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -1,14 +1,39 @@
 package com.karim.examples.rabbitmq.installer.model;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 public class Queue {
 	private String name;
 	private String properties;
+	// Queue type and x- arguments if declared by options, null if declared by its JSON
+	private String type;
+	private Map<String, Object> arguments;
 
 	public Queue(String name, String properties) {
 		this.name = name;
 		this.properties = properties;
 	}
 
+	/**
+	 * A durable queue declared by its x- arguments, see {@link QueueArguments}
+	 * 
+	 * @param name		the queue name
+	 * @param arguments	the queue x- arguments, x-queue-type if not a classic queue
+	 */
+	public Queue(String name, Map<String, Object> arguments) {
+		this.name = name;
+		this.arguments = arguments;
+		this.type = arguments.containsKey("x-queue-type")? 
+				String.valueOf(arguments.get("x-queue-type")) : QueueArguments.CLASSIC;
+		
+		Map<String, Object> declaration = new LinkedHashMap<String, Object>();
+		declaration.put("auto_delete", false);
+		declaration.put("durable", true);
+		declaration.put("arguments", arguments);
+		this.properties = QueueArguments.toJson(declaration);
+	}
+
 	public String getName() {
 		return name;
 	}
@@ -24,6 +49,14 @@ public class Queue {
 	public void setProperties(String properties) {
 		this.properties = properties;
 	}
+
+	public String getType() {
+		return type;
+	}
+
+	public Map<String, Object> getArguments() {
+		return arguments;
+	}
 	
 	@Override
 	public int hashCode() {
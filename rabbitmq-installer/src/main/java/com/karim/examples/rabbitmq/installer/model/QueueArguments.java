@@ -0,0 +1,247 @@
+package com.karim.examples.rabbitmq.installer.model;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Validated queue options, declared as comma separated name=value pairs instead of the
+ * queue JSON, e.g. <code>type=quorum,max-length-bytes=1073741824,overflow=reject-publish</code>.
+ * The options may start by <code>@template</code> to use the options of a template, and
+ * override them.
+ *
+ * The options are converted to the x- arguments of a queue declaration, or to the
+ * definition of a policy applied to the queues. The options not supported by the queue
+ * type are rejected, as the broker would ignore them or fail the declaration.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public final class QueueArguments {
+	// Queue types
+	public static final String CLASSIC = "classic";
+	public static final String QUORUM = "quorum";
+	public static final String STREAM = "stream";
+
+	// Options of a policy only
+	public static final String PATTERN = "pattern";
+	public static final String PRIORITY = "priority";
+
+	private static final String TYPE = "type";
+	private static final String MODE = "mode";
+	private static final String OVERFLOW = "overflow";
+	private static final String MAX_LENGTH = "max-length";
+	private static final String MAX_LENGTH_BYTES = "max-length-bytes";
+
+	// Supported options by name
+	private static final Map<String, Option> OPTIONS = new LinkedHashMap<String, Option>();
+
+	static {
+		OPTIONS.put(TYPE, new Option("x-queue-type", null, Kind.TEXT, CLASSIC, QUORUM));
+		OPTIONS.put(MODE, new Option("x-queue-mode", "queue-mode", Kind.TEXT, "default", "lazy"));
+		OPTIONS.put(MAX_LENGTH, new Option("x-max-length", MAX_LENGTH, Kind.NUMBER));
+		OPTIONS.put(MAX_LENGTH_BYTES, new Option("x-max-length-bytes", MAX_LENGTH_BYTES, Kind.NUMBER));
+		OPTIONS.put(OVERFLOW, new Option("x-overflow", OVERFLOW, Kind.TEXT, "drop-head", "reject-publish", "reject-publish-dlx"));
+		OPTIONS.put("message-ttl", new Option("x-message-ttl", "message-ttl", Kind.NUMBER));
+		OPTIONS.put("expires", new Option("x-expires", "expires", Kind.NUMBER));
+		OPTIONS.put("dead-letter-exchange", new Option("x-dead-letter-exchange", "dead-letter-exchange", Kind.TEXT));
+		OPTIONS.put("dead-letter-routing-key", new Option("x-dead-letter-routing-key", "dead-letter-routing-key", Kind.TEXT));
+		OPTIONS.put("delivery-limit", new Option("x-delivery-limit", "delivery-limit", Kind.NUMBER));
+		OPTIONS.put("initial-cluster-size", new Option("x-quorum-initial-group-size", null, Kind.NUMBER));
+		OPTIONS.put(PATTERN, new Option(null, null, Kind.TEXT));
+		OPTIONS.put(PRIORITY, new Option(null, null, Kind.NUMBER));
+	}
+
+	// Options supported by the classic queues only
+	private static final Set<String> CLASSIC_ONLY = new HashSet<String>(Arrays.asList(MODE));
+	// Options supported by the quorum queues only
+	private static final Set<String> QUORUM_ONLY = new HashSet<String>(Arrays.asList("delivery-limit", "initial-cluster-size"));
+
+	private QueueArguments() {
+	}
+
+	/**
+	 * Parse the options over the defaults, the options of a template referenced by
+	 * <code>@name</code> override the defaults, and the options after it override the template.
+	 *
+	 * @param owner		the queue or policy name, used by the error messages
+	 * @param value		the comma separated options
+	 * @param defaults	the default options, or null
+	 * @param templates	the options of the templates by name
+	 * @return the options by name
+	 * @throws IOException if an option or template is not valid
+	 */
+	public static Map<String, String> parse(String owner,
+			String value,
+			Map<String, String> defaults,
+			Map<String, Map<String, String>> templates) throws IOException {
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		if(defaults != null)
+			options.putAll(defaults);
+
+		// The regular expressions of the patterns may have commas, split before the next name only
+		for(String option : value.split(",(?=\\s*(@|[a-z-]+=))")) {
+			option = option.trim();
+			if(option.isEmpty())
+				continue;
+
+			if(option.startsWith("@")) {
+				Map<String, String> template = templates.get(option.substring(1));
+				if(template == null)
+					throw new IOException("Unknown template " + option + " for " + owner);
+				options.putAll(template);
+				continue;
+			}
+
+			int separator = option.indexOf('=');
+			String name = separator < 0? option : option.substring(0, separator).trim();
+			Option definition = OPTIONS.get(name);
+			if(separator < 0 || definition == null)
+				throw new IOException("Wrong option " + option + " for " + owner + ", expected one of " + OPTIONS.keySet());
+
+			String optionValue = option.substring(separator + 1).trim();
+			definition.validate(owner, name, optionValue);
+			options.put(name, optionValue);
+		}
+		return options;
+	}
+
+	/**
+	 * @param owner		the queue name, used by the error messages
+	 * @param options	the parsed options
+	 * @return the x- arguments of the queue declaration
+	 * @throws IOException if the options are not valid for the queue type
+	 */
+	public static Map<String, Object> toQueueArguments(String owner, Map<String, String> options) throws IOException {
+		if(options.containsKey(PATTERN) || options.containsKey(PRIORITY))
+			throw new IOException("pattern and priority are policy options, not valid for queue " + owner);
+
+		String type = options.containsKey(TYPE)? options.get(TYPE) : CLASSIC;
+		validate(owner, type, options);
+
+		Map<String, Object> arguments = new LinkedHashMap<String, Object>();
+		for(Map.Entry<String, String> option : options.entrySet()) {
+			Option definition = OPTIONS.get(option.getKey());
+			// The classic type is the default, not declared to stay equivalent to the existing queues
+			if(option.getKey().equals(TYPE) && option.getValue().equals(CLASSIC))
+				continue;
+			arguments.put(definition.argument, definition.convert(option.getValue()));
+		}
+		return arguments;
+	}
+
+	/**
+	 * @param owner		the policy name, used by the error messages
+	 * @param options	the parsed options
+	 * @return the definition of the policy
+	 * @throws IOException if the options are not valid for a policy
+	 */
+	public static Map<String, Object> toPolicyDefinition(String owner, Map<String, String> options) throws IOException {
+		if(!options.containsKey(PATTERN))
+			throw new IOException("Missing pattern for policy " + owner);
+
+		Map<String, Object> definition = new LinkedHashMap<String, Object>();
+		for(Map.Entry<String, String> option : options.entrySet()) {
+			Option optionDefinition = OPTIONS.get(option.getKey());
+			if(option.getKey().equals(PATTERN) || option.getKey().equals(PRIORITY))
+				continue;
+			if(optionDefinition.policyKey == null)
+				throw new IOException(option.getKey() + " can't be set by policy " + owner + ", declare it on the queues");
+			definition.put(optionDefinition.policyKey, optionDefinition.convert(option.getValue()));
+		}
+		if(definition.isEmpty())
+			throw new IOException("Empty definition for policy " + owner);
+
+		validate(owner, null, options);
+		return definition;
+	}
+
+	// Validate the options together, type is null for a policy applied to any queue type
+	private static void validate(String owner, String type, Map<String, String> options) throws IOException {
+		for(String option : options.keySet()) {
+			if(QUORUM.equals(type) && CLASSIC_ONLY.contains(option))
+				throw new IOException(option + " is not supported by the quorum queue " + owner + ", quorum queues are kept on disk");
+			if(CLASSIC.equals(type) && QUORUM_ONLY.contains(option))
+				throw new IOException(option + " is only supported by the quorum queues, not by " + owner);
+		}
+
+		if(QUORUM.equals(type) && "reject-publish-dlx".equals(options.get(OVERFLOW)))
+			throw new IOException("overflow reject-publish-dlx is not supported by the quorum queue " + owner);
+
+		if(options.containsKey(OVERFLOW) && !options.containsKey(MAX_LENGTH) && !options.containsKey(MAX_LENGTH_BYTES))
+			throw new IOException("overflow needs max-length or max-length-bytes for " + owner);
+	}
+
+	/**
+	 * @param values the JSON object entries, the values are strings, numbers or nested maps
+	 * @return the JSON object
+	 */
+	public static String toJson(Map<String, Object> values) {
+		StringBuilder json = new StringBuilder("{");
+		for(Map.Entry<String, Object> value : values.entrySet()) {
+			if(json.length() > 1)
+				json.append(",");
+			json.append(quote(value.getKey())).append(":");
+
+			if(value.getValue() instanceof Map) {
+				@SuppressWarnings("unchecked")
+				Map<String, Object> nested = (Map<String, Object>) value.getValue();
+				json.append(toJson(nested));
+			} else if(value.getValue() instanceof Number || value.getValue() instanceof Boolean) {
+				json.append(value.getValue());
+			} else {
+				json.append(quote(String.valueOf(value.getValue())));
+			}
+		}
+		return json.append("}").toString();
+	}
+
+	private static String quote(String value) {
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	////////////////////////////////////////
+	private enum Kind {
+		TEXT, NUMBER
+	}
+
+	private static final class Option {
+		// Queue declaration argument, null if not a queue argument
+		private final String argument;
+		// Policy definition key, null if can't be set by a policy
+		private final String policyKey;
+		private final Kind kind;
+		// Allowed values, empty for any
+		private final Set<String> values;
+
+		private Option(String argument, String policyKey, Kind kind, String... values) {
+			this.argument = argument;
+			this.policyKey = policyKey;
+			this.kind = kind;
+			this.values = new HashSet<String>(Arrays.asList(values));
+		}
+
+		private void validate(String owner, String name, String value) throws IOException {
+			if(value.isEmpty())
+				throw new IOException("Empty " + name + " for " + owner);
+			if(!values.isEmpty() && !values.contains(value))
+				throw new IOException("Wrong " + name + " " + value + " for " + owner + ", expected one of " + values);
+
+			if(kind == Kind.NUMBER) {
+				try {
+					if(Long.parseLong(value) < 0)
+						throw new NumberFormatException();
+				} catch (NumberFormatException e) {
+					throw new IOException("Wrong " + name + " " + value + " for " + owner + ", expected a non-negative number");
+				}
+			}
+		}
+
+		private Object convert(String value) {
+			return kind == Kind.NUMBER? (Object) Long.valueOf(value) : value;
+		}
+	}
+}
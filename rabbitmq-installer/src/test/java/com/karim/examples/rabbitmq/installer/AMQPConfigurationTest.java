@@ -0,0 +1,65 @@
+package com.karim.examples.rabbitmq.installer;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.karim.examples.rabbitmq.broker.EmbeddedBroker;
+
+/**
+ * {@link AMQPConfiguration#install()} of the app1-app2 configuration against the management
+ * API of an embedded broker, by the definitions import and by a request per resource.
+ *
+ * @author Karim Abd ElKareem
+ * @since 1.0
+ */
+public class AMQPConfigurationTest {
+	private static final String CONFIGURATION = "app1-app2";
+
+	private EmbeddedBroker broker;
+
+	@Before
+	public void startBroker() throws IOException {
+		broker = new EmbeddedBroker(0, 0).start();
+	}
+
+	@After
+	public void stopBroker() {
+		broker.stop();
+	}
+
+	@Test
+	public void installByImport() {
+		install(true);
+
+		assertInstalled();
+	}
+
+	@Test
+	public void installByResources() {
+		install(false);
+
+		assertInstalled();
+	}
+
+	private void install(boolean importDefinitions) {
+		new AMQPConfiguration("http://localhost:" + broker.getManagementPort() + "/api/",
+				"guest",
+				"guest",
+				"%2F",
+				"false",
+				Arrays.asList(CONFIGURATION),
+				importDefinitions).install();
+	}
+
+	private void assertInstalled() {
+		assertTrue(broker.hasExchange(EmbeddedBroker.DEFAULT_VIRTUAL_HOST, "companyName.ex.app2"));
+		assertTrue(broker.hasQueue(EmbeddedBroker.DEFAULT_VIRTUAL_HOST, "companyName.qu.app2.AddItem"));
+		assertTrue(broker.hasQueue(EmbeddedBroker.DEFAULT_VIRTUAL_HOST, "companyName.global.qu.dead-letter"));
+	}
+}